@@ -25,8 +25,16 @@ import micheal65536.vienna.apiserver.routing.Application;
 import micheal65536.vienna.apiserver.routing.Router;
 import micheal65536.vienna.apiserver.utils.BuildplateInstanceRequestHandler;
 import micheal65536.vienna.apiserver.utils.BuildplateInstancesManager;
+import micheal65536.vienna.db.BinaryValueCodec;
 import micheal65536.vienna.db.DatabaseException;
 import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.SQLiteStorage;
+import micheal65536.vienna.db.ShardedStorage;
+import micheal65536.vienna.db.Storage;
+import micheal65536.vienna.db.Sweeper;
+import micheal65536.vienna.db.model.global.EncounterBuildplates;
+import micheal65536.vienna.db.model.global.SharedBuildplates;
+import micheal65536.vienna.db.model.player.RedeemedTappables;
 import micheal65536.vienna.eventbus.client.EventBusClient;
 import micheal65536.vienna.eventbus.client.EventBusClientException;
 import micheal65536.vienna.objectstore.client.ObjectStoreClient;
@@ -37,6 +45,9 @@ import micheal65536.vienna.staticdata.StaticDataException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
 
 public class Main
 {
@@ -56,7 +67,29 @@ public class Main
 				.option("db")
 				.hasArg()
 				.argName("db")
-				.desc("Database path, defaults to ./earth.db")
+				.desc("Database path, defaults to ./earth.db, multiple comma-separated paths spread player data across several databases with global data kept in the first")
+				.build());
+		options.addOption(Option.builder()
+				.option("dbGroupCommit")
+				.desc("Commit concurrent database writes together in one transaction")
+				.build());
+		options.addOption(Option.builder()
+				.option("dbBinaryValues")
+				.desc("Store database values in binary format instead of JSON")
+				.build());
+		options.addOption(Option.builder()
+				.option("dbCacheSize")
+				.hasArg()
+				.argName("megabytes")
+				.type(Number.class)
+				.desc("Size of the database object cache in megabytes, defaults to 0 (disabled)")
+				.build());
+		options.addOption(Option.builder()
+				.option("dbSweepRate")
+				.hasArg()
+				.argName("objects")
+				.type(Number.class)
+				.desc("Number of objects per second checked for expired data in the background, defaults to 1000, 0 disables the sweeper")
 				.build());
 		options.addOption(Option.builder()
 				.option("staticData")
@@ -79,6 +112,10 @@ public class Main
 		CommandLine commandLine;
 		int httpPort;
 		String dbConnectionString;
+		boolean dbGroupCommit;
+		boolean dbBinaryValues;
+		long dbCacheSize;
+		int dbSweepRate;
 		String staticDataPath;
 		String eventBusConnectionString;
 		String objectStoreConnectionString;
@@ -87,6 +124,10 @@ public class Main
 			commandLine = new DefaultParser().parse(options, args);
 			httpPort = commandLine.hasOption("port") ? (int) (long) commandLine.getParsedOptionValue("port") : 8080;
 			dbConnectionString = commandLine.hasOption("db") ? commandLine.getOptionValue("db") : "./earth.db";
+			dbGroupCommit = commandLine.hasOption("dbGroupCommit");
+			dbBinaryValues = commandLine.hasOption("dbBinaryValues");
+			dbCacheSize = commandLine.hasOption("dbCacheSize") ? (long) commandLine.getParsedOptionValue("dbCacheSize") * 1024 * 1024 : 0;
+			dbSweepRate = commandLine.hasOption("dbSweepRate") ? (int) (long) commandLine.getParsedOptionValue("dbSweepRate") : 1000;
 			staticDataPath = commandLine.hasOption("staticData") ? commandLine.getOptionValue("staticData") : "./data";
 			eventBusConnectionString = commandLine.hasOption("eventbus") ? commandLine.getOptionValue("eventbus") : "localhost:5532";
 			objectStoreConnectionString = commandLine.hasOption("objectstore") ? commandLine.getOptionValue("objectstore") : "localhost:5396";
@@ -116,7 +157,19 @@ public class Main
 		EarthDB earthDB;
 		try
 		{
-			earthDB = EarthDB.open(dbConnectionString);
+			EarthDB.Options dbOptions = new EarthDB.Options().groupCommit(dbGroupCommit).cacheSize(dbCacheSize);
+			if (dbBinaryValues)
+			{
+				dbOptions.valueCodec(BinaryValueCodec::new);
+			}
+			String[] dbConnectionStrings = dbConnectionString.split(",");
+			earthDB = dbConnectionStrings.length > 1 ? EarthDB.openSharded(Arrays.asList(dbConnectionStrings), dbOptions) : EarthDB.open(dbConnectionString, dbOptions);
+			if (dbBinaryValues)
+			{
+				earthDB.internStrings(BinaryValueCodec.getModelStrings());
+				earthDB.internStrings(Arrays.stream(staticData.catalog.itemsCatalog.items).map(item -> item.id()).toArray(String[]::new));
+			}
+			migrateBuildplateEntries(earthDB);
 		}
 		catch (DatabaseException exception)
 		{
@@ -126,11 +179,17 @@ public class Main
 		}
 		LogManager.getLogger().info("Connected to database");
 
+		if (dbSweepRate > 0)
+		{
+			startSweepers(earthDB, dbSweepRate);
+		}
+
 		LogManager.getLogger().info("Connecting to event bus");
 		EventBusClient eventBusClient;
 		try
 		{
-			eventBusClient = EventBusClient.create(eventBusConnectionString);
+			// reconnecting keeps the subscribers and caches across restarts of the event bus server, instead of the subscribers' errors shutting this down
+			eventBusClient = EventBusClient.create(eventBusConnectionString, new EventBusClient.Options().reconnect(true));
 		}
 		catch (EventBusClientException exception)
 		{
@@ -159,6 +218,74 @@ public class Main
 		startServer(httpPort, application);
 	}
 
+	// shared and encounter buildplates used to be stored all together in one object each, move them to separate entries
+	private static void migrateBuildplateEntries(@NotNull EarthDB earthDB) throws DatabaseException
+	{
+		EarthDB.Results results = new EarthDB.Query(true)
+				.get("sharedBuildplates", "", SharedBuildplates.class)
+				.get("encounterBuildplates", "", EncounterBuildplates.class)
+				.then(results1 ->
+				{
+					HashMap<String, SharedBuildplates.SharedBuildplate> sharedBuildplates = ((SharedBuildplates) results1.get("sharedBuildplates").value()).getSharedBuildplates();
+					HashMap<String, EncounterBuildplates.EncounterBuildplate> encounterBuildplates = ((EncounterBuildplates) results1.get("encounterBuildplates").value()).getEncounterBuildplates();
+
+					EarthDB.Query query = new EarthDB.Query(true);
+					if (!sharedBuildplates.isEmpty())
+					{
+						sharedBuildplates.forEach((id, sharedBuildplate) -> query.putEntry("sharedBuildplates", "", id, sharedBuildplate));
+						query.update("sharedBuildplates", "", new SharedBuildplates());
+					}
+					if (!encounterBuildplates.isEmpty())
+					{
+						encounterBuildplates.forEach((id, encounterBuildplate) -> query.putEntry("encounterBuildplates", "", id, encounterBuildplate));
+						query.update("encounterBuildplates", "", new EncounterBuildplates());
+					}
+					query.extra("sharedBuildplates", sharedBuildplates.size());
+					query.extra("encounterBuildplates", encounterBuildplates.size());
+					return query;
+				})
+				.execute(earthDB);
+		int sharedBuildplates = results.getExtra("sharedBuildplates");
+		int encounterBuildplates = results.getExtra("encounterBuildplates");
+		if (sharedBuildplates > 0 || encounterBuildplates > 0)
+		{
+			LogManager.getLogger().info("Migrated {} shared buildplates and {} encounter buildplates to separate entries", sharedBuildplates, encounterBuildplates);
+		}
+	}
+
+	private static void startSweepers(@NotNull EarthDB earthDB, int objectsPerSecond)
+	{
+		Storage storage = earthDB.getStorage();
+		Storage[] shards = storage instanceof ShardedStorage shardedStorage ? IntStream.range(0, shardedStorage.getShardCount()).mapToObj(shardedStorage::getShard).toArray(Storage[]::new) : new Storage[]{storage};
+		for (int index = 0; index < shards.length; index++)
+		{
+			int shardIndex = index;
+			Sweeper.Options sweeperOptions = new Sweeper.Options().maxObjectsPerSecond(objectsPerSecond).listener(new Sweeper.Listener()
+			{
+				@Override
+				public void passCompleted(long objectsScanned, long objectsPruned, long timeMillis)
+				{
+					LogManager.getLogger().info("Database {} sweep completed, checked {} objects and pruned {} in {} ms", shardIndex, objectsScanned, objectsPruned, timeMillis);
+				}
+
+				@Override
+				public void vacuumCompleted(long bytesReclaimed, long timeMillis)
+				{
+					LogManager.getLogger().info("Database {} vacuum completed, reclaimed {} bytes in {} ms", shardIndex, bytesReclaimed, timeMillis);
+				}
+
+				@Override
+				public void error(@NotNull DatabaseException exception)
+				{
+					LogManager.getLogger().warn("Database {} sweep failed", shardIndex, exception);
+				}
+			});
+			new Sweeper((SQLiteStorage) shards[index], sweeperOptions)
+					.addRule("redeemedTappables", RedeemedTappables.class, RedeemedTappables::prune)
+					.start();
+		}
+	}
+
 	@NotNull
 	private static Application buildApplication(@NotNull EarthDB earthDB, @NotNull StaticData staticData, @NotNull EventBusClient eventBusClient, @NotNull ObjectStoreClient objectStoreClient)
 	{
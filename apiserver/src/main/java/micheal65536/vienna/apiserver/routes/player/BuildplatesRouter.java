@@ -39,6 +39,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.stream.IntStream;
 
 public class BuildplatesRouter extends Router
 {
@@ -66,9 +67,12 @@ public class BuildplatesRouter extends Router
 				throw new ServerErrorException(exception);
 			}
 
-			OwnedBuildplate[] ownedBuildplates = Arrays.stream(buildplatesModel.getBuildplates()).map(buildplateEntry ->
+			Buildplates.BuildplateEntry[] buildplateEntries = buildplatesModel.getBuildplates();
+			byte[][] previews = objectStoreClient.getAll(Arrays.stream(buildplateEntries).map(buildplateEntry -> buildplateEntry.buildplate().previewObjectId).toArray(String[]::new)).join();
+			OwnedBuildplate[] ownedBuildplates = IntStream.range(0, buildplateEntries.length).mapToObj(index ->
 			{
-				byte[] previewData = objectStoreClient.get(buildplateEntry.buildplate().previewObjectId).join();
+				Buildplates.BuildplateEntry buildplateEntry = buildplateEntries[index];
+				byte[] previewData = previews[index];
 				if (previewData == null)
 				{
 					LogManager.getLogger().error("Preview object {} for buildplate {} could not be loaded from object store", buildplateEntry.buildplate().previewObjectId, buildplateEntry.id());
@@ -146,16 +150,11 @@ public class BuildplatesRouter extends Router
 				return Response.notFound();
 			}
 
-			byte[] serverData = objectStoreClient.get(buildplate.serverDataObjectId).join();
-			if (serverData == null)
-			{
-				LogManager.getLogger().error("Data object {} for buildplate {} could not be loaded from object store", buildplate.serverDataObjectId, buildplateId);
-				return Response.serverError();
-			}
-			String sharedBuildplateServerDataObjectId = objectStoreClient.store(serverData).join();
+			// the object store copies the data itself, so it does not need to be sent back and forth
+			String sharedBuildplateServerDataObjectId = objectStoreClient.copy(buildplate.serverDataObjectId).join();
 			if (sharedBuildplateServerDataObjectId == null)
 			{
-				LogManager.getLogger().error("Could not store data object for shared buildplate in object store");
+				LogManager.getLogger().error("Could not copy data object {} for buildplate {} in object store", buildplate.serverDataObjectId, buildplateId);
 				return Response.serverError();
 			}
 
@@ -191,17 +190,8 @@ public class BuildplatesRouter extends Router
 
 			try
 			{
-				EarthDB.Results results = new EarthDB.Query(true)
-						.get("sharedBuildplates", "", SharedBuildplates.class)
-						.then(results1 ->
-						{
-							SharedBuildplates sharedBuildplates = (SharedBuildplates) results1.get("sharedBuildplates").value();
-
-							sharedBuildplates.addSharedBuildplate(sharedBuildplateId, sharedBuildplate);
-
-							return new EarthDB.Query(true)
-									.update("sharedBuildplates", "", sharedBuildplates);
-						})
+				new EarthDB.Query(true)
+						.putEntry("sharedBuildplates", "", sharedBuildplateId, sharedBuildplate)
 						.execute(earthDB);
 			}
 			catch (DatabaseException exception)
@@ -222,10 +212,10 @@ public class BuildplatesRouter extends Router
 			try
 			{
 				EarthDB.Results results = new EarthDB.Query(false)
-						.get("sharedBuildplates", "", SharedBuildplates.class)
+						.getEntry("sharedBuildplates", "", sharedBuildplateId, SharedBuildplates.SharedBuildplate.class)
 						.execute(earthDB);
-				SharedBuildplates sharedBuildplates = (SharedBuildplates) results.get("sharedBuildplates").value();
-				sharedBuildplate = sharedBuildplates.getSharedBuildplate(sharedBuildplateId);
+				EarthDB.Results.Result<SharedBuildplates.SharedBuildplate> sharedBuildplateResult = results.getEntry("sharedBuildplates");
+				sharedBuildplate = sharedBuildplateResult != null ? sharedBuildplateResult.value() : null;
 			}
 			catch (DatabaseException exception)
 			{
@@ -429,9 +419,10 @@ public class BuildplatesRouter extends Router
 		try
 		{
 			EarthDB.Results results = new EarthDB.Query(false)
-					.get("sharedBuildplates", "", SharedBuildplates.class)
+					.getEntry("sharedBuildplates", "", sharedBuildplateId, SharedBuildplates.SharedBuildplate.class)
 					.execute(this.earthDB);
-			sharedBuildplate = ((SharedBuildplates) results.get("sharedBuildplates").value()).getSharedBuildplate(sharedBuildplateId);
+			EarthDB.Results.Result<SharedBuildplates.SharedBuildplate> sharedBuildplateResult = results.getEntry("sharedBuildplates");
+			sharedBuildplate = sharedBuildplateResult != null ? sharedBuildplateResult.value() : null;
 		}
 		catch (DatabaseException exception)
 		{
@@ -575,9 +566,10 @@ public class BuildplatesRouter extends Router
 				try
 				{
 					EarthDB.Results results = new EarthDB.Query(false)
-							.get("sharedBuildplates", "", SharedBuildplates.class)
+							.getEntry("sharedBuildplates", "", instanceInfo.buildplateId(), SharedBuildplates.SharedBuildplate.class)
 							.execute(this.earthDB);
-					sharedBuildplate = ((SharedBuildplates) results.get("sharedBuildplates").value()).getSharedBuildplate(instanceInfo.buildplateId());
+					EarthDB.Results.Result<SharedBuildplates.SharedBuildplate> sharedBuildplateResult = results.getEntry("sharedBuildplates");
+					sharedBuildplate = sharedBuildplateResult != null ? sharedBuildplateResult.value() : null;
 				}
 				catch (DatabaseException exception)
 				{
@@ -597,9 +589,10 @@ public class BuildplatesRouter extends Router
 				try
 				{
 					EarthDB.Results results = new EarthDB.Query(false)
-							.get("encounterBuildplates", "", EncounterBuildplates.class)
+							.getEntry("encounterBuildplates", "", instanceInfo.buildplateId(), EncounterBuildplates.EncounterBuildplate.class)
 							.execute(this.earthDB);
-					encounterBuildplate = ((EncounterBuildplates) results.get("encounterBuildplates").value()).getEncounterBuildplate(instanceInfo.buildplateId());
+					EarthDB.Results.Result<EncounterBuildplates.EncounterBuildplate> encounterBuildplateResult = results.getEntry("encounterBuildplates");
+					encounterBuildplate = encounterBuildplateResult != null ? encounterBuildplateResult.value() : null;
 				}
 				catch (DatabaseException exception)
 				{
@@ -125,6 +125,7 @@ public class TappablesRouter extends Router
 			{
 				String playerId = request.getContextData("playerId");
 				EarthDB.Results results = new EarthDB.Query(true)
+						.optimistic()
 						.get("redeemedTappables", playerId, RedeemedTappables.class)
 						.get("boosts", playerId, Boosts.class)
 						.then(results1 ->
@@ -175,7 +176,6 @@ public class TappablesRouter extends Router
 							rewards.addRubies(1);    // TODO
 
 							redeemedTappables.add(tappable.id(), tappable.spawnTime() + tappable.validFor());
-							redeemedTappables.prune(request.timestamp);
 
 							query.update("redeemedTappables", playerId, redeemedTappables);
 							query.then(ActivityLogUtils.addEntry(playerId, new ActivityLog.TappableEntry(request.timestamp, rewards.toDBRewardsModel())));
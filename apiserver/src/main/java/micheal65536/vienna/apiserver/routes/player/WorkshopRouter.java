@@ -175,6 +175,7 @@ public class WorkshopRouter extends Router
 			{
 				String playerId = request.getContextData("playerId");
 				EarthDB.Results results = new EarthDB.Query(true)
+						.optimistic()
 						.get("crafting", playerId, CraftingSlots.class)
 						.get("inventory", playerId, Inventory.class)
 						.get("hotbar", playerId, Hotbar.class)
@@ -10,17 +10,8 @@ public final class ActivityLogUtils
 	@NotNull
 	public static EarthDB.Query addEntry(@NotNull String playerId, @NotNull ActivityLog.Entry entry)
 	{
-		EarthDB.Query getQuery = new EarthDB.Query(true);
-		getQuery.get("activityLog", playerId, ActivityLog.class);
-		getQuery.then(results ->
-		{
-			ActivityLog activityLog = (ActivityLog) results.get("activityLog").value();
-			activityLog.addEntry(entry);
-			activityLog.prune();
-			EarthDB.Query updateQuery = new EarthDB.Query(true);
-			updateQuery.update("activityLog", playerId, activityLog);
-			return updateQuery;
-		});
-		return getQuery;
+		EarthDB.Query updateQuery = new EarthDB.Query(true);
+		updateQuery.append("activityLog", playerId, ActivityLog.class, new ActivityLog.AddEntryDelta(entry));
+		return updateQuery;
 	}
 }
\ No newline at end of file
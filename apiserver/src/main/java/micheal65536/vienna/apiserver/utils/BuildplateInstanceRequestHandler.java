@@ -274,11 +274,11 @@ public final class BuildplateInstanceRequestHandler
 	private BuildplateLoadResponse handleLoadShared(@NotNull String sharedBuildplateId) throws DatabaseException
 	{
 		EarthDB.Results results = new EarthDB.Query(false)
-				.get("sharedBuildplates", "", SharedBuildplates.class)
+				.getEntry("sharedBuildplates", "", sharedBuildplateId, SharedBuildplates.SharedBuildplate.class)
 				.execute(this.earthDB);
-		SharedBuildplates sharedBuildplates = (SharedBuildplates) results.get("sharedBuildplates").value();
+		EarthDB.Results.Result<SharedBuildplates.SharedBuildplate> sharedBuildplateResult = results.getEntry("sharedBuildplates");
 
-		SharedBuildplates.SharedBuildplate sharedBuildplate = sharedBuildplates.getSharedBuildplate(sharedBuildplateId);
+		SharedBuildplates.SharedBuildplate sharedBuildplate = sharedBuildplateResult != null ? sharedBuildplateResult.value() : null;
 		if (sharedBuildplate == null)
 		{
 			return null;
@@ -299,11 +299,11 @@ public final class BuildplateInstanceRequestHandler
 	private BuildplateLoadResponse handleLoadEncounter(@NotNull String encounterBuildplateId) throws DatabaseException
 	{
 		EarthDB.Results results = new EarthDB.Query(false)
-				.get("encounterBuildplates", "", EncounterBuildplates.class)
+				.getEntry("encounterBuildplates", "", encounterBuildplateId, EncounterBuildplates.EncounterBuildplate.class)
 				.execute(this.earthDB);
-		EncounterBuildplates encounterBuildplates = (EncounterBuildplates) results.get("encounterBuildplates").value();
+		EarthDB.Results.Result<EncounterBuildplates.EncounterBuildplate> encounterBuildplateResult = results.getEntry("encounterBuildplates");
 
-		EncounterBuildplates.EncounterBuildplate encounterBuildplate = encounterBuildplates.getEncounterBuildplate(encounterBuildplateId);
+		EncounterBuildplates.EncounterBuildplate encounterBuildplate = encounterBuildplateResult != null ? encounterBuildplateResult.value() : null;
 		if (encounterBuildplate == null)
 		{
 			return null;
@@ -499,10 +499,10 @@ public final class BuildplateInstanceRequestHandler
 			case SHARED_BUILD, SHARED_PLAY ->
 			{
 				EarthDB.Results results = new EarthDB.Query(false)
-						.get("sharedBuildplates", "", SharedBuildplates.class)
+						.getEntry("sharedBuildplates", "", instanceInfo.buildplateId(), SharedBuildplates.SharedBuildplate.class)
 						.execute(this.earthDB);
-				SharedBuildplates sharedBuildplates = (SharedBuildplates) results.get("sharedBuildplates").value();
-				SharedBuildplates.SharedBuildplate sharedBuildplate = sharedBuildplates.getSharedBuildplate(instanceInfo.buildplateId());
+				EarthDB.Results.Result<SharedBuildplates.SharedBuildplate> sharedBuildplateResult = results.getEntry("sharedBuildplates");
+				SharedBuildplates.SharedBuildplate sharedBuildplate = sharedBuildplateResult != null ? sharedBuildplateResult.value() : null;
 				if (sharedBuildplate == null)
 				{
 					return null;
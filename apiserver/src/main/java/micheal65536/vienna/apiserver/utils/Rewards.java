@@ -86,7 +86,6 @@ public final class Rewards
 		}
 		if (!this.items.isEmpty())
 		{
-			getQuery.get("inventory", playerId, Inventory.class);
 			getQuery.get("journal", playerId, Journal.class);
 		}
 		if (!this.buildplates.isEmpty())
@@ -98,9 +97,10 @@ public final class Rewards
 			// TODO
 		}
 
-		EarthDB.Query updateQuery = new EarthDB.Query(true);
 		getQuery.then(results ->
 		{
+			EarthDB.Query updateQuery = new EarthDB.Query(true);
+
 			boolean checkLevelUp = false;
 			if (this.rubies > 0 || this.experiencePoints > 0)
 			{
@@ -123,7 +123,7 @@ public final class Rewards
 
 			if (!this.items.isEmpty())
 			{
-				Inventory inventory = (Inventory) results.get("inventory").value();
+				// the inventory and journal are large and only a few items change, so only the changes are stored
 				Journal journal = (Journal) results.get("journal").value();
 				for (Map.Entry<String, Integer> entry : this.items.entrySet())
 				{
@@ -134,12 +134,13 @@ public final class Rewards
 						Catalog.ItemsCatalog.Item item = staticData.catalog.itemsCatalog.getItem(id);
 						if (item.stackable())
 						{
-							inventory.addItems(id, quantity);
+							updateQuery.append("inventory", playerId, Inventory.class, new Inventory.AddStackableItemsDelta(id, quantity));
 						}
 						else
 						{
-							inventory.addItems(id, IntStream.range(0, quantity).mapToObj(index -> new NonStackableItemInstance(UUID.randomUUID().toString(), 0)).toArray(NonStackableItemInstance[]::new));
+							updateQuery.append("inventory", playerId, Inventory.class, new Inventory.AddNonStackableItemsDelta(id, IntStream.range(0, quantity).mapToObj(index -> new NonStackableItemInstance(UUID.randomUUID().toString(), 0)).toArray(NonStackableItemInstance[]::new)));
 						}
+						updateQuery.append("journal", playerId, Journal.class, new Journal.AddCollectedItemDelta(id, currentTime, quantity));
 						if (journal.addCollectedItem(id, currentTime, quantity) == 0)
 						{
 							if (item.journalEntry() != null)
@@ -149,8 +150,6 @@ public final class Rewards
 						}
 					}
 				}
-				updateQuery.update("inventory", playerId, inventory);
-				updateQuery.update("journal", playerId, journal);
 			}
 
 			if (!this.buildplates.isEmpty())
@@ -17,6 +17,8 @@ import java.util.stream.IntStream;
 public final class TappablesManager
 {
 	private final long GRACE_PERIOD = 30000;
+	// long enough to cover anything that could still be active, older events are pruned straight away
+	private final long REPLAY_PERIOD = 60 * 60 * 1000;
 
 	private final Subscriber subscriber;
 	private final RequestSender requestSender;
@@ -27,7 +29,8 @@ public final class TappablesManager
 
 	public TappablesManager(@NotNull EventBusClient eventBusClient)
 	{
-		this.subscriber = eventBusClient.addSubscriber("tappables", new Subscriber.SubscriberListener()
+		// replays the recent spawns if the event bus keeps them, so that a restarted API server has the tappables and encounters that are already active instead of waiting for new ones to spawn
+		this.subscriber = eventBusClient.addSubscriberFromTimestamp("tappables", System.currentTimeMillis() - REPLAY_PERIOD, new Subscriber.SubscriberListener()
 		{
 			@Override
 			public void event(@NotNull Subscriber.Event event)
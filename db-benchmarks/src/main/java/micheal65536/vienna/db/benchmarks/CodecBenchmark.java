@@ -0,0 +1,88 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.db.BinaryValueCodec;
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.JsonValueCodec;
+import micheal65536.vienna.db.ValueCodec;
+import micheal65536.vienna.staticdata.StaticDataException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark
+{
+	@Param({"inventory", "journal", "activityLog"})
+	public String model;
+
+	@Param({"json", "binary"})
+	public String codec;
+
+	private TempDatabase tempDatabase;
+	private ValueCodec valueCodec;
+	private Object value;
+	private Object encoded;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, DatabaseException, StaticDataException
+	{
+		ModelGenerator modelGenerator = ModelGenerator.create(0);
+
+		this.tempDatabase = new TempDatabase(new EarthDB.Options());
+		this.tempDatabase.earthDB.internStrings(BinaryValueCodec.getModelStrings());
+		this.tempDatabase.earthDB.internStrings(modelGenerator.itemIds);
+
+		this.valueCodec = switch (this.codec)
+		{
+			case "json" -> new JsonValueCodec();
+			case "binary" -> new BinaryValueCodec(this.tempDatabase.storage.getStringTable());
+			default -> throw new IllegalArgumentException();
+		};
+		this.value = switch (this.model)
+		{
+			case "inventory" -> modelGenerator.generateInventory(300, 50, 4);
+			case "journal" -> modelGenerator.generateJournal(400);
+			case "activityLog" -> modelGenerator.generateActivityLog(40);
+			default -> throw new IllegalArgumentException();
+		};
+		this.encoded = this.valueCodec.encode(this.value);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.tempDatabase.close();
+	}
+
+	@Benchmark
+	public Object encode() throws DatabaseException
+	{
+		return this.valueCodec.encode(this.value);
+	}
+
+	@Benchmark
+	public Object decode() throws DatabaseException
+	{
+		return this.valueCodec.decode(this.encoded, this.value.getClass());
+	}
+}
@@ -0,0 +1,43 @@
+package micheal65536.vienna.db.benchmarks;
+
+import micheal65536.vienna.db.BinaryValueCodec;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.JsonValueCodec;
+import micheal65536.vienna.db.ValueCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// prints the stored row size of typical player objects with each codec, run with java -cp <jar> micheal65536.vienna.db.benchmarks.CodecSizeReport
+public class CodecSizeReport
+{
+	public static void main(String[] args) throws Exception
+	{
+		ModelGenerator modelGenerator = ModelGenerator.create(0);
+
+		LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+		values.put("inventory (small)", modelGenerator.generateInventory(30, 5, 1));
+		values.put("inventory (large)", modelGenerator.generateInventory(300, 50, 4));
+		values.put("journal (small)", modelGenerator.generateJournal(40));
+		values.put("journal (large)", modelGenerator.generateJournal(400));
+		values.put("activityLog", modelGenerator.generateActivityLog(40));
+
+		try (TempDatabase tempDatabase = new TempDatabase(new EarthDB.Options()))
+		{
+			tempDatabase.earthDB.internStrings(BinaryValueCodec.getModelStrings());
+			tempDatabase.earthDB.internStrings(modelGenerator.itemIds);
+
+			ValueCodec jsonValueCodec = new JsonValueCodec();
+			ValueCodec binaryValueCodec = new BinaryValueCodec(tempDatabase.storage.getStringTable());
+
+			System.out.printf("%-20s %10s %10s %8s%n", "model", "json", "binary", "ratio");
+			for (Map.Entry<String, Object> entry : values.entrySet())
+			{
+				int jsonSize = ((String) jsonValueCodec.encode(entry.getValue())).getBytes(StandardCharsets.UTF_8).length;
+				int binarySize = ((byte[]) binaryValueCodec.encode(entry.getValue())).length;
+				System.out.printf("%-20s %10d %10d %7.1f%%%n", entry.getKey(), jsonSize, binarySize, binarySize * 100.0 / jsonSize);
+			}
+		}
+	}
+}
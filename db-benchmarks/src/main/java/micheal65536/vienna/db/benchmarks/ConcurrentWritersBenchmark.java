@@ -0,0 +1,87 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.staticdata.StaticDataException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// measures write throughput with several threads each writing the objects of their own player, the number of threads can be changed with -t
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class ConcurrentWritersBenchmark
+{
+	@Param({"json", "binary"})
+	public String codec;
+
+	@Param({"false", "true"})
+	public boolean groupCommit;
+
+	@Param({"64"})
+	public int players;
+
+	private TempDatabase tempDatabase;
+	private ModelGenerator modelGenerator;
+	private String[] playerIds;
+	private final AtomicInteger nextPlayer = new AtomicInteger(0);
+
+	@State(Scope.Thread)
+	public static class Writer
+	{
+		private String playerId;
+
+		@Setup(Level.Trial)
+		public void setup(ConcurrentWritersBenchmark benchmark)
+		{
+			this.playerId = benchmark.playerIds[benchmark.nextPlayer.getAndIncrement() % benchmark.playerIds.length];
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, DatabaseException, StaticDataException
+	{
+		this.modelGenerator = ModelGenerator.create(0);
+		this.tempDatabase = new TempDatabase(Players.createOptions(this.codec).groupCommit(this.groupCommit));
+		this.playerIds = Players.populate(this.tempDatabase.earthDB, this.modelGenerator, this.players);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.tempDatabase.close();
+	}
+
+	@Benchmark
+	public Object readModifyWrite(Writer writer) throws DatabaseException
+	{
+		return Players.readModifyWrite(this.tempDatabase.earthDB, writer.playerId, this.modelGenerator);
+	}
+
+	@Benchmark
+	public Object bump(Writer writer) throws DatabaseException
+	{
+		return Players.bump(this.tempDatabase.earthDB, writer.playerId);
+	}
+}
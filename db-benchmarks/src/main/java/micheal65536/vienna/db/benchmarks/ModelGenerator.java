@@ -0,0 +1,170 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.model.common.NonStackableItemInstance;
+import micheal65536.vienna.db.model.common.Rewards;
+import micheal65536.vienna.db.model.global.SharedBuildplates;
+import micheal65536.vienna.db.model.player.ActivityLog;
+import micheal65536.vienna.db.model.player.Boosts;
+import micheal65536.vienna.db.model.player.Hotbar;
+import micheal65536.vienna.db.model.player.Inventory;
+import micheal65536.vienna.db.model.player.Journal;
+import micheal65536.vienna.db.model.player.Profile;
+import micheal65536.vienna.db.model.player.workshop.CraftingSlots;
+import micheal65536.vienna.staticdata.Catalog;
+import micheal65536.vienna.staticdata.StaticData;
+import micheal65536.vienna.staticdata.StaticDataException;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+
+// generates player objects of a similar size and shape to those of an active player
+public final class ModelGenerator
+{
+	private final Random random;
+	@NotNull
+	public final String[] itemIds;
+	@NotNull
+	public final String[] stackableItemIds;
+	@NotNull
+	public final String[] nonStackableItemIds;
+
+	// uses the items from the static data in the directory given by the vienna.staticData system property if it is set, so that the generated objects match those of a real server
+	@NotNull
+	public static ModelGenerator create(long seed) throws StaticDataException
+	{
+		String staticDataPath = System.getProperty("vienna.staticData");
+		if (staticDataPath == null)
+		{
+			return new ModelGenerator(seed, 500);
+		}
+		Catalog.ItemsCatalog.Item[] items = new StaticData(new File(staticDataPath)).catalog.itemsCatalog.items;
+		return new ModelGenerator(seed, Arrays.stream(items).filter(item -> item.stackable()).map(item -> item.id()).toArray(String[]::new), Arrays.stream(items).filter(item -> !item.stackable()).map(item -> item.id()).toArray(String[]::new));
+	}
+
+	public ModelGenerator(long seed, int itemCount)
+	{
+		this.random = new Random(seed);
+		this.itemIds = new String[itemCount];
+		for (int index = 0; index < itemCount; index++)
+		{
+			this.itemIds[index] = this.randomUUID();
+		}
+		this.stackableItemIds = this.itemIds;
+		this.nonStackableItemIds = this.itemIds;
+	}
+
+	public ModelGenerator(long seed, @NotNull String[] stackableItemIds, @NotNull String[] nonStackableItemIds)
+	{
+		if (stackableItemIds.length == 0 || nonStackableItemIds.length == 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.random = new Random(seed);
+		this.itemIds = Arrays.copyOf(stackableItemIds, stackableItemIds.length + nonStackableItemIds.length);
+		System.arraycopy(nonStackableItemIds, 0, this.itemIds, stackableItemIds.length, nonStackableItemIds.length);
+		this.stackableItemIds = stackableItemIds.clone();
+		this.nonStackableItemIds = nonStackableItemIds.clone();
+	}
+
+	@NotNull
+	public Inventory generateInventory(int stackableItems, int nonStackableItems, int instancesPerItem)
+	{
+		Inventory inventory = new Inventory();
+		for (int index = 0; index < stackableItems; index++)
+		{
+			inventory.addItems(this.stackableItemIds[index % this.stackableItemIds.length], 1 + this.random.nextInt(2000));
+		}
+		for (int index = 0; index < nonStackableItems; index++)
+		{
+			NonStackableItemInstance[] instances = new NonStackableItemInstance[instancesPerItem];
+			for (int instanceIndex = 0; instanceIndex < instancesPerItem; instanceIndex++)
+			{
+				instances[instanceIndex] = new NonStackableItemInstance(this.randomUUID(), this.random.nextInt(100));
+			}
+			inventory.addItems(this.nonStackableItemIds[(stackableItems + index) % this.nonStackableItemIds.length], instances);
+		}
+		return inventory;
+	}
+
+	@NotNull
+	public Journal generateJournal(int items)
+	{
+		Journal journal = new Journal();
+		long timestamp = 1700000000000L;
+		for (int index = 0; index < items; index++)
+		{
+			journal.addCollectedItem(this.itemIds[index % this.itemIds.length], timestamp + this.random.nextInt(1000000000), 1 + this.random.nextInt(5000));
+		}
+		return journal;
+	}
+
+	@NotNull
+	public ActivityLog generateActivityLog(int entries)
+	{
+		ActivityLog activityLog = new ActivityLog();
+		long timestamp = 1700000000000L;
+		for (int index = 0; index < entries; index++)
+		{
+			timestamp += this.random.nextInt(600000);
+			HashMap<String, Integer> items = new HashMap<>();
+			int itemCount = 1 + this.random.nextInt(3);
+			for (int itemIndex = 0; itemIndex < itemCount; itemIndex++)
+			{
+				items.put(this.itemIds[this.random.nextInt(this.itemIds.length)], 1 + this.random.nextInt(4));
+			}
+			activityLog.addEntry(new ActivityLog.TappableEntry(timestamp, new Rewards(1, 10 + this.random.nextInt(50), null, items, new String[0], new String[0])));
+		}
+		return activityLog;
+	}
+
+	@NotNull
+	public SharedBuildplates.SharedBuildplate generateSharedBuildplate()
+	{
+		long created = 1700000000000L + this.random.nextInt(1000000000);
+		SharedBuildplates.SharedBuildplate sharedBuildplate = new SharedBuildplates.SharedBuildplate(this.randomUUID(), 16, 63, 33, this.random.nextBoolean(), created, created - this.random.nextInt(1000000000), this.randomUUID());
+		for (int index = 0; index < sharedBuildplate.hotbar.length; index++)
+		{
+			if (this.random.nextBoolean())
+			{
+				sharedBuildplate.hotbar[index] = new SharedBuildplates.SharedBuildplate.HotbarItem(this.itemIds[this.random.nextInt(this.itemIds.length)], 1 + this.random.nextInt(64), null, 0);
+			}
+		}
+		return sharedBuildplate;
+	}
+
+	// writes the objects that a typical active player has
+	@NotNull
+	public EarthDB.Query generatePlayer(@NotNull String playerId)
+	{
+		Profile profile = new Profile();
+		profile.experience = this.random.nextInt(100000);
+		profile.level = 1 + this.random.nextInt(30);
+		profile.rubies.earned = this.random.nextInt(5000);
+		return new EarthDB.Query(true)
+				.update("profile", playerId, profile)
+				.update("boosts", playerId, new Boosts())
+				.update("inventory", playerId, this.generateInventory(300, 50, 4))
+				.update("journal", playerId, this.generateJournal(400))
+				.update("activityLog", playerId, this.generateActivityLog(40))
+				.update("hotbar", playerId, new Hotbar())
+				.update("crafting", playerId, new CraftingSlots());
+	}
+
+	@NotNull
+	public String generateId()
+	{
+		return this.randomUUID();
+	}
+
+	@NotNull
+	private String randomUUID()
+	{
+		return new UUID(this.random.nextLong(), this.random.nextLong()).toString();
+	}
+}
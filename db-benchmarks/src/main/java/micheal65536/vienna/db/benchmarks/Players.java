@@ -0,0 +1,124 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.BinaryValueCodec;
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.model.common.NonStackableItemInstance;
+import micheal65536.vienna.db.model.player.Boosts;
+import micheal65536.vienna.db.model.player.Hotbar;
+import micheal65536.vienna.db.model.player.Inventory;
+import micheal65536.vienna.db.model.player.Profile;
+import micheal65536.vienna.db.model.player.workshop.CraftingSlot;
+import micheal65536.vienna.db.model.player.workshop.CraftingSlots;
+import micheal65536.vienna.db.model.player.workshop.InputItem;
+
+import java.util.UUID;
+
+// the queries that the benchmarks run, written the same way as the corresponding queries in the API server
+final class Players
+{
+	private Players()
+	{
+		// empty
+	}
+
+	@NotNull
+	public static EarthDB.Options createOptions(@NotNull String codec)
+	{
+		EarthDB.Options options = new EarthDB.Options();
+		switch (codec)
+		{
+			case "json" ->
+			{
+				// empty
+			}
+			case "binary" -> options.valueCodec(BinaryValueCodec::new);
+			default -> throw new IllegalArgumentException();
+		}
+		return options;
+	}
+
+	@NotNull
+	public static String[] populate(@NotNull EarthDB earthDB, @NotNull ModelGenerator modelGenerator, int players) throws DatabaseException
+	{
+		earthDB.internStrings(BinaryValueCodec.getModelStrings());
+		earthDB.internStrings(modelGenerator.itemIds);
+
+		String[] playerIds = new String[players];
+		for (int index = 0; index < players; index++)
+		{
+			playerIds[index] = modelGenerator.generateId();
+			modelGenerator.generatePlayer(playerIds[index]).execute(earthDB);
+		}
+		return playerIds;
+	}
+
+	@NotNull
+	public static Object get(@NotNull EarthDB earthDB, @NotNull String playerId) throws DatabaseException
+	{
+		return new EarthDB.Query(false)
+				.get("inventory", playerId, Inventory.class)
+				.execute(earthDB)
+				.get("inventory").value();
+	}
+
+	@NotNull
+	public static Object multiGet(@NotNull EarthDB earthDB, @NotNull String playerId) throws DatabaseException
+	{
+		return new EarthDB.Query(false)
+				.get("profile", playerId, Profile.class)
+				.get("boosts", playerId, Boosts.class)
+				.execute(earthDB);
+	}
+
+	// starts a crafting job taking the ingredients from the inventory, or collects the job and returns the ingredients if one is already running, in the same way as the workshop routes
+	@NotNull
+	public static Object readModifyWrite(@NotNull EarthDB earthDB, @NotNull String playerId, @NotNull ModelGenerator modelGenerator) throws DatabaseException
+	{
+		String itemId = modelGenerator.stackableItemIds[0];
+		return new EarthDB.Query(true)
+				.optimistic()
+				.get("crafting", playerId, CraftingSlots.class)
+				.get("inventory", playerId, Inventory.class)
+				.get("hotbar", playerId, Hotbar.class)
+				.then(results ->
+				{
+					CraftingSlots craftingSlots = (CraftingSlots) results.get("crafting").value();
+					CraftingSlot craftingSlot = craftingSlots.slots[0];
+					Inventory inventory = (Inventory) results.get("inventory").value();
+					Hotbar hotbar = (Hotbar) results.get("hotbar").value();
+
+					if (craftingSlot.activeJob == null)
+					{
+						if (!inventory.takeItems(itemId, 1))
+						{
+							inventory.addItems(itemId, 1000);
+							inventory.takeItems(itemId, 1);
+						}
+						craftingSlot.activeJob = new CraftingSlot.ActiveJob(UUID.randomUUID().toString(), UUID.randomUUID().toString(), System.currentTimeMillis(), new InputItem[][]{new InputItem[]{new InputItem(itemId, 1, new NonStackableItemInstance[0])}}, 1, 0, false);
+					}
+					else
+					{
+						inventory.addItems(itemId, 1);
+						craftingSlot.activeJob = null;
+					}
+					hotbar.limitToInventory(inventory);
+
+					return new EarthDB.Query(true)
+							.update("crafting", playerId, craftingSlots)
+							.update("inventory", playerId, inventory)
+							.update("hotbar", playerId, hotbar);
+				})
+				.execute(earthDB);
+	}
+
+	@NotNull
+	public static Object bump(@NotNull EarthDB earthDB, @NotNull String playerId) throws DatabaseException
+	{
+		return new EarthDB.Query(true)
+				.bump("inventory", playerId, Inventory.class)
+				.execute(earthDB);
+	}
+}
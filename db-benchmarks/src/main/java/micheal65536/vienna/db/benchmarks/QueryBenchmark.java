@@ -0,0 +1,91 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.staticdata.StaticDataException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// measures the query patterns used by the API server against a database of generated players
+// write the results as JSON to compare runs, e.g. java -Dvienna.staticData=<dir> -jar <jar> QueryBenchmark -rf json -rff query.json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark
+{
+	@Param({"json", "binary"})
+	public String codec;
+
+	@Param({"0", "67108864"})
+	public long cacheSize;
+
+	@Param({"1000"})
+	public int players;
+
+	private TempDatabase tempDatabase;
+	private ModelGenerator modelGenerator;
+	private String[] playerIds;
+	private final Random random = new Random(0);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, DatabaseException, StaticDataException
+	{
+		this.modelGenerator = ModelGenerator.create(0);
+		this.tempDatabase = new TempDatabase(Players.createOptions(this.codec).cacheSize(this.cacheSize));
+		this.playerIds = Players.populate(this.tempDatabase.earthDB, this.modelGenerator, this.players);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.tempDatabase.close();
+	}
+
+	@Benchmark
+	public Object get() throws DatabaseException
+	{
+		return Players.get(this.tempDatabase.earthDB, this.randomPlayerId());
+	}
+
+	@Benchmark
+	public Object multiGet() throws DatabaseException
+	{
+		return Players.multiGet(this.tempDatabase.earthDB, this.randomPlayerId());
+	}
+
+	@Benchmark
+	public Object readModifyWrite() throws DatabaseException
+	{
+		return Players.readModifyWrite(this.tempDatabase.earthDB, this.randomPlayerId(), this.modelGenerator);
+	}
+
+	@Benchmark
+	public Object bump() throws DatabaseException
+	{
+		return Players.bump(this.tempDatabase.earthDB, this.randomPlayerId());
+	}
+
+	private String randomPlayerId()
+	{
+		return this.playerIds[this.random.nextInt(this.playerIds.length)];
+	}
+}
@@ -0,0 +1,119 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.model.global.SharedBuildplates;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// compares storing all shared buildplates in one object with storing each one as a separate entry
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SharedBuildplatesBenchmark
+{
+	@Param({"object", "entries"})
+	public String layout;
+
+	@Param({"100000"})
+	public int sharedBuildplates;
+
+	private TempDatabase tempDatabase;
+	private ModelGenerator modelGenerator;
+	private String[] ids;
+	private final Random random = new Random(0);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, DatabaseException
+	{
+		this.tempDatabase = new TempDatabase(new EarthDB.Options());
+		this.modelGenerator = new ModelGenerator(0, 500);
+		this.ids = new String[this.sharedBuildplates];
+
+		SharedBuildplates sharedBuildplates = new SharedBuildplates();
+		EarthDB.Query query = new EarthDB.Query(true);
+		for (int index = 0; index < this.sharedBuildplates; index++)
+		{
+			this.ids[index] = this.modelGenerator.generateId();
+			SharedBuildplates.SharedBuildplate sharedBuildplate = this.modelGenerator.generateSharedBuildplate();
+			switch (this.layout)
+			{
+				case "object" -> sharedBuildplates.addSharedBuildplate(this.ids[index], sharedBuildplate);
+				case "entries" -> query.putEntry("sharedBuildplates", "", this.ids[index], sharedBuildplate);
+				default -> throw new IllegalArgumentException();
+			}
+		}
+		if (this.layout.equals("object"))
+		{
+			query.update("sharedBuildplates", "", sharedBuildplates);
+		}
+		query.execute(this.tempDatabase.earthDB);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.tempDatabase.close();
+	}
+
+	@Benchmark
+	public Object load() throws DatabaseException
+	{
+		String id = this.ids[this.random.nextInt(this.ids.length)];
+		return switch (this.layout)
+		{
+			case "object" -> ((SharedBuildplates) new EarthDB.Query(false)
+					.get("sharedBuildplates", "", SharedBuildplates.class)
+					.execute(this.tempDatabase.earthDB)
+					.get("sharedBuildplates").value()).getSharedBuildplate(id);
+			case "entries" -> new EarthDB.Query(false)
+					.getEntry("sharedBuildplates", "", id, SharedBuildplates.SharedBuildplate.class)
+					.execute(this.tempDatabase.earthDB)
+					.getEntry("sharedBuildplates");
+			default -> throw new IllegalArgumentException();
+		};
+	}
+
+	@Benchmark
+	public Object share() throws DatabaseException
+	{
+		String id = this.modelGenerator.generateId();
+		SharedBuildplates.SharedBuildplate sharedBuildplate = this.modelGenerator.generateSharedBuildplate();
+		return switch (this.layout)
+		{
+			case "object" -> new EarthDB.Query(true)
+					.get("sharedBuildplates", "", SharedBuildplates.class)
+					.then(results ->
+					{
+						SharedBuildplates sharedBuildplates = (SharedBuildplates) results.get("sharedBuildplates").value();
+						sharedBuildplates.addSharedBuildplate(id, sharedBuildplate);
+						return new EarthDB.Query(true)
+								.update("sharedBuildplates", "", sharedBuildplates);
+					})
+					.execute(this.tempDatabase.earthDB);
+			case "entries" -> new EarthDB.Query(true)
+					.putEntry("sharedBuildplates", "", id, sharedBuildplate)
+					.execute(this.tempDatabase.earthDB);
+			default -> throw new IllegalArgumentException();
+		};
+	}
+}
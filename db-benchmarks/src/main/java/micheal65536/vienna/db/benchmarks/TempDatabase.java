@@ -0,0 +1,40 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.DatabaseException;
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.SQLiteStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public final class TempDatabase implements AutoCloseable
+{
+	public final SQLiteStorage storage;
+	public final EarthDB earthDB;
+	private final File dir;
+
+	public TempDatabase(@NotNull EarthDB.Options options) throws IOException, DatabaseException
+	{
+		this.dir = Files.createTempDirectory("vienna-db-benchmark-").toFile();
+		this.storage = SQLiteStorage.open(new File(this.dir, "earth.db").getAbsolutePath(), options);
+		this.earthDB = EarthDB.open(this.storage);
+	}
+
+	@Override
+	public void close()
+	{
+		this.earthDB.close();
+		File[] files = this.dir.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				file.delete();
+			}
+		}
+		this.dir.delete();
+	}
+}
@@ -0,0 +1,101 @@
+package micheal65536.vienna.db.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.EarthDB;
+import micheal65536.vienna.db.SQLiteStorage;
+import micheal65536.vienna.db.model.common.Rewards;
+import micheal65536.vienna.db.model.player.ActivityLog;
+import micheal65536.vienna.db.model.player.Inventory;
+import micheal65536.vienna.db.model.player.Journal;
+
+import java.util.HashMap;
+import java.util.Random;
+
+// prints the number of bytes written per redeemed tappable when the inventory, journal and activity log are rewritten whole compared to when only the changes are appended
+// run with java -cp <jar> micheal65536.vienna.db.benchmarks.WriteAmplificationReport
+public class WriteAmplificationReport
+{
+	private static final int ACTIONS = 2000;
+
+	public static void main(String[] args) throws Exception
+	{
+		System.out.printf("%-10s %-8s %14s %14s %14s %14s%n", "player", "mode", "object B/op", "delta B/op", "compact B/op", "total B/op");
+		for (String player : new String[]{"small", "large"})
+		{
+			for (String mode : new String[]{"update", "append"})
+			{
+				run(player, mode);
+			}
+		}
+	}
+
+	private static void run(@NotNull String player, @NotNull String mode) throws Exception
+	{
+		ModelGenerator modelGenerator = ModelGenerator.create(0);
+		Random random = new Random(0);
+		String playerId = modelGenerator.generateId();
+		try (TempDatabase tempDatabase = new TempDatabase(new EarthDB.Options()))
+		{
+			boolean large = player.equals("large");
+			new EarthDB.Query(true)
+					.update("inventory", playerId, large ? modelGenerator.generateInventory(300, 50, 4) : modelGenerator.generateInventory(30, 5, 1))
+					.update("journal", playerId, modelGenerator.generateJournal(large ? 400 : 40))
+					.update("activityLog", playerId, modelGenerator.generateActivityLog(40))
+					.execute(tempDatabase.earthDB);
+			SQLiteStorage.WriteStats initialStats = tempDatabase.storage.getWriteStats();
+
+			long timestamp = 1800000000000L;
+			for (int action = 0; action < ACTIONS; action++)
+			{
+				timestamp += 1000;
+				String itemId = modelGenerator.stackableItemIds[random.nextInt(modelGenerator.stackableItemIds.length)];
+				int count = 1 + random.nextInt(3);
+				HashMap<String, Integer> items = new HashMap<>();
+				items.put(itemId, count);
+				ActivityLog.Entry entry = new ActivityLog.TappableEntry(timestamp, new Rewards(1, 10, null, items, new String[0], new String[0]));
+
+				long currentTime = timestamp;
+				if (mode.equals("update"))
+				{
+					new EarthDB.Query(true)
+							.get("inventory", playerId, Inventory.class)
+							.get("journal", playerId, Journal.class)
+							.get("activityLog", playerId, ActivityLog.class)
+							.then(results ->
+							{
+								Inventory inventory = (Inventory) results.get("inventory").value();
+								Journal journal = (Journal) results.get("journal").value();
+								ActivityLog activityLog = (ActivityLog) results.get("activityLog").value();
+								inventory.addItems(itemId, count);
+								journal.addCollectedItem(itemId, currentTime, count);
+								activityLog.addEntry(entry);
+								activityLog.prune();
+								return new EarthDB.Query(true)
+										.update("inventory", playerId, inventory)
+										.update("journal", playerId, journal)
+										.update("activityLog", playerId, activityLog);
+							})
+							.execute(tempDatabase.earthDB);
+				}
+				else
+				{
+					new EarthDB.Query(true)
+							.append("inventory", playerId, Inventory.class, new Inventory.AddStackableItemsDelta(itemId, count))
+							.append("journal", playerId, Journal.class, new Journal.AddCollectedItemDelta(itemId, currentTime, count))
+							.append("activityLog", playerId, ActivityLog.class, new ActivityLog.AddEntryDelta(entry))
+							.execute(tempDatabase.earthDB);
+				}
+			}
+
+			// give the last compactions time to finish
+			Thread.sleep(1000);
+
+			SQLiteStorage.WriteStats stats = tempDatabase.storage.getWriteStats();
+			double objectBytes = (double) (stats.objectBytes() - initialStats.objectBytes()) / ACTIONS;
+			double deltaBytes = (double) stats.deltaBytes() / ACTIONS;
+			double compactionBytes = (double) stats.compactionBytes() / ACTIONS;
+			System.out.printf("%-10s %-8s %14.0f %14.0f %14.0f %14.0f%n", player, mode, objectBytes, deltaBytes, compactionBytes, objectBytes + deltaBytes + compactionBytes);
+		}
+	}
+}
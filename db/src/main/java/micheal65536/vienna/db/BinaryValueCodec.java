@@ -0,0 +1,974 @@
+package micheal65536.vienna.db;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.model.global.EncounterBuildplates;
+import micheal65536.vienna.db.model.global.SharedBuildplates;
+import micheal65536.vienna.db.model.player.ActivityLog;
+import micheal65536.vienna.db.model.player.Boosts;
+import micheal65536.vienna.db.model.player.Buildplates;
+import micheal65536.vienna.db.model.player.Hotbar;
+import micheal65536.vienna.db.model.player.Inventory;
+import micheal65536.vienna.db.model.player.Journal;
+import micheal65536.vienna.db.model.player.Profile;
+import micheal65536.vienna.db.model.player.RedeemedTappables;
+import micheal65536.vienna.db.model.player.Tokens;
+import micheal65536.vienna.db.model.player.workshop.CraftingSlots;
+import micheal65536.vienna.db.model.player.workshop.SmeltingSlots;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// stores values as a compact binary rendering of the same structure that would be written as JSON, so that model classes remain free to add or remove fields in the same way as with JSON
+// numbers are stored as varints and strings (including object keys) that are in the string table are stored as references to the table
+// values that were stored as JSON text before the codec was changed are still decoded, and are converted when they are next written
+public final class BinaryValueCodec implements ValueCodec
+{
+	private static final int FORMAT_VERSION = 1;
+
+	private static final byte TAG_END = 0;
+	private static final byte TAG_NULL = 1;
+	private static final byte TAG_FALSE = 2;
+	private static final byte TAG_TRUE = 3;
+	private static final byte TAG_INTEGER = 4;
+	private static final byte TAG_DOUBLE = 5;
+	private static final byte TAG_STRING = 6;
+	private static final byte TAG_STRING_REF = 7;
+	private static final byte TAG_OBJECT = 8;
+	private static final byte TAG_ARRAY = 9;
+	private static final byte TAG_NAME = 10;
+	private static final byte TAG_NAME_REF = 11;
+
+	private static final Class<?>[] MODEL_CLASSES = new Class<?>[]{
+			Profile.class,
+			Inventory.class,
+			Hotbar.class,
+			Journal.class,
+			Tokens.class,
+			Tokens.LevelUpToken.class,
+			Tokens.JournalItemUnlockedToken.class,
+			ActivityLog.class,
+			ActivityLog.LevelUpEntry.class,
+			ActivityLog.TappableEntry.class,
+			ActivityLog.JournalItemUnlockedEntry.class,
+			ActivityLog.CraftingCompletedEntry.class,
+			ActivityLog.SmeltingCompletedEntry.class,
+			ActivityLog.BoostActivatedEntry.class,
+			Boosts.class,
+			Buildplates.class,
+			RedeemedTappables.class,
+			CraftingSlots.class,
+			SmeltingSlots.class,
+			SharedBuildplates.class,
+			EncounterBuildplates.class
+	};
+
+	private static final Writer UNWRITABLE_WRITER = new Writer()
+	{
+		@Override
+		public void write(char[] buffer, int offset, int length)
+		{
+			throw new AssertionError();
+		}
+
+		@Override
+		public void flush()
+		{
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close()
+		{
+			throw new AssertionError();
+		}
+	};
+
+	private static final Reader UNREADABLE_READER = new Reader()
+	{
+		@Override
+		public int read(char[] buffer, int offset, int length)
+		{
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close()
+		{
+			throw new AssertionError();
+		}
+	};
+
+	private static final Gson DECODE_GSON = JsonValueCodec.GSON.newBuilder()
+			.registerTypeAdapterFactory(new StringKeyMapTypeAdapterFactory())
+			.create();
+
+	private final StringTable stringTable;
+	private final JsonValueCodec jsonValueCodec = new JsonValueCodec();
+
+	public BinaryValueCodec(@NotNull StringTable stringTable)
+	{
+		this.stringTable = stringTable;
+	}
+
+	// field names and enum constants of the database model classes, these should be interned before any values are written
+	@NotNull
+	public static String[] getModelStrings()
+	{
+		LinkedHashSet<String> strings = new LinkedHashSet<>();
+		HashSet<Class<?>> visited = new HashSet<>();
+		for (Class<?> modelClass : MODEL_CLASSES)
+		{
+			collectModelStrings(modelClass, strings, visited);
+		}
+		return strings.toArray(String[]::new);
+	}
+
+	private static void collectModelStrings(@NotNull Type type, @NotNull LinkedHashSet<String> strings, @NotNull HashSet<Class<?>> visited)
+	{
+		if (type instanceof ParameterizedType parameterizedType)
+		{
+			collectModelStrings(parameterizedType.getRawType(), strings, visited);
+			for (Type argument : parameterizedType.getActualTypeArguments())
+			{
+				collectModelStrings(argument, strings, visited);
+			}
+		}
+		else if (type instanceof GenericArrayType genericArrayType)
+		{
+			collectModelStrings(genericArrayType.getGenericComponentType(), strings, visited);
+		}
+		else if (type instanceof Class<?> typeClass)
+		{
+			if (typeClass.isArray())
+			{
+				collectModelStrings(typeClass.getComponentType(), strings, visited);
+				return;
+			}
+			if (!typeClass.getName().startsWith("micheal65536.vienna.db.model.") || !visited.add(typeClass))
+			{
+				return;
+			}
+			if (typeClass.isEnum())
+			{
+				for (Object constant : typeClass.getEnumConstants())
+				{
+					strings.add(((Enum<?>) constant).name());
+				}
+				return;
+			}
+			for (Class<?> currentClass = typeClass; currentClass != null && currentClass != Object.class; currentClass = currentClass.getSuperclass())
+			{
+				for (Field field : currentClass.getDeclaredFields())
+				{
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()))
+					{
+						continue;
+					}
+					strings.add(field.getName());
+					collectModelStrings(field.getGenericType(), strings, visited);
+				}
+			}
+		}
+	}
+
+	@Override
+	@NotNull
+	public Object encode(@NotNull Object value) throws DatabaseException
+	{
+		Output output = new Output();
+		output.writeVarint(FORMAT_VERSION);
+		try
+		{
+			BinaryJsonWriter writer = new BinaryJsonWriter(output);
+			JsonValueCodec.GSON.toJson(value, value.getClass(), writer);
+			writer.close();
+		}
+		catch (JsonIOException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+		return output.toByteArray();
+	}
+
+	@Override
+	@NotNull
+	public <T> T decode(@NotNull Object data, @NotNull Class<T> valueClass) throws DatabaseException
+	{
+		if (data instanceof String)
+		{
+			return this.jsonValueCodec.decode(data, valueClass);
+		}
+		if (!(data instanceof byte[] bytes))
+		{
+			throw new DatabaseException("Cannot decode value of type " + data.getClass().getName());
+		}
+
+		try
+		{
+			Input input = new Input(bytes);
+			int formatVersion = (int) input.readVarint();
+			if (formatVersion != FORMAT_VERSION)
+			{
+				throw new DatabaseException("Unsupported binary value format version " + formatVersion);
+			}
+			BinaryJsonReader reader = new BinaryJsonReader(input);
+			T value = DECODE_GSON.fromJson(reader, valueClass);
+			if (value == null)
+			{
+				throw new DatabaseException("Decoded value was null");
+			}
+			if (input.position != bytes.length)
+			{
+				throw new DatabaseException("Trailing data after binary value");
+			}
+			return value;
+		}
+		catch (IOException | JsonParseException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+		catch (ArrayIndexOutOfBoundsException exception)
+		{
+			throw new DatabaseException("Truncated binary value", exception);
+		}
+	}
+
+	private final class BinaryJsonReader extends JsonReader
+	{
+		private final Input input;
+		private boolean[] stack = new boolean[16];
+		private int depth = 0;
+
+		public BinaryJsonReader(@NotNull Input input)
+		{
+			super(UNREADABLE_READER);
+			this.input = input;
+		}
+
+		private byte peekTag()
+		{
+			return this.input.position < this.input.buffer.length ? this.input.buffer[this.input.position] : -1;
+		}
+
+		@NotNull
+		private IOException unexpected(@NotNull String expected)
+		{
+			return new MalformedJsonException("Expected " + expected + " but was tag " + this.peekTag() + " at offset " + this.input.position);
+		}
+
+		@Override
+		public JsonToken peek() throws IOException
+		{
+			return switch (this.peekTag())
+			{
+				case -1 -> JsonToken.END_DOCUMENT;
+				case TAG_END -> this.depth > 0 && this.stack[this.depth - 1] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+				case TAG_NULL -> JsonToken.NULL;
+				case TAG_FALSE, TAG_TRUE -> JsonToken.BOOLEAN;
+				case TAG_INTEGER, TAG_DOUBLE -> JsonToken.NUMBER;
+				case TAG_STRING, TAG_STRING_REF -> JsonToken.STRING;
+				case TAG_OBJECT -> JsonToken.BEGIN_OBJECT;
+				case TAG_ARRAY -> JsonToken.BEGIN_ARRAY;
+				case TAG_NAME, TAG_NAME_REF -> JsonToken.NAME;
+				default -> throw this.unexpected("value");
+			};
+		}
+
+		private void push(boolean object)
+		{
+			if (this.depth == this.stack.length)
+			{
+				this.stack = Arrays.copyOf(this.stack, this.stack.length * 2);
+			}
+			this.stack[this.depth++] = object;
+		}
+
+		private void pop(boolean object) throws IOException
+		{
+			if (this.peekTag() != TAG_END || this.depth == 0 || this.stack[this.depth - 1] != object)
+			{
+				throw this.unexpected(object ? "end of object" : "end of array");
+			}
+			this.input.position++;
+			this.depth--;
+		}
+
+		@Override
+		public void beginArray() throws IOException
+		{
+			if (this.peekTag() != TAG_ARRAY)
+			{
+				throw this.unexpected("array");
+			}
+			this.input.position++;
+			this.push(false);
+		}
+
+		@Override
+		public void endArray() throws IOException
+		{
+			this.pop(false);
+		}
+
+		@Override
+		public void beginObject() throws IOException
+		{
+			if (this.peekTag() != TAG_OBJECT)
+			{
+				throw this.unexpected("object");
+			}
+			this.input.position++;
+			this.push(true);
+		}
+
+		@Override
+		public void endObject() throws IOException
+		{
+			this.pop(true);
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			byte tag = this.peekTag();
+			return tag != TAG_END && tag != -1;
+		}
+
+		@Override
+		public String nextName() throws IOException
+		{
+			byte tag = this.peekTag();
+			if (tag != TAG_NAME && tag != TAG_NAME_REF)
+			{
+				throw this.unexpected("name");
+			}
+			this.input.position++;
+			return tag == TAG_NAME_REF ? this.readStringRef() : this.input.readString();
+		}
+
+		@Override
+		public String nextString() throws IOException
+		{
+			byte tag = this.peekTag();
+			return switch (tag)
+			{
+				case TAG_STRING, TAG_STRING_REF ->
+				{
+					this.input.position++;
+					yield tag == TAG_STRING_REF ? this.readStringRef() : this.input.readString();
+				}
+				case TAG_INTEGER -> Long.toString(this.nextLong());
+				case TAG_DOUBLE -> Double.toString(this.nextDouble());
+				default -> throw this.unexpected("string");
+			};
+		}
+
+		@Override
+		public boolean nextBoolean() throws IOException
+		{
+			byte tag = this.peekTag();
+			if (tag != TAG_TRUE && tag != TAG_FALSE)
+			{
+				throw this.unexpected("boolean");
+			}
+			this.input.position++;
+			return tag == TAG_TRUE;
+		}
+
+		@Override
+		public void nextNull() throws IOException
+		{
+			if (this.peekTag() != TAG_NULL)
+			{
+				throw this.unexpected("null");
+			}
+			this.input.position++;
+		}
+
+		@Override
+		public double nextDouble() throws IOException
+		{
+			return switch (this.peekTag())
+			{
+				case TAG_INTEGER -> (double) this.nextLong();
+				case TAG_DOUBLE ->
+				{
+					this.input.position++;
+					yield Double.longBitsToDouble(this.input.readLong());
+				}
+				case TAG_STRING, TAG_STRING_REF -> Double.parseDouble(this.nextString());
+				default -> throw this.unexpected("number");
+			};
+		}
+
+		@Override
+		public long nextLong() throws IOException
+		{
+			return switch (this.peekTag())
+			{
+				case TAG_INTEGER ->
+				{
+					this.input.position++;
+					yield this.input.readSignedVarint();
+				}
+				case TAG_DOUBLE ->
+				{
+					double value = this.nextDouble();
+					if (value != (long) value)
+					{
+						throw new NumberFormatException("Expected a long but was " + value);
+					}
+					yield (long) value;
+				}
+				case TAG_STRING, TAG_STRING_REF -> Long.parseLong(this.nextString());
+				default -> throw this.unexpected("number");
+			};
+		}
+
+		@Override
+		public int nextInt() throws IOException
+		{
+			long value = this.nextLong();
+			if (value != (int) value)
+			{
+				throw new NumberFormatException("Expected an int but was " + value);
+			}
+			return (int) value;
+		}
+
+		@Override
+		public void skipValue() throws IOException
+		{
+			int depth = 0;
+			do
+			{
+				switch (this.peekTag())
+				{
+					case TAG_OBJECT, TAG_ARRAY ->
+					{
+						this.input.position++;
+						depth++;
+					}
+					case TAG_END ->
+					{
+						this.input.position++;
+						depth--;
+					}
+					case TAG_NULL, TAG_FALSE, TAG_TRUE -> this.input.position++;
+					case TAG_INTEGER, TAG_STRING_REF, TAG_NAME_REF ->
+					{
+						this.input.position++;
+						this.input.readVarint();
+					}
+					case TAG_DOUBLE -> this.input.position += 9;
+					case TAG_STRING, TAG_NAME ->
+					{
+						this.input.position++;
+						this.input.readString();
+					}
+					default -> throw this.unexpected("value");
+				}
+			}
+			while (depth > 0);
+		}
+
+		@NotNull
+		private String readStringRef() throws IOException
+		{
+			int id = (int) this.input.readVarint();
+			String string = BinaryValueCodec.this.stringTable.getString(id);
+			if (string == null)
+			{
+				throw new MalformedJsonException("Binary value references unknown string " + id);
+			}
+			return string;
+		}
+
+		@Override
+		public String getPath()
+		{
+			return "$";
+		}
+
+		@Override
+		public String getPreviousPath()
+		{
+			return "$";
+		}
+
+		@Override
+		public void close()
+		{
+			// empty
+		}
+
+		@Override
+		public String toString()
+		{
+			return "BinaryJsonReader at offset " + this.input.position;
+		}
+	}
+
+	// Gson's map adapter relies on an internal hook that only works with its own reader implementations, so maps with string keys (which is all of the maps in the models) are read here instead
+	private static final class StringKeyMapTypeAdapterFactory implements TypeAdapterFactory
+	{
+		@Override
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken)
+		{
+			Class<? super T> rawType = typeToken.getRawType();
+			if (!Map.class.isAssignableFrom(rawType) || !rawType.isAssignableFrom(LinkedHashMap.class))
+			{
+				return null;
+			}
+			if (!(typeToken.getType() instanceof ParameterizedType parameterizedType) || parameterizedType.getActualTypeArguments()[0] != String.class)
+			{
+				return null;
+			}
+			TypeAdapter<?> valueTypeAdapter = gson.getAdapter(TypeToken.get(parameterizedType.getActualTypeArguments()[1]));
+			TypeAdapter<T> delegate = gson.getDelegateAdapter(this, typeToken);
+
+			return new TypeAdapter<>()
+			{
+				@Override
+				public void write(JsonWriter out, T value) throws IOException
+				{
+					delegate.write(out, value);
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public T read(JsonReader in) throws IOException
+				{
+					if (in.peek() == JsonToken.NULL)
+					{
+						in.nextNull();
+						return null;
+					}
+					LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+					in.beginObject();
+					while (in.hasNext())
+					{
+						String key = in.nextName();
+						if (map.put(key, valueTypeAdapter.read(in)) != null)
+						{
+							throw new JsonSyntaxException("Duplicate key " + key);
+						}
+					}
+					in.endObject();
+					return (T) map;
+				}
+			};
+		}
+	}
+
+	private final class BinaryJsonWriter extends JsonWriter
+	{
+		private final Output output;
+		private String pendingName = null;
+
+		public BinaryJsonWriter(@NotNull Output output)
+		{
+			super(UNWRITABLE_WRITER);
+			this.output = output;
+		}
+
+		private void beforeValue(boolean isNull)
+		{
+			if (this.pendingName != null)
+			{
+				if (!isNull || this.getSerializeNulls())
+				{
+					this.writeString(TAG_NAME, TAG_NAME_REF, this.pendingName);
+				}
+				this.pendingName = null;
+			}
+		}
+
+		private void writeString(byte inlineTag, byte refTag, @NotNull String string)
+		{
+			int id = BinaryValueCodec.this.stringTable.getId(string);
+			if (id >= 0)
+			{
+				this.output.writeByte(refTag);
+				this.output.writeVarint(id);
+			}
+			else
+			{
+				this.output.writeByte(inlineTag);
+				this.output.writeString(string);
+			}
+		}
+
+		@Override
+		public JsonWriter beginArray()
+		{
+			this.beforeValue(false);
+			this.output.writeByte(TAG_ARRAY);
+			return this;
+		}
+
+		@Override
+		public JsonWriter endArray()
+		{
+			this.output.writeByte(TAG_END);
+			return this;
+		}
+
+		@Override
+		public JsonWriter beginObject()
+		{
+			this.beforeValue(false);
+			this.output.writeByte(TAG_OBJECT);
+			return this;
+		}
+
+		@Override
+		public JsonWriter endObject()
+		{
+			if (this.pendingName != null)
+			{
+				throw new IllegalStateException();
+			}
+			this.output.writeByte(TAG_END);
+			return this;
+		}
+
+		@Override
+		public JsonWriter name(String name)
+		{
+			if (name == null || this.pendingName != null)
+			{
+				throw new IllegalStateException();
+			}
+			this.pendingName = name;
+			return this;
+		}
+
+		@Override
+		public JsonWriter value(String value)
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			this.beforeValue(false);
+			this.writeString(TAG_STRING, TAG_STRING_REF, value);
+			return this;
+		}
+
+		@Override
+		public JsonWriter jsonValue(String value) throws IOException
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			// the raw JSON is copied token by token so that it is stored the same way as if it had been written through this writer
+			try (JsonReader jsonReader = new JsonReader(new StringReader(value)))
+			{
+				int depth = 0;
+				do
+				{
+					switch (jsonReader.peek())
+					{
+						case BEGIN_ARRAY ->
+						{
+							jsonReader.beginArray();
+							this.beginArray();
+							depth++;
+						}
+						case END_ARRAY ->
+						{
+							jsonReader.endArray();
+							this.endArray();
+							depth--;
+						}
+						case BEGIN_OBJECT ->
+						{
+							jsonReader.beginObject();
+							this.beginObject();
+							depth++;
+						}
+						case END_OBJECT ->
+						{
+							jsonReader.endObject();
+							this.endObject();
+							depth--;
+						}
+						case NAME -> this.name(jsonReader.nextName());
+						case STRING -> this.value(jsonReader.nextString());
+						case NUMBER ->
+						{
+							String number = jsonReader.nextString();
+							try
+							{
+								this.value(Long.parseLong(number));
+							}
+							catch (NumberFormatException exception)
+							{
+								this.value(Double.parseDouble(number));
+							}
+						}
+						case BOOLEAN -> this.value(jsonReader.nextBoolean());
+						case NULL ->
+						{
+							jsonReader.nextNull();
+							this.nullValue();
+						}
+						case END_DOCUMENT -> throw new MalformedJsonException("Empty JSON value");
+					}
+				}
+				while (depth > 0);
+				if (jsonReader.peek() != JsonToken.END_DOCUMENT)
+				{
+					throw new MalformedJsonException("Trailing data after JSON value");
+				}
+			}
+			return this;
+		}
+
+		@Override
+		public JsonWriter nullValue()
+		{
+			boolean hadName = this.pendingName != null;
+			this.beforeValue(true);
+			if (!hadName || this.getSerializeNulls())
+			{
+				this.output.writeByte(TAG_NULL);
+			}
+			return this;
+		}
+
+		@Override
+		public JsonWriter value(boolean value)
+		{
+			this.beforeValue(false);
+			this.output.writeByte(value ? TAG_TRUE : TAG_FALSE);
+			return this;
+		}
+
+		@Override
+		public JsonWriter value(Boolean value)
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			return this.value((boolean) value);
+		}
+
+		@Override
+		public JsonWriter value(float value)
+		{
+			return this.value((double) value);
+		}
+
+		@Override
+		public JsonWriter value(double value)
+		{
+			if (value == Math.rint(value) && value >= Long.MIN_VALUE && value <= Long.MAX_VALUE && !(value == 0.0 && Double.doubleToRawLongBits(value) != 0))
+			{
+				return this.value((long) value);
+			}
+			this.beforeValue(false);
+			this.output.writeByte(TAG_DOUBLE);
+			this.output.writeLong(Double.doubleToRawLongBits(value));
+			return this;
+		}
+
+		@Override
+		public JsonWriter value(long value)
+		{
+			this.beforeValue(false);
+			this.output.writeByte(TAG_INTEGER);
+			this.output.writeSignedVarint(value);
+			return this;
+		}
+
+		@Override
+		public JsonWriter value(Number value)
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong)
+			{
+				return this.value(value.longValue());
+			}
+			if (value instanceof BigInteger bigInteger && bigInteger.bitLength() < 64)
+			{
+				return this.value(bigInteger.longValue());
+			}
+			if (value instanceof BigDecimal || value instanceof BigInteger)
+			{
+				// not used by any of the models, stored as a string to avoid losing precision
+				this.beforeValue(false);
+				this.writeString(TAG_STRING, TAG_STRING_REF, value.toString());
+				return this;
+			}
+			return this.value(value.doubleValue());
+		}
+
+		@Override
+		public void flush()
+		{
+			// empty
+		}
+
+		@Override
+		public void close()
+		{
+			// empty
+		}
+	}
+
+	private static final class Output
+	{
+		private byte[] buffer = new byte[256];
+		private int length = 0;
+
+		private void ensureCapacity(int additional)
+		{
+			if (this.length + additional > this.buffer.length)
+			{
+				this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + additional));
+			}
+		}
+
+		public void writeByte(byte value)
+		{
+			this.ensureCapacity(1);
+			this.buffer[this.length++] = value;
+		}
+
+		public void writeVarint(long value)
+		{
+			this.ensureCapacity(10);
+			while ((value & ~0x7FL) != 0)
+			{
+				this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			this.buffer[this.length++] = (byte) value;
+		}
+
+		public void writeSignedVarint(long value)
+		{
+			this.writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		public void writeLong(long value)
+		{
+			this.ensureCapacity(8);
+			for (int index = 0; index < 8; index++)
+			{
+				this.buffer[this.length++] = (byte) (value >>> (index * 8));
+			}
+		}
+
+		public void writeString(@NotNull String value)
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.writeVarint(bytes.length);
+			this.ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+			this.length += bytes.length;
+		}
+
+		@NotNull
+		public byte[] toByteArray()
+		{
+			return Arrays.copyOf(this.buffer, this.length);
+		}
+	}
+
+	private static final class Input
+	{
+		private final byte[] buffer;
+		private int position = 0;
+
+		public Input(byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public byte readByte()
+		{
+			return this.buffer[this.position++];
+		}
+
+		public long readVarint() throws IOException
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				byte b = this.buffer[this.position++];
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+				{
+					return value;
+				}
+			}
+			throw new MalformedJsonException("Malformed varint in binary value");
+		}
+
+		public long readSignedVarint() throws IOException
+		{
+			long value = this.readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public long readLong()
+		{
+			long value = 0;
+			for (int index = 0; index < 8; index++)
+			{
+				value |= (long) (this.buffer[this.position++] & 0xFF) << (index * 8);
+			}
+			return value;
+		}
+
+		@NotNull
+		public String readString() throws IOException
+		{
+			int length = (int) this.readVarint();
+			if (length < 0 || this.position + length > this.buffer.length)
+			{
+				throw new MalformedJsonException("Truncated binary value");
+			}
+			String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+			this.position += length;
+			return value;
+		}
+	}
+}
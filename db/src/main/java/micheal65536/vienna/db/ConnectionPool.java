@@ -0,0 +1,333 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ConnectionPool
+{
+	private final String connectionString;
+	private final Properties properties;
+	private final int readerCount;
+	private final long checkoutTimeout;
+
+	private final ArrayBlockingQueue<PooledConnection> writer = new ArrayBlockingQueue<>(1);
+	private final ArrayBlockingQueue<PooledConnection> readers;
+	private final LinkedList<PooledConnection> allConnections = new LinkedList<>();
+	private boolean closed = false;
+	// connections that were broken and could not be reopened straight away, these are opened again on the next checkout
+	private boolean writerMissing = false;
+	private int missingReaders = 0;
+
+	private final AtomicLong writeCheckouts = new AtomicLong(0);
+	private final AtomicLong writeWaitNanos = new AtomicLong(0);
+	private final AtomicLong writeMaxWaitNanos = new AtomicLong(0);
+	private final AtomicLong readCheckouts = new AtomicLong(0);
+	private final AtomicLong readWaitNanos = new AtomicLong(0);
+	private final AtomicLong readMaxWaitNanos = new AtomicLong(0);
+	private final AtomicLong checkoutTimeouts = new AtomicLong(0);
+
+	ConnectionPool(@NotNull String connectionString, @NotNull Properties properties, int readerCount, long checkoutTimeout) throws DatabaseException
+	{
+		if (readerCount < 1)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.connectionString = connectionString;
+		this.properties = properties;
+		this.readerCount = readerCount;
+		this.checkoutTimeout = checkoutTimeout;
+		this.readers = new ArrayBlockingQueue<>(readerCount);
+
+		try
+		{
+			PooledConnection writer = this.open(true);
+			try (Statement statement = writer.connection.createStatement())
+			{
+				// WAL mode is persistent for the database file so it only needs to be set once, and allows the readers to proceed while a write transaction is in progress
+				statement.execute("PRAGMA journal_mode = WAL");
+			}
+			this.writer.add(writer);
+			for (int index = 0; index < readerCount; index++)
+			{
+				this.readers.add(this.open(false));
+			}
+		}
+		catch (SQLException exception)
+		{
+			this.close();
+			throw new DatabaseException(exception);
+		}
+		catch (DatabaseException exception)
+		{
+			this.close();
+			throw exception;
+		}
+	}
+
+	void close()
+	{
+		synchronized (this)
+		{
+			this.closed = true;
+			for (PooledConnection connection : this.allConnections)
+			{
+				connection.close();
+			}
+			this.allConnections.clear();
+			this.writer.clear();
+			this.readers.clear();
+		}
+	}
+
+	@NotNull
+	PooledConnection checkout(boolean write) throws DatabaseException
+	{
+		ArrayBlockingQueue<PooledConnection> queue = write ? this.writer : this.readers;
+		long startTime = System.nanoTime();
+		PooledConnection connection = this.reopenMissing(write);
+		if (connection == null)
+		{
+			try
+			{
+				connection = queue.poll(this.checkoutTimeout, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+				throw new DatabaseException(exception);
+			}
+		}
+		long waitTime = System.nanoTime() - startTime;
+
+		if (connection == null)
+		{
+			this.checkoutTimeouts.incrementAndGet();
+			throw new DatabaseException("Timed out waiting for " + (write ? "write" : "read") + " connection");
+		}
+
+		if (write)
+		{
+			this.writeCheckouts.incrementAndGet();
+			this.writeWaitNanos.addAndGet(waitTime);
+			this.writeMaxWaitNanos.accumulateAndGet(waitTime, Math::max);
+		}
+		else
+		{
+			this.readCheckouts.incrementAndGet();
+			this.readWaitNanos.addAndGet(waitTime);
+			this.readMaxWaitNanos.accumulateAndGet(waitTime, Math::max);
+		}
+
+		return connection;
+	}
+
+	void release(@NotNull PooledConnection connection, boolean broken)
+	{
+		synchronized (this)
+		{
+			if (this.closed)
+			{
+				connection.close();
+				return;
+			}
+
+			if (broken)
+			{
+				this.allConnections.remove(connection);
+				connection.close();
+				try
+				{
+					connection = this.open(connection.write);
+				}
+				catch (DatabaseException exception)
+				{
+					if (connection.write)
+					{
+						this.writerMissing = true;
+					}
+					else
+					{
+						this.missingReaders++;
+					}
+					return;
+				}
+			}
+
+			(connection.write ? this.writer : this.readers).add(connection);
+		}
+	}
+
+	@NotNull
+	public Stats getStats()
+	{
+		return new Stats(
+				this.readerCount,
+				this.readers.size(),
+				this.writer.isEmpty(),
+				this.writeCheckouts.get(),
+				this.writeWaitNanos.get() / 1000,
+				this.writeMaxWaitNanos.get() / 1000,
+				this.readCheckouts.get(),
+				this.readWaitNanos.get() / 1000,
+				this.readMaxWaitNanos.get() / 1000,
+				this.checkoutTimeouts.get()
+		);
+	}
+
+	public record Stats(
+			int readerConnections,
+			int idleReaderConnections,
+			boolean writerConnectionBusy,
+			long writeCheckouts,
+			long writeWaitMicrosTotal,
+			long writeWaitMicrosMax,
+			long readCheckouts,
+			long readWaitMicrosTotal,
+			long readWaitMicrosMax,
+			long checkoutTimeouts
+	)
+	{
+	}
+
+	// the writer is never in the queue while it is missing so failing to reopen it fails the checkout, whereas a reader checkout can still wait for one of the other readers
+	@Nullable
+	private PooledConnection reopenMissing(boolean write) throws DatabaseException
+	{
+		synchronized (this)
+		{
+			if (this.closed || (write ? !this.writerMissing : this.missingReaders == 0))
+			{
+				return null;
+			}
+
+			PooledConnection connection;
+			try
+			{
+				connection = this.open(write);
+			}
+			catch (DatabaseException exception)
+			{
+				if (write)
+				{
+					throw exception;
+				}
+				return null;
+			}
+
+			if (write)
+			{
+				this.writerMissing = false;
+			}
+			else
+			{
+				this.missingReaders--;
+			}
+			return connection;
+		}
+	}
+
+	// for the rare cases that need a connection while the thread may already hold one from the pool, the caller must close it
+	@NotNull
+	Connection openUnpooled() throws DatabaseException
+	{
+		try
+		{
+			return DriverManager.getConnection("jdbc:sqlite:" + this.connectionString, this.properties);
+		}
+		catch (SQLException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+	}
+
+	@NotNull
+	private PooledConnection open(boolean write) throws DatabaseException
+	{
+		synchronized (this)
+		{
+			try
+			{
+				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.connectionString, this.properties);
+				PooledConnection pooledConnection = new PooledConnection(connection, write);
+				this.allConnections.add(pooledConnection);
+				return pooledConnection;
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+	}
+
+	static final class PooledConnection
+	{
+		public final Connection connection;
+		public final boolean write;
+		private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+
+		private PooledConnection(@NotNull Connection connection, boolean write)
+		{
+			this.connection = connection;
+			this.write = write;
+		}
+
+		@NotNull
+		public PreparedStatement prepareStatement(@NotNull String sql) throws SQLException
+		{
+			PreparedStatement statement = this.statements.getOrDefault(sql, null);
+			if (statement == null)
+			{
+				statement = this.connection.prepareStatement(sql);
+				this.statements.put(sql, statement);
+			}
+			else
+			{
+				statement.clearParameters();
+			}
+			return statement;
+		}
+
+		// some statements such as VACUUM cannot be run while other statements are prepared on the same connection
+		public void clearStatements()
+		{
+			for (PreparedStatement statement : this.statements.values())
+			{
+				try
+				{
+					statement.close();
+				}
+				catch (SQLException exception)
+				{
+					// empty
+				}
+			}
+			this.statements.clear();
+		}
+
+		private void close()
+		{
+			this.clearStatements();
+			try
+			{
+				this.connection.close();
+			}
+			catch (SQLException exception)
+			{
+				// empty
+			}
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+
+// a change to an object that can be stored on its own instead of storing the whole changed object, must be encodable by the value codec and applying it must not depend on anything other than the object
+public interface Delta<T>
+{
+	void apply(@NotNull T value);
+}
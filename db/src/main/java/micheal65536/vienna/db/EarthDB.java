@@ -1,177 +1,184 @@
 package micheal65536.vienna.db;
 
-import com.google.gson.Gson;
 import org.jetbrains.annotations.NotNull;
-
-import micheal65536.vienna.db.model.player.ActivityLog;
-import micheal65536.vienna.db.model.player.Tokens;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Constructor;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Properties;
 import java.util.function.Function;
 
 public final class EarthDB implements AutoCloseable
 {
-	private static final int TRANSACTION_TIMEOUT = 60000;
-
 	@NotNull
 	public static EarthDB open(@NotNull String connectionString) throws DatabaseException
 	{
-		return new EarthDB(connectionString);
+		return new EarthDB(SQLiteStorage.open(connectionString, new Options()));
 	}
 
-	private final String connectionString;
-	private final Properties properties;
-	private final LinkedHashSet<Transaction> transactions = new LinkedHashSet<>();
-
-	private EarthDB(@NotNull String connectionString) throws DatabaseException
+	@NotNull
+	public static EarthDB open(@NotNull String connectionString, @NotNull Options options) throws DatabaseException
 	{
-		this.connectionString = connectionString;
-		this.properties = new Properties();
-		this.properties.put("busy_timeout", Integer.toString(TRANSACTION_TIMEOUT));
-
-		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.connectionString, this.properties))
-		{
-			Statement statement = connection.createStatement();
-			statement.execute("CREATE TABLE IF NOT EXISTS objects (type STRING NOT NULL, id STRING NOT NULL, value STRING NOT NULL, version INTEGER NOT NULL, PRIMARY KEY (type, id))");
-			statement.close();
-		}
-		catch (SQLException exception)
-		{
-			throw new DatabaseException(exception);
-		}
+		return new EarthDB(SQLiteStorage.open(connectionString, options));
 	}
 
-	@Override
-	public void close()
+	// player objects are spread across the databases by ID, global objects are kept in the first database
+	@NotNull
+	public static EarthDB openSharded(@NotNull List<String> connectionStrings, @NotNull Options options) throws DatabaseException
 	{
-		synchronized (this)
+		Storage[] shards = new Storage[connectionStrings.size()];
+		try
 		{
-			for (Transaction transaction : this.transactions.toArray(Transaction[]::new))
+			for (int index = 0; index < shards.length; index++)
 			{
-				try
-				{
-					transaction.close();
-				}
-				catch (DatabaseException exception)
+				shards[index] = SQLiteStorage.open(connectionStrings.get(index), options);
+			}
+		}
+		catch (DatabaseException exception)
+		{
+			for (Storage shard : shards)
+			{
+				if (shard != null)
 				{
-					// empty
+					shard.close();
 				}
 			}
+			throw exception;
 		}
+		return new EarthDB(new ShardedStorage(shards, 0));
 	}
 
 	@NotNull
-	private Transaction transaction(boolean write) throws DatabaseException
+	public static EarthDB open(@NotNull Storage storage)
 	{
-		synchronized (this)
-		{
-			try
-			{
-				Connection connection = DriverManager.getConnection("jdbc:sqlite:" + this.connectionString, this.properties);
-				Transaction transaction = new Transaction(connection, write);
-				this.transactions.add(transaction);
-				return transaction;
-			}
-			catch (SQLException exception)
-			{
-				throw new DatabaseException(exception);
-			}
-		}
+		return new EarthDB(storage);
 	}
 
-	private final class Transaction implements AutoCloseable
+	private final Storage storage;
+
+	private EarthDB(@NotNull Storage storage)
 	{
-		public final Connection connection;
-		private boolean committed = false;
+		this.storage = storage;
+	}
 
-		public Transaction(@NotNull Connection connection, boolean write) throws DatabaseException
+	public static final class Options
+	{
+		int readerConnections = 4;
+		boolean groupCommit = false;
+		int groupCommitMaxBatchSize = 64;
+		Function<StringTable, ValueCodec> valueCodecFactory = stringTable -> new JsonValueCodec();
+		long cacheSize = 0;
+		int optimisticMaxAttempts = 5;
+		int deltaCompactionThreshold = 32;
+
+		public Options()
 		{
-			this.connection = connection;
+			// empty
+		}
 
-			try
+		@NotNull
+		public Options readerConnections(int readerConnections)
+		{
+			if (readerConnections < 1)
 			{
-				Statement statement = this.connection.createStatement();
-				statement.execute(write ? "BEGIN IMMEDIATE TRANSACTION" : "BEGIN DEFERRED TRANSACTION");
-				statement.close();
-			}
-			catch (SQLException exception)
-			{
-				try
-				{
-					this.connection.close();
-				}
-				catch (SQLException exception1)
-				{
-					// empty
-				}
-				throw new DatabaseException(exception);
+				throw new IllegalArgumentException();
 			}
+			this.readerConnections = readerConnections;
+			return this;
+		}
+
+		@NotNull
+		public Options groupCommit(boolean groupCommit)
+		{
+			this.groupCommit = groupCommit;
+			return this;
 		}
 
-		@Override
-		public void close() throws DatabaseException
+		@NotNull
+		public Options groupCommitMaxBatchSize(int groupCommitMaxBatchSize)
 		{
-			if (!this.committed)
+			if (groupCommitMaxBatchSize < 1)
 			{
-				try
-				{
-					Statement statement = this.connection.createStatement();
-					statement.execute("ROLLBACK TRANSACTION");
-					statement.close();
-				}
-				catch (SQLException exception)
-				{
-					throw new DatabaseException(exception);
-				}
+				throw new IllegalArgumentException();
 			}
+			this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+			return this;
+		}
 
-			synchronized (EarthDB.this)
+		@NotNull
+		public Options valueCodec(@NotNull Function<StringTable, ValueCodec> valueCodecFactory)
+		{
+			this.valueCodecFactory = valueCodecFactory;
+			return this;
+		}
+
+		// approximate size in bytes of the encoded values to keep in the object cache, 0 disables the cache
+		@NotNull
+		public Options cacheSize(long cacheSize)
+		{
+			if (cacheSize < 0)
 			{
-				EarthDB.this.transactions.remove(this);
-				try
-				{
-					this.connection.close();
-				}
-				catch (SQLException exception)
-				{
-					// empty
-				}
+				throw new IllegalArgumentException();
 			}
+			this.cacheSize = cacheSize;
+			return this;
 		}
 
-		public void commit() throws DatabaseException
+		// number of times an optimistic query is attempted before it is run with the write lock held instead
+		@NotNull
+		public Options optimisticMaxAttempts(int optimisticMaxAttempts)
 		{
-			try
+			if (optimisticMaxAttempts < 1)
 			{
-				Statement statement = this.connection.createStatement();
-				statement.execute("COMMIT TRANSACTION");
-				statement.close();
+				throw new IllegalArgumentException();
 			}
-			catch (SQLException exception)
+			this.optimisticMaxAttempts = optimisticMaxAttempts;
+			return this;
+		}
+
+		// number of deltas appended to an object after which they are merged back into the stored object in the background
+		@NotNull
+		public Options deltaCompactionThreshold(int deltaCompactionThreshold)
+		{
+			if (deltaCompactionThreshold < 1)
 			{
-				throw new DatabaseException(exception);
+				throw new IllegalArgumentException();
 			}
-			this.committed = true;
+			this.deltaCompactionThreshold = deltaCompactionThreshold;
+			return this;
 		}
 	}
 
+	@Override
+	public void close()
+	{
+		this.storage.close();
+	}
+
+	@NotNull
+	public Storage getStorage()
+	{
+		return this.storage;
+	}
+
+	// adds strings that value codecs may use to shorten stored values, strings that are already present are ignored
+	public void internStrings(@NotNull String... strings) throws DatabaseException
+	{
+		this.storage.internStrings(strings);
+	}
+
 	public static class Query
 	{
 		private final boolean write;
+		private boolean optimistic = false;
 		private final LinkedList<WriteObjectsEntry> writeObjects = new LinkedList<>();
 		private final LinkedList<BumpEntry> bumps = new LinkedList<>();
+		private final LinkedList<AppendEntry> appends = new LinkedList<>();
 		private final LinkedList<ReadObjectsEntry> readObjects = new LinkedList<>();
+		private final LinkedList<WriteEntriesEntry> writeEntries = new LinkedList<>();
+		private final LinkedList<ReadEntriesEntry> readEntries = new LinkedList<>();
 		private final LinkedList<ExtrasEntry> extras = new LinkedList<>();
 		private final LinkedList<ThenFunctionEntry> thenFunctions = new LinkedList<>();
 
@@ -183,10 +190,22 @@ public final class EarthDB implements AutoCloseable
 		{
 		}
 
+		private record AppendEntry(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass, @NotNull Delta<?> delta)
+		{
+		}
+
 		private record ReadObjectsEntry(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass)
 		{
 		}
 
+		private record WriteEntriesEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Object value)
+		{
+		}
+
+		private record ReadEntriesEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<?> valueClass)
+		{
+		}
+
 		private record ExtrasEntry(@NotNull String name, @NotNull Object value)
 		{
 		}
@@ -200,6 +219,18 @@ public final class EarthDB implements AutoCloseable
 			this.write = write;
 		}
 
+		// reads and runs the then functions without holding the write lock, the then functions may be run more than once if another query changes the same objects in the meantime
+		@NotNull
+		public Query optimistic()
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+			this.optimistic = true;
+			return this;
+		}
+
 		@NotNull
 		public <T> Query update(@NotNull String type, @NotNull String id, @NotNull T value)
 		{
@@ -222,6 +253,19 @@ public final class EarthDB implements AutoCloseable
 			return this;
 		}
 
+		// stores only the change instead of the whole changed object, creating a new instance of the value class first if the object does not exist
+		// this avoids reading and rewriting large objects when only a small part of them changes, the object is read back with the deltas applied
+		@NotNull
+		public <T> Query append(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass, @NotNull Delta<T> delta)
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+			this.appends.add(new AppendEntry(type, id, valueClass, delta));
+			return this;
+		}
+
 		@NotNull
 		public <T> Query get(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass)
 		{
@@ -229,6 +273,25 @@ public final class EarthDB implements AutoCloseable
 			return this;
 		}
 
+		// entries are stored separately from the object with the same type and ID, so that one entry can be read or written without touching the others
+		@NotNull
+		public <T> Query putEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull T value)
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+			this.writeEntries.add(new WriteEntriesEntry(type, id, key, value));
+			return this;
+		}
+
+		@NotNull
+		public <T> Query getEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<T> valueClass)
+		{
+			this.readEntries.add(new ReadEntriesEntry(type, id, key, valueClass));
+			return this;
+		}
+
 		@NotNull
 		public <T> Query extra(@NotNull String name, @NotNull T value)
 		{
@@ -264,22 +327,49 @@ public final class EarthDB implements AutoCloseable
 		@NotNull
 		public Results execute(@NotNull EarthDB earthDB) throws DatabaseException
 		{
-			try (Transaction transaction = earthDB.transaction(this.write))
+			Storage.TransactionFunction<Results> function = transaction ->
 			{
 				HashMap<String, Integer> updates = new HashMap<>();
 				Results results = this.executeInternal(transaction, this.write, updates);
-				transaction.commit();
 				results.updates.putAll(updates);
 				return results;
+			};
+			return this.optimistic ? earthDB.storage.executeOptimistic(this.getRoutingId(), function) : earthDB.storage.execute(this.write, this.getRoutingId(), function);
+		}
+
+		// queries are routed by the ID of the first object that they access, queries returned from then functions must access objects with the same routing
+		@NotNull
+		private String getRoutingId()
+		{
+			if (!this.writeObjects.isEmpty())
+			{
+				return this.writeObjects.getFirst().id;
 			}
-			catch (SQLException exception)
+			if (!this.bumps.isEmpty())
 			{
-				throw new DatabaseException(exception);
+				return this.bumps.getFirst().id;
 			}
+			if (!this.appends.isEmpty())
+			{
+				return this.appends.getFirst().id;
+			}
+			if (!this.readObjects.isEmpty())
+			{
+				return this.readObjects.getFirst().id;
+			}
+			if (!this.writeEntries.isEmpty())
+			{
+				return this.writeEntries.getFirst().id;
+			}
+			if (!this.readEntries.isEmpty())
+			{
+				return this.readEntries.getFirst().id;
+			}
+			return "";
 		}
 
 		@NotNull
-		private Results executeInternal(@NotNull Transaction transaction, boolean write, @NotNull HashMap<String, Integer> updates) throws DatabaseException, SQLException
+		private Results executeInternal(@NotNull StorageTransaction transaction, boolean write, @NotNull HashMap<String, Integer> updates) throws DatabaseException
 		{
 			if (this.write && !write)
 			{
@@ -290,98 +380,33 @@ public final class EarthDB implements AutoCloseable
 
 			for (WriteObjectsEntry entry : this.writeObjects)
 			{
-				String json = toJson(entry.value);
-				PreparedStatement statement = transaction.connection.prepareStatement("INSERT OR REPLACE INTO objects(type, id, value, version) VALUES (?, ?, ?, COALESCE((SELECT version FROM objects WHERE type == ? AND id == ?), 1) + 1)");
-				statement.setString(1, entry.type);
-				statement.setString(2, entry.id);
-				statement.setString(3, json);
-				statement.setString(4, entry.type);
-				statement.setString(5, entry.id);
-				statement.execute();
-
-				statement = transaction.connection.prepareStatement("SELECT version FROM objects WHERE type == ? AND id == ?");
-				statement.setString(1, entry.type);
-				statement.setString(2, entry.id);
-				statement.execute();
-				ResultSet resultSet = statement.getResultSet();
-				if (resultSet.next())
-				{
-					int version = resultSet.getInt("version");
-					updates.put(entry.type, version);
-				}
-				else
-				{
-					throw new DatabaseException("Could not query updated object");
-				}
+				updates.put(entry.type, transaction.update(entry.type, entry.id, entry.value));
 			}
 
 			for (BumpEntry entry : this.bumps)
 			{
-				Integer version;
-				try (PreparedStatement statement = transaction.connection.prepareStatement("SELECT version FROM objects WHERE type == ? AND id == ?"))
-				{
-					statement.setString(1, entry.type);
-					statement.setString(2, entry.id);
-					statement.execute();
-					ResultSet resultSet = statement.getResultSet();
-					if (resultSet.next())
-					{
-						version = resultSet.getInt("version");
-					}
-					else
-					{
-						version = null;
-					}
-				}
+				updates.put(entry.type, transaction.bump(entry.type, entry.id, entry.valueClass));
+			}
 
-				int resultVersion;
-				if (version != null)
-				{
-					try (PreparedStatement statement = transaction.connection.prepareStatement("UPDATE objects SET version = ? WHERE type == ? AND id == ?"))
-					{
-						statement.setInt(1, version + 1);
-						statement.setString(2, entry.type);
-						statement.setString(3, entry.id);
-						statement.execute();
-					}
-					resultVersion = version + 1;
-				}
-				else
-				{
-					Object value = createNewInstance(entry.valueClass);
-					String json = toJson(value);
-					try (PreparedStatement statement = transaction.connection.prepareStatement("INSERT INTO objects(type, id, value, version) VALUES (?, ?, ?, 2)"))
-					{
-						statement.setString(1, entry.type);
-						statement.setString(2, entry.id);
-						statement.setString(3, json);
-						statement.execute();
-					}
-					resultVersion = 2;
-				}
-				updates.put(entry.type, resultVersion);
+			for (AppendEntry entry : this.appends)
+			{
+				updates.put(entry.type, transaction.append(entry.type, entry.id, (Class<Object>) entry.valueClass, (Delta<Object>) entry.delta));
 			}
 
 			for (ReadObjectsEntry entry : this.readObjects)
 			{
-				try (PreparedStatement statement = transaction.connection.prepareStatement("SELECT value, version FROM objects WHERE type == ? AND id == ?"))
-				{
-					statement.setString(1, entry.type);
-					statement.setString(2, entry.id);
-					statement.execute();
-					ResultSet resultSet = statement.getResultSet();
-					if (resultSet.next())
-					{
-						String json = resultSet.getString("value");
-						int version = resultSet.getInt("version");
-						Object value = fromJson(json, entry.valueClass);
-						results.getValues.put(entry.type, new Results.Result<>(value, version));
-					}
-					else
-					{
-						results.getValues.put(entry.type, new Results.Result<>(createNewInstance(entry.valueClass), 1));
-					}
-				}
+				Results.Result<?> result = transaction.get(entry.type, entry.id, entry.valueClass);
+				results.getValues.put(entry.type, result != null ? result : new Results.Result<>(createNewInstance(entry.valueClass), 1));
+			}
+
+			for (WriteEntriesEntry entry : this.writeEntries)
+			{
+				updates.put(entry.type, transaction.putEntry(entry.type, entry.id, entry.key, entry.value));
+			}
+
+			for (ReadEntriesEntry entry : this.readEntries)
+			{
+				results.getEntries.put(new Results.EntryKey(entry.type, entry.id, entry.key), transaction.getEntry(entry.type, entry.id, entry.key, entry.valueClass));
 			}
 
 			for (ExtrasEntry entry : this.extras)
@@ -403,22 +428,7 @@ public final class EarthDB implements AutoCloseable
 		}
 
 		@NotNull
-		private static <T> T fromJson(@NotNull String json, @NotNull Class<T> valueClass)
-		{
-			return new Gson().newBuilder()
-					.registerTypeAdapter(Tokens.Token.class, new Tokens.Token.Deserializer())
-					.registerTypeAdapter(ActivityLog.Entry.class, new ActivityLog.Entry.Deserializer())
-					.create().fromJson(json, valueClass);
-		}
-
-		@NotNull
-		private static String toJson(@NotNull Object value)
-		{
-			return new Gson().newBuilder().serializeNulls().create().toJson(value);
-		}
-
-		@NotNull
-		private static <T> T createNewInstance(@NotNull Class<T> valueClass) throws DatabaseException
+		static <T> T createNewInstance(@NotNull Class<T> valueClass) throws DatabaseException
 		{
 			try
 			{
@@ -436,6 +446,8 @@ public final class EarthDB implements AutoCloseable
 	public static class Results
 	{
 		private final HashMap<String, Result<?>> getValues = new HashMap<>();
+		// the values are null for entries that do not exist
+		private final HashMap<EntryKey, Result<?>> getEntries = new HashMap<>();
 		private final HashMap<String, Object> extras = new HashMap<>();
 		private final HashMap<String, Integer> updates = new HashMap<>();
 
@@ -455,6 +467,41 @@ public final class EarthDB implements AutoCloseable
 			return value;
 		}
 
+		// returns null if the entry does not exist, if several entries of the type were read then the ID and key must be given to tell them apart
+		@Nullable
+		public <T> Result<T> getEntry(@NotNull String name)
+		{
+			EntryKey foundEntryKey = null;
+			for (EntryKey entryKey : this.getEntries.keySet())
+			{
+				if (entryKey.type.equals(name))
+				{
+					if (foundEntryKey != null)
+					{
+						throw new IllegalStateException("More than one entry of type " + name + " was read");
+					}
+					foundEntryKey = entryKey;
+				}
+			}
+			if (foundEntryKey == null)
+			{
+				throw new NoSuchElementException();
+			}
+			return (Result<T>) this.getEntries.get(foundEntryKey);
+		}
+
+		// returns null if the entry does not exist
+		@Nullable
+		public <T> Result<T> getEntry(@NotNull String type, @NotNull String id, @NotNull String key)
+		{
+			EntryKey entryKey = new EntryKey(type, id, key);
+			if (!this.getEntries.containsKey(entryKey))
+			{
+				throw new NoSuchElementException();
+			}
+			return (Result<T>) this.getEntries.get(entryKey);
+		}
+
 		@NotNull
 		public HashMap<String, Integer> getUpdates()
 		{
@@ -478,5 +525,13 @@ public final class EarthDB implements AutoCloseable
 		)
 		{
 		}
+
+		private record EntryKey(
+				@NotNull String type,
+				@NotNull String id,
+				@NotNull String key
+		)
+		{
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package micheal65536.vienna.db;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.db.model.player.ActivityLog;
+import micheal65536.vienna.db.model.player.Tokens;
+
+public final class JsonValueCodec implements ValueCodec
+{
+	static final Gson GSON = new GsonBuilder()
+			.serializeNulls()
+			.registerTypeAdapter(Tokens.Token.class, new Tokens.Token.Deserializer())
+			.registerTypeAdapter(ActivityLog.Entry.class, new ActivityLog.Entry.Deserializer())
+			.create();
+
+	public JsonValueCodec()
+	{
+		// empty
+	}
+
+	@Override
+	@NotNull
+	public Object encode(@NotNull Object value)
+	{
+		return GSON.toJson(value);
+	}
+
+	@Override
+	@NotNull
+	public <T> T decode(@NotNull Object data, @NotNull Class<T> valueClass) throws DatabaseException
+	{
+		if (!(data instanceof String json))
+		{
+			throw new DatabaseException("Cannot decode non-JSON value");
+		}
+		try
+		{
+			T value = GSON.fromJson(json, valueClass);
+			if (value == null)
+			{
+				throw new DatabaseException("Decoded value was null");
+			}
+			return value;
+		}
+		catch (JsonParseException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+	}
+}
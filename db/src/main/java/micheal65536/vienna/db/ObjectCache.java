@@ -0,0 +1,171 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// caches decoded objects along with their version, callers always receive their own copy as the objects are mutated by the query functions
+// objects are copied using their copy() method where they have one, otherwise they are decoded again from the cached encoded value
+public final class ObjectCache
+{
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final long maxBytes;
+	private final ValueCodec valueCodec;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	private static final ConcurrentHashMap<Class<?>, MethodHandle> copyMethods = new ConcurrentHashMap<>();
+	private static final MethodHandle NO_COPY_METHOD = MethodHandles.constant(Object.class, null);
+
+	private record Key(@NotNull String type, @NotNull String id)
+	{
+	}
+
+	private record Entry(int version, @Nullable Object value, @NotNull Object data, int size)
+	{
+	}
+
+	ObjectCache(long maxBytes, @NotNull ValueCodec valueCodec)
+	{
+		this.maxBytes = maxBytes;
+		this.valueCodec = valueCodec;
+	}
+
+	@Nullable
+	<T> T get(@NotNull String type, @NotNull String id, int version, @NotNull Class<T> valueClass) throws DatabaseException
+	{
+		Entry entry;
+		synchronized (this)
+		{
+			entry = this.entries.getOrDefault(new Key(type, id), null);
+		}
+		if (entry == null || entry.version != version || (entry.value != null && entry.value.getClass() != valueClass))
+		{
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return entry.value != null ? valueClass.cast(copy(entry.value)) : this.valueCodec.decode(entry.data, valueClass);
+	}
+
+	// the value passed in must not be used by anything else afterwards, use prepare() to get a suitable copy
+	void put(@NotNull String type, @NotNull String id, int version, @Nullable Object value, @NotNull Object data)
+	{
+		int size = ENTRY_OVERHEAD + (data instanceof byte[] bytes ? bytes.length : ((String) data).length() * 2);
+		if (size > this.maxBytes)
+		{
+			this.invalidate(type, id);
+			return;
+		}
+
+		synchronized (this)
+		{
+			Key key = new Key(type, id);
+			Entry existing = this.entries.getOrDefault(key, null);
+			if (existing != null)
+			{
+				if (existing.version > version)
+				{
+					return;
+				}
+				this.bytes -= existing.size;
+			}
+			this.entries.put(key, new Entry(version, value, data, size));
+			this.bytes += size;
+
+			Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+			while (this.bytes > this.maxBytes && iterator.hasNext())
+			{
+				Map.Entry<Key, Entry> eldest = iterator.next();
+				if (eldest.getKey().equals(key))
+				{
+					continue;
+				}
+				iterator.remove();
+				this.bytes -= eldest.getValue().size;
+				this.evictions.incrementAndGet();
+			}
+		}
+	}
+
+	void invalidate(@NotNull String type, @NotNull String id)
+	{
+		synchronized (this)
+		{
+			Entry entry = this.entries.remove(new Key(type, id));
+			if (entry != null)
+			{
+				this.bytes -= entry.size;
+			}
+		}
+	}
+
+	// returns a copy of the value to hold in the cache, or null if the value cannot be copied and must be decoded each time
+	@Nullable
+	static Object prepare(@NotNull Object value)
+	{
+		return copy(value);
+	}
+
+	@Nullable
+	private static Object copy(@NotNull Object value)
+	{
+		MethodHandle copyMethod = copyMethods.computeIfAbsent(value.getClass(), valueClass ->
+		{
+			try
+			{
+				return MethodHandles.publicLookup().findVirtual(valueClass, "copy", MethodType.methodType(valueClass)).asType(MethodType.methodType(Object.class, Object.class));
+			}
+			catch (NoSuchMethodException | IllegalAccessException exception)
+			{
+				return MethodHandles.dropArguments(NO_COPY_METHOD, 0, Object.class);
+			}
+		});
+		try
+		{
+			return copyMethod.invokeExact(value);
+		}
+		catch (RuntimeException | Error exception)
+		{
+			throw exception;
+		}
+		catch (Throwable throwable)
+		{
+			throw new AssertionError(throwable);
+		}
+	}
+
+	@NotNull
+	public Stats getStats()
+	{
+		synchronized (this)
+		{
+			return new Stats(this.hits.get(), this.misses.get(), this.evictions.get(), this.entries.size(), this.bytes, this.maxBytes);
+		}
+	}
+
+	public record Stats(
+			long hits,
+			long misses,
+			long evictions,
+			int entries,
+			long bytes,
+			long maxBytes
+	)
+	{
+	}
+}
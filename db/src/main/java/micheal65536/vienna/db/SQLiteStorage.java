@@ -0,0 +1,1451 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SQLiteStorage implements Storage
+{
+	private static final int TRANSACTION_TIMEOUT = 60000;
+
+	@NotNull
+	public static SQLiteStorage open(@NotNull String connectionString, @NotNull EarthDB.Options options) throws DatabaseException
+	{
+		return new SQLiteStorage(connectionString, options);
+	}
+
+	private final ConnectionPool connectionPool;
+	private final LinkedHashSet<Transaction> transactions = new LinkedHashSet<>();
+	private final StringTable stringTable = new StringTable(this::loadStrings);
+	private final ValueCodec valueCodec;
+	@Nullable
+	private final GroupCommitter groupCommitter;
+	@Nullable
+	private final ObjectCache objectCache;
+	private final int optimisticMaxAttempts;
+	private final int deltaCompactionThreshold;
+	private final ExecutorService compactionExecutor;
+	private final Set<CompactionKey> pendingCompactions = ConcurrentHashMap.newKeySet();
+	private static final ConcurrentHashMap<String, Class<?>> deltaClasses = new ConcurrentHashMap<>();
+
+	private final AtomicLong optimisticQueries = new AtomicLong(0);
+	private final AtomicLong optimisticConflicts = new AtomicLong(0);
+	private final AtomicLong optimisticFallbacks = new AtomicLong(0);
+	private final AtomicLong objectWrites = new AtomicLong(0);
+	private final AtomicLong objectBytes = new AtomicLong(0);
+	private final AtomicLong deltaWrites = new AtomicLong(0);
+	private final AtomicLong deltaBytes = new AtomicLong(0);
+	private final AtomicLong compactions = new AtomicLong(0);
+	private final AtomicLong compactionBytes = new AtomicLong(0);
+
+	private record CompactionKey(@NotNull String type, @NotNull String id)
+	{
+	}
+
+	private SQLiteStorage(@NotNull String connectionString, @NotNull EarthDB.Options options) throws DatabaseException
+	{
+		Properties properties = new Properties();
+		properties.put("busy_timeout", Integer.toString(TRANSACTION_TIMEOUT));
+
+		this.connectionPool = new ConnectionPool(connectionString, properties, options.readerConnections, TRANSACTION_TIMEOUT);
+
+		Transaction transaction = this.transaction(true);
+		try (transaction)
+		{
+			Statement statement = transaction.connection.connection.createStatement();
+			statement.execute("CREATE TABLE IF NOT EXISTS objects (type STRING NOT NULL, id STRING NOT NULL, value STRING NOT NULL, version INTEGER NOT NULL, deltas INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (type, id))");
+			if (!hasColumn(transaction, "objects", "deltas"))
+			{
+				statement.execute("ALTER TABLE objects ADD COLUMN deltas INTEGER NOT NULL DEFAULT 0");
+			}
+			statement.execute("CREATE TABLE IF NOT EXISTS deltas (type STRING NOT NULL, id STRING NOT NULL, seq INTEGER NOT NULL, class TEXT NOT NULL, value BLOB NOT NULL, PRIMARY KEY (type, id, seq))");
+			statement.execute("CREATE TABLE IF NOT EXISTS entries (type STRING NOT NULL, id STRING NOT NULL, key STRING NOT NULL, value BLOB NOT NULL, version INTEGER NOT NULL, PRIMARY KEY (type, id, key))");
+			statement.execute("CREATE TABLE IF NOT EXISTS strings (id INTEGER NOT NULL PRIMARY KEY, value TEXT NOT NULL UNIQUE)");
+			statement.close();
+			this.stringTable.append(this.stringTable.size(), selectStrings(transaction.connection.connection, this.stringTable.size()));
+			transaction.commit();
+		}
+		catch (SQLException exception)
+		{
+			this.connectionPool.close();
+			throw new DatabaseException(exception);
+		}
+		catch (DatabaseException exception)
+		{
+			this.connectionPool.close();
+			throw exception;
+		}
+
+		this.valueCodec = options.valueCodecFactory.apply(this.stringTable);
+		this.groupCommitter = options.groupCommit ? new GroupCommitter(options.groupCommitMaxBatchSize) : null;
+		this.objectCache = options.cacheSize > 0 ? new ObjectCache(options.cacheSize, this.valueCodec) : null;
+		this.optimisticMaxAttempts = options.optimisticMaxAttempts;
+		this.deltaCompactionThreshold = options.deltaCompactionThreshold;
+		this.compactionExecutor = Executors.newSingleThreadExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "EarthDB delta compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void close()
+	{
+		this.compactionExecutor.shutdownNow();
+		try
+		{
+			this.compactionExecutor.awaitTermination(TRANSACTION_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (this.groupCommitter != null)
+		{
+			this.groupCommitter.close();
+		}
+
+		synchronized (this)
+		{
+			for (Transaction transaction : this.transactions.toArray(Transaction[]::new))
+			{
+				try
+				{
+					transaction.close();
+				}
+				catch (DatabaseException exception)
+				{
+					// empty
+				}
+			}
+		}
+		this.connectionPool.close();
+	}
+
+	@NotNull
+	public ConnectionPool.Stats getConnectionPoolStats()
+	{
+		return this.connectionPool.getStats();
+	}
+
+	@NotNull
+	public StringTable getStringTable()
+	{
+		return this.stringTable;
+	}
+
+	@Override
+	public void internStrings(@NotNull String... strings) throws DatabaseException
+	{
+		synchronized (this.stringTable)
+		{
+			try (Transaction transaction = this.transaction(true))
+			{
+				this.stringTable.append(this.stringTable.size(), selectStrings(transaction.connection.connection, this.stringTable.size()));
+
+				LinkedHashSet<String> newStrings = new LinkedHashSet<>();
+				for (String string : strings)
+				{
+					if (this.stringTable.getId(string) == -1)
+					{
+						newStrings.add(string);
+					}
+				}
+				if (newStrings.isEmpty())
+				{
+					return;
+				}
+
+				PreparedStatement statement = transaction.connection.prepareStatement("INSERT INTO strings(id, value) VALUES (?, ?)");
+				int firstId = this.stringTable.size();
+				int id = firstId;
+				for (String string : newStrings)
+				{
+					statement.setInt(1, id++);
+					statement.setString(2, string);
+					statement.execute();
+				}
+				transaction.commit();
+
+				this.stringTable.append(firstId, newStrings.toArray(String[]::new));
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+	}
+
+	private static boolean hasColumn(@NotNull Transaction transaction, @NotNull String table, @NotNull String column) throws SQLException
+	{
+		Statement statement = transaction.connection.connection.createStatement();
+		try (ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + table + ")"))
+		{
+			while (resultSet.next())
+			{
+				if (resultSet.getString("name").equals(column))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	// returns the IDs of objects of the given type in order, starting after the given ID
+	@NotNull
+	String[] selectIds(@NotNull String type, @NotNull String afterId, int limit) throws DatabaseException
+	{
+		try (Transaction transaction = this.transaction(false))
+		{
+			LinkedList<String> ids = new LinkedList<>();
+			PreparedStatement statement = transaction.connection.prepareStatement("SELECT id FROM objects WHERE type == ? AND id > ? ORDER BY id LIMIT ?");
+			statement.setString(1, type);
+			statement.setString(2, afterId);
+			statement.setInt(3, limit);
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				while (resultSet.next())
+				{
+					ids.add(resultSet.getString("id"));
+				}
+			}
+			transaction.commit();
+			return ids.toArray(String[]::new);
+		}
+		catch (SQLException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+	}
+
+	// rebuilds the database file to release the space left by deleted and shrunk values and updates the statistics used by the query planner, returns the number of bytes by which the file shrank
+	// this holds the write connection for the whole time so other writes are blocked until it finishes
+	long vacuum() throws DatabaseException
+	{
+		ConnectionPool.PooledConnection connection = this.connectionPool.checkout(true);
+		try
+		{
+			long sizeBefore = getDatabaseSize(connection);
+			connection.clearStatements();
+			Statement statement = connection.connection.createStatement();
+			statement.execute("VACUUM");
+			statement.execute("ANALYZE");
+			statement.close();
+			long sizeAfter = getDatabaseSize(connection);
+			this.connectionPool.release(connection, false);
+			return sizeBefore - sizeAfter;
+		}
+		catch (SQLException exception)
+		{
+			this.connectionPool.release(connection, true);
+			throw new DatabaseException(exception);
+		}
+	}
+
+	private static long getDatabaseSize(@NotNull ConnectionPool.PooledConnection connection) throws SQLException
+	{
+		Statement statement = connection.connection.createStatement();
+		try (ResultSet resultSet = statement.executeQuery("SELECT page_count * page_size AS size FROM pragma_page_count(), pragma_page_size()"))
+		{
+			resultSet.next();
+			return resultSet.getLong("size");
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	// this is called while decoding a value, when the thread may already hold the only free connection, so it uses a connection of its own
+	@NotNull
+	private String[] loadStrings(int firstId) throws DatabaseException
+	{
+		try (Connection connection = this.connectionPool.openUnpooled())
+		{
+			return selectStrings(connection, firstId);
+		}
+		catch (SQLException exception)
+		{
+			throw new DatabaseException(exception);
+		}
+	}
+
+	@NotNull
+	private static String[] selectStrings(@NotNull Connection connection, int fromId) throws SQLException, DatabaseException
+	{
+		LinkedList<String> strings = new LinkedList<>();
+		try (PreparedStatement statement = connection.prepareStatement("SELECT id, value FROM strings WHERE id >= ? ORDER BY id"))
+		{
+			statement.setInt(1, fromId);
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				while (resultSet.next())
+				{
+					if (resultSet.getInt("id") != fromId + strings.size())
+					{
+						throw new DatabaseException("String table is not contiguous");
+					}
+					strings.add(resultSet.getString("value"));
+				}
+			}
+		}
+		return strings.toArray(String[]::new);
+	}
+
+	@Nullable
+	public GroupCommitStats getGroupCommitStats()
+	{
+		return this.groupCommitter != null ? this.groupCommitter.getStats() : null;
+	}
+
+	public record GroupCommitStats(
+			long batches,
+			long queries,
+			long failedQueries,
+			int maxBatchSize
+	)
+	{
+	}
+
+	@Nullable
+	public ObjectCache.Stats getCacheStats()
+	{
+		return this.objectCache != null ? this.objectCache.getStats() : null;
+	}
+
+	@Override
+	@NotNull
+	public <T> T execute(boolean write, @NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException
+	{
+		if (write && this.groupCommitter != null)
+		{
+			return this.groupCommitter.execute(function);
+		}
+
+		try (Transaction transaction = this.transaction(write))
+		{
+			T result = function.apply(transaction);
+			transaction.commit();
+			return result;
+		}
+	}
+
+	@Override
+	@NotNull
+	public <T> T executeOptimistic(@NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException
+	{
+		this.optimisticQueries.incrementAndGet();
+		for (int attempt = 1; attempt <= this.optimisticMaxAttempts; attempt++)
+		{
+			OptimisticTransaction optimisticTransaction;
+			T result;
+			try (Transaction transaction = this.transaction(false))
+			{
+				optimisticTransaction = new OptimisticTransaction(transaction);
+				result = function.apply(optimisticTransaction);
+				transaction.commit();
+			}
+
+			if (optimisticTransaction.isReadOnly())
+			{
+				return result;
+			}
+
+			try
+			{
+				this.execute(true, routingId, transaction ->
+				{
+					optimisticTransaction.apply((Transaction) transaction);
+					return optimisticTransaction;
+				});
+				return result;
+			}
+			catch (OptimisticConflictException exception)
+			{
+				this.optimisticConflicts.incrementAndGet();
+			}
+
+			if (attempt < this.optimisticMaxAttempts)
+			{
+				try
+				{
+					// exponential backoff with jitter so that conflicting queries do not keep retrying in lockstep
+					Thread.sleep(ThreadLocalRandom.current().nextLong(1, 2L << Math.min(attempt, 6)));
+				}
+				catch (InterruptedException exception)
+				{
+					Thread.currentThread().interrupt();
+					throw new DatabaseException(exception);
+				}
+			}
+		}
+
+		// give up on optimistic execution for heavily contended objects rather than failing the query
+		this.optimisticFallbacks.incrementAndGet();
+		return this.execute(true, routingId, function);
+	}
+
+	@NotNull
+	public OptimisticStats getOptimisticStats()
+	{
+		return new OptimisticStats(this.optimisticQueries.get(), this.optimisticConflicts.get(), this.optimisticFallbacks.get());
+	}
+
+	public record OptimisticStats(
+			long queries,
+			long conflicts,
+			long fallbacks
+	)
+	{
+	}
+
+	// sizes are in bytes for binary values and in characters for text values
+	@NotNull
+	public WriteStats getWriteStats()
+	{
+		return new WriteStats(this.objectWrites.get(), this.objectBytes.get(), this.deltaWrites.get(), this.deltaBytes.get(), this.compactions.get(), this.compactionBytes.get());
+	}
+
+	public record WriteStats(
+			long objectWrites,
+			long objectBytes,
+			long deltaWrites,
+			long deltaBytes,
+			long compactions,
+			long compactionBytes
+	)
+	{
+	}
+
+	private void scheduleCompaction(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass)
+	{
+		CompactionKey compactionKey = new CompactionKey(type, id);
+		if (!this.pendingCompactions.add(compactionKey))
+		{
+			return;
+		}
+		try
+		{
+			this.compactionExecutor.execute(() ->
+			{
+				this.pendingCompactions.remove(compactionKey);
+				try
+				{
+					this.execute(true, id, transaction -> ((Transaction) transaction).compact(type, id, valueClass));
+				}
+				catch (DatabaseException exception)
+				{
+					// empty, the compaction is tried again when the next delta is appended
+				}
+			});
+		}
+		catch (RejectedExecutionException exception)
+		{
+			this.pendingCompactions.remove(compactionKey);
+		}
+	}
+
+	@NotNull
+	private static Delta<Object> decodeDelta(@NotNull ValueCodec valueCodec, @NotNull String className, @NotNull Object data) throws DatabaseException
+	{
+		Class<?> deltaClass = deltaClasses.getOrDefault(className, null);
+		if (deltaClass == null)
+		{
+			try
+			{
+				deltaClass = Class.forName(className);
+			}
+			catch (ClassNotFoundException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+			if (!Delta.class.isAssignableFrom(deltaClass))
+			{
+				throw new DatabaseException("Class %s is not a delta".formatted(className));
+			}
+			deltaClasses.put(className, deltaClass);
+		}
+		return (Delta<Object>) valueCodec.decode(data, deltaClass);
+	}
+
+	private static int getDataSize(@NotNull Object data)
+	{
+		return data instanceof byte[] bytes ? bytes.length : ((String) data).length();
+	}
+
+	@NotNull
+	private Transaction transaction(boolean write) throws DatabaseException
+	{
+		ConnectionPool.PooledConnection connection = this.connectionPool.checkout(write);
+		Transaction transaction = new Transaction(connection, write);
+		synchronized (this)
+		{
+			this.transactions.add(transaction);
+		}
+		return transaction;
+	}
+
+	private final class Transaction implements StorageTransaction, AutoCloseable
+	{
+		public final ConnectionPool.PooledConnection connection;
+		private final boolean write;
+		// changes to the object cache (and anything else that must only happen if the transaction commits) are only applied once the transaction has committed, so that other transactions never see uncommitted values
+		private final LinkedList<Runnable> afterCommit = new LinkedList<>();
+		private boolean committed = false;
+		private boolean closed = false;
+
+		public Transaction(@NotNull ConnectionPool.PooledConnection connection, boolean write) throws DatabaseException
+		{
+			this.connection = connection;
+			this.write = write;
+
+			try
+			{
+				Statement statement = this.connection.connection.createStatement();
+				statement.execute(write ? "BEGIN IMMEDIATE TRANSACTION" : "BEGIN DEFERRED TRANSACTION");
+				statement.close();
+			}
+			catch (SQLException exception)
+			{
+				SQLiteStorage.this.connectionPool.release(this.connection, true);
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		public void close() throws DatabaseException
+		{
+			synchronized (SQLiteStorage.this)
+			{
+				if (this.closed)
+				{
+					return;
+				}
+				this.closed = true;
+				SQLiteStorage.this.transactions.remove(this);
+			}
+
+			if (!this.committed)
+			{
+				try
+				{
+					Statement statement = this.connection.connection.createStatement();
+					statement.execute("ROLLBACK TRANSACTION");
+					statement.close();
+				}
+				catch (SQLException exception)
+				{
+					SQLiteStorage.this.connectionPool.release(this.connection, true);
+					throw new DatabaseException(exception);
+				}
+			}
+
+			SQLiteStorage.this.connectionPool.release(this.connection, false);
+		}
+
+		public void commit() throws DatabaseException
+		{
+			try
+			{
+				Statement statement = this.connection.connection.createStatement();
+				statement.execute("COMMIT TRANSACTION");
+				statement.close();
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+			this.committed = true;
+
+			for (Runnable action : this.afterCommit)
+			{
+				action.run();
+			}
+			this.afterCommit.clear();
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> get(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			try
+			{
+				ObjectCache objectCache = SQLiteStorage.this.objectCache;
+				if (objectCache != null)
+				{
+					// checking the version is much cheaper than reading and decoding the whole value, so look the value up in the cache if the version matches
+					Integer version = this.selectVersion(type, id);
+					T value = version != null ? objectCache.get(type, id, version, valueClass) : null;
+					if (value != null)
+					{
+						return new EarthDB.Results.Result<>(value, version);
+					}
+				}
+
+				PreparedStatement statement = this.connection.prepareStatement("SELECT value, version, deltas FROM objects WHERE type == ? AND id == ?");
+				statement.setString(1, type);
+				statement.setString(2, id);
+				try (ResultSet resultSet = statement.executeQuery())
+				{
+					if (resultSet.next())
+					{
+						Object data = resultSet.getObject("value");
+						int version = resultSet.getInt("version");
+						int deltas = resultSet.getInt("deltas");
+						T value = SQLiteStorage.this.valueCodec.decode(data, valueClass);
+						if (deltas > 0)
+						{
+							this.applyDeltas(type, id, value);
+							if (SQLiteStorage.this.objectCache != null)
+							{
+								this.cachePut(type, id, version, value, SQLiteStorage.this.valueCodec.encode(value));
+							}
+						}
+						else
+						{
+							this.cachePut(type, id, version, value, data);
+						}
+						return new EarthDB.Results.Result<>(value, version);
+					}
+					else
+					{
+						return null;
+					}
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		public int update(@NotNull String type, @NotNull String id, @NotNull Object value) throws DatabaseException
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			try
+			{
+				Object data = SQLiteStorage.this.valueCodec.encode(value);
+				PreparedStatement statement = this.connection.prepareStatement("INSERT OR REPLACE INTO objects(type, id, value, version) VALUES (?, ?, ?, COALESCE((SELECT version FROM objects WHERE type == ? AND id == ?), 1) + 1)");
+				statement.setString(1, type);
+				statement.setString(2, id);
+				setData(statement, 3, data);
+				statement.setString(4, type);
+				statement.setString(5, id);
+				statement.execute();
+				this.deleteDeltas(type, id);
+				this.recordObjectWrite(data);
+
+				Integer version = this.selectVersion(type, id);
+				if (version == null)
+				{
+					throw new DatabaseException("Could not query updated object");
+				}
+				this.cachePut(type, id, version, value, data);
+				return version;
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		public int bump(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass) throws DatabaseException
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			try
+			{
+				Integer version = this.selectVersion(type, id);
+				if (version != null)
+				{
+					PreparedStatement statement = this.connection.prepareStatement("UPDATE objects SET version = ? WHERE type == ? AND id == ?");
+					statement.setInt(1, version + 1);
+					statement.setString(2, type);
+					statement.setString(3, id);
+					statement.execute();
+					this.cacheInvalidate(type, id);
+					return version + 1;
+				}
+				else
+				{
+					Object value = EarthDB.Query.createNewInstance(valueClass);
+					Object data = SQLiteStorage.this.valueCodec.encode(value);
+					PreparedStatement statement = this.connection.prepareStatement("INSERT INTO objects(type, id, value, version) VALUES (?, ?, ?, 2)");
+					statement.setString(1, type);
+					statement.setString(2, id);
+					setData(statement, 3, data);
+					statement.execute();
+					return 2;
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		public <T> int append(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass, @NotNull Delta<T> delta) throws DatabaseException
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			try
+			{
+				Integer version = this.selectVersion(type, id);
+				if (version != null)
+				{
+					PreparedStatement statement = this.connection.prepareStatement("UPDATE objects SET version = ? WHERE type == ? AND id == ?");
+					statement.setInt(1, version + 1);
+					statement.setString(2, type);
+					statement.setString(3, id);
+					statement.execute();
+					this.insertDeltas(type, id, valueClass, List.of(delta));
+					this.cacheInvalidate(type, id);
+					return version + 1;
+				}
+				else
+				{
+					// a new object is small, so it is stored whole instead of as a delta
+					T value = EarthDB.Query.createNewInstance(valueClass);
+					delta.apply(value);
+					Object data = SQLiteStorage.this.valueCodec.encode(value);
+					PreparedStatement statement = this.connection.prepareStatement("INSERT INTO objects(type, id, value, version) VALUES (?, ?, ?, 2)");
+					statement.setString(1, type);
+					statement.setString(2, id);
+					setData(statement, 3, data);
+					statement.execute();
+					this.recordObjectWrite(data);
+					this.cachePut(type, id, 2, value, data);
+					return 2;
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> getEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			try
+			{
+				PreparedStatement statement = this.connection.prepareStatement("SELECT value, version FROM entries WHERE type == ? AND id == ? AND key == ?");
+				statement.setString(1, type);
+				statement.setString(2, id);
+				statement.setString(3, key);
+				try (ResultSet resultSet = statement.executeQuery())
+				{
+					if (resultSet.next())
+					{
+						T value = SQLiteStorage.this.valueCodec.decode(resultSet.getObject("value"), valueClass);
+						return new EarthDB.Results.Result<>(value, resultSet.getInt("version"));
+					}
+					else
+					{
+						return null;
+					}
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		@Override
+		public int putEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Object value) throws DatabaseException
+		{
+			if (!this.write)
+			{
+				throw new UnsupportedOperationException();
+			}
+
+			try
+			{
+				Object data = SQLiteStorage.this.valueCodec.encode(value);
+				PreparedStatement statement = this.connection.prepareStatement("INSERT INTO entries(type, id, key, value, version) VALUES (?, ?, ?, ?, 2) ON CONFLICT (type, id, key) DO UPDATE SET value = excluded.value, version = version + 1 RETURNING version");
+				statement.setString(1, type);
+				statement.setString(2, id);
+				statement.setString(3, key);
+				setData(statement, 4, data);
+				try (ResultSet resultSet = statement.executeQuery())
+				{
+					if (!resultSet.next())
+					{
+						throw new DatabaseException("Could not query updated entry");
+					}
+					return resultSet.getInt("version");
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		// the caller is responsible for changing the version of the object
+		private void insertDeltas(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass, @NotNull List<? extends Delta<?>> deltas) throws SQLException, DatabaseException
+		{
+			PreparedStatement statement = this.connection.prepareStatement("UPDATE objects SET deltas = deltas + ? WHERE type == ? AND id == ? RETURNING deltas");
+			statement.setInt(1, deltas.size());
+			statement.setString(2, type);
+			statement.setString(3, id);
+			int count;
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				if (!resultSet.next())
+				{
+					throw new DatabaseException("Could not append to non-existent object");
+				}
+				count = resultSet.getInt("deltas");
+			}
+
+			statement = this.connection.prepareStatement("INSERT INTO deltas(type, id, seq, class, value) VALUES (?, ?, ?, ?, ?)");
+			int seq = count - deltas.size();
+			for (Delta<?> delta : deltas)
+			{
+				Object data = SQLiteStorage.this.valueCodec.encode(delta);
+				statement.setString(1, type);
+				statement.setString(2, id);
+				statement.setInt(3, seq++);
+				statement.setString(4, delta.getClass().getName());
+				setData(statement, 5, data);
+				statement.execute();
+				SQLiteStorage.this.deltaWrites.incrementAndGet();
+				SQLiteStorage.this.deltaBytes.addAndGet(getDataSize(data));
+			}
+
+			if (count >= SQLiteStorage.this.deltaCompactionThreshold)
+			{
+				this.afterCommit.add(() -> SQLiteStorage.this.scheduleCompaction(type, id, valueClass));
+			}
+		}
+
+		private void applyDeltas(@NotNull String type, @NotNull String id, @NotNull Object value) throws SQLException, DatabaseException
+		{
+			PreparedStatement statement = this.connection.prepareStatement("SELECT class, value FROM deltas WHERE type == ? AND id == ? ORDER BY seq");
+			statement.setString(1, type);
+			statement.setString(2, id);
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				while (resultSet.next())
+				{
+					decodeDelta(SQLiteStorage.this.valueCodec, resultSet.getString("class"), resultSet.getObject("value")).apply(value);
+				}
+			}
+		}
+
+		private void deleteDeltas(@NotNull String type, @NotNull String id) throws SQLException
+		{
+			PreparedStatement statement = this.connection.prepareStatement("DELETE FROM deltas WHERE type == ? AND id == ?");
+			statement.setString(1, type);
+			statement.setString(2, id);
+			statement.execute();
+		}
+
+		// merges the deltas into the stored object, this does not change the value of the object so the version is left as it is
+		@NotNull
+		public Boolean compact(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass) throws DatabaseException
+		{
+			try
+			{
+				PreparedStatement statement = this.connection.prepareStatement("SELECT value, version, deltas FROM objects WHERE type == ? AND id == ?");
+				statement.setString(1, type);
+				statement.setString(2, id);
+				Object value;
+				int version;
+				int deltas;
+				try (ResultSet resultSet = statement.executeQuery())
+				{
+					if (!resultSet.next())
+					{
+						return false;
+					}
+					value = SQLiteStorage.this.valueCodec.decode(resultSet.getObject("value"), valueClass);
+					version = resultSet.getInt("version");
+					deltas = resultSet.getInt("deltas");
+				}
+				if (deltas == 0)
+				{
+					return false;
+				}
+
+				this.applyDeltas(type, id, value);
+				Object data = SQLiteStorage.this.valueCodec.encode(value);
+				statement = this.connection.prepareStatement("UPDATE objects SET value = ?, deltas = 0 WHERE type == ? AND id == ?");
+				setData(statement, 1, data);
+				statement.setString(2, type);
+				statement.setString(3, id);
+				statement.execute();
+				this.deleteDeltas(type, id);
+				this.cachePut(type, id, version, value, data);
+
+				SQLiteStorage.this.compactions.incrementAndGet();
+				SQLiteStorage.this.compactionBytes.addAndGet(getDataSize(data));
+				return true;
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+
+		private void recordObjectWrite(@NotNull Object data)
+		{
+			SQLiteStorage.this.objectWrites.incrementAndGet();
+			SQLiteStorage.this.objectBytes.addAndGet(getDataSize(data));
+		}
+
+		@Nullable
+		private Integer selectVersion(@NotNull String type, @NotNull String id) throws SQLException
+		{
+			PreparedStatement statement = this.connection.prepareStatement("SELECT version FROM objects WHERE type == ? AND id == ?");
+			statement.setString(1, type);
+			statement.setString(2, id);
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				return resultSet.next() ? resultSet.getInt("version") : null;
+			}
+		}
+
+		@Nullable
+		private Integer selectEntryVersion(@NotNull String type, @NotNull String id, @NotNull String key) throws SQLException
+		{
+			PreparedStatement statement = this.connection.prepareStatement("SELECT version FROM entries WHERE type == ? AND id == ? AND key == ?");
+			statement.setString(1, type);
+			statement.setString(2, id);
+			statement.setString(3, key);
+			try (ResultSet resultSet = statement.executeQuery())
+			{
+				return resultSet.next() ? resultSet.getInt("version") : null;
+			}
+		}
+
+		private void cachePut(@NotNull String type, @NotNull String id, int version, @NotNull Object value, @NotNull Object data)
+		{
+			ObjectCache objectCache = SQLiteStorage.this.objectCache;
+			if (objectCache != null)
+			{
+				Object cacheValue = ObjectCache.prepare(value);
+				this.afterCommit.add(() -> objectCache.put(type, id, version, cacheValue, data));
+			}
+		}
+
+		private void cacheInvalidate(@NotNull String type, @NotNull String id)
+		{
+			ObjectCache objectCache = SQLiteStorage.this.objectCache;
+			if (objectCache != null)
+			{
+				this.afterCommit.add(() -> objectCache.invalidate(type, id));
+			}
+		}
+
+		public int getAfterCommitMark()
+		{
+			return this.afterCommit.size();
+		}
+
+		public void discardAfterCommit(int mark)
+		{
+			while (this.afterCommit.size() > mark)
+			{
+				this.afterCommit.removeLast();
+			}
+		}
+	}
+
+	// reads through a read transaction and keeps the writes in memory, recording the version of everything that was read or written so that the writes can later be applied only if none of those have changed
+	private final class OptimisticTransaction implements StorageTransaction
+	{
+		private final Transaction readTransaction;
+		private final LinkedHashMap<PendingKey, Pending> pending = new LinkedHashMap<>();
+
+		private record PendingKey(@NotNull String type, @NotNull String id, @Nullable String key)
+		{
+		}
+
+		private static final class Pending
+		{
+			@Nullable
+			public final Integer originalVersion;
+			@Nullable
+			public Integer version;
+			// the value is null if the object has not been written, or has only been bumped
+			@Nullable
+			public Object value = null;
+			@Nullable
+			public Object data = null;
+			// deltas are only kept for objects that existed and have not been written
+			public final LinkedList<Delta<Object>> deltas = new LinkedList<>();
+			@Nullable
+			public Class<?> deltaValueClass = null;
+
+			public Pending(@Nullable Integer originalVersion)
+			{
+				this.originalVersion = originalVersion;
+				this.version = originalVersion;
+			}
+		}
+
+		public OptimisticTransaction(@NotNull Transaction readTransaction)
+		{
+			this.readTransaction = readTransaction;
+		}
+
+		public boolean isReadOnly()
+		{
+			return this.pending.values().stream().allMatch(pending -> Objects.equals(pending.version, pending.originalVersion));
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> get(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			PendingKey pendingKey = new PendingKey(type, id, null);
+			Pending pending = this.pending.getOrDefault(pendingKey, null);
+			if (pending != null && pending.data != null)
+			{
+				return new EarthDB.Results.Result<>(SQLiteStorage.this.valueCodec.decode(pending.data, valueClass), pending.version);
+			}
+
+			EarthDB.Results.Result<T> result = this.readTransaction.get(type, id, valueClass);
+			if (pending == null)
+			{
+				this.pending.put(pendingKey, new Pending(result != null ? result.version() : null));
+				return result;
+			}
+			else
+			{
+				if (result != null)
+				{
+					for (Delta<Object> delta : pending.deltas)
+					{
+						delta.apply(result.value());
+					}
+				}
+				return result != null ? new EarthDB.Results.Result<>(result.value(), pending.version) : null;
+			}
+		}
+
+		@Override
+		public int update(@NotNull String type, @NotNull String id, @NotNull Object value) throws DatabaseException
+		{
+			Pending pending = this.getPending(new PendingKey(type, id, null));
+			pending.version = (pending.version != null ? pending.version : 1) + 1;
+			pending.value = value;
+			pending.data = SQLiteStorage.this.valueCodec.encode(value);
+			pending.deltas.clear();
+			return pending.version;
+		}
+
+		@Override
+		public <T> int append(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass, @NotNull Delta<T> delta) throws DatabaseException
+		{
+			Pending pending = this.getPending(new PendingKey(type, id, null));
+			if (pending.data != null || pending.version == null)
+			{
+				// the whole object will be written anyway
+				T value = pending.data != null ? SQLiteStorage.this.valueCodec.decode(pending.data, valueClass) : EarthDB.Query.createNewInstance(valueClass);
+				delta.apply(value);
+				pending.value = value;
+				pending.data = SQLiteStorage.this.valueCodec.encode(value);
+			}
+			else
+			{
+				pending.deltas.add((Delta<Object>) delta);
+				pending.deltaValueClass = valueClass;
+			}
+			pending.version = (pending.version != null ? pending.version : 1) + 1;
+			return pending.version;
+		}
+
+		@Override
+		public int bump(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass) throws DatabaseException
+		{
+			Pending pending = this.getPending(new PendingKey(type, id, null));
+			if (pending.version != null)
+			{
+				pending.version = pending.version + 1;
+			}
+			else
+			{
+				pending.version = 2;
+				pending.value = EarthDB.Query.createNewInstance(valueClass);
+				pending.data = SQLiteStorage.this.valueCodec.encode(pending.value);
+			}
+			return pending.version;
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> getEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			PendingKey pendingKey = new PendingKey(type, id, key);
+			Pending pending = this.pending.getOrDefault(pendingKey, null);
+			if (pending != null && pending.data != null)
+			{
+				return new EarthDB.Results.Result<>(SQLiteStorage.this.valueCodec.decode(pending.data, valueClass), pending.version);
+			}
+
+			EarthDB.Results.Result<T> result = this.readTransaction.getEntry(type, id, key, valueClass);
+			if (pending == null)
+			{
+				this.pending.put(pendingKey, new Pending(result != null ? result.version() : null));
+			}
+			return result;
+		}
+
+		@Override
+		public int putEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Object value) throws DatabaseException
+		{
+			Pending pending = this.getPending(new PendingKey(type, id, key));
+			pending.version = pending.version != null ? pending.version + 1 : 2;
+			pending.value = value;
+			pending.data = SQLiteStorage.this.valueCodec.encode(value);
+			return pending.version;
+		}
+
+		@NotNull
+		private Pending getPending(@NotNull PendingKey pendingKey) throws DatabaseException
+		{
+			Pending pending = this.pending.getOrDefault(pendingKey, null);
+			if (pending == null)
+			{
+				try
+				{
+					pending = new Pending(pendingKey.key == null ? this.readTransaction.selectVersion(pendingKey.type, pendingKey.id) : this.readTransaction.selectEntryVersion(pendingKey.type, pendingKey.id, pendingKey.key));
+				}
+				catch (SQLException exception)
+				{
+					throw new DatabaseException(exception);
+				}
+				this.pending.put(pendingKey, pending);
+			}
+			return pending;
+		}
+
+		public void apply(@NotNull Transaction transaction) throws DatabaseException
+		{
+			try
+			{
+				// check everything that was only read first, so that nothing needs to be written if one of them has changed
+				for (Map.Entry<PendingKey, Pending> entry : this.pending.entrySet())
+				{
+					PendingKey pendingKey = entry.getKey();
+					Pending pending = entry.getValue();
+					if (Objects.equals(pending.version, pending.originalVersion))
+					{
+						Integer version = pendingKey.key == null ? transaction.selectVersion(pendingKey.type, pendingKey.id) : transaction.selectEntryVersion(pendingKey.type, pendingKey.id, pendingKey.key);
+						if (!Objects.equals(version, pending.originalVersion))
+						{
+							throw new OptimisticConflictException();
+						}
+					}
+				}
+
+				for (Map.Entry<PendingKey, Pending> entry : this.pending.entrySet())
+				{
+					PendingKey pendingKey = entry.getKey();
+					Pending pending = entry.getValue();
+					if (Objects.equals(pending.version, pending.originalVersion))
+					{
+						continue;
+					}
+
+					String table = pendingKey.key == null ? "objects" : "entries";
+					String where = pendingKey.key == null ? "type == ? AND id == ?" : "type == ? AND id == ? AND key == ?";
+					PreparedStatement statement;
+					int index = 1;
+					if (pending.originalVersion == null)
+					{
+						statement = transaction.connection.prepareStatement(pendingKey.key == null ? "INSERT OR IGNORE INTO objects(value, version, type, id) VALUES (?, ?, ?, ?)" : "INSERT OR IGNORE INTO entries(value, version, type, id, key) VALUES (?, ?, ?, ?, ?)");
+						setData(statement, index++, pending.data);
+						statement.setInt(index++, pending.version);
+					}
+					else if (pending.data != null)
+					{
+						statement = transaction.connection.prepareStatement("UPDATE " + table + " SET value = ?, version = ?" + (pendingKey.key == null ? ", deltas = 0" : "") + " WHERE " + where + " AND version == ?");
+						setData(statement, index++, pending.data);
+						statement.setInt(index++, pending.version);
+					}
+					else
+					{
+						statement = transaction.connection.prepareStatement("UPDATE " + table + " SET version = ? WHERE " + where + " AND version == ?");
+						statement.setInt(index++, pending.version);
+					}
+					statement.setString(index++, pendingKey.type);
+					statement.setString(index++, pendingKey.id);
+					if (pendingKey.key != null)
+					{
+						statement.setString(index++, pendingKey.key);
+					}
+					if (pending.originalVersion != null)
+					{
+						statement.setInt(index++, pending.originalVersion);
+					}
+					if (statement.executeUpdate() != 1)
+					{
+						throw new OptimisticConflictException();
+					}
+
+					if (pendingKey.key == null)
+					{
+						if (pending.data != null)
+						{
+							transaction.deleteDeltas(pendingKey.type, pendingKey.id);
+							transaction.recordObjectWrite(pending.data);
+							transaction.cachePut(pendingKey.type, pendingKey.id, pending.version, pending.value, pending.data);
+						}
+						else
+						{
+							if (!pending.deltas.isEmpty())
+							{
+								transaction.insertDeltas(pendingKey.type, pendingKey.id, pending.deltaValueClass, pending.deltas);
+							}
+							transaction.cacheInvalidate(pendingKey.type, pendingKey.id);
+						}
+					}
+				}
+			}
+			catch (SQLException exception)
+			{
+				throw new DatabaseException(exception);
+			}
+		}
+	}
+
+	private static final class OptimisticConflictException extends RuntimeException
+	{
+		public OptimisticConflictException()
+		{
+			super(null, null, false, false);
+		}
+	}
+
+	private static void setData(@NotNull PreparedStatement statement, int index, @NotNull Object data) throws SQLException
+	{
+		if (data instanceof byte[] bytes)
+		{
+			statement.setBytes(index, bytes);
+		}
+		else
+		{
+			statement.setString(index, (String) data);
+		}
+	}
+
+	private final class GroupCommitter
+	{
+		private final int maxBatchSize;
+		private final LinkedBlockingQueue<PendingQuery> queue = new LinkedBlockingQueue<>();
+		private final Thread thread;
+		private volatile boolean closed = false;
+
+		private final AtomicLong batches = new AtomicLong(0);
+		private final AtomicLong queries = new AtomicLong(0);
+		private final AtomicLong failedQueries = new AtomicLong(0);
+		private final AtomicInteger largestBatchSize = new AtomicInteger(0);
+
+		private record PendingQuery(@NotNull TransactionFunction<?> function, @NotNull CompletableFuture<Object> future)
+		{
+		}
+
+		public GroupCommitter(int maxBatchSize)
+		{
+			this.maxBatchSize = maxBatchSize;
+			this.thread = new Thread(this::run, "EarthDB group commit");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		public void close()
+		{
+			// queries are only added while holding the lock, so none can be added after this that would never be completed
+			synchronized (this)
+			{
+				this.closed = true;
+			}
+			this.thread.interrupt();
+			try
+			{
+				this.thread.join();
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+			}
+			PendingQuery pendingQuery;
+			while ((pendingQuery = this.queue.poll()) != null)
+			{
+				pendingQuery.future.completeExceptionally(new DatabaseException("Database closed"));
+			}
+		}
+
+		@NotNull
+		public GroupCommitStats getStats()
+		{
+			return new GroupCommitStats(this.batches.get(), this.queries.get(), this.failedQueries.get(), this.largestBatchSize.get());
+		}
+
+		@NotNull
+		public <T> T execute(@NotNull TransactionFunction<T> function) throws DatabaseException
+		{
+			CompletableFuture<Object> future = new CompletableFuture<>();
+			synchronized (this)
+			{
+				if (this.closed)
+				{
+					throw new DatabaseException("Database closed");
+				}
+				this.queue.add(new PendingQuery(function, future));
+			}
+
+			try
+			{
+				return (T) future.get();
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+				throw new DatabaseException(exception);
+			}
+			catch (ExecutionException exception)
+			{
+				Throwable cause = exception.getCause();
+				if (cause instanceof DatabaseException databaseException)
+				{
+					throw databaseException;
+				}
+				else if (cause instanceof RuntimeException runtimeException)
+				{
+					throw runtimeException;
+				}
+				else if (cause instanceof Error error)
+				{
+					throw error;
+				}
+				else
+				{
+					throw new DatabaseException(cause);
+				}
+			}
+		}
+
+		private void run()
+		{
+			LinkedList<PendingQuery> batch = new LinkedList<>();
+			while (!this.closed)
+			{
+				try
+				{
+					batch.add(this.queue.take());
+				}
+				catch (InterruptedException exception)
+				{
+					continue;
+				}
+				this.queue.drainTo(batch, this.maxBatchSize - 1);
+
+				this.executeBatch(batch);
+				batch.clear();
+			}
+		}
+
+		private void executeBatch(@NotNull LinkedList<PendingQuery> batch)
+		{
+			this.batches.incrementAndGet();
+			this.queries.addAndGet(batch.size());
+			this.largestBatchSize.accumulateAndGet(batch.size(), Math::max);
+
+			// each query runs inside its own savepoint so that a failing query can be rolled back without affecting the others, the whole batch is then committed (and synced) once
+			LinkedList<PendingQuery> succeeded = new LinkedList<>();
+			LinkedList<Object> succeededResults = new LinkedList<>();
+			try (Transaction transaction = SQLiteStorage.this.transaction(true); Statement statement = transaction.connection.connection.createStatement())
+			{
+				for (PendingQuery pendingQuery : batch)
+				{
+					statement.execute("SAVEPOINT query");
+					int afterCommitMark = transaction.getAfterCommitMark();
+					try
+					{
+						Object result = pendingQuery.function.apply(transaction);
+						statement.execute("RELEASE SAVEPOINT query");
+						succeeded.add(pendingQuery);
+						succeededResults.add(result);
+					}
+					catch (DatabaseException | RuntimeException | Error exception)
+					{
+						statement.execute("ROLLBACK TRANSACTION TO SAVEPOINT query");
+						statement.execute("RELEASE SAVEPOINT query");
+						transaction.discardAfterCommit(afterCommitMark);
+						this.failedQueries.incrementAndGet();
+						pendingQuery.future.completeExceptionally(exception);
+					}
+				}
+
+				transaction.commit();
+			}
+			catch (SQLException | DatabaseException exception)
+			{
+				DatabaseException databaseException = exception instanceof DatabaseException ? (DatabaseException) exception : new DatabaseException(exception);
+				for (PendingQuery pendingQuery : batch)
+				{
+					pendingQuery.future.completeExceptionally(databaseException);
+				}
+				return;
+			}
+
+			Iterator<Object> resultsIterator = succeededResults.iterator();
+			for (PendingQuery pendingQuery : succeeded)
+			{
+				pendingQuery.future.complete(resultsIterator.next());
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// spreads objects across several storages by ID, so that writes for different players can proceed in parallel
+// global objects (those with an empty ID) are kept on a designated shard, each query must only access objects on one shard
+public final class ShardedStorage implements Storage
+{
+	private final Storage[] shards;
+	private final int globalShard;
+
+	public ShardedStorage(@NotNull Storage[] shards, int globalShard)
+	{
+		if (shards.length < 1 || globalShard < 0 || globalShard >= shards.length)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.shards = shards.clone();
+		this.globalShard = globalShard;
+	}
+
+	@Override
+	public void close()
+	{
+		for (Storage shard : this.shards)
+		{
+			shard.close();
+		}
+	}
+
+	public int getShardCount()
+	{
+		return this.shards.length;
+	}
+
+	@NotNull
+	public Storage getShard(int index)
+	{
+		return this.shards[index];
+	}
+
+	// String.hashCode() is specified by the language so every process sharing the same shards routes IDs the same way
+	public int getShardIndex(@NotNull String id)
+	{
+		return id.isEmpty() ? this.globalShard : Math.floorMod(id.hashCode(), this.shards.length);
+	}
+
+	@Override
+	public void internStrings(@NotNull String... strings) throws DatabaseException
+	{
+		for (Storage shard : this.shards)
+		{
+			shard.internStrings(strings);
+		}
+	}
+
+	@Override
+	@NotNull
+	public <T> T execute(boolean write, @NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException
+	{
+		int shardIndex = this.getShardIndex(routingId);
+		return this.shards[shardIndex].execute(write, routingId, transaction -> function.apply(new ShardTransaction(transaction, shardIndex)));
+	}
+
+	@Override
+	@NotNull
+	public <T> T executeOptimistic(@NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException
+	{
+		int shardIndex = this.getShardIndex(routingId);
+		return this.shards[shardIndex].executeOptimistic(routingId, transaction -> function.apply(new ShardTransaction(transaction, shardIndex)));
+	}
+
+	private final class ShardTransaction implements StorageTransaction
+	{
+		private final StorageTransaction transaction;
+		private final int shardIndex;
+
+		public ShardTransaction(@NotNull StorageTransaction transaction, int shardIndex)
+		{
+			this.transaction = transaction;
+			this.shardIndex = shardIndex;
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> get(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.get(type, id, valueClass);
+		}
+
+		@Override
+		public int update(@NotNull String type, @NotNull String id, @NotNull Object value) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.update(type, id, value);
+		}
+
+		@Override
+		public int bump(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.bump(type, id, valueClass);
+		}
+
+		@Override
+		public <T> int append(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass, @NotNull Delta<T> delta) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.append(type, id, valueClass, delta);
+		}
+
+		@Override
+		@Nullable
+		public <T> EarthDB.Results.Result<T> getEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<T> valueClass) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.getEntry(type, id, key, valueClass);
+		}
+
+		@Override
+		public int putEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Object value) throws DatabaseException
+		{
+			this.checkShard(type, id);
+			return this.transaction.putEntry(type, id, key, value);
+		}
+
+		private void checkShard(@NotNull String type, @NotNull String id) throws DatabaseException
+		{
+			if (ShardedStorage.this.getShardIndex(id) != this.shardIndex)
+			{
+				throw new DatabaseException("Object %s/%s is not on the same shard as the rest of the query".formatted(type, id));
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface Storage extends AutoCloseable
+{
+	// runs the function in a single transaction on the storage responsible for the routing ID, the transaction is committed if the function returns normally and rolled back if it throws
+	@NotNull
+	<T> T execute(boolean write, @NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException;
+
+	// like execute() but runs the function without holding the write lock, then applies its writes only if nothing that it read or wrote has changed since, running it again if something has
+	// the function may therefore be run more than once and must not have side effects outside of the transaction
+	@NotNull
+	<T> T executeOptimistic(@NotNull String routingId, @NotNull TransactionFunction<T> function) throws DatabaseException;
+
+	// adds strings that value codecs may use to shorten stored values
+	void internStrings(@NotNull String... strings) throws DatabaseException;
+
+	@Override
+	void close();
+
+	interface TransactionFunction<T>
+	{
+		@NotNull
+		T apply(@NotNull StorageTransaction transaction) throws DatabaseException;
+	}
+}
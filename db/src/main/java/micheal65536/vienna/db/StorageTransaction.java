@@ -0,0 +1,27 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public interface StorageTransaction
+{
+	// returns null if the object does not exist
+	@Nullable
+	<T> EarthDB.Results.Result<T> get(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass) throws DatabaseException;
+
+	// returns the new version of the object
+	int update(@NotNull String type, @NotNull String id, @NotNull Object value) throws DatabaseException;
+
+	// increments the version of the object without changing its value, creating a new instance of the value class if the object does not exist, and returns the new version
+	int bump(@NotNull String type, @NotNull String id, @NotNull Class<?> valueClass) throws DatabaseException;
+
+	// stores the delta to be applied to the object when it is read, creating a new instance of the value class if the object does not exist, and returns the new version
+	<T> int append(@NotNull String type, @NotNull String id, @NotNull Class<T> valueClass, @NotNull Delta<T> delta) throws DatabaseException;
+
+	// returns null if the entry does not exist
+	@Nullable
+	<T> EarthDB.Results.Result<T> getEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Class<T> valueClass) throws DatabaseException;
+
+	// returns the new version of the entry
+	int putEntry(@NotNull String type, @NotNull String id, @NotNull String key, @NotNull Object value) throws DatabaseException;
+}
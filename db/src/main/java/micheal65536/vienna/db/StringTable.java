@@ -0,0 +1,87 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// append-only, the IDs are persisted in the database and must never change once assigned
+public final class StringTable
+{
+	@Nullable
+	private final Loader loader;
+	private volatile Snapshot snapshot = new Snapshot(new String[0], new HashMap<>());
+
+	private record Snapshot(@NotNull String[] strings, @NotNull HashMap<String, Integer> ids)
+	{
+	}
+
+	StringTable(@Nullable Loader loader)
+	{
+		this.loader = loader;
+	}
+
+	public int getId(@NotNull String string)
+	{
+		return this.snapshot.ids.getOrDefault(string, -1);
+	}
+
+	// another server sharing the database may have added strings since they were last loaded, so the table is loaded again before an unknown ID is treated as an error
+	@Nullable
+	public String getString(int id)
+	{
+		String[] strings = this.snapshot.strings;
+		if (id >= strings.length && this.loader != null)
+		{
+			try
+			{
+				this.append(strings.length, this.loader.load(strings.length));
+			}
+			catch (DatabaseException exception)
+			{
+				return null;
+			}
+			strings = this.snapshot.strings;
+		}
+		return id >= 0 && id < strings.length ? strings[id] : null;
+	}
+
+	public int size()
+	{
+		return this.snapshot.strings.length;
+	}
+
+	// the strings have consecutive IDs starting from the given ID, any that are already in the table because they were loaded at the same time by another thread are skipped
+	void append(int firstId, @NotNull String[] strings)
+	{
+		synchronized (this)
+		{
+			Snapshot snapshot = this.snapshot;
+			if (firstId > snapshot.strings.length)
+			{
+				throw new IllegalArgumentException();
+			}
+			int skip = snapshot.strings.length - firstId;
+			if (skip >= strings.length)
+			{
+				return;
+			}
+			String[] newStrings = Arrays.copyOf(snapshot.strings, firstId + strings.length);
+			HashMap<String, Integer> newIds = new HashMap<>(snapshot.ids);
+			for (int index = skip; index < strings.length; index++)
+			{
+				newStrings[firstId + index] = strings[index];
+				newIds.put(strings[index], firstId + index);
+			}
+			this.snapshot = new Snapshot(newStrings, newIds);
+		}
+	}
+
+	interface Loader
+	{
+		// returns the strings with consecutive IDs starting from the given ID
+		@NotNull
+		String[] load(int firstId) throws DatabaseException;
+	}
+}
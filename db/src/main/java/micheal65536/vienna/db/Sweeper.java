@@ -0,0 +1,340 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// removes expired data from objects in the background, so that it does not build up in the objects of players who are not active and does not need to be removed on the request paths
+// the objects of each type with a rule are visited in order of ID a batch at a time, the position is stored in the database so that the sweeper continues from around where it left off when restarted
+public final class Sweeper implements AutoCloseable
+{
+	private static final String STATE_TYPE = "sweeperState";
+	private static final long RETRY_DELAY = 10000;
+	// the position within a type is only saved every this many batches, as saving it is a write that would otherwise make every batch take the write lock
+	private static final int STATE_SAVE_INTERVAL = 20;
+
+	private final SQLiteStorage storage;
+	private final Options options;
+	private final TreeMap<String, Rule<?>> rules = new TreeMap<>();
+	private final TreeMap<String, Class<?>> valueClasses = new TreeMap<>();
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	private final AtomicLong passes = new AtomicLong(0);
+	private final AtomicLong objectsScanned = new AtomicLong(0);
+	private final AtomicLong objectsPruned = new AtomicLong(0);
+	private final AtomicLong vacuums = new AtomicLong(0);
+	private final AtomicLong bytesReclaimed = new AtomicLong(0);
+	private final AtomicLong timeSpentNanos = new AtomicLong(0);
+
+	private record State(@NotNull String type, @NotNull String lastId, long lastPassCompleted, long lastVacuum)
+	{
+	}
+
+	public Sweeper(@NotNull SQLiteStorage storage, @NotNull Options options)
+	{
+		this.storage = storage;
+		this.options = options;
+		this.thread = new Thread(this::run, "EarthDB sweeper");
+		this.thread.setDaemon(true);
+	}
+
+	// rules must be added before the sweeper is started
+	@NotNull
+	public <T> Sweeper addRule(@NotNull String type, @NotNull Class<T> valueClass, @NotNull Rule<T> rule)
+	{
+		if (this.thread.isAlive())
+		{
+			throw new IllegalStateException();
+		}
+		this.rules.put(type, rule);
+		this.valueClasses.put(type, valueClass);
+		return this;
+	}
+
+	public void start()
+	{
+		this.thread.start();
+	}
+
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		this.thread.interrupt();
+		try
+		{
+			this.thread.join();
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@NotNull
+	public Stats getStats()
+	{
+		return new Stats(this.passes.get(), this.objectsScanned.get(), this.objectsPruned.get(), this.vacuums.get(), this.bytesReclaimed.get(), this.timeSpentNanos.get() / 1000000);
+	}
+
+	public record Stats(
+			long passes,
+			long objectsScanned,
+			long objectsPruned,
+			long vacuums,
+			long bytesReclaimed,
+			long timeSpentMillis
+	)
+	{
+	}
+
+	public interface Rule<T>
+	{
+		// removes expired data from the value, returns true if the value was changed and needs to be stored
+		boolean prune(@NotNull T value, long currentTime);
+	}
+
+	public interface Listener
+	{
+		// counts are for the part of the pass that was done since the sweeper was started
+		void passCompleted(long objectsScanned, long objectsPruned, long timeMillis);
+
+		void vacuumCompleted(long bytesReclaimed, long timeMillis);
+
+		void error(@NotNull DatabaseException exception);
+	}
+
+	public static final class Options
+	{
+		int batchSize = 100;
+		int maxObjectsPerSecond = 1000;
+		long passInterval = 60 * 60 * 1000;
+		long vacuumInterval = 24 * 60 * 60 * 1000;
+		@Nullable
+		Listener listener = null;
+
+		public Options()
+		{
+			// empty
+		}
+
+		// number of objects that are checked and pruned in one transaction
+		@NotNull
+		public Options batchSize(int batchSize)
+		{
+			if (batchSize < 1)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.batchSize = batchSize;
+			return this;
+		}
+
+		@NotNull
+		public Options maxObjectsPerSecond(int maxObjectsPerSecond)
+		{
+			if (maxObjectsPerSecond < 1)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.maxObjectsPerSecond = maxObjectsPerSecond;
+			return this;
+		}
+
+		// minimum time in milliseconds from the end of one pass over all the objects to the start of the next
+		@NotNull
+		public Options passInterval(long passInterval)
+		{
+			if (passInterval < 0)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.passInterval = passInterval;
+			return this;
+		}
+
+		// time in milliseconds between vacuuming the database, 0 disables vacuuming
+		@NotNull
+		public Options vacuumInterval(long vacuumInterval)
+		{
+			if (vacuumInterval < 0)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.vacuumInterval = vacuumInterval;
+			return this;
+		}
+
+		@NotNull
+		public Options listener(@Nullable Listener listener)
+		{
+			this.listener = listener;
+			return this;
+		}
+	}
+
+	private void run()
+	{
+		State state = null;
+		long passObjectsScanned = 0;
+		long passObjectsPruned = 0;
+		long passTimeNanos = 0;
+		int unsavedBatches = 0;
+		while (!this.closed)
+		{
+			try
+			{
+				if (state == null)
+				{
+					state = this.loadState();
+				}
+
+				long currentTime = System.currentTimeMillis();
+				if (this.options.vacuumInterval > 0 && currentTime - state.lastVacuum >= this.options.vacuumInterval)
+				{
+					long startTime = System.nanoTime();
+					long bytesReclaimed = this.storage.vacuum();
+					long time = System.nanoTime() - startTime;
+					this.vacuums.incrementAndGet();
+					this.bytesReclaimed.addAndGet(bytesReclaimed);
+					this.timeSpentNanos.addAndGet(time);
+					state = new State(state.type, state.lastId, state.lastPassCompleted, currentTime);
+					this.saveState(state);
+					unsavedBatches = 0;
+					if (this.options.listener != null)
+					{
+						this.options.listener.vacuumCompleted(bytesReclaimed, time / 1000000);
+					}
+					continue;
+				}
+
+				if (state.type.isEmpty())
+				{
+					long nextPass = this.rules.isEmpty() ? Long.MAX_VALUE : state.lastPassCompleted + this.options.passInterval;
+					long nextVacuum = this.options.vacuumInterval > 0 ? state.lastVacuum + this.options.vacuumInterval : Long.MAX_VALUE;
+					if (currentTime < nextPass)
+					{
+						Thread.sleep(Math.max(Math.min(nextPass, nextVacuum) - currentTime, 1));
+						continue;
+					}
+					state = new State(this.rules.firstKey(), "", state.lastPassCompleted, state.lastVacuum);
+				}
+
+				long startTime = System.nanoTime();
+				String[] ids = this.storage.selectIds(state.type, state.lastId, this.options.batchSize);
+				int pruned = 0;
+				if (ids.length > 0)
+				{
+					pruned = this.pruneBatch(state.type, ids, currentTime);
+					state = new State(state.type, ids[ids.length - 1], state.lastPassCompleted, state.lastVacuum);
+					if (++unsavedBatches >= STATE_SAVE_INTERVAL)
+					{
+						this.saveState(state);
+						unsavedBatches = 0;
+					}
+				}
+				else
+				{
+					String nextType = this.rules.higherKey(state.type);
+					state = nextType != null ? new State(nextType, "", state.lastPassCompleted, state.lastVacuum) : new State("", "", currentTime, state.lastVacuum);
+					this.saveState(state);
+					unsavedBatches = 0;
+				}
+				long time = System.nanoTime() - startTime;
+
+				this.objectsScanned.addAndGet(ids.length);
+				this.objectsPruned.addAndGet(pruned);
+				this.timeSpentNanos.addAndGet(time);
+				passObjectsScanned += ids.length;
+				passObjectsPruned += pruned;
+				passTimeNanos += time;
+
+				if (state.type.isEmpty())
+				{
+					this.passes.incrementAndGet();
+					if (this.options.listener != null)
+					{
+						this.options.listener.passCompleted(passObjectsScanned, passObjectsPruned, passTimeNanos / 1000000);
+					}
+					passObjectsScanned = 0;
+					passObjectsPruned = 0;
+					passTimeNanos = 0;
+				}
+
+				// spread the work out so that it does not hold up requests
+				long minTime = ids.length * 1000000000L / this.options.maxObjectsPerSecond;
+				if (time < minTime)
+				{
+					Thread.sleep((minTime - time) / 1000000);
+				}
+			}
+			catch (InterruptedException exception)
+			{
+				// empty
+			}
+			catch (DatabaseException exception)
+			{
+				if (this.closed)
+				{
+					break;
+				}
+				if (this.options.listener != null)
+				{
+					this.options.listener.error(exception);
+				}
+				// the stored state may be behind by a few batches, visiting those objects again is harmless as they have already been pruned
+				state = null;
+				unsavedBatches = 0;
+				try
+				{
+					Thread.sleep(RETRY_DELAY);
+				}
+				catch (InterruptedException interruptedException)
+				{
+					// empty
+				}
+			}
+		}
+	}
+
+	private int pruneBatch(@NotNull String type, @NotNull String[] ids, long currentTime) throws DatabaseException
+	{
+		Rule<Object> rule = (Rule<Object>) this.rules.get(type);
+		Class<?> valueClass = this.valueClasses.get(type);
+		// only the objects that were pruned are written, so a batch where nothing needed pruning is read-only and does not take the write lock or conflict with requests
+		return this.storage.executeOptimistic("", transaction ->
+		{
+			int pruned = 0;
+			for (String id : ids)
+			{
+				EarthDB.Results.Result<?> result = transaction.get(type, id, valueClass);
+				if (result != null && rule.prune(result.value(), currentTime))
+				{
+					transaction.update(type, id, result.value());
+					pruned++;
+				}
+			}
+			return pruned;
+		});
+	}
+
+	@NotNull
+	private State loadState() throws DatabaseException
+	{
+		return this.storage.execute(false, "", transaction ->
+		{
+			EarthDB.Results.Result<State> result = transaction.get(STATE_TYPE, "", State.class);
+			State state = result != null ? result.value() : new State("", "", 0, System.currentTimeMillis());
+			// the rules may have changed since the state was saved
+			return state.type.isEmpty() || this.rules.containsKey(state.type) ? state : new State("", "", state.lastPassCompleted, state.lastVacuum);
+		});
+	}
+
+	private void saveState(@NotNull State state) throws DatabaseException
+	{
+		this.storage.execute(true, "", transaction -> transaction.update(STATE_TYPE, "", state));
+	}
+}
@@ -0,0 +1,14 @@
+package micheal65536.vienna.db;
+
+import org.jetbrains.annotations.NotNull;
+
+public interface ValueCodec
+{
+	// must return either a String (stored as text) or a byte[] (stored as a blob)
+	@NotNull
+	Object encode(@NotNull Object value) throws DatabaseException;
+
+	// data is either a String or a byte[] depending on how the value was stored, which may not have been with this codec
+	@NotNull
+	<T> T decode(@NotNull Object data, @NotNull Class<T> valueClass) throws DatabaseException;
+}
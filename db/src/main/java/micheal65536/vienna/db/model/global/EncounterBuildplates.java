@@ -5,6 +5,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
 
+// encounter buildplates are stored as separate entries of type "encounterBuildplates" under the global ID, this class only remains as the container for the old format where they were all stored in one object
 public final class EncounterBuildplates
 {
 	@NotNull
@@ -21,6 +22,12 @@ public final class EncounterBuildplates
 		return this.encounterBuildplates.getOrDefault(id, null);
 	}
 
+	@NotNull
+	public HashMap<String, EncounterBuildplate> getEncounterBuildplates()
+	{
+		return new HashMap<>(this.encounterBuildplates);
+	}
+
 	public static final class EncounterBuildplate
 	{
 		public final int size;
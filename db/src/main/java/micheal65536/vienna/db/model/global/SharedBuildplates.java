@@ -5,6 +5,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
 
+// shared buildplates are stored as separate entries of type "sharedBuildplates" under the global ID, this class only remains as the container for the old format where they were all stored in one object
 public final class SharedBuildplates
 {
 	@NotNull
@@ -26,6 +27,12 @@ public final class SharedBuildplates
 		return this.sharedBuildplates.getOrDefault(id, null);
 	}
 
+	@NotNull
+	public HashMap<String, SharedBuildplate> getSharedBuildplates()
+	{
+		return new HashMap<>(this.sharedBuildplates);
+	}
+
 	public static final class SharedBuildplate
 	{
 		@NotNull
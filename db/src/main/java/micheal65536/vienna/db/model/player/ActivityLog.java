@@ -6,6 +6,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 import org.jetbrains.annotations.NotNull;
 
+import micheal65536.vienna.db.Delta;
 import micheal65536.vienna.db.model.common.Rewards;
 
 import java.util.LinkedList;
@@ -39,12 +40,28 @@ public final class ActivityLog
 		this.entries.add(entry);
 	}
 
-	public void prune()
+	public boolean prune()
 	{
 		// it is widely known that the activity log is length limited but there is only ONE person who has stated how long it was limited to and apparently it is 40 entires
+		boolean pruned = false;
 		while (this.entries.size() > 40)
 		{
 			this.entries.removeFirst();
+			pruned = true;
+		}
+		return pruned;
+	}
+
+	// also prunes the log, as every caller that adds an entry does
+	public record AddEntryDelta(
+			@NotNull Entry entry
+	) implements Delta<ActivityLog>
+	{
+		@Override
+		public void apply(@NotNull ActivityLog activityLog)
+		{
+			activityLog.addEntry(this.entry);
+			activityLog.prune();
 		}
 	}
 
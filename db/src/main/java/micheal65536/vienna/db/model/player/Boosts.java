@@ -16,6 +16,14 @@ public final class Boosts
 		this.activeBoosts = new ActiveBoost[5];
 	}
 
+	@NotNull
+	public Boosts copy()
+	{
+		Boosts boosts = new Boosts();
+		System.arraycopy(this.activeBoosts, 0, boosts.activeBoosts, 0, this.activeBoosts.length);
+		return boosts;
+	}
+
 	@Nullable
 	public ActiveBoost get(@NotNull String instanceId)
 	{
@@ -15,6 +15,14 @@ public final class Hotbar
 		this.items = new Item[7];
 	}
 
+	@NotNull
+	public Hotbar copy()
+	{
+		Hotbar hotbar = new Hotbar();
+		System.arraycopy(this.items, 0, hotbar.items, 0, this.items.length);
+		return hotbar;
+	}
+
 	public void limitToInventory(@NotNull Inventory inventory)
 	{
 		HashMap<String, Integer> usedStackableItemCounts = new HashMap<>();
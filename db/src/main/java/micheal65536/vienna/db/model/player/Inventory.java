@@ -3,6 +3,7 @@ package micheal65536.vienna.db.model.player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import micheal65536.vienna.db.Delta;
 import micheal65536.vienna.db.model.common.NonStackableItemInstance;
 
 import java.util.HashMap;
@@ -147,4 +148,28 @@ public final class Inventory
 		}
 		return instances.toArray(NonStackableItemInstance[]::new);
 	}
-}
\ No newline at end of file
+
+	public record AddStackableItemsDelta(
+			@NotNull String id,
+			int count
+	) implements Delta<Inventory>
+	{
+		@Override
+		public void apply(@NotNull Inventory inventory)
+		{
+			inventory.addItems(this.id, this.count);
+		}
+	}
+
+	public record AddNonStackableItemsDelta(
+			@NotNull String id,
+			@NotNull NonStackableItemInstance[] instances
+	) implements Delta<Inventory>
+	{
+		@Override
+		public void apply(@NotNull Inventory inventory)
+		{
+			inventory.addItems(this.id, this.instances);
+		}
+	}
+}
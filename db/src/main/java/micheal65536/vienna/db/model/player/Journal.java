@@ -3,6 +3,8 @@ package micheal65536.vienna.db.model.player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import micheal65536.vienna.db.Delta;
+
 import java.util.HashMap;
 
 public final class Journal
@@ -54,6 +56,19 @@ public final class Journal
 		}
 	}
 
+	public record AddCollectedItemDelta(
+			@NotNull String uuid,
+			long timestamp,
+			int count
+	) implements Delta<Journal>
+	{
+		@Override
+		public void apply(@NotNull Journal journal)
+		{
+			journal.addCollectedItem(this.uuid, this.timestamp, this.count);
+		}
+	}
+
 	public record ItemJournalEntry(
 			long firstSeen,
 			long lastSeen,
@@ -17,4 +17,16 @@ public final class Profile
 		this.level = 1;
 		this.rubies = new Rubies();
 	}
+
+	@NotNull
+	public Profile copy()
+	{
+		Profile profile = new Profile();
+		profile.health = this.health;
+		profile.experience = this.experience;
+		profile.level = this.level;
+		profile.rubies.purchased = this.rubies.purchased;
+		profile.rubies.earned = this.rubies.earned;
+		return profile;
+	}
 }
\ No newline at end of file
@@ -13,6 +13,14 @@ public final class RedeemedTappables
 		// empty
 	}
 
+	@NotNull
+	public RedeemedTappables copy()
+	{
+		RedeemedTappables redeemedTappables = new RedeemedTappables();
+		redeemedTappables.tappables.putAll(this.tappables);
+		return redeemedTappables;
+	}
+
 	public boolean isRedeemed(@NotNull String id)
 	{
 		return this.tappables.containsKey(id);
@@ -23,8 +31,8 @@ public final class RedeemedTappables
 		this.tappables.put(id, expiresAt);
 	}
 
-	public void prune(long currentTime)
+	public boolean prune(long currentTime)
 	{
-		this.tappables.entrySet().removeIf(entry -> entry.getValue() < currentTime);
+		return this.tappables.entrySet().removeIf(entry -> entry.getValue() < currentTime);
 	}
 }
\ No newline at end of file
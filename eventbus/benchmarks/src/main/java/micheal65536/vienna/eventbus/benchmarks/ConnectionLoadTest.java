@@ -0,0 +1,192 @@
+package micheal65536.vienna.eventbus.benchmarks;
+
+import micheal65536.vienna.eventbus.server.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+// opens many connections to one server, each of which subscribes to its own queue and publishes to the queue of the next connection with a fixed number of unacknowledged events, and prints the rate at which events are delivered and the time from publishing to delivery
+// the connections are driven from one thread using the text protocol directly, so that the load generator does not need two threads per connection like the client library and the numbers are for the server
+// run with java -cp <jar> micheal65536.vienna.eventbus.benchmarks.ConnectionLoadTest [transport] [connections] [seconds] [window]
+public class ConnectionLoadTest
+{
+	private static final long WARMUP_NANOS = 3000000000L;
+	private static final int SUBSCRIBER_CHANNEL_ID = 1;
+	private static final int PUBLISHER_CHANNEL_ID = 2;
+
+	public static void main(String[] args) throws Exception
+	{
+		String[] transports = args.length > 0 ? new String[]{args[0]} : new String[]{"blocking", "nio"};
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int window = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		System.out.printf("%-10s %12s %12s %12s %12s %12s %12s%n", "transport", "connections", "events/s", "p50 us", "p99 us", "p99.9 us", "max us");
+		for (String transport : transports)
+		{
+			run(transport, connections, seconds, window);
+		}
+	}
+
+	private static void run(@NotNull String transport, int connections, int seconds, int window) throws Exception
+	{
+		try (LocalBus localBus = new LocalBus(transport); Selector selector = Selector.open())
+		{
+			LoadConnection[] loadConnections = new LoadConnection[connections];
+			for (int index = 0; index < connections; index++)
+			{
+				SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", localBus.getPort()));
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socketChannel.configureBlocking(false);
+				loadConnections[index] = new LoadConnection(socketChannel, "load" + (index + 1) % connections);
+				loadConnections[index].key = socketChannel.register(selector, SelectionKey.OP_READ, loadConnections[index]);
+				loadConnections[index].send(SUBSCRIBER_CHANNEL_ID + " SUB load" + index + "\n" + PUBLISHER_CHANNEL_ID + " PUB\n");
+			}
+
+			// give the server time to handle all the subscriptions before anything is published
+			poll(selector, System.nanoTime() + 1000000000L);
+
+			for (LoadConnection loadConnection : loadConnections)
+			{
+				for (int count = 0; count < window; count++)
+				{
+					loadConnection.publish();
+				}
+			}
+
+			poll(selector, System.nanoTime() + WARMUP_NANOS);
+			LatencyHistogram latencyHistogram = new LatencyHistogram();
+			for (LoadConnection loadConnection : loadConnections)
+			{
+				loadConnection.latencyHistogram = latencyHistogram;
+			}
+			long startTime = System.nanoTime();
+			poll(selector, startTime + seconds * 1000000000L);
+			long elapsed = System.nanoTime() - startTime;
+
+			System.out.printf("%-10s %12d %12.0f %12d %12d %12d %12d%n", transport, connections, latencyHistogram.getCount() * 1000000000.0 / elapsed, latencyHistogram.getPercentile(50.0), latencyHistogram.getPercentile(99.0), latencyHistogram.getPercentile(99.9), latencyHistogram.getPercentile(100.0));
+
+			for (LoadConnection loadConnection : loadConnections)
+			{
+				loadConnection.socketChannel.close();
+			}
+		}
+	}
+
+	private static void poll(@NotNull Selector selector, long endTime) throws IOException
+	{
+		for (long currentTime = System.nanoTime(); currentTime < endTime; currentTime = System.nanoTime())
+		{
+			selector.select(Math.max((endTime - currentTime) / 1000000, 1));
+			Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+			while (iterator.hasNext())
+			{
+				SelectionKey key = iterator.next();
+				iterator.remove();
+				LoadConnection loadConnection = (LoadConnection) key.attachment();
+				if (key.isValid() && key.isReadable())
+				{
+					loadConnection.read();
+				}
+				if (key.isValid() && key.isWritable())
+				{
+					loadConnection.flush();
+				}
+			}
+		}
+	}
+
+	private static final class LoadConnection
+	{
+		private final SocketChannel socketChannel;
+		private final String publishQueueName;
+		private SelectionKey key = null;
+		private LatencyHistogram latencyHistogram = null;
+
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+		private ByteBuffer writeBuffer = ByteBuffer.allocate(4 * 1024);
+
+		public LoadConnection(@NotNull SocketChannel socketChannel, @NotNull String publishQueueName)
+		{
+			this.socketChannel = socketChannel;
+			this.publishQueueName = publishQueueName;
+		}
+
+		public void publish() throws IOException
+		{
+			this.send(PUBLISHER_CHANNEL_ID + " SEND " + this.publishQueueName + ":load:" + System.nanoTime() + "\n");
+		}
+
+		public void send(@NotNull String message) throws IOException
+		{
+			byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+			if (this.writeBuffer.remaining() < bytes.length)
+			{
+				ByteBuffer writeBuffer = ByteBuffer.allocate(Math.max(this.writeBuffer.capacity() * 2, this.writeBuffer.position() + bytes.length));
+				writeBuffer.put(this.writeBuffer.flip());
+				this.writeBuffer = writeBuffer;
+			}
+			this.writeBuffer.put(bytes);
+			this.flush();
+		}
+
+		public void flush() throws IOException
+		{
+			this.writeBuffer.flip();
+			this.socketChannel.write(this.writeBuffer);
+			this.writeBuffer.compact();
+			this.key.interestOps(this.writeBuffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		public void read() throws IOException
+		{
+			if (this.socketChannel.read(this.readBuffer) == -1)
+			{
+				throw new IOException("Connection closed by server");
+			}
+			this.readBuffer.flip();
+			byte[] array = this.readBuffer.array();
+			int startOffset = this.readBuffer.position();
+			for (int offset = startOffset; offset < this.readBuffer.limit(); offset++)
+			{
+				if (array[offset] == '\n')
+				{
+					this.handleMessage(new String(array, startOffset, offset - startOffset, StandardCharsets.US_ASCII));
+					startOffset = offset + 1;
+				}
+			}
+			this.readBuffer.position(startOffset);
+			this.readBuffer.compact();
+		}
+
+		private void handleMessage(@NotNull String message) throws IOException
+		{
+			String[] parts = message.split(" ", 2);
+			int channelId = Integer.parseInt(parts[0]);
+			if (channelId == PUBLISHER_CHANNEL_ID)
+			{
+				if (!parts[1].equals("ACK"))
+				{
+					throw new IOException("Unexpected message " + message);
+				}
+				this.publish();
+			}
+			else if (channelId == SUBSCRIBER_CHANNEL_ID)
+			{
+				String[] fields = parts[1].split(":", 3);
+				if (this.latencyHistogram != null)
+				{
+					this.latencyHistogram.record((System.nanoTime() - Long.parseLong(fields[2])) / 1000);
+				}
+			}
+		}
+	}
+}
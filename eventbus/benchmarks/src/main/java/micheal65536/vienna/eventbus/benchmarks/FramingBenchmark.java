@@ -0,0 +1,116 @@
+package micheal65536.vienna.eventbus.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.eventbus.client.EventBusClient;
+import micheal65536.vienna.eventbus.client.RequestHandler;
+import micheal65536.vienna.eventbus.client.RequestSender;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// measures the time for a request carrying binary data, such as the world data sent when a buildplate is saved, with the text protocol (where the data has to be sent as Base64) and with binary framing (where the data is sent as it is)
+// the encoding and decoding of the data at each end is included, as the components have to do this for every message
+// one byte of data takes 4/3 bytes on the wire as Base64 and 1 byte with binary framing, plus 1 byte per message for the newline or 4 bytes for the frame length
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FramingBenchmark
+{
+	@Param({"text", "binary"})
+	public String framing;
+
+	@Param({"blocking", "nio"})
+	public String transport;
+
+	@Param({"1024", "262144"})
+	public int size;
+
+	private LocalBus localBus;
+	private RequestSender requestSender;
+	private byte[] data;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, EventBusClient.ConnectException
+	{
+		this.localBus = new LocalBus(this.transport);
+		boolean binaryFraming = this.framing.equals("binary");
+
+		this.data = new byte[this.size];
+		new Random(0).nextBytes(this.data);
+
+		EventBusClient handlerClient = this.localBus.connect(binaryFraming);
+		handlerClient.addRequestHandler("benchmark", new RequestHandler.Handler()
+		{
+			@Override
+			@Nullable
+			public String request(@NotNull RequestHandler.Request request)
+			{
+				byte[] data = FramingBenchmark.this.decode(request.data);
+				return data.length == FramingBenchmark.this.size ? "ok" : null;
+			}
+
+			@Override
+			public void error()
+			{
+				// empty
+			}
+		});
+
+		EventBusClient senderClient = this.localBus.connect(binaryFraming);
+		if (senderClient.isBinary() != binaryFraming)
+		{
+			throw new IllegalStateException();
+		}
+		this.requestSender = senderClient.addRequestSender();
+
+		// make sure that the handler has been registered before the benchmark starts
+		if (this.request() == null)
+		{
+			throw new IllegalStateException();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.localBus.close();
+	}
+
+	@Benchmark
+	public Object request()
+	{
+		return this.requestSender.request("benchmark", "save", this.encode(this.data)).join();
+	}
+
+	@NotNull
+	private String encode(byte[] data)
+	{
+		return this.framing.equals("binary") ? new String(data, StandardCharsets.ISO_8859_1) : Base64.getEncoder().encodeToString(data);
+	}
+
+	private byte[] decode(@NotNull String data)
+	{
+		return this.framing.equals("binary") ? data.getBytes(StandardCharsets.ISO_8859_1) : Base64.getDecoder().decode(data);
+	}
+}
@@ -0,0 +1,60 @@
+package micheal65536.vienna.eventbus.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import micheal65536.vienna.eventbus.client.EventBusClient;
+import micheal65536.vienna.eventbus.server.NetworkServer;
+import micheal65536.vienna.eventbus.server.NetworkTransport;
+import micheal65536.vienna.eventbus.server.NioNetworkServer;
+import micheal65536.vienna.eventbus.server.Server;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+// runs an event bus server on a free port on localhost so that the benchmarks go through the same network code as the other components
+public final class LocalBus implements AutoCloseable
+{
+	private final NetworkTransport networkTransport;
+	private final Thread thread;
+	private final LinkedList<EventBusClient> clients = new LinkedList<>();
+
+	public LocalBus(@NotNull String transport) throws IOException
+	{
+		this.networkTransport = switch (transport)
+		{
+			case "blocking" -> new NetworkServer(new Server(), 0);
+			case "nio" -> new NioNetworkServer(new Server(), 0, Runtime.getRuntime().availableProcessors());
+			default -> throw new IllegalArgumentException();
+		};
+		this.thread = new Thread(this.networkTransport::run, "Event bus server");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public int getPort()
+	{
+		return this.networkTransport.getPort();
+	}
+
+	// each client has its own connection to the server
+	@NotNull
+	public EventBusClient connect() throws EventBusClient.ConnectException
+	{
+		return this.connect(true);
+	}
+
+	@NotNull
+	public EventBusClient connect(boolean binaryFraming) throws EventBusClient.ConnectException
+	{
+		EventBusClient client = EventBusClient.create("localhost:" + this.getPort(), binaryFraming);
+		this.clients.add(client);
+		return client;
+	}
+
+	@Override
+	public void close()
+	{
+		this.clients.forEach(EventBusClient::close);
+		this.networkTransport.close();
+	}
+}
@@ -0,0 +1,107 @@
+package micheal65536.vienna.eventbus.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.eventbus.client.EventBusClient;
+import micheal65536.vienna.eventbus.client.Publisher;
+import micheal65536.vienna.eventbus.client.Subscriber;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// measures the rate at which one publisher can publish events to a number of subscribers, each on their own connection
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark
+{
+	private static final int BATCH_SIZE = 100;
+	private static final String DATA = "{\"id\":\"00000000-0000-0000-0000-000000000000\",\"lat\":51.5,\"lon\":-0.1,\"spawnTime\":1800000000000,\"validFor\":120000,\"icon\":\"genoa:stone_mound_a_tappable_map\",\"rarity\":\"COMMON\"}";
+
+	@Param({"blocking", "nio"})
+	public String transport;
+
+	@Param({"1", "4"})
+	public int subscribers;
+
+	// single publishes each event on its own, batch publishes the events in one call to publishBatch, and linger lets the publisher combine the single publishes into batches
+	@Param({"single", "batch", "linger"})
+	public String mode;
+
+	private LocalBus localBus;
+	private Publisher publisher;
+	private List<Publisher.Entry> entries;
+	private final AtomicLong received = new AtomicLong(0);
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, EventBusClient.ConnectException
+	{
+		this.localBus = new LocalBus(this.transport);
+
+		for (int index = 0; index < this.subscribers; index++)
+		{
+			this.localBus.connect().addSubscriber("benchmark", new Subscriber.SubscriberListener()
+			{
+				@Override
+				public void event(@NotNull Subscriber.Event event)
+				{
+					PublishBenchmark.this.received.incrementAndGet();
+				}
+
+				@Override
+				public void error()
+				{
+					// empty
+				}
+			});
+		}
+
+		this.publisher = this.mode.equals("linger") ? this.localBus.connect().addPublisher(BATCH_SIZE, 5) : this.localBus.connect().addPublisher();
+		this.entries = Collections.nCopies(BATCH_SIZE, new Publisher.Entry("benchmark", "event", DATA));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.localBus.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public Object publish()
+	{
+		if (this.mode.equals("batch"))
+		{
+			this.publisher.publishBatch(this.entries);
+		}
+		else
+		{
+			for (int index = 0; index < BATCH_SIZE; index++)
+			{
+				this.publisher.publish("benchmark", "event", DATA);
+			}
+		}
+		this.publisher.flush();
+		return this.received.get();
+	}
+}
@@ -0,0 +1,112 @@
+package micheal65536.vienna.eventbus.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import micheal65536.vienna.eventbus.client.EventBusClient;
+import micheal65536.vienna.eventbus.client.RequestHandler;
+import micheal65536.vienna.eventbus.client.RequestSender;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// measures request throughput through one shared request sender, in the same way as the API server sends requests for all players through one sender
+// run with java -jar <jar> RequestBenchmark, the number of threads for the shared benchmark can be changed with -t
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark
+{
+	private static final int BATCH_SIZE = 100;
+	private static final String DATA = "{\"playerId\":\"00000000-0000-0000-0000-000000000000\",\"lat\":51.5,\"lon\":-0.1}";
+
+	@Param({"blocking", "nio"})
+	public String transport;
+
+	private LocalBus localBus;
+	private RequestSender requestSender;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, EventBusClient.ConnectException
+	{
+		this.localBus = new LocalBus(this.transport);
+
+		EventBusClient handlerClient = this.localBus.connect();
+		handlerClient.addRequestHandler("benchmark", new RequestHandler.Handler()
+		{
+			@Override
+			@NotNull
+			public CompletableFuture<String> requestAsync(@NotNull RequestHandler.Request request)
+			{
+				return CompletableFuture.completedFuture(request.data);
+			}
+
+			@Override
+			@Nullable
+			public String request(@NotNull RequestHandler.Request request)
+			{
+				return request.data;
+			}
+
+			@Override
+			public void error()
+			{
+				// empty
+			}
+		});
+
+		this.requestSender = this.localBus.connect().addRequestSender();
+
+		// make sure that the handler has been registered before the benchmark starts
+		if (this.requestSender.request("benchmark", "request", DATA).join() == null)
+		{
+			throw new IllegalStateException();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.localBus.close();
+	}
+
+	// each thread waits for the response to its request before sending the next one, so this measures how well requests from different threads share the channel
+	@Benchmark
+	@Threads(8)
+	public Object shared()
+	{
+		return this.requestSender.request("benchmark", "request", DATA).join();
+	}
+
+	// one thread sends a batch of requests before waiting for any of the responses
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public Object batch()
+	{
+		CompletableFuture<?>[] completableFutures = new CompletableFuture[BATCH_SIZE];
+		for (int index = 0; index < BATCH_SIZE; index++)
+		{
+			completableFutures[index] = this.requestSender.request("benchmark", "request", DATA);
+		}
+		return CompletableFuture.allOf(completableFutures).join();
+	}
+}
@@ -1,49 +1,237 @@
 package micheal65536.vienna.eventbus.client;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class EventBusClient
 {
+	private static final int NEGOTIATION_TIMEOUT = 10000;
+
 	@NotNull
 	public static EventBusClient create(@NotNull String connectionString) throws ConnectException
 	{
-		String[] parts = connectionString.split(":", 2);
-		String host = parts[0];
-		int port;
-		try
+		return create(connectionString, new Options());
+	}
+
+	// binary framing is used if the server supports it, otherwise the connection falls back to the text protocol
+	@NotNull
+	public static EventBusClient create(@NotNull String connectionString, boolean binaryFraming) throws ConnectException
+	{
+		return create(connectionString, new Options().binaryFraming(binaryFraming));
+	}
+
+	// the connection string can be a comma-separated list of servers that are linked together, the client connects to the first one that it can and moves on to the others when reconnecting
+	@NotNull
+	public static EventBusClient create(@NotNull String connectionString, @NotNull Options options) throws ConnectException
+	{
+		ArrayList<Address> addresses = new ArrayList<>();
+		for (String address : connectionString.split(","))
 		{
-			port = parts.length > 1 ? Integer.parseInt(parts[1]) : 5532;
+			addresses.add(Address.parse(address.trim()));
 		}
-		catch (NumberFormatException exception)
+
+		ConnectException connectException = null;
+		for (int addressIndex = 0; addressIndex < addresses.size(); addressIndex++)
 		{
-			throw new IllegalArgumentException("Invalid port number \"%s\"".formatted(parts[1]));
+			try
+			{
+				return create(addresses, addressIndex, options);
+			}
+			catch (ConnectException exception)
+			{
+				connectException = exception;
+			}
 		}
-		if (port <= 0 || port > 65535)
+		throw connectException;
+	}
+
+	@NotNull
+	private static EventBusClient create(@NotNull List<Address> addresses, int addressIndex, @NotNull Options options) throws ConnectException
+	{
+		Address address = addresses.get(addressIndex);
+		Socket socket = connect(address);
+		if (options.binaryFraming)
 		{
-			throw new IllegalArgumentException("Port number out of range");
+			Boolean binary;
+			try
+			{
+				binary = negotiateBinaryFraming(socket);
+			}
+			catch (IOException exception)
+			{
+				binary = null;
+			}
+			if (binary == null)
+			{
+				// older servers close the connection when they receive the request for binary framing
+				try
+				{
+					socket.close();
+				}
+				catch (IOException exception)
+				{
+					// empty
+				}
+				socket = connect(address);
+				return new EventBusClient(addresses, addressIndex, options, socket, false, false);
+			}
+			return new EventBusClient(addresses, addressIndex, options, socket, binary, true);
+		}
+		else
+		{
+			return new EventBusClient(addresses, addressIndex, options, socket, false, true);
+		}
+	}
+
+	private record Address(
+			@NotNull String host,
+			int port
+	)
+	{
+		@NotNull
+		public static Address parse(@NotNull String address)
+		{
+			String[] parts = address.split(":", 2);
+			int port;
+			try
+			{
+				port = parts.length > 1 ? Integer.parseInt(parts[1]) : 5532;
+			}
+			catch (NumberFormatException exception)
+			{
+				throw new IllegalArgumentException("Invalid port number \"%s\"".formatted(parts[1]));
+			}
+			if (port <= 0 || port > 65535)
+			{
+				throw new IllegalArgumentException("Port number out of range");
+			}
+			return new Address(parts[0], port);
 		}
+	}
 
-		Socket socket;
+	@NotNull
+	private static Socket connect(@NotNull Address address) throws ConnectException
+	{
 		try
 		{
-			socket = new Socket(host, port);
+			Socket socket = new Socket(address.host, address.port);
+			// messages are already combined into as few writes as possible, so waiting for more data before sending only adds latency
+			socket.setTcpNoDelay(true);
+			return socket;
 		}
 		catch (IOException exception)
 		{
 			throw new ConnectException("Could not create socket", exception);
 		}
+	}
 
-		return new EventBusClient(socket);
+	// returns whether the server agreed to binary framing, or null if the server did not understand the request
+	@Nullable
+	private static Boolean negotiateBinaryFraming(@NotNull Socket socket) throws IOException
+	{
+		socket.getOutputStream().write("0 BIN\n".getBytes(StandardCharsets.US_ASCII));
+		socket.setSoTimeout(NEGOTIATION_TIMEOUT);
+		// the server does not send anything else until the client sends its next command, so reading one byte at a time does not consume anything after the response
+		InputStream inputStream = socket.getInputStream();
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		for (int value = inputStream.read(); value != '\n'; value = inputStream.read())
+		{
+			if (value == -1 || byteArrayOutputStream.size() > 16)
+			{
+				return null;
+			}
+			byteArrayOutputStream.write(value);
+		}
+		socket.setSoTimeout(0);
+		return switch (byteArrayOutputStream.toString(StandardCharsets.US_ASCII))
+		{
+			case "0 BIN" -> true;
+			case "0 TEXT" -> false;
+			default -> null;
+		};
+	}
+
+	public static final class Options
+	{
+		boolean binaryFraming = true;
+		boolean reconnect = false;
+		long reconnectInitialDelay = 100;
+		long reconnectMaxDelay = 30000;
+		int maxReconnectAttempts = 0;
+		boolean peer = false;
+
+		public Options()
+		{
+			// empty
+		}
+
+		// binary framing is used if the server supports it, otherwise the connection falls back to the text protocol
+		@NotNull
+		public Options binaryFraming(boolean binaryFraming)
+		{
+			this.binaryFraming = binaryFraming;
+			return this;
+		}
+
+		// whether to reconnect when the connection is lost instead of closing all the channels, the channels are opened again on the new connection and the events and requests that were not acknowledged are sent again, so the server may receive some of them twice
+		// subscribers miss the events published while the client was disconnected, unless they were added with addSubscriberFromOffset or addSubscriberFromTimestamp and the queue is logged
+		@NotNull
+		public Options reconnect(boolean reconnect)
+		{
+			this.reconnect = reconnect;
+			return this;
+		}
+
+		// the delay before the first attempt to reconnect, in milliseconds, which doubles after each failed attempt up to the maximum delay
+		@NotNull
+		public Options reconnectDelay(long reconnectInitialDelay, long reconnectMaxDelay)
+		{
+			if (reconnectInitialDelay < 1 || reconnectMaxDelay < reconnectInitialDelay)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.reconnectInitialDelay = reconnectInitialDelay;
+			this.reconnectMaxDelay = reconnectMaxDelay;
+			return this;
+		}
+
+		// how many failed attempts to reconnect after losing the connection before closing all the channels, or 0 to keep trying indefinitely
+		@NotNull
+		public Options maxReconnectAttempts(int maxReconnectAttempts)
+		{
+			if (maxReconnectAttempts < 0)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.maxReconnectAttempts = maxReconnectAttempts;
+			return this;
+		}
+
+		// used by servers that are linked together, the subscribers and request handlers are marked as belonging to another server so that the server only sends them the events and requests from its own clients
+		// subscribers cannot replay queues, as the offsets are only meaningful to the server that logged the events
+		@NotNull
+		public Options peer(boolean peer)
+		{
+			this.peer = peer;
+			return this;
+		}
 	}
 
 	public static final class ConnectException extends EventBusClientException
@@ -59,14 +247,33 @@ public class EventBusClient
 		}
 	}
 
-	private final Socket socket;
-	private final LinkedBlockingQueue<String> outgoingMessageQueue = new LinkedBlockingQueue<>();
-	private final Thread outgoingThread;
-	private final Thread incomingThread;
+	private final List<Address> addresses;
+	private final Options options;
+	// binary framing sends each message as a 4-byte big-endian length followed by the message in ISO-8859-1, instead of as a line of ASCII
+	// this is decided by the first connection and a new connection must use the same framing, as the channels may have accepted data that can only be sent with binary framing
+	private final boolean binary;
+	// servers that do not understand the request for binary framing do not understand requests to replay queues or batches either
+	private final boolean extendedProtocol;
 	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
 
 	private boolean closed = false;
 	private boolean error = false;
+	// null while reconnecting
+	@Nullable
+	private Connection connection;
+	// incremented for each new connection, so that responses to requests received on a previous connection are not sent on the new one
+	private int connectionNumber = 0;
+	@Nullable
+	private Thread reconnectThread = null;
+	// the server that the current connection, or the last one while reconnecting, is to
+	private int addressIndex;
+
+	private int disconnects = 0;
+	private int reconnects = 0;
+	private int failedReconnectAttempts = 0;
+	private long disconnectTime = 0;
+	private long lastDowntime = 0;
+	private long totalDowntime = 0;
 
 	private final HashMap<Integer, Publisher> publishers = new HashMap<>();
 	private final HashMap<Integer, Subscriber> subscribers = new HashMap<>();
@@ -74,175 +281,525 @@ public class EventBusClient
 	private final HashMap<Integer, RequestHandler> requestHandlers = new HashMap<>();
 	private int nextChannelId = 1;
 
-	private EventBusClient(@NotNull Socket socket)
+	private EventBusClient(@NotNull List<Address> addresses, int addressIndex, @NotNull Options options, @NotNull Socket socket, boolean binary, boolean extendedProtocol)
 	{
-		this.socket = socket;
+		this.addresses = addresses;
+		this.addressIndex = addressIndex;
+		this.options = options;
+		this.binary = binary;
+		this.extendedProtocol = extendedProtocol;
 
-		this.outgoingThread = new Thread(() ->
+		this.connection = new Connection(socket);
+		this.connection.start();
+	}
+
+	// one socket connection to the server, the client replaces it with a new one each time that it reconnects
+	private final class Connection
+	{
+		private final Socket socket;
+		private final LinkedBlockingQueue<String> outgoingMessageQueue = new LinkedBlockingQueue<>();
+		private final Thread outgoingThread;
+		private final Thread incomingThread;
+		// messages for channels that have not been opened on this connection yet are dropped, as the channel sends whatever is still needed when it is opened
+		private final HashSet<Integer> openChannelIds = new HashSet<>();
+
+		private Connection(@NotNull Socket socket)
 		{
-			try (OutputStream outputStream = this.socket.getOutputStream())
+			this.socket = socket;
+
+			this.outgoingThread = new Thread(() ->
 			{
-				for (; ; )
+				try (OutputStream outputStream = new BufferedOutputStream(this.socket.getOutputStream(), 64 * 1024))
 				{
-					String message = this.outgoingMessageQueue.take();
-					outputStream.write(message.getBytes(StandardCharsets.US_ASCII));
+					for (; ; )
+					{
+						// messages that were queued while the previous write was in progress are sent together
+						String message = this.outgoingMessageQueue.take();
+						do
+						{
+							if (EventBusClient.this.binary)
+							{
+								int length = message.length();
+								outputStream.write(length >>> 24);
+								outputStream.write(length >>> 16);
+								outputStream.write(length >>> 8);
+								outputStream.write(length);
+								outputStream.write(message.getBytes(StandardCharsets.ISO_8859_1));
+							}
+							else
+							{
+								outputStream.write(message.getBytes(StandardCharsets.US_ASCII));
+								outputStream.write('\n');
+							}
+						}
+						while ((message = this.outgoingMessageQueue.poll()) != null);
+						outputStream.flush();
+					}
 				}
-			}
-			catch (InterruptedException exception)
+				catch (InterruptedException exception)
+				{
+					// empty
+				}
+				catch (IOException exception)
+				{
+					// empty
+				}
+				EventBusClient.this.connectionLost(this);
+			});
+
+			this.incomingThread = new Thread(() ->
 			{
-				// empty
+				try (InputStream inputStream = this.socket.getInputStream())
+				{
+					if (EventBusClient.this.binary)
+					{
+						this.readFrames(inputStream);
+					}
+					else
+					{
+						this.readLines(inputStream);
+					}
+				}
+				catch (IOException exception)
+				{
+					// empty
+				}
+				EventBusClient.this.connectionLost(this);
+			});
+		}
+
+		private void start()
+		{
+			this.outgoingThread.start();
+			this.incomingThread.start();
+		}
+
+		private void close()
+		{
+			try
+			{
+				this.socket.close();
 			}
 			catch (IOException exception)
 			{
-				this.lock.writeLock().lock();
-				this.error = true;
-				this.lock.writeLock().unlock();
+				// empty
 			}
-			this.initiateClose();
 
-			this.publishers.forEach((channelId, publisher) ->
+			this.outgoingThread.interrupt();
+		}
+
+		private void join()
+		{
+			for (; ; )
 			{
-				publisher.closed();
-			});
-			this.publishers.clear();
+				try
+				{
+					this.incomingThread.join();
+					break;
+				}
+				catch (InterruptedException exception)
+				{
+					// empty
+				}
+			}
 
-			this.requestSenders.forEach((channelId, requestSender) ->
+			for (; ; )
 			{
-				requestSender.closed();
-			});
-			this.requestSenders.clear();
-		});
+				try
+				{
+					this.outgoingThread.join();
+					break;
+				}
+				catch (InterruptedException exception)
+				{
+					// empty
+				}
+			}
+		}
 
-		this.incomingThread = new Thread(() ->
+		private void readLines(@NotNull InputStream inputStream) throws IOException
 		{
-			try (InputStream inputStream = this.socket.getInputStream())
+			byte[] readBuffer = new byte[1024];
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
+			for (; ; )
 			{
-				byte[] readBuffer = new byte[1024];
-				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-				for (; ; )
+				int readLength = inputStream.read(readBuffer);
+				if (readLength > 0)
 				{
-					int readLength = inputStream.read(readBuffer);
-					if (readLength > 0)
+					int startOffset = 0;
+					for (int offset = 0; offset < readLength; offset++)
 					{
-						int startOffset = 0;
-						for (int offset = 0; offset < readLength; offset++)
+						if (readBuffer[offset] == '\n')
 						{
-							if (readBuffer[offset] == '\n')
-							{
-								byteArrayOutputStream.write(readBuffer, startOffset, offset - startOffset);
-								String message = byteArrayOutputStream.toString(StandardCharsets.US_ASCII);
-								this.lock.readLock().lock();
-								boolean suppress = this.closed || this.error;
-								this.lock.readLock().unlock();
-								if (!suppress)
-								{
-									if (!this.dispatchReceivedMessage(message))
-									{
-										this.lock.writeLock().lock();
-										this.error = true;
-										this.lock.writeLock().unlock();
-										this.initiateClose();
-									}
-								}
-								byteArrayOutputStream = new ByteArrayOutputStream(1024);
-								startOffset = offset + 1;
-							}
+							byteArrayOutputStream.write(readBuffer, startOffset, offset - startOffset);
+							EventBusClient.this.handleReceivedMessage(this, byteArrayOutputStream.toString(StandardCharsets.US_ASCII));
+							byteArrayOutputStream = new ByteArrayOutputStream(1024);
+							startOffset = offset + 1;
 						}
-						byteArrayOutputStream.write(readBuffer, startOffset, readLength - startOffset);
-					}
-					else if (readLength == -1)
-					{
-						break;
-					}
-					else
-					{
-						throw new AssertionError();
 					}
+					byteArrayOutputStream.write(readBuffer, startOffset, readLength - startOffset);
+				}
+				else if (readLength == -1)
+				{
+					break;
+				}
+				else
+				{
+					throw new AssertionError();
 				}
 			}
-			catch (IOException exception)
+		}
+
+		private void readFrames(@NotNull InputStream inputStream) throws IOException
+		{
+			DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+			for (; ; )
 			{
-				this.lock.writeLock().lock();
-				this.error = true;
-				this.lock.writeLock().unlock();
+				int length;
+				try
+				{
+					length = dataInputStream.readInt();
+				}
+				catch (EOFException exception)
+				{
+					break;
+				}
+				if (length < 0)
+				{
+					throw new IOException("Invalid frame length");
+				}
+				byte[] bytes = new byte[length];
+				dataInputStream.readFully(bytes);
+				EventBusClient.this.handleReceivedMessage(this, new String(bytes, StandardCharsets.ISO_8859_1));
 			}
-			this.initiateClose();
+		}
 
-			this.subscribers.forEach((channelId, subscriber) ->
+		private void enqueueMessage(int channelId, @NotNull String message)
+		{
+			for (; ; )
 			{
-				subscriber.error();
-			});
-			this.subscribers.clear();
+				try
+				{
+					this.outgoingMessageQueue.put(channelId + " " + message);
+					break;
+				}
+				catch (InterruptedException exception)
+				{
+					// empty
+				}
+			}
+		}
+	}
 
-			this.requestHandlers.forEach((channelId, requestHandler) ->
+	private void handleReceivedMessage(@NotNull Connection connection, @NotNull String message)
+	{
+		// messages that were already received when the connection was replaced or closed are ignored
+		this.lock.readLock().lock();
+		boolean suppress = this.connection != connection;
+		this.lock.readLock().unlock();
+		if (!suppress)
+		{
+			if (!this.dispatchReceivedMessage(message))
 			{
-				requestHandler.error();
-			});
-			this.requestHandlers.clear();
-		});
+				// a protocol error is not a problem with the connection so reconnecting would not help
+				this.fail();
+			}
+		}
+	}
+
+	// whether the connection is using binary framing, in which case the data of events and requests can contain any character that fits in a byte
+	public boolean isBinary()
+	{
+		return this.binary;
+	}
+
+	boolean isBatchSupported()
+	{
+		return this.extendedProtocol;
+	}
 
-		this.outgoingThread.start();
-		this.incomingThread.start();
+	boolean isPeer()
+	{
+		return this.options.peer;
+	}
+
+	// offsets are only meaningful to the server that they were received from
+	int getAddressIndex()
+	{
+		this.lock.readLock().lock();
+		int addressIndex = this.addressIndex;
+		this.lock.readLock().unlock();
+		return addressIndex;
+	}
+
+	@NotNull
+	public ConnectionStats getConnectionStats()
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			return new ConnectionStats(this.connection != null, this.disconnects, this.reconnects, this.failedReconnectAttempts, this.lastDowntime, this.totalDowntime);
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+
+	public record ConnectionStats(
+			boolean connected,
+			int disconnects,
+			int reconnects,
+			int failedReconnectAttempts,
+			long lastDowntimeMillis,
+			long totalDowntimeMillis
+	)
+	{
 	}
 
 	public void close()
 	{
-		this.initiateClose();
+		this.lock.writeLock().lock();
+		boolean ended = this.closed || this.error;
+		this.closed = true;
+		Connection connection = this.connection;
+		this.connection = null;
+		Thread reconnectThread = this.reconnectThread;
+		this.reconnectThread = null;
+		this.lock.writeLock().unlock();
+
+		if (connection != null)
+		{
+			connection.close();
+			connection.join();
+		}
+
+		if (reconnectThread != null)
+		{
+			reconnectThread.interrupt();
+			for (; ; )
+			{
+				try
+				{
+					reconnectThread.join();
+					break;
+				}
+				catch (InterruptedException exception)
+				{
+					// empty
+				}
+			}
+		}
+
+		if (!ended)
+		{
+			this.endChannels();
+		}
+	}
+
+	private void fail()
+	{
+		this.lock.writeLock().lock();
+		if (this.closed || this.error)
+		{
+			this.lock.writeLock().unlock();
+			return;
+		}
+		this.error = true;
+		Connection connection = this.connection;
+		this.connection = null;
+		this.lock.writeLock().unlock();
+
+		if (connection != null)
+		{
+			connection.close();
+		}
+		this.endChannels();
+	}
+
+	// called by both of the connection's threads when they stop
+	private void connectionLost(@NotNull Connection connection)
+	{
+		connection.close();
+
+		this.lock.writeLock().lock();
+		if (this.connection != connection)
+		{
+			// already closed or replaced
+			this.lock.writeLock().unlock();
+			return;
+		}
+		this.connection = null;
+		this.disconnects++;
+		if (!this.options.reconnect)
+		{
+			this.error = true;
+			this.lock.writeLock().unlock();
+			this.endChannels();
+			return;
+		}
+		this.disconnectTime = System.currentTimeMillis();
+		this.reconnectThread = new Thread(() -> this.reconnect(connection), "Event bus reconnect");
+		this.reconnectThread.setDaemon(true);
+		this.reconnectThread.start();
+		this.lock.writeLock().unlock();
+	}
+
+	private void reconnect(@NotNull Connection previousConnection)
+	{
+		// nothing more is received from the previous connection once the new one is in use
+		previousConnection.join();
 
-		for (; ; )
+		long delay = this.options.reconnectInitialDelay;
+		for (int attempt = 1; ; attempt++)
 		{
 			try
 			{
-				this.incomingThread.join();
-				break;
+				Thread.sleep(delay);
 			}
 			catch (InterruptedException exception)
 			{
-				// empty
+				return;
+			}
+			delay = Math.min(delay * 2, this.options.reconnectMaxDelay);
+
+			this.lock.readLock().lock();
+			boolean closed = this.closed;
+			this.lock.readLock().unlock();
+			if (closed)
+			{
+				return;
+			}
+
+			// when there are several servers the others are tried before the one that the connection was lost to
+			Socket socket = null;
+			int addressIndex = this.addressIndex;
+			for (int count = 0; count < this.addresses.size() && socket == null; count++)
+			{
+				addressIndex = (addressIndex + 1) % this.addresses.size();
+				try
+				{
+					socket = this.reconnectSocket(this.addresses.get(addressIndex));
+				}
+				catch (IOException | ConnectException exception)
+				{
+					// empty
+				}
 			}
+			if (socket == null)
+			{
+				this.lock.writeLock().lock();
+				this.failedReconnectAttempts++;
+				boolean giveUp = this.options.maxReconnectAttempts > 0 && attempt >= this.options.maxReconnectAttempts && !this.closed;
+				if (giveUp)
+				{
+					this.error = true;
+					this.reconnectThread = null;
+				}
+				this.lock.writeLock().unlock();
+				if (giveUp)
+				{
+					this.endChannels();
+					return;
+				}
+				continue;
+			}
+
+			Connection connection = new Connection(socket);
+			this.lock.writeLock().lock();
+			if (this.closed)
+			{
+				this.lock.writeLock().unlock();
+				connection.close();
+				return;
+			}
+			this.connection = connection;
+			this.addressIndex = addressIndex;
+			this.connectionNumber++;
+			this.reconnectThread = null;
+			this.reconnects++;
+			this.lastDowntime = System.currentTimeMillis() - this.disconnectTime;
+			this.totalDowntime += this.lastDowntime;
+			List<Publisher> publishers = new ArrayList<>(this.publishers.values());
+			List<Subscriber> subscribers = new ArrayList<>(this.subscribers.values());
+			List<RequestSender> requestSenders = new ArrayList<>(this.requestSenders.values());
+			List<RequestHandler> requestHandlers = new ArrayList<>(this.requestHandlers.values());
+			this.lock.writeLock().unlock();
+
+			connection.start();
+
+			// channels that are added from here on are opened on the new connection straight away
+			// the handlers and subscribers are opened first so that they are there for the requests and events that this client sends again
+			requestHandlers.forEach(RequestHandler::resume);
+			subscribers.forEach(Subscriber::resume);
+			publishers.forEach(Publisher::resume);
+			requestSenders.forEach(RequestSender::resume);
+
+			return;
 		}
+	}
 
-		for (; ; )
+	@NotNull
+	private Socket reconnectSocket(@NotNull Address address) throws IOException, ConnectException
+	{
+		Socket socket = connect(address);
+		if (this.binary)
 		{
+			Boolean binary;
 			try
 			{
-				this.outgoingThread.join();
-				break;
+				binary = negotiateBinaryFraming(socket);
 			}
-			catch (InterruptedException exception)
+			catch (IOException exception)
 			{
-				// empty
+				binary = null;
+			}
+			if (binary != Boolean.TRUE)
+			{
+				socket.close();
+				throw new IOException("Server does not support binary framing");
 			}
 		}
+		return socket;
 	}
 
-	private void initiateClose()
+	// called once when the client is closed or fails, the channels' pending results are completed and the subscribers and handlers are told that there will be no more messages
+	private void endChannels()
 	{
 		this.lock.writeLock().lock();
-		if (!this.error)
-		{
-			this.closed = true;
-		}
+		List<Publisher> publishers = new ArrayList<>(this.publishers.values());
+		List<Subscriber> subscribers = new ArrayList<>(this.subscribers.values());
+		List<RequestSender> requestSenders = new ArrayList<>(this.requestSenders.values());
+		List<RequestHandler> requestHandlers = new ArrayList<>(this.requestHandlers.values());
+		this.publishers.clear();
+		this.subscribers.clear();
+		this.requestSenders.clear();
+		this.requestHandlers.clear();
 		this.lock.writeLock().unlock();
 
-		try
-		{
-			this.socket.close();
-		}
-		catch (IOException exception)
-		{
-			// empty
-		}
-
-		this.outgoingThread.interrupt();
+		publishers.forEach(Publisher::closed);
+		requestSenders.forEach(RequestSender::closed);
+		subscribers.forEach(Subscriber::error);
+		requestHandlers.forEach(RequestHandler::error);
 	}
 
 	public Publisher addPublisher()
 	{
+		return this.addPublisher(1, 0);
+	}
+
+	// events that are published within the linger time (in milliseconds) of each other are sent together in batches of up to the maximum batch size, which reduces the number of messages and acknowledgements at high event rates at the cost of delaying each event by up to the linger time
+	public Publisher addPublisher(int maxBatchSize, long lingerTime)
+	{
+		if (maxBatchSize < 1 || lingerTime < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
 		this.lock.writeLock().lock();
 		int channelId = this.getUnusedChannelId();
-		Publisher publisher = new Publisher(this, channelId);
-		if (this.sendMessage(channelId, "PUB"))
+		Publisher publisher = new Publisher(this, channelId, maxBatchSize, lingerTime);
+		if (this.openChannel(channelId, "PUB"))
 		{
 			this.publishers.put(channelId, publisher);
 		}
@@ -255,11 +812,37 @@ public class EventBusClient
 	}
 
 	public Subscriber addSubscriber(@NotNull String queueName, @NotNull Subscriber.SubscriberListener listener)
+	{
+		return this.addSubscriber(queueName, null, listener);
+	}
+
+	// replays the events kept by the server starting from the given offset, followed by the new events as they are published, if the server does not keep events for the queue then only the new events are received
+	public Subscriber addSubscriberFromOffset(@NotNull String queueName, long offset, @NotNull Subscriber.SubscriberListener listener)
+	{
+		if (offset < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		return this.addSubscriber(queueName, "FROM " + offset, listener);
+	}
+
+	// as with addSubscriberFromOffset, starting from the first event published at or after the given time
+	public Subscriber addSubscriberFromTimestamp(@NotNull String queueName, long timestamp, @NotNull Subscriber.SubscriberListener listener)
+	{
+		if (timestamp < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		return this.addSubscriber(queueName, "SINCE " + timestamp, listener);
+	}
+
+	private Subscriber addSubscriber(@NotNull String queueName, @Nullable String replayStart, @NotNull Subscriber.SubscriberListener listener)
 	{
 		this.lock.writeLock().lock();
 		int channelId = this.getUnusedChannelId();
-		Subscriber subscriber = new Subscriber(this, channelId, queueName, listener);
-		if (this.sendMessage(channelId, "SUB " + queueName))
+		// the events that are waiting to be sent are received together, the listener is given them as a batch
+		Subscriber subscriber = new Subscriber(this, channelId, queueName, this.extendedProtocol && !this.options.peer ? replayStart : null, this.extendedProtocol, listener);
+		if (this.openChannel(channelId, subscriber.getSubscribeCommand()))
 		{
 			this.subscribers.put(channelId, subscriber);
 		}
@@ -276,7 +859,7 @@ public class EventBusClient
 		this.lock.writeLock().lock();
 		int channelId = this.getUnusedChannelId();
 		RequestSender requestSender = new RequestSender(this, channelId);
-		if (this.sendMessage(channelId, "REQ"))
+		if (this.openChannel(channelId, "REQ"))
 		{
 			this.requestSenders.put(channelId, requestSender);
 		}
@@ -293,7 +876,7 @@ public class EventBusClient
 		this.lock.writeLock().lock();
 		int channelId = this.getUnusedChannelId();
 		RequestHandler requestHandler = new RequestHandler(this, channelId, queueName, handler);
-		if (this.sendMessage(channelId, "HND " + queueName))
+		if (this.openChannel(channelId, requestHandler.getHandleCommand()))
 		{
 			this.requestHandlers.put(channelId, requestHandler);
 		}
@@ -359,60 +942,105 @@ public class EventBusClient
 			return false;
 		}
 
+		this.lock.readLock().lock();
 		Publisher publisher = this.publishers.getOrDefault(channelId, null);
+		Subscriber subscriber = this.subscribers.getOrDefault(channelId, null);
+		RequestSender requestSender = this.requestSenders.getOrDefault(channelId, null);
+		RequestHandler requestHandler = this.requestHandlers.getOrDefault(channelId, null);
+		int nextChannelId = this.nextChannelId;
+		this.lock.readLock().unlock();
+
 		if (publisher != null)
 		{
 			return publisher.handleMessage(parts[1]);
 		}
 
-		Subscriber subscriber = this.subscribers.getOrDefault(channelId, null);
 		if (subscriber != null)
 		{
 			return subscriber.handleMessage(parts[1]);
 		}
 
-		RequestSender requestSender = this.requestSenders.getOrDefault(channelId, null);
 		if (requestSender != null)
 		{
 			return requestSender.handleMessage(parts[1]);
 		}
 
-		RequestHandler requestHandler = this.requestHandlers.getOrDefault(channelId, null);
 		if (requestHandler != null)
 		{
 			return requestHandler.handleMessage(parts[1]);
 		}
 
-		return channelId < this.nextChannelId;
+		return channelId < nextChannelId;
 	}
 
-	boolean sendMessage(int channelId, @NotNull String message)
+	// must be called with the write lock held
+	private boolean openChannel(int channelId, @NotNull String command)
 	{
-		try
+		if (this.closed || this.error)
 		{
-			this.lock.readLock().lock();
-			if (this.closed || this.error)
+			return false;
+		}
+		// while reconnecting the channel is opened along with the others once the new connection is made
+		if (this.connection != null)
+		{
+			this.connection.openChannelIds.add(channelId);
+			this.connection.enqueueMessage(channelId, command);
+		}
+		return true;
+	}
+
+	// opens a channel again on a new connection and sends the messages that still need a response, if the channel has not already been opened on the current connection
+	void resumeChannel(int channelId, @NotNull List<String> messages)
+	{
+		this.lock.writeLock().lock();
+		if (this.connection != null && this.connection.openChannelIds.add(channelId))
+		{
+			for (String message : messages)
 			{
-				return false;
+				this.connection.enqueueMessage(channelId, message);
 			}
 		}
+		this.lock.writeLock().unlock();
+	}
+
+	int getConnectionNumber()
+	{
+		this.lock.readLock().lock();
+		try
+		{
+			return this.connectionNumber;
+		}
 		finally
 		{
 			this.lock.readLock().unlock();
 		}
+	}
 
-		for (; ; )
+	boolean sendMessage(int channelId, @NotNull String message)
+	{
+		return this.sendMessage(channelId, message, -1);
+	}
+
+	// while reconnecting, and until the channel has been opened on the new connection, the message is dropped and true is returned, as the channel sends whatever still needs a response when it is opened again
+	// a connection number other than -1 drops the message unless it is for the current connection, for responses to requests that the server has forgotten about
+	boolean sendMessage(int channelId, @NotNull String message, int connectionNumber)
+	{
+		this.lock.readLock().lock();
+		try
 		{
-			try
+			if (this.closed || this.error)
 			{
-				this.outgoingMessageQueue.put(channelId + " " + message + "\n");
-				break;
+				return false;
 			}
-			catch (InterruptedException exception)
+			if (this.connection != null && this.connection.openChannelIds.contains(channelId) && (connectionNumber == -1 || connectionNumber == this.connectionNumber))
 			{
-				// empty
+				this.connection.enqueueMessage(channelId, message);
 			}
+			return true;
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
 		}
-		return true;
 	}
-}
\ No newline at end of file
+}
@@ -2,30 +2,57 @@ package micheal65536.vienna.eventbus.client;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 public final class Publisher
 {
+	private static final Pattern INVALID_NAME_CHARACTER_PATTERN = Pattern.compile("[^A-Za-z0-9_\\-]");
+	private static final Pattern INVALID_NAME_START_PATTERN = Pattern.compile("^[^A-Za-z0-9]");
+
 	private final EventBusClient client;
 	private final int channelId;
+	// events published one at a time are held for up to the linger time and sent together in a batch of up to the maximum batch size, a maximum batch size of 1 sends each event as soon as it is published
+	private final int maxBatchSize;
+	private final long lingerTime;
 
 	private final ReentrantLock lock = new ReentrantLock(true);
 
 	private boolean closed = false;
 
-	private final LinkedList<String> queuedEvents = new LinkedList<>();
-	private final LinkedList<CompletableFuture<Boolean>> queuedEventResults = new LinkedList<>();
-	private CompletableFuture<Boolean> currentPendingEventResult = null;
+	// events are sent as soon as they are published, the server handles the events on a channel in order so the ACKs come back in the same order
+	// a batch is acknowledged once, so there is one pending event for each batch
+	// the messages are kept until they are acknowledged so that they can be sent again after reconnecting
+	private final LinkedList<PendingEvent> pendingEvents = new LinkedList<>();
+
+	private final ArrayList<Entry> lingeringEntries = new ArrayList<>();
+	private CompletableFuture<Boolean> lingeringEntriesResult = null;
+	// identifies the lingering batch that a scheduled send is for, so that a send scheduled for a batch that was already sent because it was full does not send the next batch early
+	private int lingeringBatchNumber = 0;
 
-	Publisher(@NotNull EventBusClient client, int channelId)
+	Publisher(@NotNull EventBusClient client, int channelId, int maxBatchSize, long lingerTime)
 	{
 		this.client = client;
 		this.channelId = channelId;
+		this.maxBatchSize = maxBatchSize;
+		this.lingerTime = lingerTime;
 	}
 
 	public void close()
+	{
+		this.lock.lock();
+		this.sendLingeringEntries();
+		this.lock.unlock();
+
+		this.closeChannel();
+	}
+
+	private void closeChannel()
 	{
 		this.client.removePublisher(this.channelId);
 		this.client.sendMessage(this.channelId, "CLOSE");
@@ -42,28 +69,101 @@ public final class Publisher
 		{
 			throw new IllegalArgumentException("Type contains invalid characters");
 		}
-		if (!validateData(data))
+		if (!this.validateData(data))
 		{
 			throw new IllegalArgumentException("Data contains invalid characters");
 		}
 
-		String eventMessage = "SEND " + queueName + ":" + type + ":" + data;
+		CompletableFuture<Boolean> completableFuture;
+
+		this.lock.lock();
+		if (this.closed)
+		{
+			completableFuture = CompletableFuture.completedFuture(false);
+		}
+		else if (this.maxBatchSize > 1 && this.client.isBatchSupported())
+		{
+			this.lingeringEntries.add(new Entry(queueName, type, data));
+			if (this.lingeringEntriesResult == null)
+			{
+				this.lingeringEntriesResult = new CompletableFuture<>();
+				int batchNumber = this.lingeringBatchNumber;
+				CompletableFuture.runAsync(() ->
+				{
+					this.lock.lock();
+					if (this.lingeringBatchNumber == batchNumber)
+					{
+						this.sendLingeringEntries();
+					}
+					this.lock.unlock();
+				}, CompletableFuture.delayedExecutor(this.lingerTime, TimeUnit.MILLISECONDS));
+			}
+			// each caller gets its own future that completes with the batch, so that one caller completing its future does not affect the others
+			completableFuture = this.lingeringEntriesResult.copy();
+			if (this.lingeringEntries.size() >= this.maxBatchSize)
+			{
+				this.sendLingeringEntries();
+			}
+		}
+		else
+		{
+			completableFuture = new CompletableFuture<>();
+			this.sendEvent("SEND " + queueName + ":" + type + ":" + data, completableFuture);
+		}
+		this.lock.unlock();
+
+		return completableFuture;
+	}
+
+	// publishes the events in one message that the server acknowledges once, the future completes when the whole batch has been published
+	// servers that do not support batches are sent the events one at a time
+	public CompletableFuture<Boolean> publishBatch(@NotNull List<Entry> entries)
+	{
+		for (Entry entry : entries)
+		{
+			if (!validateQueueName(entry.queueName))
+			{
+				throw new IllegalArgumentException("Queue name contains invalid characters");
+			}
+			if (!validateType(entry.type))
+			{
+				throw new IllegalArgumentException("Type contains invalid characters");
+			}
+			if (!this.validateData(entry.data))
+			{
+				throw new IllegalArgumentException("Data contains invalid characters");
+			}
+		}
+
+		if (entries.isEmpty())
+		{
+			return CompletableFuture.completedFuture(true);
+		}
 
-		CompletableFuture<Boolean> completableFuture = new CompletableFuture<>();
+		CompletableFuture<Boolean> completableFuture;
 
 		this.lock.lock();
 		if (this.closed)
 		{
-			completableFuture.complete(false);
+			completableFuture = CompletableFuture.completedFuture(false);
+		}
+		else if (this.client.isBatchSupported())
+		{
+			// events that were published before the batch are sent first to keep them in order
+			this.sendLingeringEntries();
+			completableFuture = new CompletableFuture<>();
+			this.sendBatch(entries, completableFuture);
 		}
 		else
 		{
-			this.queuedEvents.add(eventMessage);
-			this.queuedEventResults.add(completableFuture);
-			if (this.currentPendingEventResult == null)
+			ArrayList<CompletableFuture<Boolean>> completableFutures = new ArrayList<>();
+			for (Entry entry : entries)
 			{
-				this.sendNextEvent();
+				CompletableFuture<Boolean> entryCompletableFuture = new CompletableFuture<>();
+				this.sendEvent("SEND " + entry.queueName + ":" + entry.type + ":" + entry.data, entryCompletableFuture);
+				completableFutures.add(entryCompletableFuture);
 			}
+			completableFuture = CompletableFuture.allOf(completableFutures.toArray(CompletableFuture[]::new)).thenApply(ignored -> completableFutures.stream().allMatch(CompletableFuture::join));
 		}
 		this.lock.unlock();
 
@@ -73,45 +173,90 @@ public final class Publisher
 	public void flush()
 	{
 		this.lock.lock();
-		CompletableFuture<Boolean> completableFuture = this.queuedEventResults.isEmpty() ? this.currentPendingEventResult : this.queuedEventResults.getLast();
+		this.sendLingeringEntries();
+		PendingEvent pendingEvent = this.pendingEvents.peekLast();
 		this.lock.unlock();
 
-		if (completableFuture != null)
+		if (pendingEvent != null)
 		{
-			completableFuture.join();
+			pendingEvent.result.join();
 		}
 	}
 
+	// must be called with the lock held
+	private void sendLingeringEntries()
+	{
+		if (this.lingeringEntries.isEmpty())
+		{
+			return;
+		}
+		this.sendBatch(this.lingeringEntries, this.lingeringEntriesResult);
+		this.lingeringEntries.clear();
+		this.lingeringEntriesResult = null;
+		this.lingeringBatchNumber++;
+	}
+
+	// must be called with the lock held
+	private void sendBatch(@NotNull List<Entry> entries, @NotNull CompletableFuture<Boolean> completableFuture)
+	{
+		// "BATCH <count> <entries>" where each entry is "<queue>:<type>:<length>:<data>" with no separator between the entries
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append("BATCH ");
+		stringBuilder.append(entries.size());
+		stringBuilder.append(" ");
+		for (Entry entry : entries)
+		{
+			stringBuilder.append(entry.queueName);
+			stringBuilder.append(":");
+			stringBuilder.append(entry.type);
+			stringBuilder.append(":");
+			stringBuilder.append(entry.data.length());
+			stringBuilder.append(":");
+			stringBuilder.append(entry.data);
+		}
+		this.sendEvent(stringBuilder.toString(), completableFuture);
+	}
+
+	// must be called with the lock held
+	private void sendEvent(@NotNull String message, @NotNull CompletableFuture<Boolean> completableFuture)
+	{
+		this.pendingEvents.add(new PendingEvent(message, completableFuture));
+		this.client.sendMessage(this.channelId, message);
+	}
+
+	// the events that were not acknowledged on the previous connection are sent again, the server may already have published some of them
+	void resume()
+	{
+		this.lock.lock();
+		ArrayList<String> messages = new ArrayList<>();
+		messages.add("PUB");
+		this.pendingEvents.forEach(pendingEvent -> messages.add(pendingEvent.message));
+		this.client.resumeChannel(this.channelId, messages);
+		this.lock.unlock();
+	}
+
 	boolean handleMessage(@NotNull String message)
 	{
 		if (message.equals("ACK"))
 		{
-			try
+			this.lock.lock();
+			PendingEvent pendingEvent = this.pendingEvents.pollFirst();
+			this.lock.unlock();
+
+			if (pendingEvent != null)
 			{
-				this.lock.lock();
-				if (this.currentPendingEventResult != null)
-				{
-					this.currentPendingEventResult.complete(true);
-					this.currentPendingEventResult = null;
-					if (!this.queuedEvents.isEmpty())
-					{
-						this.sendNextEvent();
-					}
-					return true;
-				}
-				else
-				{
-					return false;
-				}
+				pendingEvent.result.complete(true);
+				return true;
 			}
-			finally
+			else
 			{
-				this.lock.unlock();
+				return false;
 			}
 		}
 		else if (message.equals("ERR"))
 		{
-			this.close();
+			// the server ignores anything else sent on the channel, including any lingering events
+			this.closeChannel();
 			return true;
 		}
 		else
@@ -120,34 +265,43 @@ public final class Publisher
 		}
 	}
 
-	private void sendNextEvent()
-	{
-		String message = this.queuedEvents.removeFirst();
-		this.client.sendMessage(this.channelId, message);
-		this.currentPendingEventResult = this.queuedEventResults.removeFirst();
-	}
-
 	void closed()
 	{
 		this.lock.lock();
 
 		this.closed = true;
 
-		if (this.currentPendingEventResult != null)
+		if (this.lingeringEntriesResult != null)
 		{
-			this.currentPendingEventResult.complete(false);
-			this.currentPendingEventResult = null;
+			this.lingeringEntriesResult.complete(false);
+			this.lingeringEntries.clear();
+			this.lingeringEntriesResult = null;
 		}
-		this.queuedEventResults.forEach(completableFuture -> completableFuture.complete(false));
-		this.queuedEventResults.clear();
-		this.queuedEvents.clear();
+
+		this.pendingEvents.forEach(pendingEvent -> pendingEvent.result.complete(false));
+		this.pendingEvents.clear();
 
 		this.lock.unlock();
 	}
 
+	public record Entry(
+			@NotNull String queueName,
+			@NotNull String type,
+			@NotNull String data
+	)
+	{
+	}
+
+	private record PendingEvent(
+			@NotNull String message,
+			@NotNull CompletableFuture<Boolean> result
+	)
+	{
+	}
+
 	private static boolean validateQueueName(String queueName)
 	{
-		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || queueName.matches("[^A-Za-z0-9_\\-]") || queueName.matches("^[^A-Za-z0-9]"))
+		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(queueName).matches() || INVALID_NAME_START_PATTERN.matcher(queueName).matches())
 		{
 			return false;
 		}
@@ -156,15 +310,25 @@ public final class Publisher
 
 	private static boolean validateType(String type)
 	{
-		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || type.matches("[^A-Za-z0-9_\\-]") || type.matches("^[^A-Za-z0-9]"))
+		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(type).matches() || INVALID_NAME_START_PATTERN.matcher(type).matches())
 		{
 			return false;
 		}
 		return true;
 	}
 
-	private static boolean validateData(@NotNull String string)
+	// with binary framing the data can contain any character that fits in a byte, e.g. binary data decoded as ISO-8859-1
+	private boolean validateData(@NotNull String string)
 	{
-		return string.chars().noneMatch(character -> character < 32 || character >= 127);
+		boolean binary = this.client.isBinary();
+		for (int index = 0; index < string.length(); index++)
+		{
+			char character = string.charAt(index);
+			if (binary ? character > 255 : character < 32 || character >= 127)
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package micheal65536.vienna.eventbus.client;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public final class RequestHandler
@@ -27,10 +28,21 @@ public final class RequestHandler
 	public void close()
 	{
 		this.closed = true;
-		this.client.removeSubscriber(this.channelId);
+		this.client.removeRequestHandler(this.channelId);
 		this.client.sendMessage(this.channelId, "CLOSE");
 	}
 
+	@NotNull
+	String getHandleCommand()
+	{
+		return this.client.isPeer() ? "HND " + this.queueName + " PEER" : "HND " + this.queueName;
+	}
+
+	void resume()
+	{
+		this.client.resumeChannel(this.channelId, List.of(this.getHandleCommand()));
+	}
+
 	boolean handleMessage(@NotNull String message)
 	{
 		if (message.equals("ERR"))
@@ -78,6 +90,8 @@ public final class RequestHandler
 			String type = fields[2];
 			String data = fields[3];
 
+			// the request ID is only known to the server on the connection that the request was received on
+			int connectionNumber = this.client.getConnectionNumber();
 			CompletableFuture<String> responseCompletableFuture = this.handler.requestAsync(new Request(timestamp, type, data));
 			responseCompletableFuture.thenAccept(response ->
 			{
@@ -85,11 +99,11 @@ public final class RequestHandler
 				{
 					if (response != null)
 					{
-						this.client.sendMessage(this.channelId, "REP " + requestId + ":" + response);
+						this.client.sendMessage(this.channelId, "REP " + requestId + ":" + response, connectionNumber);
 					}
 					else
 					{
-						this.client.sendMessage(this.channelId, "NREP " + requestId);
+						this.client.sendMessage(this.channelId, "NREP " + requestId, connectionNumber);
 					}
 				}
 			});
@@ -2,12 +2,17 @@ package micheal65536.vienna.eventbus.client;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 public final class RequestSender
 {
+	private static final Pattern INVALID_NAME_CHARACTER_PATTERN = Pattern.compile("[^A-Za-z0-9_\\-]");
+	private static final Pattern INVALID_NAME_START_PATTERN = Pattern.compile("^[^A-Za-z0-9]");
+
 	private final EventBusClient client;
 	private final int channelId;
 
@@ -15,9 +20,10 @@ public final class RequestSender
 
 	private boolean closed = false;
 
-	private final LinkedList<String> queuedRequests = new LinkedList<>();
-	private final LinkedList<CompletableFuture<String>> queuedRequestResponses = new LinkedList<>();
-	private CompletableFuture<String> currentPendingResponse = null;
+	// requests are sent as soon as they are made and may be answered in any order, so each one carries an ID that the response refers to
+	// the messages are kept until they are answered so that they can be sent again in order after reconnecting
+	private final LinkedHashMap<Integer, PendingRequest> pendingRequests = new LinkedHashMap<>();
+	private int nextRequestId = 1;
 
 	RequestSender(@NotNull EventBusClient client, int channelId)
 	{
@@ -42,13 +48,11 @@ public final class RequestSender
 		{
 			throw new IllegalArgumentException("Type contains invalid characters");
 		}
-		if (!validateData(data))
+		if (!this.validateData(data))
 		{
 			throw new IllegalArgumentException("Data contains invalid characters");
 		}
 
-		String requestMessage = "REQ " + queueName + ":" + type + ":" + data;
-
 		CompletableFuture<String> completableFuture = new CompletableFuture<>();
 
 		this.lock.lock();
@@ -58,12 +62,10 @@ public final class RequestSender
 		}
 		else
 		{
-			this.queuedRequests.add(requestMessage);
-			this.queuedRequestResponses.add(completableFuture);
-			if (this.currentPendingResponse == null)
-			{
-				this.sendNextRequest();
-			}
+			int requestId = this.nextRequestId++;
+			String message = "REQ " + requestId + ":" + queueName + ":" + type + ":" + data;
+			this.pendingRequests.put(requestId, new PendingRequest(message, completableFuture));
+			this.client.sendMessage(this.channelId, message);
 		}
 		this.lock.unlock();
 
@@ -73,13 +75,21 @@ public final class RequestSender
 	public void flush()
 	{
 		this.lock.lock();
-		CompletableFuture<String> completableFuture = this.queuedRequestResponses.isEmpty() ? this.currentPendingResponse : this.queuedRequestResponses.getLast();
+		CompletableFuture<?>[] completableFutures = this.pendingRequests.values().stream().map(PendingRequest::response).toArray(CompletableFuture[]::new);
 		this.lock.unlock();
 
-		if (completableFuture != null)
-		{
-			completableFuture.join();
-		}
+		CompletableFuture.allOf(completableFutures).join();
+	}
+
+	// the requests that were not answered on the previous connection are sent again, so a handler may receive a request that it has already handled
+	void resume()
+	{
+		this.lock.lock();
+		ArrayList<String> messages = new ArrayList<>();
+		messages.add("REQ");
+		this.pendingRequests.values().forEach(pendingRequest -> messages.add(pendingRequest.message));
+		this.client.resumeChannel(this.channelId, messages);
+		this.lock.unlock();
 	}
 
 	boolean handleMessage(@NotNull String message)
@@ -89,66 +99,62 @@ public final class RequestSender
 			this.close();
 			return true;
 		}
-		else if (message.equals("ACK"))
+
+		int requestId;
+		String response;
+
+		String[] parts = message.split(" ", 2);
+		if (parts.length != 2)
 		{
-			return true;
+			return false;
 		}
-		else
+		if (parts[0].equals("NREP"))
 		{
-			String response;
-
-			String[] parts = message.split(" ", 2);
-			if (parts[0].equals("NREP"))
+			try
 			{
-				if (parts.length != 1)
-				{
-					return false;
-				}
-				response = null;
+				requestId = Integer.parseInt(parts[1]);
 			}
-			else if (parts[0].equals("REP"))
+			catch (NumberFormatException exception)
 			{
-				if (parts.length != 2)
-				{
-					return false;
-				}
-				response = parts[1];
+				return false;
 			}
-			else
+			response = null;
+		}
+		else if (parts[0].equals("REP"))
+		{
+			String[] fields = parts[1].split(":", 2);
+			if (fields.length != 2)
 			{
 				return false;
 			}
-
 			try
 			{
-				this.lock.lock();
-				if (this.currentPendingResponse != null)
-				{
-					this.currentPendingResponse.complete(response);
-					this.currentPendingResponse = null;
-					if (!this.queuedRequests.isEmpty())
-					{
-						this.sendNextRequest();
-					}
-					return true;
-				}
-				else
-				{
-					return false;
-				}
+				requestId = Integer.parseInt(fields[0]);
 			}
-			finally
+			catch (NumberFormatException exception)
 			{
-				this.lock.unlock();
+				return false;
 			}
+			response = fields[1];
+		}
+		else
+		{
+			return false;
 		}
-	}
 
-	private void sendNextRequest()
-	{
-		String message = this.queuedRequests.removeFirst();
-		this.client.sendMessage(this.channelId, message);
-		this.currentPendingResponse = this.queuedRequestResponses.removeFirst();
+		this.lock.lock();
+		PendingRequest pendingRequest = this.pendingRequests.remove(requestId);
+		this.lock.unlock();
+
+		if (pendingRequest != null)
+		{
+			pendingRequest.response.complete(response);
+			return true;
+		}
+		else
+		{
+			return false;
+		}
 	}
 
 	void closed()
@@ -157,21 +163,22 @@ public final class RequestSender
 
 		this.closed = true;
 
-		if (this.currentPendingResponse != null)
-		{
-			this.currentPendingResponse.complete(null);
-			this.currentPendingResponse = null;
-		}
-		this.queuedRequestResponses.forEach(completableFuture -> completableFuture.complete(null));
-		this.queuedRequestResponses.clear();
-		this.queuedRequests.clear();
+		this.pendingRequests.values().forEach(pendingRequest -> pendingRequest.response.complete(null));
+		this.pendingRequests.clear();
 
 		this.lock.unlock();
 	}
 
+	private record PendingRequest(
+			@NotNull String message,
+			@NotNull CompletableFuture<String> response
+	)
+	{
+	}
+
 	private static boolean validateQueueName(String queueName)
 	{
-		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || queueName.matches("[^A-Za-z0-9_\\-]") || queueName.matches("^[^A-Za-z0-9]"))
+		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(queueName).matches() || INVALID_NAME_START_PATTERN.matcher(queueName).matches())
 		{
 			return false;
 		}
@@ -180,15 +187,25 @@ public final class RequestSender
 
 	private static boolean validateType(String type)
 	{
-		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || type.matches("[^A-Za-z0-9_\\-]") || type.matches("^[^A-Za-z0-9]"))
+		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(type).matches() || INVALID_NAME_START_PATTERN.matcher(type).matches())
 		{
 			return false;
 		}
 		return true;
 	}
 
-	private static boolean validateData(@NotNull String string)
+	// with binary framing the data can contain any character that fits in a byte, e.g. binary data decoded as ISO-8859-1
+	private boolean validateData(@NotNull String string)
 	{
-		return string.chars().noneMatch(character -> character < 32 || character >= 127);
+		boolean binary = this.client.isBinary();
+		for (int index = 0; index < string.length(); index++)
+		{
+			char character = string.charAt(index);
+			if (binary ? character > 255 : character < 32 || character >= 127)
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 }
\ No newline at end of file
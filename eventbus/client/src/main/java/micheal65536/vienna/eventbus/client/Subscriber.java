@@ -1,6 +1,10 @@
 package micheal65536.vienna.eventbus.client;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public final class Subscriber
 {
@@ -8,17 +12,69 @@ public final class Subscriber
 	final int channelId;
 
 	final String queueName;
+	// "FROM <offset>" or "SINCE <timestamp>", replaying subscribers are sent the offset of each event before the timestamp
+	@Nullable
+	private final String replayStart;
+	private final boolean replay;
+	private final boolean batch;
+	// a replaying subscriber continues from the event after this one when it is opened again after reconnecting to the same server
+	// each server has its own log with its own offsets, so after reconnecting to a different server it continues from the timestamp of the event instead, which may repeat events with the same timestamp
+	private volatile long lastOffset = -1;
+	private volatile long lastTimestamp = -1;
+	private volatile int lastAddressIndex = -1;
 
 	private final SubscriberListener listener;
 
-	Subscriber(@NotNull EventBusClient client, int channelId, @NotNull String queueName, @NotNull SubscriberListener listener)
+	Subscriber(@NotNull EventBusClient client, int channelId, @NotNull String queueName, @Nullable String replayStart, boolean batch, @NotNull SubscriberListener listener)
 	{
 		this.client = client;
 		this.channelId = channelId;
 		this.queueName = queueName;
+		this.replayStart = replayStart;
+		this.replay = replayStart != null;
+		this.batch = batch;
 		this.listener = listener;
 	}
 
+	@NotNull
+	String getSubscribeCommand()
+	{
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append("SUB ");
+		stringBuilder.append(this.queueName);
+		if (this.replay)
+		{
+			stringBuilder.append(" ");
+			long lastOffset = this.lastOffset;
+			if (lastOffset == -1)
+			{
+				stringBuilder.append(this.replayStart);
+			}
+			else if (this.lastAddressIndex == this.client.getAddressIndex())
+			{
+				stringBuilder.append("FROM ").append(lastOffset + 1);
+			}
+			else
+			{
+				stringBuilder.append("SINCE ").append(this.lastTimestamp);
+			}
+		}
+		if (this.batch)
+		{
+			stringBuilder.append(" BATCH");
+		}
+		if (this.client.isPeer())
+		{
+			stringBuilder.append(" PEER");
+		}
+		return stringBuilder.toString();
+	}
+
+	void resume()
+	{
+		this.client.resumeChannel(this.channelId, List.of(this.getSubscribeCommand()));
+	}
+
 	public void close()
 	{
 		this.client.removeSubscriber(this.channelId);
@@ -33,35 +89,153 @@ public final class Subscriber
 			this.listener.error();
 			return true;
 		}
+		else if (message.startsWith("BATCH "))
+		{
+			List<Event> events = this.parseBatch(message.substring("BATCH ".length()));
+			if (events == null)
+			{
+				return false;
+			}
+			if (this.replay)
+			{
+				this.setLastEvent(events.get(events.size() - 1));
+			}
+			this.listener.eventBatch(events);
+			return true;
+		}
 		else
 		{
-			String[] fields = message.split(":", 3);
-			if (fields.length != 3)
+			Event event = this.parseEvent(message);
+			if (event == null)
 			{
 				return false;
 			}
+			if (this.replay)
+			{
+				this.setLastEvent(event);
+			}
+			this.listener.event(event);
+			return true;
+		}
+	}
+
+	// called on the connection's thread, and the connection is stopped before the subscriber is opened again, so the address is that of the server that sent the event
+	private void setLastEvent(@NotNull Event event)
+	{
+		this.lastOffset = event.offset;
+		this.lastTimestamp = event.timestamp;
+		this.lastAddressIndex = this.client.getAddressIndex();
+	}
+
+	// "<count> <entries>" where each entry is formatted as a single event with the length of the data before the data, with no separator between the entries
+	@Nullable
+	private List<Event> parseBatch(@NotNull String batchString)
+	{
+		int separatorIndex = batchString.indexOf(' ');
+		if (separatorIndex == -1)
+		{
+			return null;
+		}
+		int count;
+		try
+		{
+			count = Integer.parseInt(batchString.substring(0, separatorIndex));
+		}
+		catch (NumberFormatException exception)
+		{
+			return null;
+		}
 
-			String timestampString = fields[0];
-			long timestamp;
+		ArrayList<Event> events = new ArrayList<>();
+		int index = separatorIndex + 1;
+		while (index < batchString.length())
+		{
+			// the offset if replaying, the timestamp, and the type come before the length of the data
+			int lengthStartIndex = index;
+			for (int field = 0; field < (this.replay ? 3 : 2); field++)
+			{
+				int fieldEndIndex = batchString.indexOf(':', lengthStartIndex);
+				if (fieldEndIndex == -1)
+				{
+					return null;
+				}
+				lengthStartIndex = fieldEndIndex + 1;
+			}
+			int lengthEndIndex = batchString.indexOf(':', lengthStartIndex);
+			if (lengthEndIndex == -1)
+			{
+				return null;
+			}
+			int length;
 			try
 			{
-				timestamp = Long.parseLong(timestampString);
+				length = Integer.parseInt(batchString.substring(lengthStartIndex, lengthEndIndex));
 			}
 			catch (NumberFormatException exception)
 			{
-				return false;
+				return null;
 			}
-			if (timestamp < 0)
+			if (length < 0 || length > batchString.length() - (lengthEndIndex + 1))
 			{
-				return false;
+				return null;
+			}
+			Event event = this.parseEvent(batchString.substring(index, lengthStartIndex) + batchString.substring(lengthEndIndex + 1, lengthEndIndex + 1 + length));
+			if (event == null)
+			{
+				return null;
 			}
-			String type = fields[1];
-			String data = fields[2];
+			events.add(event);
+			index = lengthEndIndex + 1 + length;
+		}
+		return events.size() == count ? events : null;
+	}
 
-			this.listener.event(new Event(timestamp, type, data));
+	@Nullable
+	private Event parseEvent(@NotNull String message)
+	{
+		long offset = -1;
+		if (this.replay)
+		{
+			String[] parts = message.split(":", 2);
+			if (parts.length != 2)
+			{
+				return null;
+			}
+			try
+			{
+				offset = Long.parseLong(parts[0]);
+			}
+			catch (NumberFormatException exception)
+			{
+				return null;
+			}
+			message = parts[1];
+		}
 
-			return true;
+		String[] fields = message.split(":", 3);
+		if (fields.length != 3)
+		{
+			return null;
 		}
+
+		String timestampString = fields[0];
+		long timestamp;
+		try
+		{
+			timestamp = Long.parseLong(timestampString);
+		}
+		catch (NumberFormatException exception)
+		{
+			return null;
+		}
+		if (timestamp < 0)
+		{
+			return null;
+		}
+		String type = fields[1];
+		String data = fields[2];
+
+		return new Event(offset, timestamp, type, data);
 	}
 
 	void error()
@@ -73,19 +247,28 @@ public final class Subscriber
 	{
 		void event(@NotNull Event event);
 
+		// events that were waiting to be received together, in order
+		default void eventBatch(@NotNull List<Event> events)
+		{
+			events.forEach(this::event);
+		}
+
 		void error();
 	}
 
 	public static final class Event
 	{
+		// the position of the event in the queue's log, which can be given to EventBusClient.addSubscriberFromOffset to continue from the next event, or -1 if the subscriber is not replaying or the queue is not logged
+		public final long offset;
 		public final long timestamp;
 		@NotNull
 		public final String type;
 		@NotNull
 		public final String data;
 
-		private Event(long timestamp, @NotNull String type, @NotNull String data)
+		private Event(long offset, long timestamp, @NotNull String type, @NotNull String data)
 		{
+			this.offset = offset;
 			this.timestamp = timestamp;
 			this.type = type;
 			this.data = data;
@@ -0,0 +1,838 @@
+package micheal65536.vienna.eventbus.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// the protocol handling for one client connection, independent of how the connection reads and writes the socket
+abstract class Connection
+{
+	// the largest binary frame that a client may send, a longer frame closes the connection rather than having the transport buffer it
+	protected static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	private final Server server;
+
+	private final HashMap<Integer, Channel> channels = new HashMap<>();
+
+	private boolean firstCommand = true;
+	private volatile boolean binary = false;
+
+	protected Connection(@NotNull Server server)
+	{
+		this.server = server;
+		this.server.getServerStats().connectionOpened();
+	}
+
+	// whether the connection has switched from newline-terminated ASCII lines to frames of a 4-byte big-endian length followed by the message in ISO-8859-1, the transport checks this after each command that it reads and before each message that it sends
+	protected final boolean isBinary()
+	{
+		return this.binary;
+	}
+
+	// sends one message, the message does not include the terminating newline or the frame length
+	protected abstract void sendMessage(@NotNull String message);
+
+	// encodes a message for sending in the current mode
+	@NotNull
+	protected final byte[] encodeMessage(@NotNull String message)
+	{
+		byte[] bytes;
+		if (this.binary)
+		{
+			bytes = new byte[message.length() + 4];
+			ByteBuffer.wrap(bytes).putInt(message.length());
+			System.arraycopy(message.getBytes(StandardCharsets.ISO_8859_1), 0, bytes, 4, message.length());
+		}
+		else
+		{
+			// the message and the newline are sent together so that they are not sent as separate packets
+			bytes = (message + "\n").getBytes(StandardCharsets.US_ASCII);
+		}
+		this.server.getServerStats().bytesSent(bytes.length);
+		return bytes;
+	}
+
+	// sends one message and then waits while the connection has too much data waiting to be written, so that a client that is not keeping up holds up the sender instead of the data building up in memory
+	protected void sendMessageAndWait(@NotNull String message)
+	{
+		this.sendMessage(message);
+	}
+
+	protected final boolean handleCommand(@NotNull String command)
+	{
+		// the length of the frame or the newline
+		this.server.getServerStats().bytesReceived(command.length() + (this.binary ? 4 : 1));
+
+		if (this.firstCommand)
+		{
+			this.firstCommand = false;
+			// clients that support binary framing ask for it before anything else, older servers close the connection because of the invalid channel ID and the client reconnects using the text protocol
+			if (command.equals("0 BIN"))
+			{
+				if (this.server.isBinaryFramingEnabled())
+				{
+					this.sendMessage("0 BIN");
+					this.binary = true;
+				}
+				else
+				{
+					this.sendMessage("0 TEXT");
+				}
+				return true;
+			}
+		}
+
+		if (!this.binary && !isText(command))
+		{
+			return false;
+		}
+
+		String[] parts = command.split(" ", 2);
+		if (parts.length != 2)
+		{
+			return false;
+		}
+		int channelId;
+		try
+		{
+			channelId = Integer.parseInt(parts[0]);
+		}
+		catch (NumberFormatException exception)
+		{
+			return false;
+		}
+		if (channelId <= 0)
+		{
+			return false;
+		}
+
+		Channel channel = this.channels.getOrDefault(channelId, null);
+		if (channel != null)
+		{
+			if (parts[1].equals("CLOSE"))
+			{
+				channel.handleClose();
+				this.channels.remove(channelId);
+			}
+			else
+			{
+				channel.handleCommand(parts[1]);
+			}
+			return true;
+		}
+		else
+		{
+			if (parts[1].equals("CLOSE"))
+			{
+				return true;
+			}
+			else
+			{
+				channel = this.handleChannelOpenCommand(channelId, parts[1]);
+				if (channel != null)
+				{
+					this.channels.put(channelId, channel);
+					return true;
+				}
+				else
+				{
+					return false;
+				}
+			}
+		}
+	}
+
+	// text connections can only carry printable ASCII, binary connections can carry any character that fits in a byte
+	private static boolean isText(@NotNull String string)
+	{
+		for (int index = 0; index < string.length(); index++)
+		{
+			char character = string.charAt(index);
+			if (character < 32 || character >= 127)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected final void handleClose()
+	{
+		LogManager.getLogger().info("Connection closed");
+		this.server.getServerStats().connectionClosed();
+
+		this.channels.values().forEach(Channel::handleClose);
+	}
+
+	@Nullable
+	private Channel handleChannelOpenCommand(int channelId, @NotNull String command)
+	{
+		String[] parts = command.split(" ");
+		if (parts.length < 1)
+		{
+			return null;
+		}
+		switch (parts[0])
+		{
+			case "PUB" ->
+			{
+				PublisherChannel publisherChannel = new PublisherChannel(this, channelId);
+				if (!publisherChannel.isValid())
+				{
+					return null;
+				}
+				return publisherChannel;
+			}
+			case "SUB" ->
+			{
+				if (parts.length < 2)
+				{
+					return null;
+				}
+				// "SUB <queue> FROM <offset>" or "SUB <queue> SINCE <timestamp>" replays the queue's log, and the events are then sent with their offsets
+				// "BATCH" asks for the events that are waiting to be sent together in one message
+				// "PEER" is used by other servers that forward the events to their own subscribers, and cannot be combined with a replay
+				boolean replay = false;
+				long startOffset = 0;
+				long startTimestamp = 0;
+				boolean batch = false;
+				boolean peer = false;
+				for (int index = 2; index < parts.length; index++)
+				{
+					switch (parts[index])
+					{
+						case "FROM", "SINCE" ->
+						{
+							if (replay || index + 1 >= parts.length)
+							{
+								return null;
+							}
+							long value;
+							try
+							{
+								value = Long.parseLong(parts[index + 1]);
+							}
+							catch (NumberFormatException exception)
+							{
+								return null;
+							}
+							if (value < 0)
+							{
+								return null;
+							}
+							if (parts[index].equals("FROM"))
+							{
+								startOffset = value;
+							}
+							else
+							{
+								startTimestamp = value;
+							}
+							replay = true;
+							index++;
+						}
+						case "BATCH" -> batch = true;
+						case "PEER" -> peer = true;
+						default ->
+						{
+							return null;
+						}
+					}
+				}
+				if (replay && peer)
+				{
+					return null;
+				}
+				SubscriberChannel subscriberChannel = new SubscriberChannel(this, channelId, parts[1], replay, startOffset, startTimestamp, batch, peer);
+				if (!subscriberChannel.isValid())
+				{
+					return null;
+				}
+				return subscriberChannel;
+			}
+			case "REQ" ->
+			{
+				RequestSenderChannel requestSenderChannel = new RequestSenderChannel(this, channelId);
+				if (!requestSenderChannel.isValid())
+				{
+					return null;
+				}
+				return requestSenderChannel;
+			}
+			case "HND" ->
+			{
+				// "PEER" is used by other servers that pass the requests on to their own handlers
+				if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[2].equals("PEER")))
+				{
+					return null;
+				}
+				RequestHandlerChannel requestHandlerChannel = new RequestHandlerChannel(this, channelId, parts[1], parts.length == 3);
+				if (!requestHandlerChannel.isValid())
+				{
+					return null;
+				}
+				return requestHandlerChannel;
+			}
+			default ->
+			{
+				return null;
+			}
+		}
+	}
+
+	private abstract class Channel
+	{
+		private final Connection connection;
+		private final int channelId;
+
+		protected Channel(@NotNull Connection connection, int channelId)
+		{
+			this.connection = connection;
+			this.channelId = channelId;
+		}
+
+		public abstract boolean isValid();
+
+		public abstract void handleCommand(@NotNull String command);
+
+		public abstract void handleClose();
+
+		protected final void sendMessage(@NotNull String message)
+		{
+			this.connection.sendMessage(Integer.toString(channelId) + " " + message);
+		}
+
+		protected final void sendMessageAndWait(@NotNull String message)
+		{
+			this.connection.sendMessageAndWait(Integer.toString(channelId) + " " + message);
+		}
+
+		// data published from a binary connection may not be representable on a text connection
+		protected final boolean canSend(@NotNull String data)
+		{
+			return this.connection.binary || isText(data);
+		}
+	}
+
+	private final class PublisherChannel extends Channel
+	{
+		private final Server.Publisher publisher;
+		private boolean error = false;
+
+		public PublisherChannel(@NotNull Connection connection, int channelId)
+		{
+			super(connection, channelId);
+			this.publisher = Connection.this.server.addPublisher();
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+
+		@Override
+		public void handleCommand(@NotNull String command)
+		{
+			if (this.error)
+			{
+				this.sendMessage("ERR");
+				return;
+			}
+
+			String[] parts = command.split(" ", 2);
+			if (parts[0].equals("SEND"))
+			{
+				String entryString = parts[1];
+				String[] fields = entryString.split(":", 3);
+				if (fields.length != 3)
+				{
+					this.error();
+					return;
+				}
+
+				long timestamp = System.currentTimeMillis();
+				String queueName = fields[0];
+				String type = fields[1];
+				String data = fields[2];
+				if (this.publisher.publish(queueName, timestamp, type, data))
+				{
+					this.sendMessage("ACK");
+				}
+				else
+				{
+					this.error();
+				}
+			}
+			else if (parts[0].equals("BATCH") && parts.length == 2)
+			{
+				List<Server.Publisher.Entry> entries = parseBatch(parts[1]);
+				if (entries == null)
+				{
+					this.error();
+					return;
+				}
+
+				// the whole batch is acknowledged once
+				long timestamp = System.currentTimeMillis();
+				if (this.publisher.publish(timestamp, entries))
+				{
+					this.sendMessage("ACK");
+				}
+				else
+				{
+					this.error();
+				}
+			}
+			else
+			{
+				this.error();
+			}
+		}
+
+		// "BATCH <count> <entries>" where each entry is "<queue>:<type>:<length>:<data>" with no separator between the entries, so that the data does not need escaping
+		@Nullable
+		private static List<Server.Publisher.Entry> parseBatch(@NotNull String batchString)
+		{
+			int separatorIndex = batchString.indexOf(' ');
+			if (separatorIndex == -1)
+			{
+				return null;
+			}
+			int count;
+			try
+			{
+				count = Integer.parseInt(batchString.substring(0, separatorIndex));
+			}
+			catch (NumberFormatException exception)
+			{
+				return null;
+			}
+			if (count < 1)
+			{
+				return null;
+			}
+
+			ArrayList<Server.Publisher.Entry> entries = new ArrayList<>();
+			int index = separatorIndex + 1;
+			while (index < batchString.length())
+			{
+				int queueNameEndIndex = batchString.indexOf(':', index);
+				int typeEndIndex = queueNameEndIndex != -1 ? batchString.indexOf(':', queueNameEndIndex + 1) : -1;
+				int lengthEndIndex = typeEndIndex != -1 ? batchString.indexOf(':', typeEndIndex + 1) : -1;
+				if (lengthEndIndex == -1)
+				{
+					return null;
+				}
+				int length;
+				try
+				{
+					length = Integer.parseInt(batchString.substring(typeEndIndex + 1, lengthEndIndex));
+				}
+				catch (NumberFormatException exception)
+				{
+					return null;
+				}
+				if (length < 0 || length > batchString.length() - (lengthEndIndex + 1))
+				{
+					return null;
+				}
+				String queueName = batchString.substring(index, queueNameEndIndex);
+				String type = batchString.substring(queueNameEndIndex + 1, typeEndIndex);
+				String data = batchString.substring(lengthEndIndex + 1, lengthEndIndex + 1 + length);
+				entries.add(new Server.Publisher.Entry(queueName, type, data));
+				index = lengthEndIndex + 1 + length;
+			}
+			return entries.size() == count ? entries : null;
+		}
+
+		@Override
+		public void handleClose()
+		{
+			this.publisher.remove();
+		}
+
+		private void error()
+		{
+			this.error = true;
+			this.sendMessage("ERR");
+		}
+	}
+
+	private final class SubscriberChannel extends Channel
+	{
+		private final boolean replay;
+		private final Server.Subscriber subscriber;
+
+		public SubscriberChannel(@NotNull Connection connection, int channelId, @NotNull String queueName, boolean replay, long startOffset, long startTimestamp, boolean batch, boolean peer)
+		{
+			super(connection, channelId);
+			this.replay = replay;
+			if (replay)
+			{
+				this.subscriber = Connection.this.server.addSubscriber(queueName, startOffset, startTimestamp, batch, this::handleMessage);
+			}
+			else
+			{
+				this.subscriber = peer ? Connection.this.server.addPeerSubscriber(queueName, batch, this::handleMessage) : Connection.this.server.addSubscriber(queueName, batch, this::handleMessage);
+			}
+		}
+
+		public boolean isValid()
+		{
+			return this.subscriber != null;
+		}
+
+		@Override
+		public void handleCommand(@NotNull String command)
+		{
+			// empty
+		}
+
+		@Override
+		public void handleClose()
+		{
+			this.subscriber.remove();
+		}
+
+		private void handleMessage(@NotNull Server.Subscriber.Message message)
+		{
+			if (message instanceof Server.Subscriber.EntryMessage entryMessage)
+			{
+				if (!this.checkCanSend(entryMessage))
+				{
+					return;
+				}
+				StringBuilder stringBuilder = new StringBuilder();
+				this.appendEntry(stringBuilder, entryMessage);
+				stringBuilder.append(entryMessage.data);
+				// this is called from the subscriber's delivery task, waiting here leaves the messages in the subscriber's queue where its overflow policy applies
+				this.sendMessageAndWait(stringBuilder.toString());
+			}
+			else if (message instanceof Server.Subscriber.BatchMessage batchMessage)
+			{
+				for (Server.Subscriber.EntryMessage entryMessage : batchMessage.entryMessages)
+				{
+					if (!this.checkCanSend(entryMessage))
+					{
+						return;
+					}
+				}
+				// "BATCH <count> <entries>" where each entry is formatted as a single event with the length of the data before the data, with no separator between the entries
+				StringBuilder stringBuilder = new StringBuilder();
+				stringBuilder.append("BATCH ");
+				stringBuilder.append(batchMessage.entryMessages.size());
+				stringBuilder.append(" ");
+				for (Server.Subscriber.EntryMessage entryMessage : batchMessage.entryMessages)
+				{
+					this.appendEntry(stringBuilder, entryMessage);
+					stringBuilder.append(entryMessage.data.length());
+					stringBuilder.append(":");
+					stringBuilder.append(entryMessage.data);
+				}
+				this.sendMessageAndWait(stringBuilder.toString());
+			}
+			else if (message instanceof Server.Subscriber.ErrorMessage)
+			{
+				this.sendMessage("ERR");
+			}
+		}
+
+		private boolean checkCanSend(@NotNull Server.Subscriber.EntryMessage entryMessage)
+		{
+			if (!this.canSend(entryMessage.data))
+			{
+				// the client would otherwise silently miss the event
+				LogManager.getLogger().warn("Cannot send event with binary data to subscriber using the text protocol");
+				this.sendMessage("ERR");
+				this.subscriber.remove();
+				return false;
+			}
+			return true;
+		}
+
+		// appends everything before the data
+		private void appendEntry(@NotNull StringBuilder stringBuilder, @NotNull Server.Subscriber.EntryMessage entryMessage)
+		{
+			if (this.replay)
+			{
+				stringBuilder.append(Long.toString(entryMessage.offset));
+				stringBuilder.append(":");
+			}
+			stringBuilder.append(Long.toString(entryMessage.timestamp));
+			stringBuilder.append(":");
+			stringBuilder.append(entryMessage.type);
+			stringBuilder.append(":");
+		}
+	}
+
+	private final class RequestSenderChannel extends Channel
+	{
+		private final Server.RequestSender requestSender;
+		// requests are handled concurrently and the responses are sent in the order that they complete, tagged with the ID that the client gave the request
+		private final HashMap<Integer, CompletableFuture<String>> pendingResponses = new HashMap<>();
+		private boolean error = false;
+
+		public RequestSenderChannel(@NotNull Connection connection, int channelId)
+		{
+			super(connection, channelId);
+			this.requestSender = Connection.this.server.addRequestSender();
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+
+		@Override
+		public void handleCommand(@NotNull String command)
+		{
+			synchronized (this)
+			{
+				if (this.error)
+				{
+					this.sendMessage("ERR");
+					return;
+				}
+			}
+
+			String[] parts = command.split(" ", 2);
+			if (parts[0].equals("REQ") && parts.length == 2)
+			{
+				String entryString = parts[1];
+				String[] fields = entryString.split(":", 4);
+				if (fields.length != 4)
+				{
+					this.error();
+					return;
+				}
+
+				int requestId;
+				try
+				{
+					requestId = Integer.parseInt(fields[0]);
+				}
+				catch (NumberFormatException exception)
+				{
+					this.error();
+					return;
+				}
+				synchronized (this)
+				{
+					if (this.pendingResponses.containsKey(requestId))
+					{
+						this.error();
+						return;
+					}
+				}
+
+				long timestamp = System.currentTimeMillis();
+				String queueName = fields[1];
+				String type = fields[2];
+				String data = fields[3];
+
+				CompletableFuture<String> completableFuture = this.requestSender.request(queueName, timestamp, type, data);
+				if (completableFuture == null)
+				{
+					this.error();
+					return;
+				}
+				synchronized (this)
+				{
+					if (this.error)
+					{
+						return;
+					}
+					this.pendingResponses.put(requestId, completableFuture);
+				}
+				completableFuture.thenAccept(response ->
+				{
+					synchronized (this)
+					{
+						if (this.pendingResponses.remove(requestId) != completableFuture)
+						{
+							return;
+						}
+						// a response that cannot be sent on a text connection is treated as no response
+						if (response != null && this.canSend(response))
+						{
+							this.sendMessage("REP " + requestId + ":" + response);
+						}
+						else
+						{
+							this.sendMessage("NREP " + requestId);
+						}
+					}
+				});
+			}
+			else
+			{
+				this.error();
+			}
+		}
+
+		@Override
+		public synchronized void handleClose()
+		{
+			this.requestSender.remove();
+			this.pendingResponses.clear();
+		}
+
+		private synchronized void error()
+		{
+			this.error = true;
+			this.pendingResponses.clear();
+			this.sendMessage("ERR");
+		}
+	}
+
+	private final class RequestHandlerChannel extends Channel
+	{
+		private final Server.RequestHandler requestHandler;
+		// requests are sent to the client from the server's request threads while the responses are read on the connection's thread
+		private final HashMap<Integer, CompletableFuture<String>> pendingResponses = new HashMap<>();
+		private int nextRequestId = 1;
+		private boolean error = false;
+
+		public RequestHandlerChannel(@NotNull Connection connection, int channelId, @NotNull String queueName, boolean peer)
+		{
+			super(connection, channelId);
+			this.requestHandler = peer ? Connection.this.server.addPeerRequestHandler(queueName, this::handleRequest, this::handleError) : Connection.this.server.addRequestHandler(queueName, this::handleRequest, this::handleError);
+		}
+
+		public boolean isValid()
+		{
+			return this.requestHandler != null;
+		}
+
+		@Override
+		public synchronized void handleCommand(@NotNull String command)
+		{
+			if (this.error)
+			{
+				this.sendMessage("ERR");
+				return;
+			}
+
+			String[] parts = command.split(" ", 2);
+			if (parts[0].equals("REP"))
+			{
+				String entryString = parts[1];
+				String[] fields = entryString.split(":", 2);
+				if (fields.length != 2)
+				{
+					this.error();
+					return;
+				}
+
+				int requestId;
+				try
+				{
+					requestId = Integer.parseInt(fields[0]);
+				}
+				catch (NumberFormatException exception)
+				{
+					this.error();
+					return;
+				}
+				String data = fields[1];
+
+				CompletableFuture<String> responseCompletableFuture = this.pendingResponses.remove(requestId);
+				if (responseCompletableFuture != null)
+				{
+					responseCompletableFuture.complete(data);
+				}
+				else
+				{
+					this.error();
+				}
+			}
+			else if (parts[0].equals("NREP"))
+			{
+				int requestId;
+				try
+				{
+					requestId = Integer.parseInt(parts[1]);
+				}
+				catch (NumberFormatException exception)
+				{
+					this.error();
+					return;
+				}
+
+				CompletableFuture<String> responseCompletableFuture = this.pendingResponses.remove(requestId);
+				if (responseCompletableFuture != null)
+				{
+					responseCompletableFuture.complete(null);
+				}
+				else
+				{
+					this.error();
+				}
+			}
+			else
+			{
+				this.error();
+			}
+		}
+
+		@Override
+		public void handleClose()
+		{
+			// the handler is removed before taking the lock, as the server holds the handler's lock while sending it a request
+			this.requestHandler.remove();
+			synchronized (this)
+			{
+				this.pendingResponses.values().forEach(completableFuture -> completableFuture.complete(null));
+				this.pendingResponses.clear();
+			}
+		}
+
+		@NotNull
+		private synchronized CompletableFuture<String> handleRequest(@NotNull Server.RequestHandler.Request request)
+		{
+			if (!this.canSend(request.data))
+			{
+				// leaves the request to the other handlers
+				return CompletableFuture.completedFuture(null);
+			}
+
+			int requestId = this.nextRequestId++;
+			CompletableFuture<String> responseCompletableFuture = new CompletableFuture<>();
+			this.pendingResponses.put(requestId, responseCompletableFuture);
+
+			StringBuilder stringBuilder = new StringBuilder();
+			stringBuilder.append(requestId);
+			stringBuilder.append(":");
+			stringBuilder.append(Long.toString(request.timestamp));
+			stringBuilder.append(":");
+			stringBuilder.append(request.type);
+			stringBuilder.append(":");
+			stringBuilder.append(request.data);
+			this.sendMessage(stringBuilder.toString());
+
+			return responseCompletableFuture;
+		}
+
+		private void handleError(@NotNull Server.RequestHandler.ErrorMessage errorMessage)
+		{
+			this.error();
+		}
+
+		private synchronized void error()
+		{
+			this.error = true;
+			this.pendingResponses.values().forEach(completableFuture -> completableFuture.complete(null));
+			this.pendingResponses.clear();
+			this.sendMessage("ERR");
+		}
+	}
+}
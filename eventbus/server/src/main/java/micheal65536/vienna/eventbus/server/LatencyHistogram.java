@@ -0,0 +1,84 @@
+package micheal65536.vienna.eventbus.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// records values into buckets that are a power of two wide split into 8 sub-buckets, so each value is recorded to within 12.5%
+public final class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+	public LatencyHistogram()
+	{
+		// empty
+	}
+
+	public void record(long value)
+	{
+		this.counts.incrementAndGet(index(Math.max(value, 0)));
+	}
+
+	public long getCount()
+	{
+		long count = 0;
+		for (int index = 0; index < this.counts.length(); index++)
+		{
+			count += this.counts.get(index);
+		}
+		return count;
+	}
+
+	// returns the values recorded so far and starts again from empty, a value recorded at the same time goes into one or the other
+	@NotNull
+	public LatencyHistogram getAndReset()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int index = 0; index < this.counts.length(); index++)
+		{
+			histogram.counts.set(index, this.counts.getAndSet(index, 0));
+		}
+		return histogram;
+	}
+
+	// returns the upper bound of the bucket containing the value at the given percentile
+	public long getPercentile(double percentile)
+	{
+		long total = this.getCount();
+		long target = (long) Math.ceil(total * percentile / 100.0);
+		long count = 0;
+		for (int index = 0; index < this.counts.length(); index++)
+		{
+			count += this.counts.get(index);
+			if (count >= target && count > 0)
+			{
+				return upperBound(index);
+			}
+		}
+		return 0;
+	}
+
+	private static int index(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long upperBound(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -9,7 +9,9 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.config.Configurator;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public class Main
 {
@@ -22,14 +24,149 @@ public class Main
 				.option("port")
 				.hasArg()
 				.argName("port")
+				.type(Number.class)
 				.desc("Port to listen on, defaults to 5532")
 				.build());
+		options.addOption(Option.builder()
+				.option("transport")
+				.hasArg()
+				.argName("transport")
+				.desc("How connections are handled, either \"blocking\" for a thread per connection or \"nio\" for a small number of threads shared between all connections, defaults to blocking")
+				.build());
+		options.addOption(Option.builder()
+				.option("threads")
+				.hasArg()
+				.argName("threads")
+				.type(Number.class)
+				.desc("Number of threads for the nio transport, defaults to the number of processors")
+				.build());
+		options.addOption(Option.builder()
+				.option("subscriberQueueSize")
+				.hasArg()
+				.argName("messages")
+				.type(Number.class)
+				.desc("Maximum number of messages waiting to be sent to each subscriber when the overflow policy is not unbounded, defaults to 10000")
+				.build());
+		options.addOption(Option.builder()
+				.option("overflowPolicy")
+				.hasArg()
+				.argName("policy")
+				.desc("What to do when a subscriber's queue is full, either \"unbounded\" to never limit the queue or lose messages, \"dropOldest\", \"disconnect\" or \"block\" (only with the blocking transport), defaults to unbounded")
+				.build());
+		options.addOption(Option.builder()
+				.option("dispatchPolicy")
+				.hasArg()
+				.argName("policies")
+				.desc("How requests are dispatched to the handlers on a queue, either \"ordered\", \"roundRobin\" or \"leastOutstanding\", optionally followed by comma-separated queue=policy pairs for individual queues, e.g. roundRobin,buildplates=leastOutstanding, defaults to roundRobin, individual queues given with -idempotentQueues may also use \"firstResponder\" to send each request to all the handlers at once")
+				.build());
+		options.addOption(Option.builder()
+				.option("idempotentQueues")
+				.hasArg()
+				.argName("queues")
+				.desc("Comma-separated queues whose requests can safely be handled more than once, only these queues can use the firstResponder dispatch policy or the request timeout")
+				.build());
+		options.addOption(Option.builder()
+				.option("requestTimeout")
+				.hasArg()
+				.argName("milliseconds")
+				.type(Number.class)
+				.desc("How long to wait for each request handler on an idempotent queue to respond before trying the next one, which may leave the request handled by both, defaults to 0 to wait indefinitely")
+				.build());
+		options.addOption(Option.builder()
+				.option("textOnly")
+				.desc("Do not allow clients to switch to binary framing, so all connections use the text protocol")
+				.build());
+		options.addOption(Option.builder()
+				.option("queueLogDir")
+				.hasArg()
+				.argName("dir")
+				.desc("Directory to keep the events published to each queue in, so that subscribers can replay them, defaults to not keeping events")
+				.build());
+		options.addOption(Option.builder()
+				.option("logQueues")
+				.hasArg()
+				.argName("queues")
+				.desc("Comma-separated names of the queues to keep events for, defaults to all queues")
+				.build());
+		options.addOption(Option.builder()
+				.option("queueLogSegmentSize")
+				.hasArg()
+				.argName("bytes")
+				.type(Number.class)
+				.desc("Size of each file that a queue's events are kept in, defaults to 16777216")
+				.build());
+		options.addOption(Option.builder()
+				.option("queueLogRetentionTime")
+				.hasArg()
+				.argName("milliseconds")
+				.type(Number.class)
+				.desc("How long to keep each queue's events for, defaults to 3600000")
+				.build());
+		options.addOption(Option.builder()
+				.option("queueLogRetentionSize")
+				.hasArg()
+				.argName("bytes")
+				.type(Number.class)
+				.desc("Maximum disk space taken by each queue's kept events, including the space preallocated for the file being written, defaults to 268435456")
+				.build());
+		options.addOption(Option.builder()
+				.option("peers")
+				.hasArg()
+				.argName("addresses")
+				.desc("Comma-separated host:port addresses of the other servers to link to, each of which must also be linked to this server and to every other server, defaults to none")
+				.build());
+		options.addOption(Option.builder()
+				.option("statsPort")
+				.hasArg()
+				.argName("port")
+				.type(Number.class)
+				.desc("Port to serve the server's stats on as plain text over HTTP at /stats, defaults to not serving them")
+				.build());
+		options.addOption(Option.builder()
+				.option("statsInterval")
+				.hasArg()
+				.argName("milliseconds")
+				.type(Number.class)
+				.desc("How often to write the server's stats to the log, or 0 to not log them, defaults to 60000")
+				.build());
 		CommandLine commandLine;
 		int port;
+		String transport;
+		int threads;
+		int subscriberQueueSize;
+		String overflowPolicy;
+		String dispatchPolicies;
+		String idempotentQueues;
+		long requestTimeout;
+		boolean textOnly;
+		String queueLogDir;
+		String logQueues;
+		long queueLogSegmentSize;
+		long queueLogRetentionTime;
+		long queueLogRetentionSize;
+		String peers;
+		int statsPort;
+		long statsInterval;
 		try
 		{
 			commandLine = new DefaultParser().parse(options, args);
-			port = commandLine.hasOption("port") ? (int) commandLine.getParsedOptionValue("port") : 5532;
+			port = commandLine.hasOption("port") ? (int) (long) commandLine.getParsedOptionValue("port") : 5532;
+			transport = commandLine.hasOption("transport") ? commandLine.getOptionValue("transport") : "blocking";
+			threads = commandLine.hasOption("threads") ? (int) (long) commandLine.getParsedOptionValue("threads") : Runtime.getRuntime().availableProcessors();
+			subscriberQueueSize = commandLine.hasOption("subscriberQueueSize") ? (int) (long) commandLine.getParsedOptionValue("subscriberQueueSize") : 10000;
+			overflowPolicy = commandLine.hasOption("overflowPolicy") ? commandLine.getOptionValue("overflowPolicy") : "unbounded";
+			dispatchPolicies = commandLine.hasOption("dispatchPolicy") ? commandLine.getOptionValue("dispatchPolicy") : "roundRobin";
+			idempotentQueues = commandLine.getOptionValue("idempotentQueues");
+			requestTimeout = commandLine.hasOption("requestTimeout") ? (long) commandLine.getParsedOptionValue("requestTimeout") : 0;
+			textOnly = commandLine.hasOption("textOnly");
+			queueLogDir = commandLine.getOptionValue("queueLogDir");
+			logQueues = commandLine.getOptionValue("logQueues");
+			queueLogSegmentSize = commandLine.hasOption("queueLogSegmentSize") ? (long) commandLine.getParsedOptionValue("queueLogSegmentSize") : 16 * 1024 * 1024;
+			queueLogRetentionTime = commandLine.hasOption("queueLogRetentionTime") ? (long) commandLine.getParsedOptionValue("queueLogRetentionTime") : 60 * 60 * 1000;
+			queueLogRetentionSize = commandLine.hasOption("queueLogRetentionSize") ? (long) commandLine.getParsedOptionValue("queueLogRetentionSize") : 256 * 1024 * 1024;
+			peers = commandLine.getOptionValue("peers");
+			statsPort = commandLine.hasOption("statsPort") ? (int) (long) commandLine.getParsedOptionValue("statsPort") : -1;
+			statsInterval = commandLine.hasOption("statsInterval") ? (long) commandLine.getParsedOptionValue("statsInterval") : 60 * 1000;
 		}
 		catch (ParseException exception)
 		{
@@ -37,11 +174,153 @@ public class Main
 			System.exit(1);
 			return;
 		}
+		if (!transport.equals("blocking") && !transport.equals("nio"))
+		{
+			LogManager.getLogger().fatal("Unknown transport {}", transport);
+			System.exit(1);
+			return;
+		}
+		if (requestTimeout < 0)
+		{
+			LogManager.getLogger().fatal("Request timeout cannot be negative");
+			System.exit(1);
+			return;
+		}
+		if (statsInterval < 0)
+		{
+			LogManager.getLogger().fatal("Stats interval cannot be negative");
+			System.exit(1);
+			return;
+		}
+		Server.Options serverOptions = new Server.Options().subscriberQueueSize(subscriberQueueSize).requestHandlerTimeout(requestTimeout).binaryFraming(!textOnly);
+		switch (overflowPolicy)
+		{
+			case "unbounded" -> serverOptions.overflowPolicy(Server.OverflowPolicy.UNBOUNDED);
+			case "dropOldest" -> serverOptions.overflowPolicy(Server.OverflowPolicy.DROP_OLDEST);
+			case "disconnect" -> serverOptions.overflowPolicy(Server.OverflowPolicy.DISCONNECT);
+			case "block" ->
+			{
+				if (transport.equals("nio"))
+				{
+					LogManager.getLogger().fatal("The block overflow policy cannot be used with the nio transport");
+					System.exit(1);
+					return;
+				}
+				serverOptions.overflowPolicy(Server.OverflowPolicy.BLOCK);
+			}
+			default ->
+			{
+				LogManager.getLogger().fatal("Unknown overflow policy {}", overflowPolicy);
+				System.exit(1);
+				return;
+			}
+		}
+
+		if (idempotentQueues != null)
+		{
+			for (String queueName : idempotentQueues.split(","))
+			{
+				try
+				{
+					serverOptions.idempotentQueue(queueName);
+				}
+				catch (IllegalArgumentException exception)
+				{
+					LogManager.getLogger().fatal("Invalid queue name {}", queueName);
+					System.exit(1);
+					return;
+				}
+			}
+		}
+
+		for (String entry : dispatchPolicies.split(","))
+		{
+			String[] parts = entry.split("=", 2);
+			Server.DispatchPolicy dispatchPolicy = switch (parts[parts.length - 1])
+			{
+				case "ordered" -> Server.DispatchPolicy.ORDERED;
+				case "roundRobin" -> Server.DispatchPolicy.ROUND_ROBIN;
+				case "leastOutstanding" -> Server.DispatchPolicy.LEAST_OUTSTANDING;
+				case "firstResponder" -> Server.DispatchPolicy.FIRST_RESPONDER;
+				default -> null;
+			};
+			if (dispatchPolicy == null)
+			{
+				LogManager.getLogger().fatal("Unknown dispatch policy {}", parts[parts.length - 1]);
+				System.exit(1);
+				return;
+			}
+			if (parts.length == 1)
+			{
+				if (dispatchPolicy == Server.DispatchPolicy.FIRST_RESPONDER)
+				{
+					LogManager.getLogger().fatal("The firstResponder dispatch policy can only be used for individual idempotent queues");
+					System.exit(1);
+					return;
+				}
+				serverOptions.dispatchPolicy(dispatchPolicy);
+			}
+			else
+			{
+				try
+				{
+					serverOptions.dispatchPolicy(parts[0], dispatchPolicy);
+				}
+				catch (IllegalArgumentException exception)
+				{
+					LogManager.getLogger().fatal("Invalid queue name {} or queue is not idempotent", parts[0]);
+					System.exit(1);
+					return;
+				}
+			}
+		}
+
+		if (queueLogDir != null)
+		{
+			if (queueLogSegmentSize < 1024 || queueLogSegmentSize > Integer.MAX_VALUE || queueLogRetentionTime <= 0 || queueLogRetentionSize <= 0)
+			{
+				LogManager.getLogger().fatal("Invalid queue log segment size or retention");
+				System.exit(1);
+				return;
+			}
+			try
+			{
+				serverOptions.queueLog(new QueueLog(new File(queueLogDir), (int) queueLogSegmentSize, queueLogRetentionTime, queueLogRetentionSize));
+			}
+			catch (QueueLog.QueueLogException exception)
+			{
+				LogManager.getLogger().fatal(exception);
+				System.exit(1);
+				return;
+			}
+			if (logQueues != null)
+			{
+				for (String queueName : logQueues.split(","))
+				{
+					try
+					{
+						serverOptions.logQueue(queueName);
+					}
+					catch (IllegalArgumentException exception)
+					{
+						LogManager.getLogger().fatal("Invalid queue name {}", queueName);
+						System.exit(1);
+						return;
+					}
+				}
+			}
+		}
 
-		NetworkServer server;
+		Server server = new Server(serverOptions);
+		NetworkTransport networkServer;
 		try
 		{
-			server = new NetworkServer(new Server(), port);
+			networkServer = switch (transport)
+			{
+				case "blocking" -> new NetworkServer(server, port);
+				case "nio" -> new NioNetworkServer(server, port, threads);
+				default -> throw new AssertionError();
+			};
 		}
 		catch (IOException exception)
 		{
@@ -49,6 +328,23 @@ public class Main
 			System.exit(1);
 			return;
 		}
-		server.run();
+		if (statsPort != -1 || statsInterval > 0)
+		{
+			try
+			{
+				new StatsReporter(server, statsInterval, statsPort);
+			}
+			catch (IOException exception)
+			{
+				LogManager.getLogger().fatal(exception);
+				System.exit(1);
+				return;
+			}
+		}
+		if (peers != null)
+		{
+			new PeerLinks(server, List.of(peers.split(",")));
+		}
+		networkServer.run();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package micheal65536.vienna.eventbus.server;
+
+// accepts client connections and passes the commands that they send to the server
+public interface NetworkTransport
+{
+	int getPort();
+
+	// runs until the transport is closed
+	void run();
+
+	// stops accepting connections, existing connections stay open until the clients close them
+	void close();
+}
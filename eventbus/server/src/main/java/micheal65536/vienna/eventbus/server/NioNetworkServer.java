@@ -0,0 +1,550 @@
+package micheal65536.vienna.eventbus.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// handles all the connections on a small number of threads, each connection belongs to one thread which reads and handles its commands in order and writes its messages
+// messages are queued and written in as few writes as possible, so the messages that are sent while handling the commands from one read (or while another write is still pending) go out together
+public class NioNetworkServer implements NetworkTransport
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 64;
+	private static final long MAX_PENDING_BYTES = 256 * 1024;
+
+	private final Server server;
+	private final ServerSocketChannel serverSocketChannel;
+	private final Worker[] workers;
+	private int nextWorker = 0;
+	private volatile boolean closed = false;
+
+	public NioNetworkServer(@NotNull Server server, int port, int threads) throws IOException
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.server = server;
+		this.serverSocketChannel = ServerSocketChannel.open();
+		this.serverSocketChannel.bind(new InetSocketAddress(port));
+
+		this.workers = new Worker[threads];
+		for (int index = 0; index < threads; index++)
+		{
+			this.workers[index] = new Worker(index);
+		}
+
+		LogManager.getLogger().info("Created server on port {} with {} threads", port, threads);
+	}
+
+	@Override
+	public int getPort()
+	{
+		return this.serverSocketChannel.socket().getLocalPort();
+	}
+
+	@Override
+	public void run()
+	{
+		for (Worker worker : this.workers)
+		{
+			worker.thread.start();
+		}
+
+		while (!this.closed)
+		{
+			try
+			{
+				SocketChannel socketChannel = this.serverSocketChannel.accept();
+				LogManager.getLogger().info("Connection from {}", socketChannel.socket().getInetAddress());
+				socketChannel.configureBlocking(false);
+				// messages are already combined into as few writes as possible, so waiting for more data before sending only adds latency
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Worker worker = this.workers[this.nextWorker];
+				this.nextWorker = (this.nextWorker + 1) % this.workers.length;
+				worker.addConnection(new NioConnection(socketChannel, worker));
+			}
+			catch (IOException exception)
+			{
+				if (!this.closed)
+				{
+					LogManager.getLogger().warn("Exception while accepting connection", exception);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		try
+		{
+			this.serverSocketChannel.close();
+		}
+		catch (IOException exception)
+		{
+			LogManager.getLogger().warn("Exception while closing server socket", exception);
+		}
+		for (Worker worker : this.workers)
+		{
+			worker.selector.wakeup();
+		}
+	}
+
+	private final class Worker
+	{
+		private final Thread thread;
+		private final Selector selector;
+
+		private final ConcurrentLinkedQueue<NioConnection> newConnections = new ConcurrentLinkedQueue<>();
+		private final ConcurrentLinkedQueue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+		private int connections = 0;
+
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final byte[] readArray = new byte[BUFFER_SIZE];
+		private final ArrayDeque<ByteBuffer> writeBuffers = new ArrayDeque<>();
+
+		public Worker(int index) throws IOException
+		{
+			this.selector = Selector.open();
+			this.thread = new Thread(this::run, "Event bus worker " + index);
+			// the workers finish once the server is closed and all their connections have been closed
+			this.thread.setDaemon(true);
+		}
+
+		public void addConnection(@NotNull NioConnection connection)
+		{
+			this.newConnections.add(connection);
+			this.selector.wakeup();
+		}
+
+		public void scheduleWrite(@NotNull NioConnection connection)
+		{
+			this.pendingWrites.add(connection);
+			// messages sent while handling commands on this thread are written at the end of the current iteration anyway
+			if (Thread.currentThread() != this.thread)
+			{
+				this.selector.wakeup();
+			}
+		}
+
+		@NotNull
+		public ByteBuffer acquireBuffer()
+		{
+			ByteBuffer buffer = this.writeBuffers.pollFirst();
+			return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+
+		public void releaseBuffer(@NotNull ByteBuffer buffer)
+		{
+			if (this.writeBuffers.size() < MAX_POOLED_BUFFERS)
+			{
+				buffer.clear();
+				this.writeBuffers.addFirst(buffer);
+			}
+		}
+
+		private void run()
+		{
+			for (; ; )
+			{
+				try
+				{
+					this.selector.select();
+				}
+				catch (IOException exception)
+				{
+					LogManager.getLogger().error("Exception in selector", exception);
+					break;
+				}
+
+				NioConnection connection;
+				while ((connection = this.newConnections.poll()) != null)
+				{
+					if (NioNetworkServer.this.closed)
+					{
+						connection.close();
+						continue;
+					}
+					try
+					{
+						connection.key = connection.socketChannel.register(this.selector, SelectionKey.OP_READ, connection);
+						this.connections++;
+					}
+					catch (ClosedChannelException exception)
+					{
+						connection.close();
+					}
+				}
+
+				Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+				while (iterator.hasNext())
+				{
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					connection = (NioConnection) key.attachment();
+					if (key.isValid() && key.isReadable())
+					{
+						connection.read();
+					}
+					if (key.isValid() && key.isWritable())
+					{
+						connection.flush();
+					}
+				}
+
+				while ((connection = this.pendingWrites.poll()) != null)
+				{
+					connection.flush();
+				}
+
+				if (NioNetworkServer.this.closed && this.connections == 0)
+				{
+					break;
+				}
+			}
+
+			try
+			{
+				this.selector.close();
+			}
+			catch (IOException exception)
+			{
+				// empty
+			}
+		}
+	}
+
+	private final class NioConnection extends Connection
+	{
+		private final SocketChannel socketChannel;
+		private final Worker worker;
+		@Nullable
+		private SelectionKey key = null;
+		private volatile boolean closed = false;
+
+		private byte[] partialCommand = new byte[256];
+		private int partialCommandLength = 0;
+		// the length of the frame being read in binary mode, or -1 while reading the length
+		private int frameLength = -1;
+
+		private final ConcurrentLinkedQueue<byte[]> outgoingMessages = new ConcurrentLinkedQueue<>();
+		private final AtomicLong pendingBytes = new AtomicLong(0);
+		private final Object pendingBytesLock = new Object();
+		private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+		// only held while there is data that could not be written yet
+		@Nullable
+		private ByteBuffer writeBuffer = null;
+		@Nullable
+		private byte[] currentMessage = null;
+		private int currentMessageOffset = 0;
+
+		public NioConnection(@NotNull SocketChannel socketChannel, @NotNull Worker worker)
+		{
+			super(NioNetworkServer.this.server);
+			this.socketChannel = socketChannel;
+			this.worker = worker;
+		}
+
+		@Override
+		protected void sendMessage(@NotNull String message)
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			byte[] bytes = this.encodeMessage(message);
+			this.pendingBytes.addAndGet(bytes.length);
+			this.outgoingMessages.add(bytes);
+			if (this.writeScheduled.compareAndSet(false, true))
+			{
+				this.worker.scheduleWrite(this);
+			}
+		}
+
+		@Override
+		protected void sendMessageAndWait(@NotNull String message)
+		{
+			this.sendMessage(message);
+			if (this.pendingBytes.get() > MAX_PENDING_BYTES)
+			{
+				synchronized (this.pendingBytesLock)
+				{
+					while (this.pendingBytes.get() > MAX_PENDING_BYTES && !this.closed)
+					{
+						try
+						{
+							this.pendingBytesLock.wait();
+						}
+						catch (InterruptedException exception)
+						{
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+				}
+			}
+		}
+
+		private void read()
+		{
+			ByteBuffer readBuffer = this.worker.readBuffer;
+			byte[] readArray = this.worker.readArray;
+
+			int readLength;
+			try
+			{
+				readBuffer.clear();
+				readLength = this.socketChannel.read(readBuffer);
+			}
+			catch (IOException exception)
+			{
+				LogManager.getLogger().warn("Exception while reading socket", exception);
+				this.close();
+				return;
+			}
+			if (readLength == -1)
+			{
+				this.close();
+				return;
+			}
+			readBuffer.flip();
+			readBuffer.get(readArray, 0, readLength);
+
+			if (this.isBinary())
+			{
+				this.readFrames(readArray, 0, readLength);
+				return;
+			}
+
+			int startOffset = 0;
+			for (int offset = 0; offset < readLength; offset++)
+			{
+				if (readArray[offset] == '\n')
+				{
+					String command;
+					if (this.partialCommandLength == 0)
+					{
+						command = new String(readArray, startOffset, offset - startOffset, StandardCharsets.US_ASCII);
+					}
+					else
+					{
+						this.appendPartialCommand(readArray, startOffset, offset - startOffset);
+						command = new String(this.partialCommand, 0, this.partialCommandLength, StandardCharsets.US_ASCII);
+						this.partialCommandLength = 0;
+					}
+					if (!this.handleCommand(command))
+					{
+						this.close();
+						return;
+					}
+					startOffset = offset + 1;
+					if (this.isBinary())
+					{
+						this.readFrames(readArray, startOffset, readLength - startOffset);
+						return;
+					}
+				}
+			}
+			this.appendPartialCommand(readArray, startOffset, readLength - startOffset);
+		}
+
+		// the partial command buffer holds the part of the length or the frame that has been read so far
+		private void readFrames(byte[] bytes, int offset, int length)
+		{
+			int endOffset = offset + length;
+			while (offset < endOffset)
+			{
+				if (this.frameLength == -1)
+				{
+					int headerLength = Math.min(4 - this.partialCommandLength, endOffset - offset);
+					this.appendPartialCommand(bytes, offset, headerLength);
+					offset += headerLength;
+					if (this.partialCommandLength == 4)
+					{
+						this.frameLength = ByteBuffer.wrap(this.partialCommand, 0, 4).getInt();
+						this.partialCommandLength = 0;
+						if (this.frameLength < 0 || this.frameLength > MAX_FRAME_LENGTH)
+						{
+							LogManager.getLogger().warn("Closing connection that sent a frame of length {}", this.frameLength);
+							this.close();
+							return;
+						}
+					}
+					else
+					{
+						continue;
+					}
+				}
+
+				String command;
+				if (this.partialCommandLength == 0 && endOffset - offset >= this.frameLength)
+				{
+					command = new String(bytes, offset, this.frameLength, StandardCharsets.ISO_8859_1);
+					offset += this.frameLength;
+				}
+				else
+				{
+					int frameBytes = Math.min(this.frameLength - this.partialCommandLength, endOffset - offset);
+					this.appendPartialCommand(bytes, offset, frameBytes);
+					offset += frameBytes;
+					if (this.partialCommandLength < this.frameLength)
+					{
+						continue;
+					}
+					command = new String(this.partialCommand, 0, this.partialCommandLength, StandardCharsets.ISO_8859_1);
+					this.partialCommandLength = 0;
+				}
+				this.frameLength = -1;
+				if (!this.handleCommand(command))
+				{
+					this.close();
+					return;
+				}
+			}
+		}
+
+		private void appendPartialCommand(byte[] bytes, int offset, int length)
+		{
+			if (this.partialCommandLength + length > this.partialCommand.length)
+			{
+				byte[] partialCommand = new byte[Math.max(this.partialCommand.length * 2, this.partialCommandLength + length)];
+				System.arraycopy(this.partialCommand, 0, partialCommand, 0, this.partialCommandLength);
+				this.partialCommand = partialCommand;
+			}
+			System.arraycopy(bytes, offset, this.partialCommand, this.partialCommandLength, length);
+			this.partialCommandLength += length;
+		}
+
+		// the write buffer is kept ready for more data to be added, i.e. its position is the end of the data that has not been written yet
+		private void flush()
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			this.writeScheduled.set(false);
+
+			for (; ; )
+			{
+				if (this.writeBuffer == null)
+				{
+					this.writeBuffer = this.worker.acquireBuffer();
+				}
+				ByteBuffer writeBuffer = this.writeBuffer;
+
+				while (writeBuffer.hasRemaining())
+				{
+					if (this.currentMessage == null)
+					{
+						this.currentMessage = this.outgoingMessages.poll();
+						this.currentMessageOffset = 0;
+						if (this.currentMessage == null)
+						{
+							break;
+						}
+					}
+					int length = Math.min(writeBuffer.remaining(), this.currentMessage.length - this.currentMessageOffset);
+					writeBuffer.put(this.currentMessage, this.currentMessageOffset, length);
+					this.currentMessageOffset += length;
+					if (this.currentMessageOffset == this.currentMessage.length)
+					{
+						this.currentMessage = null;
+					}
+				}
+
+				writeBuffer.flip();
+				int writeLength;
+				try
+				{
+					writeLength = this.socketChannel.write(writeBuffer);
+				}
+				catch (IOException exception)
+				{
+					LogManager.getLogger().warn("Exception while sending", exception);
+					this.close();
+					return;
+				}
+				long pendingBytes = this.pendingBytes.addAndGet(-writeLength);
+				if (pendingBytes <= MAX_PENDING_BYTES && pendingBytes + writeLength > MAX_PENDING_BYTES)
+				{
+					synchronized (this.pendingBytesLock)
+					{
+						this.pendingBytesLock.notifyAll();
+					}
+				}
+
+				if (writeBuffer.hasRemaining())
+				{
+					// the socket buffer is full, continue when the socket becomes writable again
+					writeBuffer.compact();
+					this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				writeBuffer.clear();
+
+				if (this.currentMessage == null && this.outgoingMessages.isEmpty())
+				{
+					this.worker.releaseBuffer(writeBuffer);
+					this.writeBuffer = null;
+					this.key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+			}
+		}
+
+		private void close()
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			this.closed = true;
+
+			if (this.key != null)
+			{
+				this.key.cancel();
+				this.worker.connections--;
+			}
+			try
+			{
+				this.socketChannel.close();
+			}
+			catch (IOException exception)
+			{
+				LogManager.getLogger().warn("Exception while closing socket", exception);
+			}
+
+			if (this.writeBuffer != null)
+			{
+				this.worker.releaseBuffer(this.writeBuffer);
+				this.writeBuffer = null;
+			}
+			this.outgoingMessages.clear();
+			synchronized (this.pendingBytesLock)
+			{
+				this.pendingBytesLock.notifyAll();
+			}
+
+			this.handleClose();
+		}
+	}
+}
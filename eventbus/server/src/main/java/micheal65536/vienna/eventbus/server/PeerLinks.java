@@ -0,0 +1,342 @@
+package micheal65536.vienna.eventbus.server;
+
+import micheal65536.vienna.eventbus.client.EventBusClient;
+import micheal65536.vienna.eventbus.client.RequestHandler;
+import micheal65536.vienna.eventbus.client.Subscriber;
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// links a server to other servers so that they form a mesh, each server must be linked to every other server as events and requests are only passed on once
+// for each queue that this server has subscribers for, the link to each other server subscribes to the events published by that server's own clients and publishes them here, and for each queue that this server has handlers for, the link registers a handler with each other server that passes that server's clients' requests on to the handlers here
+// so events and requests only go to the servers that have subscribers or handlers for their queue
+public final class PeerLinks implements AutoCloseable
+{
+	private static final long CONNECT_INITIAL_DELAY = 100;
+	private static final long CONNECT_MAX_DELAY = 30000;
+
+	private final Server server;
+	private final Server.Publisher publisher;
+	private final Server.RequestSender requestSender;
+	private final ArrayList<PeerLink> peerLinks = new ArrayList<>();
+
+	public PeerLinks(@NotNull Server server, @NotNull List<String> peers)
+	{
+		this.server = server;
+		this.publisher = server.addPeerPublisher();
+		this.requestSender = server.addPeerRequestSender();
+
+		for (String peer : peers)
+		{
+			this.peerLinks.add(new PeerLink(peer));
+		}
+
+		server.addInterestListener(() -> this.peerLinks.forEach(PeerLink::update));
+
+		this.peerLinks.forEach(PeerLink::start);
+	}
+
+	@Override
+	public void close()
+	{
+		this.peerLinks.forEach(PeerLink::close);
+		this.publisher.remove();
+		this.requestSender.remove();
+	}
+
+	private final class PeerLink
+	{
+		private final String address;
+		private final Thread connectThread;
+
+		private boolean closed = false;
+		@Nullable
+		private EventBusClient client = null;
+		private final HashMap<String, ForwardingSubscriber> subscribers = new HashMap<>();
+		private final HashMap<String, ForwardingRequestHandler> requestHandlers = new HashMap<>();
+		@Nullable
+		private Thread retryThread = null;
+		private long retryDelay = CONNECT_INITIAL_DELAY;
+		private long lastRetryTime = 0;
+
+		public PeerLink(@NotNull String address)
+		{
+			this.address = address;
+			this.connectThread = new Thread(this::connect, "Peer link " + address);
+			this.connectThread.setDaemon(true);
+		}
+
+		public void start()
+		{
+			this.connectThread.start();
+		}
+
+		// the other server may not have started yet, once connected the client reconnects by itself and opens the subscribers and handlers again
+		private void connect()
+		{
+			long delay = CONNECT_INITIAL_DELAY;
+			for (; ; )
+			{
+				EventBusClient client;
+				try
+				{
+					client = EventBusClient.create(this.address, new EventBusClient.Options().reconnect(true).peer(true));
+				}
+				catch (EventBusClient.ConnectException exception)
+				{
+					LogManager.getLogger().debug("Could not connect to peer {}, retrying in {} ms", this.address, delay);
+					try
+					{
+						Thread.sleep(delay);
+					}
+					catch (InterruptedException interruptedException)
+					{
+						return;
+					}
+					delay = Math.min(delay * 2, CONNECT_MAX_DELAY);
+					continue;
+				}
+				catch (IllegalArgumentException exception)
+				{
+					LogManager.getLogger().error("Invalid peer address {}", this.address);
+					return;
+				}
+
+				synchronized (this)
+				{
+					if (this.closed)
+					{
+						client.close();
+						return;
+					}
+					this.client = client;
+				}
+				LogManager.getLogger().info("Connected to peer {}", this.address);
+				this.update();
+				return;
+			}
+		}
+
+		public synchronized void update()
+		{
+			if (this.client == null)
+			{
+				return;
+			}
+
+			Set<String> subscribedQueues = PeerLinks.this.server.getSubscribedQueues();
+			this.subscribers.entrySet().removeIf(entry ->
+			{
+				if (!subscribedQueues.contains(entry.getKey()))
+				{
+					LogManager.getLogger().debug("Unsubscribing from {} on peer {}", entry.getKey(), this.address);
+					entry.getValue().close();
+					return true;
+				}
+				return false;
+			});
+			for (String queueName : subscribedQueues)
+			{
+				if (!this.subscribers.containsKey(queueName))
+				{
+					LogManager.getLogger().debug("Subscribing to {} on peer {}", queueName, this.address);
+					ForwardingSubscriber forwardingSubscriber = new ForwardingSubscriber(this, queueName);
+					this.subscribers.put(queueName, forwardingSubscriber);
+					forwardingSubscriber.subscriber = this.client.addSubscriber(queueName, forwardingSubscriber);
+				}
+			}
+
+			Set<String> handledQueues = PeerLinks.this.server.getHandledQueues();
+			this.requestHandlers.entrySet().removeIf(entry ->
+			{
+				if (!handledQueues.contains(entry.getKey()))
+				{
+					LogManager.getLogger().debug("Removing handler for {} on peer {}", entry.getKey(), this.address);
+					entry.getValue().close();
+					return true;
+				}
+				return false;
+			});
+			for (String queueName : handledQueues)
+			{
+				if (!this.requestHandlers.containsKey(queueName))
+				{
+					LogManager.getLogger().debug("Adding handler for {} on peer {}", queueName, this.address);
+					ForwardingRequestHandler forwardingRequestHandler = new ForwardingRequestHandler(this, queueName);
+					this.requestHandlers.put(queueName, forwardingRequestHandler);
+					forwardingRequestHandler.requestHandler = this.client.addRequestHandler(queueName, forwardingRequestHandler);
+				}
+			}
+		}
+
+		// the subscriber or handler is added again by the retry, or sooner if the queues change
+		private synchronized void removeSubscriber(@NotNull ForwardingSubscriber forwardingSubscriber)
+		{
+			if (this.subscribers.remove(forwardingSubscriber.queueName, forwardingSubscriber))
+			{
+				LogManager.getLogger().warn("Lost subscriber for {} on peer {}", forwardingSubscriber.queueName, this.address);
+				this.scheduleRetry();
+			}
+		}
+
+		private synchronized void removeRequestHandler(@NotNull ForwardingRequestHandler forwardingRequestHandler)
+		{
+			if (this.requestHandlers.remove(forwardingRequestHandler.queueName, forwardingRequestHandler))
+			{
+				LogManager.getLogger().warn("Lost handler for {} on peer {}", forwardingRequestHandler.queueName, this.address);
+				this.scheduleRetry();
+			}
+		}
+
+		// the delay doubles while the subscribers or handlers keep being lost, and starts again from the beginning once they have stayed open for a while
+		private synchronized void scheduleRetry()
+		{
+			if (this.closed || this.retryThread != null)
+			{
+				return;
+			}
+
+			long currentTime = System.currentTimeMillis();
+			if (currentTime - this.lastRetryTime > CONNECT_MAX_DELAY * 2)
+			{
+				this.retryDelay = CONNECT_INITIAL_DELAY;
+			}
+			long delay = this.retryDelay;
+			this.retryDelay = Math.min(delay * 2, CONNECT_MAX_DELAY);
+			this.lastRetryTime = currentTime + delay;
+
+			LogManager.getLogger().debug("Retrying peer {} in {} ms", this.address, delay);
+			this.retryThread = new Thread(() ->
+			{
+				try
+				{
+					Thread.sleep(delay);
+				}
+				catch (InterruptedException exception)
+				{
+					return;
+				}
+				synchronized (this)
+				{
+					this.retryThread = null;
+				}
+				this.update();
+			}, "Peer link retry " + this.address);
+			this.retryThread.setDaemon(true);
+			this.retryThread.start();
+		}
+
+		public void close()
+		{
+			EventBusClient client;
+			Thread retryThread;
+			synchronized (this)
+			{
+				this.closed = true;
+				client = this.client;
+				this.client = null;
+				this.subscribers.clear();
+				this.requestHandlers.clear();
+				retryThread = this.retryThread;
+				this.retryThread = null;
+			}
+
+			this.connectThread.interrupt();
+			if (retryThread != null)
+			{
+				retryThread.interrupt();
+			}
+			if (client != null)
+			{
+				client.close();
+			}
+		}
+	}
+
+	private final class ForwardingSubscriber implements Subscriber.SubscriberListener
+	{
+		private final PeerLink peerLink;
+		private final String queueName;
+		@Nullable
+		private Subscriber subscriber = null;
+
+		public ForwardingSubscriber(@NotNull PeerLink peerLink, @NotNull String queueName)
+		{
+			this.peerLink = peerLink;
+			this.queueName = queueName;
+		}
+
+		@Override
+		public void event(@NotNull Subscriber.Event event)
+		{
+			PeerLinks.this.publisher.publish(this.queueName, event.timestamp, event.type, event.data);
+		}
+
+		@Override
+		public void error()
+		{
+			this.peerLink.removeSubscriber(this);
+		}
+
+		public void close()
+		{
+			if (this.subscriber != null)
+			{
+				this.subscriber.close();
+			}
+		}
+	}
+
+	private final class ForwardingRequestHandler implements RequestHandler.Handler
+	{
+		private final PeerLink peerLink;
+		private final String queueName;
+		@Nullable
+		private RequestHandler requestHandler = null;
+
+		public ForwardingRequestHandler(@NotNull PeerLink peerLink, @NotNull String queueName)
+		{
+			this.peerLink = peerLink;
+			this.queueName = queueName;
+		}
+
+		@Override
+		@NotNull
+		public CompletableFuture<String> requestAsync(@NotNull RequestHandler.Request request)
+		{
+			CompletableFuture<String> responseCompletableFuture = PeerLinks.this.requestSender.request(this.queueName, request.timestamp, request.type, request.data);
+			if (responseCompletableFuture == null)
+			{
+				return CompletableFuture.completedFuture(null);
+			}
+			return responseCompletableFuture.exceptionally(exception -> null);
+		}
+
+		@Override
+		@Nullable
+		public String request(@NotNull RequestHandler.Request request)
+		{
+			return this.requestAsync(request).join();
+		}
+
+		@Override
+		public void error()
+		{
+			this.peerLink.removeRequestHandler(this);
+		}
+
+		public void close()
+		{
+			if (this.requestHandler != null)
+			{
+				this.requestHandler.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,478 @@
+package micheal65536.vienna.eventbus.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+// keeps the events published to each queue in a directory per queue, so that subscribers can replay them after reconnecting or restarting
+// each directory holds segment files named after the offset of their first event, which are preallocated and memory-mapped and written and read through the mapping
+// each event is stored as a 4-byte length of the rest of the record, the offset, the timestamp, a 2-byte length of the type, the type, and the data in ISO-8859-1, the length is written last so that a partly written record is not read
+// the events are not forced to disk individually, so they survive the event bus restarting but not necessarily the machine crashing
+// the retention size is compared against the full size of the segment files, as the space preallocated for the segment being written is taken on disk as well
+public class QueueLog
+{
+	private static final int RECORD_HEADER_LENGTH = 4 + 8 + 8 + 2;
+	// mappings are otherwise only released when the buffer is garbage collected, which keeps the space of deleted segments in use, this is null if it is not available
+	@Nullable
+	private static final Unmapper UNMAPPER = Unmapper.create();
+	// queue names are used as directory names, so only names that are safe for this are logged
+	private static final Pattern LOGGABLE_QUEUE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_\\-]*");
+
+	private final File rootDirectory;
+	private final int segmentSize;
+	private final long retentionTime;
+	private final long retentionSize;
+
+	private final HashMap<String, Log> logs = new HashMap<>();
+
+	public QueueLog(@NotNull File rootDirectory, int segmentSize, long retentionTime, long retentionSize) throws QueueLogException
+	{
+		if (segmentSize < RECORD_HEADER_LENGTH || retentionTime <= 0 || retentionSize <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.rootDirectory = rootDirectory;
+		this.segmentSize = segmentSize;
+		this.retentionTime = retentionTime;
+		this.retentionSize = retentionSize;
+		if (!this.rootDirectory.isDirectory() || !this.rootDirectory.canWrite())
+		{
+			throw new QueueLogException("Queue log directory %s is not a directory or cannot be written".formatted(this.rootDirectory.getPath()));
+		}
+
+		File[] queueDirectories = this.rootDirectory.listFiles(File::isDirectory);
+		if (queueDirectories == null)
+		{
+			throw new QueueLogException("Could not list queue log directory %s".formatted(this.rootDirectory.getPath()));
+		}
+		for (File queueDirectory : queueDirectories)
+		{
+			if (LOGGABLE_QUEUE_NAME_PATTERN.matcher(queueDirectory.getName()).matches())
+			{
+				Log log = new Log(queueDirectory);
+				try
+				{
+					log.recover();
+				}
+				catch (IOException exception)
+				{
+					throw new QueueLogException(exception);
+				}
+				this.logs.put(queueDirectory.getName(), log);
+			}
+		}
+
+		LogManager.getLogger().info("Opened queue log from {} with {} queues", this.rootDirectory.getPath(), this.logs.size());
+	}
+
+	public static boolean isLoggable(@NotNull String queueName)
+	{
+		return LOGGABLE_QUEUE_NAME_PATTERN.matcher(queueName).matches();
+	}
+
+	// returns the offset of the event
+	public long append(@NotNull String queueName, long timestamp, @NotNull String type, @NotNull String data) throws QueueLogException
+	{
+		try
+		{
+			return this.getLog(queueName).append(timestamp, type, data);
+		}
+		catch (IOException exception)
+		{
+			throw new QueueLogException(exception);
+		}
+	}
+
+	// the offset that the next event on the queue will have
+	public long getNextOffset(@NotNull String queueName)
+	{
+		return this.getLog(queueName).getNextOffset();
+	}
+
+	// reads the events from the first that is at or after both the start offset and the start timestamp, up to but not including the end offset
+	@NotNull
+	public Reader openReader(@NotNull String queueName, long startOffset, long startTimestamp, long endOffset)
+	{
+		return new Reader(this.getLog(queueName), startOffset, startTimestamp, endOffset);
+	}
+
+	@NotNull
+	private synchronized Log getLog(@NotNull String queueName)
+	{
+		if (!isLoggable(queueName))
+		{
+			throw new IllegalArgumentException();
+		}
+		return this.logs.computeIfAbsent(queueName, name -> new Log(new File(this.rootDirectory, name)));
+	}
+
+	public record Entry(
+			long offset,
+			long timestamp,
+			@NotNull String type,
+			@NotNull String data
+	)
+	{
+	}
+
+	// a reader is used by one thread at a time, and must be closed if it is not read up to the end offset
+	public static final class Reader
+	{
+		private final Log log;
+		private final long startOffset;
+		private final long startTimestamp;
+		private final long endOffset;
+
+		@Nullable
+		private Segment segment;
+		private ByteBuffer buffer;
+		private int position = 0;
+
+		private Reader(@NotNull Log log, long startOffset, long startTimestamp, long endOffset)
+		{
+			this.log = log;
+			this.startOffset = startOffset;
+			this.startTimestamp = startTimestamp;
+			this.endOffset = endOffset;
+
+			// segments entirely before the start can be skipped without reading them
+			this.segment = log.getSegmentFor(startOffset, startTimestamp);
+			this.buffer = this.segment != null ? this.segment.buffer.duplicate() : null;
+		}
+
+		// returns null once all the events up to the end offset have been read
+		@Nullable
+		public Entry next()
+		{
+			while (this.segment != null)
+			{
+				if (this.position >= this.segment.writePosition)
+				{
+					if (this.segment.nextOffset >= this.endOffset)
+					{
+						this.close();
+						break;
+					}
+					Segment segment = this.segment;
+					this.segment = this.log.getSegmentAfter(segment.baseOffset);
+					this.buffer = this.segment != null ? this.segment.buffer.duplicate() : null;
+					this.position = 0;
+					this.log.release(segment);
+					continue;
+				}
+
+				int recordLength = this.buffer.getInt(this.position);
+				long offset = this.buffer.getLong(this.position + 4);
+				long timestamp = this.buffer.getLong(this.position + 12);
+				if (offset >= this.endOffset)
+				{
+					this.close();
+					break;
+				}
+				int recordPosition = this.position;
+				this.position += 4 + recordLength;
+				if (offset < this.startOffset || timestamp < this.startTimestamp)
+				{
+					continue;
+				}
+
+				int typeLength = this.buffer.getShort(recordPosition + 20) & 0xFFFF;
+				byte[] type = new byte[typeLength];
+				this.buffer.get(recordPosition + RECORD_HEADER_LENGTH, type);
+				byte[] data = new byte[recordLength - (RECORD_HEADER_LENGTH - 4) - typeLength];
+				this.buffer.get(recordPosition + RECORD_HEADER_LENGTH + typeLength, data);
+				return new Entry(offset, timestamp, new String(type, StandardCharsets.US_ASCII), new String(data, StandardCharsets.ISO_8859_1));
+			}
+			return null;
+		}
+
+		public void close()
+		{
+			if (this.segment != null)
+			{
+				this.log.release(this.segment);
+				this.segment = null;
+				this.buffer = null;
+			}
+		}
+	}
+
+	private final class Log
+	{
+		private final File directory;
+		private final TreeMap<Long, Segment> segments = new TreeMap<>();
+		private long nextOffset = 0;
+		private long size = 0;
+		private long lastRetentionCheckTime = 0;
+
+		public Log(@NotNull File directory)
+		{
+			this.directory = directory;
+		}
+
+		public synchronized void recover() throws IOException
+		{
+			File[] files = this.directory.listFiles((directory, name) -> name.endsWith(".log"));
+			if (files == null)
+			{
+				throw new IOException("Could not list " + this.directory.getPath());
+			}
+			for (File file : files)
+			{
+				long baseOffset;
+				try
+				{
+					baseOffset = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+				}
+				catch (NumberFormatException exception)
+				{
+					continue;
+				}
+				Segment segment = new Segment(baseOffset, file, (int) file.length());
+				segment.recover();
+				this.segments.put(baseOffset, segment);
+				this.size += segment.capacity;
+			}
+			Map.Entry<Long, Segment> lastEntry = this.segments.lastEntry();
+			if (lastEntry != null)
+			{
+				this.nextOffset = lastEntry.getValue().nextOffset;
+			}
+			LogManager.getLogger().info("Recovered queue log for {} with {} segments, next offset {}", this.directory.getName(), this.segments.size(), this.nextOffset);
+		}
+
+		public synchronized long append(long timestamp, @NotNull String type, @NotNull String data) throws IOException
+		{
+			byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+			byte[] dataBytes = data.getBytes(StandardCharsets.ISO_8859_1);
+			int length = RECORD_HEADER_LENGTH + typeBytes.length + dataBytes.length;
+
+			Map.Entry<Long, Segment> lastEntry = this.segments.lastEntry();
+			Segment segment = lastEntry != null ? lastEntry.getValue() : null;
+			if (segment == null || segment.writePosition + length > segment.capacity)
+			{
+				segment = this.roll(segment, length);
+			}
+
+			long offset = this.nextOffset++;
+			MappedByteBuffer buffer = segment.buffer;
+			int position = segment.writePosition;
+			buffer.putLong(position + 4, offset);
+			buffer.putLong(position + 12, timestamp);
+			buffer.putShort(position + 20, (short) typeBytes.length);
+			buffer.put(position + RECORD_HEADER_LENGTH, typeBytes);
+			buffer.put(position + RECORD_HEADER_LENGTH + typeBytes.length, dataBytes);
+			buffer.putInt(position, length - 4);
+			segment.lastTimestamp = timestamp;
+			segment.nextOffset = this.nextOffset;
+			// readers only read up to the write position, so this is updated last
+			segment.writePosition = position + length;
+
+			if (timestamp - this.lastRetentionCheckTime > 60000)
+			{
+				this.lastRetentionCheckTime = timestamp;
+				this.applyRetention(timestamp);
+			}
+
+			return offset;
+		}
+
+		public synchronized long getNextOffset()
+		{
+			return this.nextOffset;
+		}
+
+		// the returned segment must be released by the reader once it is done with it
+		@Nullable
+		public synchronized Segment getSegmentFor(long startOffset, long startTimestamp)
+		{
+			Map.Entry<Long, Segment> entry = this.segments.floorEntry(startOffset);
+			Segment segment = entry != null ? entry.getValue() : (this.segments.isEmpty() ? null : this.segments.firstEntry().getValue());
+			while (segment != null && segment.lastTimestamp < startTimestamp && segment != this.segments.lastEntry().getValue())
+			{
+				Map.Entry<Long, Segment> nextEntry = this.segments.higherEntry(segment.baseOffset);
+				segment = nextEntry != null ? nextEntry.getValue() : null;
+			}
+			if (segment != null)
+			{
+				segment.references++;
+			}
+			return segment;
+		}
+
+		@Nullable
+		public synchronized Segment getSegmentAfter(long baseOffset)
+		{
+			Map.Entry<Long, Segment> entry = this.segments.higherEntry(baseOffset);
+			Segment segment = entry != null ? entry.getValue() : null;
+			if (segment != null)
+			{
+				segment.references++;
+			}
+			return segment;
+		}
+
+		// the log holds a reference to each segment until it is deleted and each reader holds one to the segment that it is reading, the mapping is released when the last one is released
+		public synchronized void release(@NotNull Segment segment)
+		{
+			if (--segment.references == 0 && UNMAPPER != null)
+			{
+				UNMAPPER.unmap(segment.buffer);
+			}
+		}
+
+		@NotNull
+		private Segment roll(@Nullable Segment previousSegment, int length) throws IOException
+		{
+			if (previousSegment != null)
+			{
+				previousSegment.buffer.force();
+			}
+			else if (!this.directory.isDirectory() && !this.directory.mkdir())
+			{
+				throw new IOException("Could not create " + this.directory.getPath());
+			}
+
+			File file = new File(this.directory, "%020d.log".formatted(this.nextOffset));
+			Segment segment = new Segment(this.nextOffset, file, Math.max(QueueLog.this.segmentSize, length));
+			this.segments.put(segment.baseOffset, segment);
+			this.size += segment.capacity;
+			this.applyRetention(System.currentTimeMillis());
+			return segment;
+		}
+
+		// removes the oldest segments that are past the retention time or take the size over the limit, the segment being written is always kept
+		private void applyRetention(long currentTime)
+		{
+			while (this.segments.size() > 1)
+			{
+				Segment segment = this.segments.firstEntry().getValue();
+				if (segment.lastTimestamp >= currentTime - QueueLog.this.retentionTime && this.size <= QueueLog.this.retentionSize)
+				{
+					break;
+				}
+				this.segments.remove(segment.baseOffset);
+				this.size -= segment.capacity;
+				// readers that are still reading the segment hold references to it, so it stays mapped until they have moved past it
+				if (!segment.file.delete())
+				{
+					LogManager.getLogger().warn("Could not delete queue log segment {}", segment.file.getPath());
+				}
+				this.release(segment);
+			}
+		}
+	}
+
+	private static final class Segment
+	{
+		private final long baseOffset;
+		private final File file;
+		private final int capacity;
+		private final MappedByteBuffer buffer;
+
+		private volatile int writePosition = 0;
+		private volatile long nextOffset;
+		private volatile long lastTimestamp = 0;
+		// guarded by the log
+		private int references = 1;
+
+		public Segment(long baseOffset, @NotNull File file, int capacity) throws IOException
+		{
+			this.baseOffset = baseOffset;
+			this.file = file;
+			this.capacity = capacity;
+			this.nextOffset = baseOffset;
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"))
+			{
+				randomAccessFile.setLength(capacity);
+				this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}
+		}
+
+		// finds the end of the records in a segment that was written before the event bus was restarted
+		public void recover()
+		{
+			int position = 0;
+			while (position + RECORD_HEADER_LENGTH <= this.capacity)
+			{
+				int recordLength = this.buffer.getInt(position);
+				if (recordLength < RECORD_HEADER_LENGTH - 4 || position + 4 + recordLength > this.capacity)
+				{
+					break;
+				}
+				long offset = this.buffer.getLong(position + 4);
+				if (offset != this.nextOffset)
+				{
+					break;
+				}
+				this.nextOffset = offset + 1;
+				this.lastTimestamp = this.buffer.getLong(position + 12);
+				position += 4 + recordLength;
+			}
+			this.writePosition = position;
+		}
+	}
+
+	private record Unmapper(
+			@NotNull Object unsafe,
+			@NotNull Method invokeCleaner
+	)
+	{
+		@Nullable
+		public static Unmapper create()
+		{
+			try
+			{
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field field = unsafeClass.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return new Unmapper(field.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+			}
+			catch (ReflectiveOperationException | RuntimeException exception)
+			{
+				LogManager.getLogger().warn("Cannot unmap queue log segments, deleted segments will take up space until they are garbage collected");
+				return null;
+			}
+		}
+
+		public void unmap(@NotNull MappedByteBuffer buffer)
+		{
+			try
+			{
+				this.invokeCleaner.invoke(this.unsafe, buffer);
+			}
+			catch (ReflectiveOperationException exception)
+			{
+				// empty
+			}
+		}
+	}
+
+	public static final class QueueLogException extends Exception
+	{
+		private QueueLogException(String message)
+		{
+			super(message);
+		}
+
+		private QueueLogException(Throwable cause)
+		{
+			super(cause);
+		}
+	}
+}
@@ -4,63 +4,402 @@ import org.apache.logging.log4j.LogManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Server
 {
+	// compiled once as the names are checked for every message
+	private static final Pattern INVALID_NAME_CHARACTER_PATTERN = Pattern.compile("[^A-Za-z0-9_\\-]");
+	private static final Pattern INVALID_NAME_START_PATTERN = Pattern.compile("^[^A-Za-z0-9]");
+
 	private final ReentrantReadWriteLock subscribersLock = new ReentrantReadWriteLock(true);
 	private final HashMap<String, LinkedHashSet<Subscriber>> subscribers = new HashMap<>();
 
 	private final ReentrantReadWriteLock requestHandlersLock = new ReentrantReadWriteLock(true);
 	private final HashMap<String, LinkedHashSet<RequestHandler>> requestHandlers = new HashMap<>();
+	// incremented for each request on the queue, for choosing the first handler to try
+	private final HashMap<String, AtomicInteger> requestCounters = new HashMap<>();
+
+	// told whenever a subscriber or handler that is not a peer is added or removed, so that the links to other servers can follow the queues that this server is interested in
+	private final CopyOnWriteArrayList<Runnable> interestListeners = new CopyOnWriteArrayList<>();
+
+	private final Options options;
+	private final ServerStats stats = new ServerStats();
+	// delivers the queued messages to the subscribers, each subscriber is drained by at most one task at a time so its messages stay in order
+	private final ExecutorService deliveryExecutor;
+	// sends requests to the handlers and the responses back to the senders, so that a handler or sender whose connection is slow to accept data does not hold up the connection that the response or request came from
+	private final ExecutorService requestExecutor;
 
 	public Server()
 	{
-		// empty
+		this(new Options());
+	}
+
+	public Server(@NotNull Options options)
+	{
+		this.options = options;
+		this.deliveryExecutor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Event bus delivery");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.requestExecutor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Event bus requests");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static final class Options
+	{
+		int subscriberQueueSize = 10000;
+		@NotNull
+		OverflowPolicy overflowPolicy = OverflowPolicy.UNBOUNDED;
+		@NotNull
+		DispatchPolicy dispatchPolicy = DispatchPolicy.ROUND_ROBIN;
+		final HashMap<String, DispatchPolicy> queueDispatchPolicies = new HashMap<>();
+		final HashSet<String> idempotentQueues = new HashSet<>();
+		long requestHandlerTimeout = 0;
+		boolean binaryFraming = true;
+		@Nullable
+		QueueLog queueLog = null;
+		final HashSet<String> loggedQueues = new HashSet<>();
+
+		public Options()
+		{
+			// empty
+		}
+
+		// maximum number of messages waiting to be sent to each subscriber, not used with the UNBOUNDED overflow policy
+		@NotNull
+		public Options subscriberQueueSize(int subscriberQueueSize)
+		{
+			if (subscriberQueueSize < 1)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.subscriberQueueSize = subscriberQueueSize;
+			return this;
+		}
+
+		// what happens when a message is published to a subscriber whose queue is full
+		@NotNull
+		public Options overflowPolicy(@NotNull OverflowPolicy overflowPolicy)
+		{
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		// how requests are dispatched on queues that do not have their own policy, this cannot be FIRST_RESPONDER as that would send requests on every queue to more than one handler
+		@NotNull
+		public Options dispatchPolicy(@NotNull DispatchPolicy dispatchPolicy)
+		{
+			if (dispatchPolicy == DispatchPolicy.FIRST_RESPONDER)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.dispatchPolicy = dispatchPolicy;
+			return this;
+		}
+
+		// FIRST_RESPONDER can only be used for queues that have been marked as idempotent
+		@NotNull
+		public Options dispatchPolicy(@NotNull String queueName, @NotNull DispatchPolicy dispatchPolicy)
+		{
+			if (!validateQueueName(queueName) || (dispatchPolicy == DispatchPolicy.FIRST_RESPONDER && !this.idempotentQueues.contains(queueName)))
+			{
+				throw new IllegalArgumentException();
+			}
+			this.queueDispatchPolicies.put(queueName, dispatchPolicy);
+			return this;
+		}
+
+		// requests on an idempotent queue can safely be handled more than once, which allows them to be sent to several handlers at once or to be sent to another handler when one does not respond in time
+		// other queues only ever have each request handled by one handler, as for example a request to start a buildplate instance that was handled twice would start two instances
+		@NotNull
+		public Options idempotentQueue(@NotNull String queueName)
+		{
+			if (!validateQueueName(queueName))
+			{
+				throw new IllegalArgumentException();
+			}
+			this.idempotentQueues.add(queueName);
+			return this;
+		}
+
+		// how long to wait for each handler on an idempotent queue to respond before trying the next one, in milliseconds, or 0 to wait indefinitely
+		// a handler that does not respond in time may still be handling the request, so on other queues the handlers are always waited for
+		@NotNull
+		public Options requestHandlerTimeout(long requestHandlerTimeout)
+		{
+			if (requestHandlerTimeout < 0)
+			{
+				throw new IllegalArgumentException();
+			}
+			this.requestHandlerTimeout = requestHandlerTimeout;
+			return this;
+		}
+
+		// whether clients may switch their connection to length-prefixed frames, which allow any byte in the data, clients fall back to the text protocol if this is disabled
+		@NotNull
+		public Options binaryFraming(boolean binaryFraming)
+		{
+			this.binaryFraming = binaryFraming;
+			return this;
+		}
+
+		// keeps the events published to the queues so that subscribers can replay them, all queues are logged unless particular queues are given with logQueue
+		@NotNull
+		public Options queueLog(@Nullable QueueLog queueLog)
+		{
+			this.queueLog = queueLog;
+			return this;
+		}
+
+		@NotNull
+		public Options logQueue(@NotNull String queueName)
+		{
+			if (!QueueLog.isLoggable(queueName))
+			{
+				throw new IllegalArgumentException();
+			}
+			this.loggedQueues.add(queueName);
+			return this;
+		}
+
+		private boolean isLogged(@NotNull String queueName)
+		{
+			return this.queueLog != null && QueueLog.isLoggable(queueName) && (this.loggedQueues.isEmpty() || this.loggedQueues.contains(queueName));
+		}
+
+		@NotNull
+		private DispatchPolicy getDispatchPolicy(@NotNull String queueName)
+		{
+			return this.queueDispatchPolicies.getOrDefault(queueName, this.dispatchPolicy);
+		}
+	}
+
+	boolean isBinaryFramingEnabled()
+	{
+		return this.options.binaryFraming;
+	}
+
+	public enum DispatchPolicy
+	{
+		// the handlers are tried one at a time in the order that they were added, until one accepts the request
+		ORDERED,
+		// as with ORDERED, but each request starts from the handler after the one that the previous request started from
+		ROUND_ROBIN,
+		// as with ORDERED, but the handlers are tried in order of how many requests they have not yet responded to
+		LEAST_OUTSTANDING,
+		// the request is sent to all the handlers at once and the first to accept it is used, so it may be handled more than once, this can only be used for idempotent queues
+		FIRST_RESPONDER
+	}
+
+	public enum OverflowPolicy
+	{
+		// the queue is allowed to grow without limit so no messages are ever lost, but a subscriber that stops reading will use more and more memory
+		UNBOUNDED,
+		// the oldest waiting message is discarded to make space
+		DROP_OLDEST,
+		// the subscriber is sent an error and removed, so the client knows that it has missed messages
+		DISCONNECT,
+		// the publisher waits until there is space, so a slow subscriber slows down the publishers on its queue
+		// this cannot be used with the nio transport, where the wait would hold up all the connections handled by the same thread
+		BLOCK
+	}
+
+	@NotNull
+	public List<SubscriberStats> getSubscriberStats()
+	{
+		this.subscribersLock.readLock().lock();
+		List<Subscriber> subscribers = this.subscribers.values().stream().flatMap(LinkedHashSet::stream).toList();
+		this.subscribersLock.readLock().unlock();
+
+		long currentTime = System.currentTimeMillis();
+		return subscribers.stream().map(subscriber -> subscriber.getStats(currentTime)).toList();
+	}
+
+	// the request latencies are for the requests since a new interval was last started
+	@NotNull
+	public ServerStats.Stats getStats(boolean newInterval)
+	{
+		return this.stats.getStats(this.getSubscriberStats(), newInterval);
+	}
+
+	@NotNull
+	ServerStats getServerStats()
+	{
+		return this.stats;
+	}
+
+	public record SubscriberStats(
+			@NotNull String queueName,
+			int queueDepth,
+			int maxQueueDepth,
+			long delivered,
+			long dropped,
+			long lagMillis
+	)
+	{
 	}
 
 	@Nullable
 	public Subscriber addSubscriber(@NotNull String queueName, @NotNull Consumer<Subscriber.Message> consumer)
+	{
+		return this.addSubscriber(queueName, false, consumer);
+	}
+
+	// a batching subscriber is given the events that are waiting for it together in a BatchMessage instead of one at a time
+	@Nullable
+	public Subscriber addSubscriber(@NotNull String queueName, boolean batch, @NotNull Consumer<Subscriber.Message> consumer)
+	{
+		return this.addSubscriber(queueName, batch, false, consumer);
+	}
+
+	// a peer subscriber is another server that forwards the events to its own subscribers, it is only sent the events published by this server's own clients, as the other servers forward their own events
+	@Nullable
+	public Subscriber addPeerSubscriber(@NotNull String queueName, boolean batch, @NotNull Consumer<Subscriber.Message> consumer)
+	{
+		return this.addSubscriber(queueName, batch, true, consumer);
+	}
+
+	@Nullable
+	private Subscriber addSubscriber(@NotNull String queueName, boolean batch, boolean peer, @NotNull Consumer<Subscriber.Message> consumer)
 	{
 		if (!validateQueueName(queueName))
 		{
 			return null;
 		}
 
-		LogManager.getLogger().debug("Adding subscriber for {}", queueName);
+		LogManager.getLogger().debug("Adding {} for {}", peer ? "peer subscriber" : "subscriber", queueName);
 
 		this.subscribersLock.writeLock().lock();
 
-		Subscriber subscriber = new Subscriber(queueName, consumer);
+		Subscriber subscriber = new Subscriber(queueName, consumer, batch, false, peer);
 		this.subscribers.computeIfAbsent(queueName, name -> new LinkedHashSet<>()).add(subscriber);
 
 		this.subscribersLock.writeLock().unlock();
 
+		if (!peer)
+		{
+			this.interestChanged();
+		}
+
+		return subscriber;
+	}
+
+	// the subscriber is first sent the logged events from the first that is at or after both the start offset and the start timestamp, and then the events published after it was added, without any gap or overlap between the two
+	// if the queue is not logged then only the events published after it was added are sent
+	@Nullable
+	public Subscriber addSubscriber(@NotNull String queueName, long startOffset, long startTimestamp, boolean batch, @NotNull Consumer<Subscriber.Message> consumer)
+	{
+		if (!validateQueueName(queueName))
+		{
+			return null;
+		}
+		if (!this.options.isLogged(queueName))
+		{
+			LogManager.getLogger().warn("Subscriber asked to replay {}, which is not logged", queueName);
+			return this.addSubscriber(queueName, batch, consumer);
+		}
+
+		LogManager.getLogger().debug("Adding replaying subscriber for {} from offset {} timestamp {}", queueName, startOffset, startTimestamp);
+
+		this.subscribersLock.writeLock().lock();
+
+		Subscriber subscriber = new Subscriber(queueName, consumer, batch, true, false);
+		this.subscribers.computeIfAbsent(queueName, name -> new LinkedHashSet<>()).add(subscriber);
+
+		this.subscribersLock.writeLock().unlock();
+
+		this.interestChanged();
+
+		// events published from here on reach the subscriber directly, the ones before are replayed from the log
+		long endOffset = this.options.queueLog.getNextOffset(queueName);
+		subscriber.startReplay(this.options.queueLog.openReader(queueName, startOffset, startTimestamp, endOffset), endOffset);
+
 		return subscriber;
 	}
 
 	public final class Subscriber
 	{
+		// the most messages that one delivery task sends before giving up its thread, and so the largest batch
+		private static final int MAX_DRAIN_COUNT = 100;
+
 		private final String queueName;
+		private final ServerStats.QueueCounters queueCounters;
 		private final Consumer<Message> consumer;
+		private final boolean batch;
+		private final boolean peer;
 		private boolean ended = false;
 
-		private Subscriber(String queueName, Consumer<Message> consumer)
+		private final ArrayDeque<EntryMessage> queue = new ArrayDeque<>();
+		private boolean draining = false;
+		// events published before this offset are replayed from the log instead of being taken from the queue, and nothing is delivered until this is known
+		private long replayEndOffset;
+		@Nullable
+		private QueueLog.Reader replayReader = null;
+		private int maxQueueDepth = 0;
+		private long delivered = 0;
+		private long dropped = 0;
+
+		private Subscriber(String queueName, Consumer<Message> consumer, boolean batch, boolean replay, boolean peer)
 		{
 			this.queueName = queueName;
+			this.queueCounters = Server.this.stats.getQueueCounters(queueName);
 			this.consumer = consumer;
+			this.batch = batch;
+			this.peer = peer;
+			this.replayEndOffset = replay ? -1 : 0;
+		}
+
+		private synchronized void startReplay(@NotNull QueueLog.Reader replayReader, long replayEndOffset)
+		{
+			if (this.ended)
+			{
+				replayReader.close();
+				return;
+			}
+			this.replayReader = replayReader;
+			this.replayEndOffset = replayEndOffset;
+			this.queue.removeIf(entryMessage -> entryMessage.offset >= 0 && entryMessage.offset < replayEndOffset);
+			if (!this.draining && !this.ended)
+			{
+				this.draining = true;
+				Server.this.deliveryExecutor.execute(this::drain);
+			}
 		}
 
 		public synchronized void remove()
 		{
 			this.ended = true;
+			this.queue.clear();
+			this.notifyAll();
 
 			new Thread(() ->
 			{
@@ -72,14 +411,161 @@ public class Server
 					subscribers.remove(Subscriber.this);
 				}
 				Server.this.subscribersLock.writeLock().unlock();
+				if (!this.peer)
+				{
+					Server.this.interestChanged();
+				}
 			}).start();
 		}
 
 		private synchronized void push(@NotNull EntryMessage entryMessage)
 		{
-			if (!this.ended)
+			if (this.ended)
 			{
-				this.consumer.accept(entryMessage);
+				return;
+			}
+			// a publisher that logged the event before the replay started but found the subscriber after it was added
+			if (entryMessage.offset >= 0 && entryMessage.offset < this.replayEndOffset)
+			{
+				return;
+			}
+
+			if (Server.this.options.overflowPolicy != OverflowPolicy.UNBOUNDED && this.queue.size() >= Server.this.options.subscriberQueueSize)
+			{
+				switch (Server.this.options.overflowPolicy)
+				{
+					case DROP_OLDEST ->
+					{
+						this.queue.removeFirst();
+						this.dropped++;
+					}
+					case DISCONNECT ->
+					{
+						LogManager.getLogger().warn("Disconnecting subscriber for {} with {} messages waiting", this.queueName, this.queue.size());
+						this.dropped += this.queue.size() + 1;
+						this.queue.clear();
+						this.error();
+						return;
+					}
+					case BLOCK ->
+					{
+						while (this.queue.size() >= Server.this.options.subscriberQueueSize && !this.ended)
+						{
+							try
+							{
+								this.wait();
+							}
+							catch (InterruptedException exception)
+							{
+								Thread.currentThread().interrupt();
+								return;
+							}
+						}
+						if (this.ended)
+						{
+							return;
+						}
+					}
+				}
+			}
+
+			this.queue.addLast(entryMessage);
+			this.maxQueueDepth = Math.max(this.maxQueueDepth, this.queue.size());
+			if (!this.draining && this.replayEndOffset != -1)
+			{
+				this.draining = true;
+				Server.this.deliveryExecutor.execute(this::drain);
+			}
+		}
+
+		private void drain()
+		{
+			// only the delivery task uses the reader, so it is read without holding the lock
+			QueueLog.Reader replayReader;
+			synchronized (this)
+			{
+				replayReader = this.replayReader;
+			}
+			if (replayReader != null)
+			{
+				ArrayList<EntryMessage> entryMessages = new ArrayList<>();
+				for (int count = 0; count < MAX_DRAIN_COUNT; count++)
+				{
+					QueueLog.Entry entry = replayReader.next();
+					if (entry == null)
+					{
+						break;
+					}
+					entryMessages.add(new EntryMessage(entry.offset(), entry.timestamp(), entry.type(), entry.data()));
+				}
+				synchronized (this)
+				{
+					if (this.ended)
+					{
+						// the reader holds on to the log segment that it is reading
+						replayReader.close();
+						this.replayReader = null;
+						this.draining = false;
+						return;
+					}
+					if (entryMessages.size() < MAX_DRAIN_COUNT)
+					{
+						this.replayReader = null;
+					}
+				}
+				this.deliver(entryMessages);
+				Server.this.deliveryExecutor.execute(this::drain);
+				return;
+			}
+
+			// a subscriber with a steady stream of messages gives up its thread now and then so that the others are not held up
+			ArrayList<EntryMessage> entryMessages = new ArrayList<>();
+			synchronized (this)
+			{
+				while (entryMessages.size() < MAX_DRAIN_COUNT && !this.queue.isEmpty() && !this.ended)
+				{
+					entryMessages.add(this.queue.pollFirst());
+				}
+				if (entryMessages.isEmpty())
+				{
+					this.draining = false;
+					return;
+				}
+				this.notifyAll();
+			}
+			this.deliver(entryMessages);
+			Server.this.deliveryExecutor.execute(this::drain);
+		}
+
+		private void deliver(@NotNull List<EntryMessage> entryMessages)
+		{
+			if (this.batch && entryMessages.size() > 1)
+			{
+				this.consumer.accept(new BatchMessage(entryMessages));
+				synchronized (this)
+				{
+					this.delivered += entryMessages.size();
+				}
+				this.queueCounters.delivered(entryMessages.size());
+			}
+			else
+			{
+				for (EntryMessage entryMessage : entryMessages)
+				{
+					synchronized (this)
+					{
+						if (this.ended)
+						{
+							return;
+						}
+					}
+					this.consumer.accept(entryMessage);
+					synchronized (this)
+					{
+						this.delivered++;
+					}
+					this.queueCounters.delivered(1);
+				}
 			}
 		}
 
@@ -87,11 +573,21 @@ public class Server
 		{
 			if (!this.ended)
 			{
-				this.consumer.accept(new ErrorMessage());
 				this.ended = true;
+				this.queue.clear();
+				this.notifyAll();
+				// the error is sent from the delivery executor, as sending it could wait for the subscriber's connection and this may be called by a publisher
+				Server.this.deliveryExecutor.execute(() -> this.consumer.accept(new ErrorMessage()));
 			}
 		}
 
+		@NotNull
+		private synchronized SubscriberStats getStats(long currentTime)
+		{
+			EntryMessage oldestMessage = this.queue.peekFirst();
+			return new SubscriberStats(this.queueName, this.queue.size(), this.maxQueueDepth, this.delivered, this.dropped, oldestMessage != null ? Math.max(currentTime - oldestMessage.timestamp, 0) : 0);
+		}
+
 		public static abstract class Message
 		{
 			private Message()
@@ -102,18 +598,32 @@ public class Server
 
 		public static final class EntryMessage extends Message
 		{
+			// the position of the event in the queue's log, or -1 if the queue is not logged
+			public final long offset;
 			public final long timestamp;
 			public final String type;
 			public final String data;
 
-			private EntryMessage(long timestamp, String type, String data)
+			private EntryMessage(long offset, long timestamp, String type, String data)
 			{
+				this.offset = offset;
 				this.timestamp = timestamp;
 				this.type = type;
 				this.data = data;
 			}
 		}
 
+		public static final class BatchMessage extends Message
+		{
+			// in the order that they were published
+			public final List<EntryMessage> entryMessages;
+
+			private BatchMessage(List<EntryMessage> entryMessages)
+			{
+				this.entryMessages = entryMessages;
+			}
+		}
+
 		public static final class ErrorMessage extends Message
 		{
 			private ErrorMessage()
@@ -140,16 +650,25 @@ public class Server
 	public Publisher addPublisher()
 	{
 		LogManager.getLogger().debug("Adding publisher");
-		return new Publisher();
+		return new Publisher(false);
+	}
+
+	// publishes events forwarded from another server, which are only sent to this server's own subscribers
+	@NotNull
+	public Publisher addPeerPublisher()
+	{
+		LogManager.getLogger().debug("Adding peer publisher");
+		return new Publisher(true);
 	}
 
 	public final class Publisher
 	{
+		private final boolean peer;
 		private boolean closed = false;
 
-		private Publisher()
+		private Publisher(boolean peer)
 		{
-			// empty
+			this.peer = peer;
 		}
 
 		public void remove()
@@ -159,66 +678,132 @@ public class Server
 		}
 
 		public boolean publish(@NotNull String queueName, long timestamp, @NotNull String type, @NotNull String data)
+		{
+			return this.publish(timestamp, List.of(new Entry(queueName, type, data)));
+		}
+
+		// the entries are published in order, and either all of them are published or none of them if any has an invalid queue name or type
+		public boolean publish(long timestamp, @NotNull List<Entry> entries)
 		{
 			if (this.closed)
 			{
 				throw new IllegalStateException();
 			}
 
-			if (!validateQueueName(queueName))
+			for (Entry entry : entries)
 			{
-				return false;
-			}
-			if (!validateType(type))
-			{
-				return false;
+				if (!validateQueueName(entry.queueName))
+				{
+					return false;
+				}
+				if (!validateType(entry.type))
+				{
+					return false;
+				}
 			}
-			if (!validateData(data))
+
+			// the events are logged before the subscribers are found, so that a replaying subscriber added in between gets the events from the log
+			long[] offsets = new long[entries.size()];
+			for (int index = 0; index < offsets.length; index++)
 			{
-				return false;
+				Entry entry = entries.get(index);
+				offsets[index] = -1;
+				if (Server.this.options.isLogged(entry.queueName))
+				{
+					try
+					{
+						offsets[index] = Server.this.options.queueLog.append(entry.queueName, timestamp, entry.type, entry.data);
+					}
+					catch (QueueLog.QueueLogException exception)
+					{
+						LogManager.getLogger().error("Could not log event for {}", entry.queueName, exception);
+					}
+				}
 			}
 
+			// the subscribers are looked up once for each queue in the batch
+			HashMap<String, List<Subscriber>> subscribers = new HashMap<>();
 			Server.this.subscribersLock.readLock().lock();
-
-			Subscriber.EntryMessage message = new Subscriber.EntryMessage(timestamp, type, data);
-			Server.this.getSubscribers(queueName).forEach(subscriber -> subscriber.push(message));
-
+			for (Entry entry : entries)
+			{
+				subscribers.computeIfAbsent(entry.queueName, queueName -> Server.this.getSubscribers(queueName).filter(subscriber -> !(this.peer && subscriber.peer)).toList());
+			}
 			Server.this.subscribersLock.readLock().unlock();
 
+			// this only waits for the subscribers if they are using the block overflow policy and their queues are full
+			for (int index = 0; index < offsets.length; index++)
+			{
+				Entry entry = entries.get(index);
+				Subscriber.EntryMessage message = new Subscriber.EntryMessage(offsets[index], timestamp, entry.type, entry.data);
+				List<Subscriber> queueSubscribers = subscribers.get(entry.queueName);
+				queueSubscribers.forEach(subscriber -> subscriber.push(message));
+				Server.this.stats.getQueueCounters(entry.queueName).published();
+			}
+
 			return true;
 		}
+
+		public record Entry(
+				@NotNull String queueName,
+				@NotNull String type,
+				@NotNull String data
+		)
+		{
+		}
 	}
 
 	@Nullable
 	public Server.RequestHandler addRequestHandler(@NotNull String queueName, @NotNull Function<RequestHandler.Request, CompletableFuture<String>> requestHandler, @NotNull Consumer<RequestHandler.ErrorMessage> errorConsumer)
+	{
+		return this.addRequestHandler(queueName, false, requestHandler, errorConsumer);
+	}
+
+	// a peer handler is another server that passes the requests on to its own handlers, it is only sent the requests from this server's own clients
+	@Nullable
+	public Server.RequestHandler addPeerRequestHandler(@NotNull String queueName, @NotNull Function<RequestHandler.Request, CompletableFuture<String>> requestHandler, @NotNull Consumer<RequestHandler.ErrorMessage> errorConsumer)
+	{
+		return this.addRequestHandler(queueName, true, requestHandler, errorConsumer);
+	}
+
+	@Nullable
+	private Server.RequestHandler addRequestHandler(@NotNull String queueName, boolean peer, @NotNull Function<RequestHandler.Request, CompletableFuture<String>> requestHandler, @NotNull Consumer<RequestHandler.ErrorMessage> errorConsumer)
 	{
 		if (!validateQueueName(queueName))
 		{
 			return null;
 		}
 
-		LogManager.getLogger().debug("Adding request handler for {}", queueName);
+		LogManager.getLogger().debug("Adding {} for {}", peer ? "peer request handler" : "request handler", queueName);
 
 		this.requestHandlersLock.writeLock().lock();
 
-		RequestHandler handler = new RequestHandler(queueName, requestHandler, errorConsumer);
+		RequestHandler handler = new RequestHandler(queueName, peer, requestHandler, errorConsumer);
 		this.requestHandlers.computeIfAbsent(queueName, name -> new LinkedHashSet<>()).add(handler);
+		this.requestCounters.computeIfAbsent(queueName, name -> new AtomicInteger(0));
 
 		this.requestHandlersLock.writeLock().unlock();
 
+		if (!peer)
+		{
+			this.interestChanged();
+		}
+
 		return handler;
 	}
 
 	public final class RequestHandler
 	{
 		private final String queueName;
+		private final boolean peer;
 		private final Function<Request, CompletableFuture<String>> requestHandler;
 		private final Consumer<ErrorMessage> errorConsumer;
 		private boolean ended = false;
+		private final AtomicInteger outstandingRequests = new AtomicInteger(0);
 
-		private RequestHandler(String queueName, Function<Request, CompletableFuture<String>> requestHandler, Consumer<ErrorMessage> errorConsumer)
+		private RequestHandler(String queueName, boolean peer, Function<Request, CompletableFuture<String>> requestHandler, Consumer<ErrorMessage> errorConsumer)
 		{
 			this.queueName = queueName;
+			this.peer = peer;
 			this.requestHandler = requestHandler;
 			this.errorConsumer = errorConsumer;
 		}
@@ -237,6 +822,10 @@ public class Server
 					requestHandlers.remove(RequestHandler.this);
 				}
 				Server.this.requestHandlersLock.writeLock().unlock();
+				if (!this.peer)
+				{
+					Server.this.interestChanged();
+				}
 			}).start();
 		}
 
@@ -245,7 +834,13 @@ public class Server
 		{
 			if (!this.ended)
 			{
-				return this.requestHandler.apply(request);
+				CompletableFuture<String> completableFuture = this.requestHandler.apply(request);
+				if (completableFuture != null)
+				{
+					this.outstandingRequests.incrementAndGet();
+					completableFuture.whenComplete((response, exception) -> this.outstandingRequests.decrementAndGet());
+				}
+				return completableFuture;
 			}
 			else
 			{
@@ -302,16 +897,25 @@ public class Server
 	public RequestSender addRequestSender()
 	{
 		LogManager.getLogger().debug("Adding request sender");
-		return new RequestSender();
+		return new RequestSender(false);
+	}
+
+	// sends requests forwarded from another server, which are only sent to this server's own handlers
+	@NotNull
+	public RequestSender addPeerRequestSender()
+	{
+		LogManager.getLogger().debug("Adding peer request sender");
+		return new RequestSender(true);
 	}
 
 	public final class RequestSender
 	{
+		private final boolean peer;
 		private boolean closed = false;
 
-		private RequestSender()
+		private RequestSender(boolean peer)
 		{
-			// empty
+			this.peer = peer;
 		}
 
 		public void remove()
@@ -336,43 +940,146 @@ public class Server
 			{
 				return null;
 			}
-			if (!validateData(data))
-			{
-				return null;
-			}
 
 			Server.this.requestHandlersLock.readLock().lock();
-			LinkedList<RequestHandler> requestHandlers = Server.this.getHandlers(queueName).collect(LinkedList::new, LinkedList::add, LinkedList::addAll);
+			ArrayList<RequestHandler> requestHandlers = Server.this.getHandlers(queueName).filter(requestHandler -> !(this.peer && requestHandler.peer)).collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+			AtomicInteger requestCounter = Server.this.requestCounters.getOrDefault(queueName, null);
 			Server.this.requestHandlersLock.readLock().unlock();
 
 			RequestHandler.Request request = new RequestHandler.Request(timestamp, type, data);
 			CompletableFuture<String> responseCompletableFuture = new CompletableFuture<>();
+			ServerStats.QueueCounters queueCounters = Server.this.stats.getQueueCounters(queueName);
+			long startTime = System.nanoTime();
+			responseCompletableFuture.thenAccept(response -> queueCounters.requested(System.nanoTime() - startTime, response != null));
 
-			new Thread(() ->
+			if (requestHandlers.isEmpty())
 			{
+				responseCompletableFuture.complete(null);
+				return responseCompletableFuture;
+			}
+
+			DispatchPolicy dispatchPolicy = Server.this.options.getDispatchPolicy(queueName);
+			if (dispatchPolicy == DispatchPolicy.FIRST_RESPONDER)
+			{
+				AtomicInteger remainingHandlers = new AtomicInteger(requestHandlers.size());
 				for (RequestHandler requestHandler : requestHandlers)
 				{
-					CompletableFuture<String> completableFuture = requestHandler.request(request);
-					if (completableFuture != null)
+					Server.this.requestExecutor.execute(() -> Server.this.dispatch(queueName, requestHandler, request).thenAcceptAsync(response ->
 					{
-						String response = completableFuture.join();
 						if (response != null)
 						{
 							responseCompletableFuture.complete(response);
-							break;
 						}
-					}
+						else if (remainingHandlers.decrementAndGet() == 0)
+						{
+							responseCompletableFuture.complete(null);
+						}
+					}, Server.this.requestExecutor));
 				}
-				responseCompletableFuture.complete(null);
-			}).start();
+			}
+			else
+			{
+				if (dispatchPolicy != DispatchPolicy.ORDERED)
+				{
+					Collections.rotate(requestHandlers, -Math.floorMod(requestCounter.getAndIncrement(), requestHandlers.size()));
+				}
+				if (dispatchPolicy == DispatchPolicy.LEAST_OUTSTANDING)
+				{
+					// the sort is stable, so handlers with the same number of outstanding requests are still taken in turn
+					requestHandlers.sort(Comparator.comparingInt(requestHandler -> requestHandler.outstandingRequests.get()));
+				}
+				Iterator<RequestHandler> iterator = requestHandlers.iterator();
+				Server.this.requestExecutor.execute(() -> Server.this.dispatchInOrder(queueName, iterator, request, responseCompletableFuture));
+			}
 
 			return responseCompletableFuture;
 		}
 	}
 
+	private void dispatchInOrder(@NotNull String queueName, @NotNull Iterator<RequestHandler> iterator, @NotNull RequestHandler.Request request, @NotNull CompletableFuture<String> responseCompletableFuture)
+	{
+		if (!iterator.hasNext())
+		{
+			responseCompletableFuture.complete(null);
+			return;
+		}
+		this.dispatch(queueName, iterator.next(), request).thenAcceptAsync(response ->
+		{
+			if (response != null)
+			{
+				responseCompletableFuture.complete(response);
+			}
+			else
+			{
+				this.dispatchInOrder(queueName, iterator, request, responseCompletableFuture);
+			}
+		}, this.requestExecutor);
+	}
+
+	// the returned future completes with null if the handler has been removed, does not accept the request, or does not respond in time
+	@NotNull
+	private CompletableFuture<String> dispatch(@NotNull String queueName, @NotNull RequestHandler requestHandler, @NotNull RequestHandler.Request request)
+	{
+		CompletableFuture<String> completableFuture = requestHandler.request(request);
+		if (completableFuture == null)
+		{
+			return CompletableFuture.completedFuture(null);
+		}
+		if (this.options.requestHandlerTimeout > 0 && this.options.idempotentQueues.contains(queueName))
+		{
+			// the handler's own future is left to complete when the response arrives, so that its outstanding requests are counted correctly
+			return completableFuture.copy().orTimeout(this.options.requestHandlerTimeout, TimeUnit.MILLISECONDS).exceptionally(exception ->
+			{
+				LogManager.getLogger().warn("Request handler for {} did not respond within {} ms", queueName, this.options.requestHandlerTimeout);
+				return null;
+			});
+		}
+		return completableFuture;
+	}
+
+	public void addInterestListener(@NotNull Runnable listener)
+	{
+		this.interestListeners.add(listener);
+	}
+
+	// the queues that have subscribers that are not peers
+	@NotNull
+	public Set<String> getSubscribedQueues()
+	{
+		this.subscribersLock.readLock().lock();
+		try
+		{
+			return this.subscribers.entrySet().stream().filter(entry -> entry.getValue().stream().anyMatch(subscriber -> !subscriber.peer)).map(Map.Entry::getKey).collect(Collectors.toSet());
+		}
+		finally
+		{
+			this.subscribersLock.readLock().unlock();
+		}
+	}
+
+	// the queues that have handlers that are not peers
+	@NotNull
+	public Set<String> getHandledQueues()
+	{
+		this.requestHandlersLock.readLock().lock();
+		try
+		{
+			return this.requestHandlers.entrySet().stream().filter(entry -> entry.getValue().stream().anyMatch(requestHandler -> !requestHandler.peer)).map(Map.Entry::getKey).collect(Collectors.toSet());
+		}
+		finally
+		{
+			this.requestHandlersLock.readLock().unlock();
+		}
+	}
+
+	private void interestChanged()
+	{
+		this.interestListeners.forEach(Runnable::run);
+	}
+
 	private static boolean validateQueueName(String queueName)
 	{
-		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || queueName.matches("[^A-Za-z0-9_\\-]") || queueName.matches("^[^A-Za-z0-9]"))
+		if (queueName.chars().anyMatch(character -> character < 32 || character >= 127) || queueName.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(queueName).matches() || INVALID_NAME_START_PATTERN.matcher(queueName).matches())
 		{
 			return false;
 		}
@@ -381,15 +1088,10 @@ public class Server
 
 	private static boolean validateType(String type)
 	{
-		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || type.matches("[^A-Za-z0-9_\\-]") || type.matches("^[^A-Za-z0-9]"))
+		if (type.chars().anyMatch(character -> character < 32 || character >= 127) || type.isEmpty() || INVALID_NAME_CHARACTER_PATTERN.matcher(type).matches() || INVALID_NAME_START_PATTERN.matcher(type).matches())
 		{
 			return false;
 		}
 		return true;
 	}
-
-	private static boolean validateData(@NotNull String string)
-	{
-		return string.chars().noneMatch(character -> character < 32 || character >= 127);
-	}
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package micheal65536.vienna.eventbus.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters that are updated by the connections, publishers and request senders without taking any locks, and read together by getStats
+public final class ServerStats
+{
+	private final ConcurrentHashMap<String, QueueCounters> queueCounters = new ConcurrentHashMap<>();
+	private final AtomicInteger connections = new AtomicInteger(0);
+	private final LongAdder connectionsOpened = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+
+	ServerStats()
+	{
+		// empty
+	}
+
+	@NotNull
+	QueueCounters getQueueCounters(@NotNull String queueName)
+	{
+		// the queue is almost always already there, and get does not lock
+		QueueCounters queueCounters = this.queueCounters.get(queueName);
+		if (queueCounters == null)
+		{
+			queueCounters = this.queueCounters.computeIfAbsent(queueName, name -> new QueueCounters());
+		}
+		return queueCounters;
+	}
+
+	void connectionOpened()
+	{
+		this.connections.incrementAndGet();
+		this.connectionsOpened.increment();
+	}
+
+	void connectionClosed()
+	{
+		this.connections.decrementAndGet();
+	}
+
+	void bytesReceived(int count)
+	{
+		this.bytesReceived.add(count);
+	}
+
+	void bytesSent(int count)
+	{
+		this.bytesSent.add(count);
+	}
+
+	// starting a new interval resets the request latencies once they have been read
+	@NotNull
+	Stats getStats(@NotNull List<Server.SubscriberStats> subscriberStats, boolean newInterval)
+	{
+		HashMap<String, List<Server.SubscriberStats>> queueSubscriberStats = new HashMap<>();
+		for (Server.SubscriberStats stats : subscriberStats)
+		{
+			queueSubscriberStats.computeIfAbsent(stats.queueName(), queueName -> new ArrayList<>()).add(stats);
+		}
+
+		ArrayList<QueueStats> queueStats = new ArrayList<>();
+		this.queueCounters.forEach((queueName, queueCounters) ->
+		{
+			List<Server.SubscriberStats> stats = queueSubscriberStats.getOrDefault(queueName, List.of());
+			LatencyHistogram requestLatency = newInterval ? queueCounters.requestLatency.getAndReset() : queueCounters.requestLatency;
+			queueStats.add(new QueueStats(
+					queueName,
+					queueCounters.published.sum(),
+					queueCounters.delivered.sum(),
+					stats.size(),
+					stats.stream().mapToInt(Server.SubscriberStats::queueDepth).sum(),
+					stats.stream().mapToInt(Server.SubscriberStats::maxQueueDepth).max().orElse(0),
+					stats.stream().mapToLong(Server.SubscriberStats::dropped).sum(),
+					queueCounters.requests.sum(),
+					queueCounters.unansweredRequests.sum(),
+					requestLatency.getPercentile(50.0),
+					requestLatency.getPercentile(99.0),
+					requestLatency.getPercentile(99.9),
+					requestLatency.getPercentile(100.0)
+			));
+		});
+		queueStats.sort(Comparator.comparing(QueueStats::queueName));
+
+		return new Stats(System.currentTimeMillis(), this.connections.get(), this.connectionsOpened.sum(), this.bytesReceived.sum(), this.bytesSent.sum(), queueStats);
+	}
+
+	// the counts are totals since the server started, so rates are found by comparing two sets of stats, whereas the request latencies are only for the current interval
+	public record Stats(
+			long timestamp,
+			int connections,
+			long connectionsOpened,
+			long bytesReceived,
+			long bytesSent,
+			@NotNull List<QueueStats> queues
+	)
+	{
+	}
+
+	// delivered counts each event once for each subscriber that it was given to, so delivered / published is the average fan-out
+	// the latencies are in microseconds, from the request being sent to the handlers to the response, for the requests since the start of the interval, and include requests that were not accepted by any handler
+	public record QueueStats(
+			@NotNull String queueName,
+			long published,
+			long delivered,
+			int subscribers,
+			int queueDepth,
+			int maxQueueDepth,
+			long dropped,
+			long requests,
+			long unansweredRequests,
+			long requestLatencyP50,
+			long requestLatencyP99,
+			long requestLatencyP999,
+			long requestLatencyMax
+	)
+	{
+	}
+
+	static final class QueueCounters
+	{
+		private final LongAdder published = new LongAdder();
+		private final LongAdder delivered = new LongAdder();
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder unansweredRequests = new LongAdder();
+		// since the start of the current interval
+		private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+		private QueueCounters()
+		{
+			// empty
+		}
+
+		void published()
+		{
+			this.published.increment();
+		}
+
+		// counted as the events are given to the subscribers' connections, so that events dropped from a subscriber's queue are not counted
+		void delivered(int count)
+		{
+			this.delivered.add(count);
+		}
+
+		void requested(long latencyNanos, boolean answered)
+		{
+			this.requests.increment();
+			if (!answered)
+			{
+				this.unansweredRequests.increment();
+			}
+			this.requestLatency.record(latencyNanos / 1000);
+		}
+	}
+}
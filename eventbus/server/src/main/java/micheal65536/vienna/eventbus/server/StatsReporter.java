@@ -0,0 +1,143 @@
+package micheal65536.vienna.eventbus.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// writes the server's stats to the log at a fixed interval and serves them as plain text over HTTP, the rates and request latencies are over the time since the stats were last logged, or since the reporter was started if they are not being logged
+public final class StatsReporter implements AutoCloseable
+{
+	private final Server server;
+	@Nullable
+	private final ScheduledExecutorService executor;
+	@Nullable
+	private final HttpServer httpServer;
+
+	private volatile ServerStats.Stats previousStats;
+
+	// an interval of 0 does not log the stats, and a port of -1 does not serve them
+	public StatsReporter(@NotNull Server server, long logInterval, int httpPort) throws IOException
+	{
+		if (logInterval < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.server = server;
+		this.previousStats = server.getStats(true);
+
+		if (httpPort != -1)
+		{
+			this.httpServer = HttpServer.create(new InetSocketAddress(httpPort), 0);
+			this.httpServer.createContext("/stats", this::handleHttpRequest);
+			this.httpServer.start();
+			LogManager.getLogger().info("Serving stats on port {}", this.httpServer.getAddress().getPort());
+		}
+		else
+		{
+			this.httpServer = null;
+		}
+
+		if (logInterval > 0)
+		{
+			this.executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+			{
+				Thread thread = new Thread(runnable, "Event bus stats");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.executor.scheduleAtFixedRate(this::log, logInterval, logInterval, TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			this.executor = null;
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		if (this.httpServer != null)
+		{
+			this.httpServer.stop(0);
+		}
+		if (this.executor != null)
+		{
+			this.executor.shutdownNow();
+		}
+	}
+
+	private void log()
+	{
+		ServerStats.Stats stats = this.server.getStats(true);
+		format(stats, this.previousStats).forEach(line -> LogManager.getLogger().info(line));
+		this.previousStats = stats;
+	}
+
+	private void handleHttpRequest(@NotNull HttpExchange httpExchange) throws IOException
+	{
+		byte[] bytes = (String.join("\n", format(this.server.getStats(false), this.previousStats)) + "\n").getBytes(StandardCharsets.US_ASCII);
+		httpExchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+		httpExchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream outputStream = httpExchange.getResponseBody())
+		{
+			outputStream.write(bytes);
+		}
+	}
+
+	@NotNull
+	private static List<String> format(@NotNull ServerStats.Stats stats, @NotNull ServerStats.Stats previousStats)
+	{
+		double seconds = Math.max(stats.timestamp() - previousStats.timestamp(), 1) / 1000.0;
+
+		ArrayList<String> lines = new ArrayList<>();
+		lines.add("connections %d opened %d bytesReceived %d (%.0f/s) bytesSent %d (%.0f/s)".formatted(
+				stats.connections(),
+				stats.connectionsOpened(),
+				stats.bytesReceived(),
+				(stats.bytesReceived() - previousStats.bytesReceived()) / seconds,
+				stats.bytesSent(),
+				(stats.bytesSent() - previousStats.bytesSent()) / seconds
+		));
+
+		HashMap<String, ServerStats.QueueStats> previousQueueStats = new HashMap<>();
+		previousStats.queues().forEach(queueStats -> previousQueueStats.put(queueStats.queueName(), queueStats));
+		for (ServerStats.QueueStats queueStats : stats.queues())
+		{
+			ServerStats.QueueStats previous = previousQueueStats.get(queueStats.queueName());
+			long previousPublished = previous != null ? previous.published() : 0;
+			long previousRequests = previous != null ? previous.requests() : 0;
+			lines.add("queue %s published %d (%.1f/s) fanOut %.2f subscribers %d depth %d maxDepth %d dropped %d requests %d (%.1f/s) unanswered %d latencyMicros p50 %d p99 %d p99.9 %d max %d".formatted(
+					queueStats.queueName(),
+					queueStats.published(),
+					(queueStats.published() - previousPublished) / seconds,
+					queueStats.published() > 0 ? (double) queueStats.delivered() / queueStats.published() : 0.0,
+					queueStats.subscribers(),
+					queueStats.queueDepth(),
+					queueStats.maxQueueDepth(),
+					queueStats.dropped(),
+					queueStats.requests(),
+					(queueStats.requests() - previousRequests) / seconds,
+					queueStats.unansweredRequests(),
+					queueStats.requestLatencyP50(),
+					queueStats.requestLatencyP99(),
+					queueStats.requestLatencyP999(),
+					queueStats.requestLatencyMax()
+			));
+		}
+		return lines;
+	}
+}
@@ -1,20 +1,31 @@
 package micheal65536.vienna.objectstore.client;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.InflaterOutputStream;
 
 public class ObjectStoreClient
 {
+	private static final int NEGOTIATION_TIMEOUT = 10000;
+
 	@NotNull
 	public static ObjectStoreClient create(@NotNull String connectionString) throws ConnectException
 	{
@@ -34,17 +45,79 @@ public class ObjectStoreClient
 			throw new IllegalArgumentException("Port number out of range");
 		}
 
-		Socket socket;
+		// older servers close the connection when they receive a request that they do not understand, so the client falls back to tagged commands without compression and then to untagged commands
+		Socket socket = connect(host, port);
+		String reply = negotiate(socket, "TAGS DEFLATE");
+		if (reply == null)
+		{
+			closeSocket(socket);
+			socket = connect(host, port);
+			reply = negotiate(socket, "TAGS");
+		}
+		if (reply == null)
+		{
+			closeSocket(socket);
+			socket = connect(host, port);
+		}
+
+		return new ObjectStoreClient(socket, reply != null);
+	}
+
+	@NotNull
+	private static Socket connect(@NotNull String host, int port) throws ConnectException
+	{
 		try
 		{
-			socket = new Socket(host, port);
+			Socket socket = new Socket(host, port);
+			// a command and its data are queued together, so waiting for more data before sending only adds latency
+			socket.setTcpNoDelay(true);
+			return socket;
 		}
 		catch (IOException exception)
 		{
 			throw new ConnectException("Could not create socket", exception);
 		}
+	}
 
-		return new ObjectStoreClient(socket);
+	// returns the server's reply to the request for tagged commands, or null if the server did not accept it
+	@Nullable
+	private static String negotiate(@NotNull Socket socket, @NotNull String request)
+	{
+		try
+		{
+			socket.getOutputStream().write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+			socket.setSoTimeout(NEGOTIATION_TIMEOUT);
+			// the server does not send anything else until the client sends its next command, so reading one byte at a time does not consume anything after the reply
+			InputStream inputStream = socket.getInputStream();
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			for (int value = inputStream.read(); value != '\n'; value = inputStream.read())
+			{
+				if (value == -1 || byteArrayOutputStream.size() > 16)
+				{
+					return null;
+				}
+				byteArrayOutputStream.write(value);
+			}
+			socket.setSoTimeout(0);
+			String reply = byteArrayOutputStream.toString(StandardCharsets.US_ASCII);
+			return reply.equals("OK") || reply.startsWith("OK ") ? reply : null;
+		}
+		catch (IOException exception)
+		{
+			return null;
+		}
+	}
+
+	private static void closeSocket(@NotNull Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException exception)
+		{
+			// empty
+		}
 	}
 
 	public static final class ConnectException extends ObjectStoreClientException
@@ -61,6 +134,8 @@ public class ObjectStoreClient
 	}
 
 	private final Socket socket;
+	// with tagged commands the server can handle several commands at once and reply to them in any order, otherwise the server replies in the order that the commands were sent
+	private final boolean tagged;
 	private final LinkedBlockingQueue<Object> outgoingMessageQueue = new LinkedBlockingQueue<>();
 	private final Thread outgoingThread;
 	private final Thread incomingThread;
@@ -68,32 +143,60 @@ public class ObjectStoreClient
 
 	private boolean closed = false;
 
-	private Command currentCommand = null;
-	private final LinkedList<Command> queuedCommands = new LinkedList<>();
+	// commands are sent straight away without waiting for the replies to the previous commands, in the order that they were sent
+	private final LinkedHashMap<Integer, Command> sentCommands = new LinkedHashMap<>();
+	private int nextTag = 1;
+
+	// where the object that is being received is written to, if it is not being read into memory, this is only used by the incoming thread
+	@Nullable
+	private OutputStream receivingOutputStream = null;
+	private boolean receivingFailed = false;
 
-	private ObjectStoreClient(@NotNull Socket socket)
+	private ObjectStoreClient(@NotNull Socket socket, boolean tagged)
 	{
 		this.socket = socket;
+		this.tagged = tagged;
 
 		this.outgoingThread = new Thread(() ->
 		{
-			try (OutputStream outputStream = this.socket.getOutputStream())
+			try (OutputStream outputStream = new BufferedOutputStream(this.socket.getOutputStream(), 64 * 1024))
 			{
 				for (; ; )
 				{
+					// commands that were queued while the previous write was in progress are sent together
 					Object message = this.outgoingMessageQueue.take();
-					if (message instanceof String command)
+					do
 					{
-						outputStream.write(command.getBytes(StandardCharsets.US_ASCII));
-					}
-					else if (message instanceof byte[] data)
-					{
-						outputStream.write(data);
-					}
-					else
-					{
-						throw new AssertionError();
+						if (message instanceof String command)
+						{
+							outputStream.write(command.getBytes(StandardCharsets.US_ASCII));
+						}
+						else if (message instanceof byte[] data)
+						{
+							outputStream.write(data);
+						}
+						else if (message instanceof StreamData streamData)
+						{
+							// the server is expecting exactly this much data, so the connection cannot continue if the stream ends early
+							byte[] buffer = new byte[65536];
+							for (int remaining = streamData.length; remaining > 0; )
+							{
+								int length = streamData.inputStream.read(buffer, 0, Math.min(buffer.length, remaining));
+								if (length == -1)
+								{
+									throw new IOException("Stream ended before the given length");
+								}
+								outputStream.write(buffer, 0, length);
+								remaining -= length;
+							}
+						}
+						else
+						{
+							throw new AssertionError();
+						}
 					}
+					while ((message = this.outgoingMessageQueue.poll()) != null);
+					outputStream.flush();
 				}
 			}
 			catch (InterruptedException exception)
@@ -143,15 +246,30 @@ public class ObjectStoreClient
 
 							if (binaryReadLength > 0)
 							{
-								if (startOffset + binaryReadLength > readLength)
+								int length = Math.min(binaryReadLength, readLength - startOffset);
+								if (this.receivingOutputStream != null)
 								{
-									byteArrayOutputStream.write(readBuffer, startOffset, readLength - startOffset);
-									binaryReadLength -= readLength - startOffset;
-									startOffset += readLength - startOffset;
+									if (!this.receivingFailed)
+									{
+										try
+										{
+											this.receivingOutputStream.write(readBuffer, startOffset, length);
+										}
+										catch (IOException exception)
+										{
+											// the rest of the object is still read so that the connection can continue
+											this.receivingFailed = true;
+										}
+									}
 								}
 								else
 								{
-									byteArrayOutputStream.write(readBuffer, startOffset, binaryReadLength);
+									byteArrayOutputStream.write(readBuffer, startOffset, length);
+								}
+								binaryReadLength -= length;
+								startOffset += length;
+								if (binaryReadLength == 0)
+								{
 									if (!this.handleBinaryData(lastMessage, byteArrayOutputStream.toByteArray()))
 									{
 										this.initiateClose();
@@ -159,8 +277,6 @@ public class ObjectStoreClient
 									}
 									lastMessage = null;
 									byteArrayOutputStream = new ByteArrayOutputStream(128);
-									startOffset += binaryReadLength;
-									binaryReadLength = 0;
 								}
 							}
 							else
@@ -209,14 +325,10 @@ public class ObjectStoreClient
 			this.initiateClose();
 
 			this.lock.lock();
-			if (this.currentCommand != null)
-			{
-				this.currentCommand.completableFuture.complete(this.currentCommand.type == Command.Type.DELETE ? false : null);
-				this.currentCommand = null;
-			}
-			this.queuedCommands.forEach(command -> command.completableFuture.complete(command.type == Command.Type.DELETE ? false : null));
-			this.queuedCommands.clear();
+			ArrayList<Command> commands = new ArrayList<>(this.sentCommands.values());
+			this.sentCommands.clear();
 			this.lock.unlock();
+			commands.forEach(command -> command.completableFuture.complete(command.getFailureResult()));
 		});
 
 		this.outgoingThread.start();
@@ -280,14 +392,59 @@ public class ObjectStoreClient
 		return completableFuture;
 	}
 
+	// the data is read from the stream as it is sent instead of being held in memory, the stream must have at least the given number of bytes available or the connection is closed
+	@NotNull
+	public CompletableFuture<String> store(@NotNull InputStream inputStream, int length)
+	{
+		if (length < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		CompletableFuture<String> completableFuture = new CompletableFuture<>();
+		this.queueCommand(new Command(Command.Type.STORE, new StreamData(inputStream, length), completableFuture));
+		return completableFuture;
+	}
+
+	// the object is decompressed as soon as it is received if the server sent it compressed, this is done on another thread so that it does not hold up receiving the replies to other commands
 	@NotNull
 	public CompletableFuture<byte[]> get(@NotNull String id)
 	{
-		CompletableFuture<byte[]> completableFuture = new CompletableFuture<>();
+		return this.getObject(id).thenApplyAsync(objectData -> objectData != null ? objectData.getData() : null);
+	}
+
+	// as with get, but the object is left compressed if the server sent it compressed, and is only decompressed when its data is needed
+	@NotNull
+	public CompletableFuture<ObjectData> getObject(@NotNull String id)
+	{
+		CompletableFuture<ObjectData> completableFuture = new CompletableFuture<>();
 		this.queueCommand(new Command(Command.Type.GET, id, completableFuture));
 		return completableFuture;
 	}
 
+	// the object is written to the stream as it is received instead of being held in memory, the returned future completes with false if the object could not be loaded or the stream threw an exception
+	// the stream is written to from the client's thread and replies to the commands sent after this one are not received until it has been written, so it should not block for long
+	@NotNull
+	public CompletableFuture<Boolean> get(@NotNull String id, @NotNull OutputStream outputStream)
+	{
+		CompletableFuture<Boolean> completableFuture = new CompletableFuture<>();
+		this.queueCommand(new Command(Command.Type.GET, id, outputStream, completableFuture));
+		return completableFuture;
+	}
+
+	// returns the ID of a copy of the object, or null if the object does not exist, the copy may have the same ID as the original and must be deleted separately
+	// older servers do not support copying objects, so the object is fetched and stored again instead
+	@NotNull
+	public CompletableFuture<String> copy(@NotNull String id)
+	{
+		if (!this.tagged)
+		{
+			return this.get(id).thenCompose(data -> data != null ? this.store(data) : CompletableFuture.completedFuture(null));
+		}
+		CompletableFuture<String> completableFuture = new CompletableFuture<>();
+		this.queueCommand(new Command(Command.Type.COPY, id, completableFuture));
+		return completableFuture;
+	}
+
 	@NotNull
 	public CompletableFuture<Boolean> delete(@NotNull String id)
 	{
@@ -296,62 +453,110 @@ public class ObjectStoreClient
 		return completableFuture;
 	}
 
-	private void queueCommand(@NotNull Command command)
+	// the objects are returned in the same order as the IDs, with null for any that could not be loaded, the requests are all sent at once so this only takes one round trip
+	// as with get the objects are decompressed on another thread, all together once they have all been received
+	@NotNull
+	public CompletableFuture<byte[][]> getAll(@NotNull String... ids)
 	{
-		this.lock.lock();
-		if (this.closed)
+		ArrayList<CompletableFuture<ObjectData>> completableFutures = new ArrayList<>(ids.length);
+		for (String id : ids)
 		{
-			command.completableFuture.complete(command.type == Command.Type.DELETE ? false : null);
+			completableFutures.add(this.getObject(id));
 		}
-		else
+		return CompletableFuture.allOf(completableFutures.toArray(new CompletableFuture<?>[0])).thenApplyAsync(result ->
 		{
-			this.queuedCommands.add(command);
-			if (this.currentCommand == null)
+			byte[][] objects = new byte[completableFutures.size()][];
+			for (int index = 0; index < completableFutures.size(); index++)
 			{
-				this.sendNextCommand();
+				ObjectData objectData = completableFutures.get(index).join();
+				objects[index] = objectData != null ? objectData.getData() : null;
 			}
-		}
-		this.lock.unlock();
+			return objects;
+		});
 	}
 
-	private void sendNextCommand()
+	private void queueCommand(@NotNull Command command)
 	{
 		this.lock.lock();
-
-		this.currentCommand = null;
-
 		if (this.closed)
 		{
 			this.lock.unlock();
+			command.completableFuture.complete(command.getFailureResult());
 			return;
 		}
 
-		if (!this.queuedCommands.isEmpty())
+		int tag = this.nextTag;
+		while (this.sentCommands.containsKey(tag))
+		{
+			tag = tag < 999999999 ? tag + 1 : 1;
+		}
+		this.nextTag = tag < 999999999 ? tag + 1 : 1;
+		this.sentCommands.put(tag, command);
+
+		String prefix = this.tagged ? tag + " " : "";
+		switch (command.type)
 		{
-			this.currentCommand = this.queuedCommands.removeFirst();
-			switch (this.currentCommand.type)
+			case STORE ->
 			{
-				case STORE ->
-				{
-					this.sendMessage("STORE " + Integer.toString(((byte[]) this.currentCommand.data).length) + "\n");
-					this.sendMessage(this.currentCommand.data);
-				}
-				case GET ->
-				{
-					this.sendMessage("GET " + ((String) this.currentCommand.data) + "\n");
-				}
-				case DELETE ->
-				{
-					this.sendMessage("DEL " + ((String) this.currentCommand.data) + "\n");
-				}
+				this.sendMessage(prefix + "STORE " + Integer.toString(command.data instanceof StreamData streamData ? streamData.length : ((byte[]) command.data).length) + "\n");
+				this.sendMessage(command.data);
+			}
+			case GET ->
+			{
+				this.sendMessage(prefix + "GET " + ((String) command.data) + "\n");
+			}
+			case COPY ->
+			{
+				this.sendMessage(prefix + "COPY " + ((String) command.data) + "\n");
+			}
+			case DELETE ->
+			{
+				this.sendMessage(prefix + "DEL " + ((String) command.data) + "\n");
 			}
 		}
-
 		this.lock.unlock();
 	}
 
+	// finds the command that the message is a reply to, which is the earliest command that has not been replied to if the commands are not tagged
+	@Nullable
+	private Reply parseReply(@NotNull String message)
+	{
+		if (this.tagged)
+		{
+			String[] parts = message.split(" ", 2);
+			if (parts.length != 2)
+			{
+				return null;
+			}
+			int tag;
+			try
+			{
+				tag = Integer.parseInt(parts[0]);
+			}
+			catch (NumberFormatException exception)
+			{
+				return null;
+			}
+			return this.sentCommands.containsKey(tag) ? new Reply(tag, parts[1].split(" ", 2)) : null;
+		}
+		else
+		{
+			Iterator<Integer> iterator = this.sentCommands.keySet().iterator();
+			return iterator.hasNext() ? new Reply(iterator.next(), message.split(" ", 2)) : null;
+		}
+	}
+
+	private record Reply(
+			int tag,
+			@NotNull String[] parts
+	)
+	{
+	}
+
 	private int handleMessage(@NotNull String message)
 	{
+		// the future is completed once the lock has been released, as it may run other code that should not hold up the client
+		Completion completion = null;
 		try
 		{
 			this.lock.lock();
@@ -360,13 +565,17 @@ public class ObjectStoreClient
 			{
 				return -1;
 			}
-			if (this.currentCommand == null)
+
+			Reply reply = this.parseReply(message);
+			if (reply == null)
 			{
 				return -1;
 			}
+			int tag = reply.tag;
+			Command command = this.sentCommands.get(tag);
 
-			String[] parts = message.split(" ", 2);
-			switch (this.currentCommand.type)
+			String[] parts = reply.parts;
+			switch (command.type)
 			{
 				case STORE ->
 				{
@@ -376,14 +585,14 @@ public class ObjectStoreClient
 						{
 							return -1;
 						}
-						this.currentCommand.completableFuture.complete(parts[1]);
-						this.sendNextCommand();
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, parts[1]);
 						return 0;
 					}
 					else if (parts[0].equals("ERR"))
 					{
-						this.currentCommand.completableFuture.complete(null);
-						this.sendNextCommand();
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, null);
 						return 0;
 					}
 					else
@@ -399,33 +608,52 @@ public class ObjectStoreClient
 						{
 							return -1;
 						}
-						try
+						GetReply getReply = GetReply.parse(parts[1]);
+						if (getReply == null)
 						{
-							int length = Integer.parseInt(parts[1]);
-							if (length < 0)
-							{
-								return -1;
-							}
-							if (length == 0)
-							{
-								this.currentCommand.completableFuture.complete(new byte[0]);
-								this.sendNextCommand();
-								return 0;
-							}
-							else
-							{
-								return length;
-							}
+							return -1;
+						}
+						if (getReply.length == 0)
+						{
+							this.sentCommands.remove(tag);
+							completion = new Completion(command.completableFuture, command.outputStream != null ? true : new ObjectData(new byte[0], false, 0));
+							return 0;
 						}
-						catch (NumberFormatException exception)
+						else
+						{
+							// the object is decompressed as it is written to the stream
+							this.receivingOutputStream = command.outputStream != null && getReply.compressed ? new InflaterOutputStream(command.outputStream) : command.outputStream;
+							this.receivingFailed = false;
+							return getReply.length;
+						}
+					}
+					else if (parts[0].equals("ERR"))
+					{
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, command.getFailureResult());
+						return 0;
+					}
+					else
+					{
+						return -1;
+					}
+				}
+				case COPY ->
+				{
+					if (parts[0].equals("OK"))
+					{
+						if (parts.length != 2)
 						{
 							return -1;
 						}
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, parts[1]);
+						return 0;
 					}
 					else if (parts[0].equals("ERR"))
 					{
-						this.currentCommand.completableFuture.complete(null);
-						this.sendNextCommand();
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, null);
 						return 0;
 					}
 					else
@@ -437,14 +665,14 @@ public class ObjectStoreClient
 				{
 					if (parts[0].equals("OK"))
 					{
-						this.currentCommand.completableFuture.complete(true);
-						this.sendNextCommand();
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, true);
 						return 0;
 					}
 					else if (parts[0].equals("ERR"))
 					{
-						this.currentCommand.completableFuture.complete(false);
-						this.sendNextCommand();
+						this.sentCommands.remove(tag);
+						completion = new Completion(command.completableFuture, false);
 						return 0;
 					}
 					else
@@ -461,11 +689,17 @@ public class ObjectStoreClient
 		finally
 		{
 			this.lock.unlock();
+			if (completion != null)
+			{
+				completion.complete();
+			}
 		}
 	}
 
 	private boolean handleBinaryData(@NotNull String message, byte[] data)
 	{
+		// the future is completed once the lock has been released, as it may run other code that should not hold up the client
+		Completion completion = null;
 		try
 		{
 			this.lock.lock();
@@ -474,25 +708,52 @@ public class ObjectStoreClient
 			{
 				return false;
 			}
-			if (this.currentCommand == null)
+
+			Reply reply = this.parseReply(message);
+			if (reply == null)
 			{
 				throw new AssertionError();
 			}
+			Command command = this.sentCommands.remove(reply.tag);
 
-			String[] parts = message.split(" ", 2);
+			String[] parts = reply.parts;
 			if (parts.length != 2)
 			{
 				throw new AssertionError();
 			}
 
-			switch (this.currentCommand.type)
+			switch (command.type)
 			{
 				case GET ->
 				{
 					if (parts[0].equals("OK"))
 					{
-						this.currentCommand.completableFuture.complete(data);
-						this.sendNextCommand();
+						if (command.outputStream != null)
+						{
+							boolean succeeded = !this.receivingFailed;
+							if (succeeded && this.receivingOutputStream instanceof InflaterOutputStream inflaterOutputStream)
+							{
+								try
+								{
+									inflaterOutputStream.finish();
+								}
+								catch (IOException exception)
+								{
+									succeeded = false;
+								}
+							}
+							completion = new Completion(command.completableFuture, succeeded);
+							this.receivingOutputStream = null;
+						}
+						else
+						{
+							GetReply getReply = GetReply.parse(parts[1]);
+							if (getReply == null)
+							{
+								throw new AssertionError();
+							}
+							completion = new Completion(command.completableFuture, new ObjectData(data, getReply.compressed, getReply.size));
+						}
 						return true;
 					}
 					else
@@ -509,6 +770,10 @@ public class ObjectStoreClient
 		finally
 		{
 			this.lock.unlock();
+			if (completion != null)
+			{
+				completion.complete();
+			}
 		}
 	}
 
@@ -541,24 +806,189 @@ public class ObjectStoreClient
 		}
 	}
 
+	// "<length>" or "<compressed length> DEFLATE <length>"
+	private record GetReply(
+			int length,
+			boolean compressed,
+			int size
+	)
+	{
+		@Nullable
+		public static GetReply parse(@NotNull String reply)
+		{
+			String[] parts = reply.split(" ");
+			try
+			{
+				if (parts.length == 1)
+				{
+					int length = Integer.parseInt(parts[0]);
+					return length >= 0 ? new GetReply(length, false, length) : null;
+				}
+				else if (parts.length == 3 && parts[1].equals("DEFLATE"))
+				{
+					int length = Integer.parseInt(parts[0]);
+					int size = Integer.parseInt(parts[2]);
+					return length >= 0 && size >= 0 ? new GetReply(length, true, size) : null;
+				}
+				else
+				{
+					return null;
+				}
+			}
+			catch (NumberFormatException exception)
+			{
+				return null;
+			}
+		}
+	}
+
+	// an object as it was received from the server, which is only decompressed when its data is first needed, so that this is done on the thread that uses it
+	public static final class ObjectData
+	{
+		private final byte[] receivedData;
+		private final boolean compressed;
+		private final int size;
+		private byte[] data = null;
+		private boolean failed = false;
+
+		private ObjectData(byte[] receivedData, boolean compressed, int size)
+		{
+			this.receivedData = receivedData;
+			this.compressed = compressed;
+			this.size = size;
+		}
+
+		public int getSize()
+		{
+			return this.size;
+		}
+
+		public boolean isCompressed()
+		{
+			return this.compressed;
+		}
+
+		// returns null if the object could not be decompressed
+		@Nullable
+		public synchronized byte[] getData()
+		{
+			if (this.data == null && !this.failed)
+			{
+				if (this.compressed)
+				{
+					this.data = inflate(this.receivedData, this.size);
+					this.failed = this.data == null;
+				}
+				else
+				{
+					this.data = this.receivedData;
+				}
+			}
+			return this.data;
+		}
+
+		// the object is decompressed as it is read from the stream, without holding all of it in memory, and the stream throws an exception if the object could not be decompressed
+		@NotNull
+		public synchronized InputStream getInputStream()
+		{
+			if (this.compressed && this.data == null)
+			{
+				return new InflaterInputStream(new ByteArrayInputStream(this.receivedData));
+			}
+			else
+			{
+				return new ByteArrayInputStream(this.data != null ? this.data : this.receivedData);
+			}
+		}
+
+		@Nullable
+		private static byte[] inflate(byte[] compressedData, int size)
+		{
+			Inflater inflater = new Inflater();
+			try
+			{
+				inflater.setInput(compressedData);
+				byte[] data = new byte[size];
+				int offset = 0;
+				while (offset < size)
+				{
+					int length = inflater.inflate(data, offset, size - offset);
+					if (length == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					{
+						return null;
+					}
+					offset += length;
+				}
+				// the data may be longer than the server said that it is
+				if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished()))
+				{
+					return null;
+				}
+				return data;
+			}
+			catch (DataFormatException exception)
+			{
+				return null;
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+	}
+
+	private record Completion(
+			@NotNull CompletableFuture completableFuture,
+			@Nullable Object result
+	)
+	{
+		public void complete()
+		{
+			this.completableFuture.complete(this.result);
+		}
+	}
+
+	private record StreamData(
+			@NotNull InputStream inputStream,
+			int length
+	)
+	{
+	}
+
 	private static class Command
 	{
 		public final Type type;
 		public final Object data;
+		@Nullable
+		public final OutputStream outputStream;
 		public final CompletableFuture completableFuture;
 
 		public enum Type
 		{
 			STORE,
 			GET,
+			COPY,
 			DELETE
 		}
 
 		public Command(Type type, Object data, CompletableFuture completableFuture)
+		{
+			this(type, data, null, completableFuture);
+		}
+
+		public Command(Type type, Object data, @Nullable OutputStream outputStream, CompletableFuture completableFuture)
 		{
 			this.type = type;
 			this.data = data;
+			this.outputStream = outputStream;
 			this.completableFuture = completableFuture;
 		}
+
+		// what the command's future completes with if the command could not be sent or the connection was closed before it was replied to
+		@Nullable
+		public Object getFailureResult()
+		{
+			return this.type == Type.DELETE || this.outputStream != null ? false : null;
+		}
 	}
 }
\ No newline at end of file
@@ -2,90 +2,877 @@ package micheal65536.vienna.objectstore.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+// objects are stored in <root>/<first two characters of id>/<id>
+// each object has a reference count, which is 1 unless there is a <id>.refs file, and deleting an object only removes it once the count reaches 0, so that the same object can be stored or copied more than once and each copy deleted separately
+// in content-addressed mode the ID is the SHA-256 hash of the object, so storing an object that is already stored only adds a reference to it
+// zip files can also be split at their entries, in which case the object is stored as a list of chunks in <id>.chunks and each chunk is stored in <root>/chunks, with its own reference count, so that entries that are the same in different objects are only stored once
+// other objects can be compressed, in which case they are stored in <id>.deflate as their uncompressed size followed by the zlib-compressed data
 public class DataStore
 {
+	private static final String CHUNKS_DIRECTORY = "chunks";
+	// smaller objects do not gain enough from compression to be worth it
+	private static final int MIN_COMPRESSED_SIZE = 1024;
+	private static final int COMPRESSED_HEADER_LENGTH = 8;
+
 	private final File rootDirectory;
+	private final boolean contentAddressed;
+	private final boolean splitZipFiles;
+	private final boolean compression;
 
 	public DataStore(@NotNull File rootDirectory) throws DataStoreException
 	{
+		this(rootDirectory, false, false, false);
+	}
+
+	public DataStore(@NotNull File rootDirectory, boolean contentAddressed, boolean splitZipFiles, boolean compression) throws DataStoreException
+	{
+		if (splitZipFiles && !contentAddressed)
+		{
+			throw new IllegalArgumentException();
+		}
+
 		this.rootDirectory = rootDirectory;
+		this.contentAddressed = contentAddressed;
+		this.splitZipFiles = splitZipFiles;
+		this.compression = compression;
 		if (!this.rootDirectory.isDirectory() || !this.rootDirectory.canRead())
 		{
 			throw new DataStoreException("Data root directory %s is not a directory or cannot be read".formatted(this.rootDirectory.getPath()));
 		}
 		LogManager.getLogger().info("Opened data store from {}", this.rootDirectory.getPath());
+		if (this.contentAddressed)
+		{
+			LogManager.getLogger().info("Data store is content-addressed{}", this.splitZipFiles ? " and splits zip files" : "");
+		}
+		if (this.compression)
+		{
+			LogManager.getLogger().info("Data store compresses new objects");
+		}
+
+		// left behind by objects that were being stored when the server stopped
+		File[] temporaryFiles = this.rootDirectory.listFiles((directory, name) -> name.endsWith(".tmp"));
+		if (temporaryFiles != null)
+		{
+			for (File temporaryFile : temporaryFiles)
+			{
+				temporaryFile.delete();
+			}
+		}
 	}
 
 	@NotNull
 	public String store(byte[] data) throws DataStoreException
 	{
-		String id = UUID.randomUUID().toString();
-
-		File file = new File(this.rootDirectory, id.substring(0, 2));
-		if (!file.isDirectory())
+		ObjectWriter objectWriter = this.startStore();
+		try
+		{
+			objectWriter.write(data, 0, data.length);
+		}
+		catch (DataStoreException exception)
 		{
-			file.mkdir();
+			objectWriter.abort();
+			throw exception;
 		}
-		file = new File(file, id);
+		return objectWriter.commit();
+	}
 
-		try (FileOutputStream fileOutputStream = new FileOutputStream(file))
+	// the data is written to a temporary file as it is received and the file is moved into place once it is complete, so a partially-stored object is never visible
+	@NotNull
+	public ObjectWriter startStore() throws DataStoreException
+	{
+		try
 		{
-			fileOutputStream.write(data);
+			Path temporaryPath = this.getTemporaryPath();
+			return new ObjectWriter(temporaryPath, FileChannel.open(temporaryPath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
 		}
 		catch (IOException exception)
 		{
-			file.delete();
 			throw new DataStoreException(exception);
 		}
+	}
+
+	public final class ObjectWriter
+	{
+		private final Path temporaryPath;
+		private final FileChannel fileChannel;
+		@Nullable
+		private final MessageDigest messageDigest;
+
+		private ObjectWriter(@NotNull Path temporaryPath, @NotNull FileChannel fileChannel)
+		{
+			this.temporaryPath = temporaryPath;
+			this.fileChannel = fileChannel;
+			this.messageDigest = DataStore.this.contentAddressed ? createMessageDigest() : null;
+		}
 
-		return id;
+		public void write(byte[] data, int offset, int length) throws DataStoreException
+		{
+			try
+			{
+				ByteBuffer byteBuffer = ByteBuffer.wrap(data, offset, length);
+				while (byteBuffer.hasRemaining())
+				{
+					this.fileChannel.write(byteBuffer);
+				}
+			}
+			catch (IOException exception)
+			{
+				throw new DataStoreException(exception);
+			}
+			if (this.messageDigest != null)
+			{
+				this.messageDigest.update(data, offset, length);
+			}
+		}
+
+		@NotNull
+		public String commit() throws DataStoreException
+		{
+			Path compressedPath = null;
+			try
+			{
+				String id = this.messageDigest != null ? HexFormat.of().formatHex(this.messageDigest.digest()) : UUID.randomUUID().toString();
+				// the chunks are found and hashed, and the data is compressed, before taking the lock, as they only depend on this object's data
+				List<Chunk> chunks = DataStore.this.splitZipFiles ? findChunks(this.fileChannel) : null;
+				if (chunks == null && DataStore.this.compression)
+				{
+					compressedPath = DataStore.this.compress(this.fileChannel);
+				}
+				synchronized (DataStore.this)
+				{
+					if (this.messageDigest != null && DataStore.this.addReference(id))
+					{
+						LogManager.getLogger().debug("Object {} is already stored", id);
+						this.abort();
+						return id;
+					}
+
+					if (chunks != null)
+					{
+						long newLength = 0;
+						StringBuilder manifest = new StringBuilder();
+						for (Chunk chunk : chunks)
+						{
+							Path chunkReferencesPath = DataStore.this.getChunkPath(chunk.id, ".refs");
+							if (Files.exists(DataStore.this.getChunkPath(chunk.id, "")))
+							{
+								DataStore.this.setReferenceCount(chunkReferencesPath, DataStore.this.getReferenceCount(chunkReferencesPath) + 1);
+							}
+							else
+							{
+								Path chunkTemporaryPath = DataStore.this.getTemporaryPath();
+								try (FileChannel chunkFileChannel = FileChannel.open(chunkTemporaryPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+								{
+									for (long position = 0; position < chunk.length; )
+									{
+										position += this.fileChannel.transferTo(chunk.offset + position, chunk.length - position, chunkFileChannel);
+									}
+								}
+								DataStore.this.moveIntoPlace(chunkTemporaryPath, DataStore.this.getChunkPath(chunk.id, ""));
+								newLength += chunk.length;
+							}
+							manifest.append(chunk.id).append('\n');
+						}
+						DataStore.this.writeFile(DataStore.this.getObjectPath(id, ".chunks"), manifest.toString().getBytes(StandardCharsets.US_ASCII));
+						LogManager.getLogger().debug("Stored object {} as {} chunks with {} of {} bytes not already stored", id, chunks.size(), newLength, this.fileChannel.size());
+						this.abort();
+					}
+					else if (compressedPath != null)
+					{
+						LogManager.getLogger().debug("Stored object {} compressed from {} to {} bytes", id, this.fileChannel.size(), Files.size(compressedPath) - COMPRESSED_HEADER_LENGTH);
+						DataStore.this.moveIntoPlace(compressedPath, DataStore.this.getObjectPath(id, ".deflate"));
+						compressedPath = null;
+						this.abort();
+					}
+					else
+					{
+						this.fileChannel.close();
+						DataStore.this.moveIntoPlace(this.temporaryPath, DataStore.this.getObjectPath(id, ""));
+					}
+				}
+				return id;
+			}
+			catch (IOException exception)
+			{
+				this.abort();
+				throw new DataStoreException(exception);
+			}
+			finally
+			{
+				if (compressedPath != null)
+				{
+					deleteTemporaryFile(compressedPath);
+				}
+			}
+		}
+
+		public void abort()
+		{
+			try
+			{
+				this.fileChannel.close();
+			}
+			catch (IOException exception)
+			{
+				// empty
+			}
+			deleteTemporaryFile(this.temporaryPath);
+		}
 	}
 
+	@Nullable
 	public byte[] load(@NotNull String id) throws DataStoreException
 	{
-		File file = new File(new File(this.rootDirectory, id.substring(0, 2)), id);
-		if (!file.exists())
+		ObjectReader objectReader = this.open(id);
+		if (objectReader == null)
 		{
 			return null;
 		}
+		try (objectReader)
+		{
+			return objectReader.readAllBytes();
+		}
+		catch (IOException exception)
+		{
+			throw new DataStoreException(exception);
+		}
+	}
 
-		ByteArrayOutputStream byteArrayOutputStream;
+	// the reader must be closed by the caller, the object can still be read from it if it is deleted in the meantime
+	@Nullable
+	public synchronized ObjectReader open(@NotNull String id) throws DataStoreException
+	{
+		LinkedList<FileChannel> fileChannels = new LinkedList<>();
 		try
 		{
-			byteArrayOutputStream = new ByteArrayOutputStream((int) Files.size(file.toPath()));
+			Path manifestPath = this.getObjectPath(id, ".chunks");
+			if (Files.exists(manifestPath))
+			{
+				for (String chunkId : Files.readAllLines(manifestPath, StandardCharsets.US_ASCII))
+				{
+					fileChannels.add(FileChannel.open(this.getChunkPath(chunkId, ""), StandardOpenOption.READ));
+				}
+			}
+			else
+			{
+				Path compressedPath = this.getObjectPath(id, ".deflate");
+				if (Files.exists(compressedPath))
+				{
+					FileChannel fileChannel = FileChannel.open(compressedPath, StandardOpenOption.READ);
+					fileChannels.add(fileChannel);
+					return new ObjectReader(fileChannel, readFully(fileChannel, 0, COMPRESSED_HEADER_LENGTH).getLong(0));
+				}
+				fileChannels.add(FileChannel.open(this.getObjectPath(id, ""), StandardOpenOption.READ));
+			}
+			return new ObjectReader(fileChannels.toArray(new FileChannel[0]));
+		}
+		catch (NoSuchFileException exception)
+		{
+			closeAll(fileChannels);
+			return null;
 		}
 		catch (IOException exception)
 		{
+			closeAll(fileChannels);
 			throw new DataStoreException(exception);
 		}
+	}
+
+	// reads an object from its files, or from a buffer if it is cached
+	// the object can be read either as it is stored, which is compressed for compressed objects, or uncompressed
+	public static final class ObjectReader implements AutoCloseable
+	{
+		private final FileChannel[] fileChannels;
+		// where the stored data starts in the files, which is after the header for compressed objects
+		private final long fileOffset;
+		@Nullable
+		private final ByteBuffer byteBuffer;
+		private final boolean compressed;
+		private final long size;
+		private final long storedSize;
+
+		private ObjectReader(@NotNull FileChannel[] fileChannels) throws IOException
+		{
+			this.fileChannels = fileChannels;
+			this.fileOffset = 0;
+			this.byteBuffer = null;
+			this.compressed = false;
+			long size = 0;
+			for (FileChannel fileChannel : fileChannels)
+			{
+				size += fileChannel.size();
+			}
+			this.size = size;
+			this.storedSize = size;
+		}
+
+		private ObjectReader(@NotNull FileChannel fileChannel, long size) throws IOException
+		{
+			this.fileChannels = new FileChannel[]{fileChannel};
+			this.fileOffset = COMPRESSED_HEADER_LENGTH;
+			this.byteBuffer = null;
+			this.compressed = true;
+			this.size = size;
+			this.storedSize = fileChannel.size() - COMPRESSED_HEADER_LENGTH;
+		}
+
+		ObjectReader(@NotNull ByteBuffer byteBuffer, boolean compressed, long size)
+		{
+			this.fileChannels = new FileChannel[0];
+			this.fileOffset = 0;
+			this.byteBuffer = byteBuffer;
+			this.compressed = compressed;
+			this.size = size;
+			this.storedSize = byteBuffer.remaining();
+		}
+
+		public long getSize()
+		{
+			return this.size;
+		}
+
+		public boolean isCompressed()
+		{
+			return this.compressed;
+		}
+
+		public long getStoredSize()
+		{
+			return this.storedSize;
+		}
 
-		try (FileInputStream fileInputStream = new FileInputStream(file))
+		public void transferTo(@NotNull WritableByteChannel channel) throws IOException
 		{
-			fileInputStream.transferTo(byteArrayOutputStream);
+			if (this.compressed)
+			{
+				this.inflate(channel, null);
+			}
+			else
+			{
+				this.transferStoredTo(channel);
+			}
+		}
+
+		// uses FileChannel.transferTo, so the data does not need to be copied into memory when it is sent to a socket
+		public void transferStoredTo(@NotNull WritableByteChannel channel) throws IOException
+		{
+			if (this.byteBuffer != null)
+			{
+				ByteBuffer byteBuffer = this.byteBuffer.duplicate();
+				while (byteBuffer.hasRemaining())
+				{
+					channel.write(byteBuffer);
+				}
+			}
+			for (FileChannel fileChannel : this.fileChannels)
+			{
+				long size = fileChannel.size();
+				for (long position = this.fileOffset; position < size; )
+				{
+					position += fileChannel.transferTo(position, size - position, channel);
+				}
+			}
+		}
+
+		public byte[] readAllBytes() throws IOException
+		{
+			if (this.size > Integer.MAX_VALUE)
+			{
+				throw new IOException("Object is too large to load");
+			}
+			ByteBuffer byteBuffer = ByteBuffer.allocate((int) this.size);
+			this.readInto(byteBuffer);
+			return byteBuffer.array();
+		}
+
+		// the buffer must have at least getSize() bytes remaining
+		public void readInto(@NotNull ByteBuffer byteBuffer) throws IOException
+		{
+			if (this.compressed)
+			{
+				this.inflate(null, byteBuffer);
+			}
+			else
+			{
+				this.readStoredInto(byteBuffer);
+			}
+		}
+
+		// the buffer must have at least getStoredSize() bytes remaining
+		public void readStoredInto(@NotNull ByteBuffer byteBuffer) throws IOException
+		{
+			if (this.byteBuffer != null)
+			{
+				byteBuffer.put(this.byteBuffer.duplicate());
+			}
+			for (FileChannel fileChannel : this.fileChannels)
+			{
+				for (long position = this.fileOffset; position < fileChannel.size(); )
+				{
+					int length = fileChannel.read(byteBuffer, position);
+					if (length == -1)
+					{
+						throw new IOException("Object file is shorter than expected");
+					}
+					position += length;
+				}
+			}
+		}
+
+		// writes the uncompressed data to either the channel or the buffer
+		private void inflate(@Nullable WritableByteChannel channel, @Nullable ByteBuffer byteBuffer) throws IOException
+		{
+			Inflater inflater = new Inflater();
+			try
+			{
+				ByteBuffer inputBuffer = null;
+				if (this.byteBuffer != null)
+				{
+					inflater.setInput(this.byteBuffer.duplicate());
+				}
+				else
+				{
+					inputBuffer = ByteBuffer.allocate(65536);
+				}
+				ByteBuffer outputBuffer = channel != null ? ByteBuffer.allocate(65536) : byteBuffer;
+				long position = this.fileOffset;
+				while (!inflater.finished())
+				{
+					if (inflater.needsInput())
+					{
+						if (inputBuffer == null)
+						{
+							throw new IOException("Compressed data is truncated");
+						}
+						inputBuffer.clear();
+						int length = this.fileChannels[0].read(inputBuffer, position);
+						if (length == -1)
+						{
+							throw new IOException("Compressed data is truncated");
+						}
+						position += length;
+						inflater.setInput(inputBuffer.flip());
+					}
+
+					if (channel != null)
+					{
+						outputBuffer.clear();
+					}
+					int length = inflater.inflate(outputBuffer);
+					if (length == 0 && !inflater.finished() && !inflater.needsInput())
+					{
+						throw new IOException("Compressed data is invalid or longer than expected");
+					}
+					if (channel != null)
+					{
+						outputBuffer.flip();
+						while (outputBuffer.hasRemaining())
+						{
+							channel.write(outputBuffer);
+						}
+					}
+				}
+				if (inflater.getBytesWritten() != this.size)
+				{
+					throw new IOException("Compressed data has the wrong size");
+				}
+			}
+			catch (DataFormatException exception)
+			{
+				throw new IOException(exception);
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			closeAll(Arrays.asList(this.fileChannels));
+		}
+	}
+
+	// adds a reference to an object that is already stored, so that it must be deleted one more time before it is removed, returns false if the object does not exist
+	public synchronized boolean addReference(@NotNull String id) throws DataStoreException
+	{
+		try
+		{
+			if (!Files.exists(this.getObjectPath(id, "")) && !Files.exists(this.getObjectPath(id, ".deflate")) && !Files.exists(this.getObjectPath(id, ".chunks")))
+			{
+				return false;
+			}
+			Path referencesPath = this.getObjectPath(id, ".refs");
+			this.setReferenceCount(referencesPath, this.getReferenceCount(referencesPath) + 1);
+			return true;
 		}
 		catch (IOException exception)
 		{
 			throw new DataStoreException(exception);
 		}
+	}
 
-		byte[] data = byteArrayOutputStream.toByteArray();
+	public synchronized void delete(@NotNull String id) throws DataStoreException
+	{
+		try
+		{
+			Path referencesPath = this.getObjectPath(id, ".refs");
+			int referenceCount = this.getReferenceCount(referencesPath);
+			if (referenceCount > 1)
+			{
+				this.setReferenceCount(referencesPath, referenceCount - 1);
+				return;
+			}
+			Files.deleteIfExists(referencesPath);
 
-		return data;
+			Path manifestPath = this.getObjectPath(id, ".chunks");
+			if (Files.exists(manifestPath))
+			{
+				for (String chunkId : Files.readAllLines(manifestPath, StandardCharsets.US_ASCII))
+				{
+					Path chunkReferencesPath = this.getChunkPath(chunkId, ".refs");
+					int chunkReferenceCount = this.getReferenceCount(chunkReferencesPath);
+					if (chunkReferenceCount > 1)
+					{
+						this.setReferenceCount(chunkReferencesPath, chunkReferenceCount - 1);
+					}
+					else
+					{
+						Files.deleteIfExists(chunkReferencesPath);
+						Files.deleteIfExists(this.getChunkPath(chunkId, ""));
+					}
+				}
+				Files.delete(manifestPath);
+			}
+			else
+			{
+				Files.deleteIfExists(this.getObjectPath(id, ""));
+				Files.deleteIfExists(this.getObjectPath(id, ".deflate"));
+			}
+		}
+		catch (IOException exception)
+		{
+			throw new DataStoreException(exception);
+		}
 	}
 
-	public void delete(@NotNull String id)
+	// returns a temporary file with the compressed object, or null if the object should not be compressed because it is small, is already compressed, or does not compress well
+	@Nullable
+	private Path compress(@NotNull FileChannel fileChannel) throws IOException
 	{
-		File file = new File(new File(this.rootDirectory, id.substring(0, 2)), id);
-		file.delete();
+		long size = fileChannel.size();
+		if (size < MIN_COMPRESSED_SIZE || isCompressedFormat(readFully(fileChannel, 0, 4)))
+		{
+			return null;
+		}
+
+		Path temporaryPath = this.getTemporaryPath();
+		boolean compressed = false;
+		Deflater deflater = new Deflater();
+		try (FileChannel compressedFileChannel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+		{
+			writeFully(compressedFileChannel, ByteBuffer.allocate(COMPRESSED_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN).putLong(0, size));
+
+			// not worth the time to decompress if it saves less than an eighth
+			long maxCompressedSize = size - size / 8;
+			long compressedSize = 0;
+			ByteBuffer inputBuffer = ByteBuffer.allocate(65536);
+			ByteBuffer outputBuffer = ByteBuffer.allocate(65536);
+			long position = 0;
+			while (!deflater.finished())
+			{
+				if (deflater.needsInput() && position < size)
+				{
+					inputBuffer.clear();
+					int length = fileChannel.read(inputBuffer, position);
+					if (length == -1)
+					{
+						throw new IOException("Unexpected end of file");
+					}
+					position += length;
+					deflater.setInput(inputBuffer.flip());
+					if (position == size)
+					{
+						deflater.finish();
+					}
+				}
+
+				deflater.deflate(outputBuffer.clear());
+				compressedSize += outputBuffer.flip().remaining();
+				if (compressedSize > maxCompressedSize)
+				{
+					return null;
+				}
+				writeFully(compressedFileChannel, outputBuffer);
+			}
+
+			compressed = true;
+			return temporaryPath;
+		}
+		finally
+		{
+			deflater.end();
+			if (!compressed)
+			{
+				deleteTemporaryFile(temporaryPath);
+			}
+		}
+	}
+
+	// zip, gzip, PNG and JPEG
+	private static boolean isCompressedFormat(@NotNull ByteBuffer header)
+	{
+		int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(0);
+		return magic == 0x504b0304 || magic == 0x504b0506 || (magic >>> 16) == 0x1f8b || magic == 0x89504e47 || (magic >>> 8) == 0xffd8ff;
+	}
+
+	private int getReferenceCount(@NotNull Path referencesPath) throws IOException
+	{
+		try
+		{
+			return Integer.parseInt(Files.readString(referencesPath, StandardCharsets.US_ASCII).trim());
+		}
+		catch (NoSuchFileException exception)
+		{
+			return 1;
+		}
+		catch (NumberFormatException exception)
+		{
+			throw new IOException("Invalid reference count in " + referencesPath, exception);
+		}
+	}
+
+	private void setReferenceCount(@NotNull Path referencesPath, int referenceCount) throws IOException
+	{
+		if (referenceCount == 1)
+		{
+			Files.deleteIfExists(referencesPath);
+		}
+		else
+		{
+			this.writeFile(referencesPath, Integer.toString(referenceCount).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private void writeFile(@NotNull Path path, byte[] data) throws IOException
+	{
+		Path temporaryPath = this.getTemporaryPath();
+		Files.write(temporaryPath, data, StandardOpenOption.CREATE_NEW);
+		this.moveIntoPlace(temporaryPath, path);
+	}
+
+	private void moveIntoPlace(@NotNull Path temporaryPath, @NotNull Path path) throws IOException
+	{
+		Files.createDirectories(path.getParent());
+		Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@NotNull
+	private Path getTemporaryPath()
+	{
+		return new File(this.rootDirectory, UUID.randomUUID() + ".tmp").toPath();
+	}
+
+	@NotNull
+	private Path getObjectPath(@NotNull String id, @NotNull String suffix)
+	{
+		return new File(new File(this.rootDirectory, id.substring(0, 2)), id + suffix).toPath();
+	}
+
+	@NotNull
+	private Path getChunkPath(@NotNull String id, @NotNull String suffix)
+	{
+		return new File(new File(new File(this.rootDirectory, CHUNKS_DIRECTORY), id.substring(0, 2)), id + suffix).toPath();
+	}
+
+	private record Chunk(
+			@NotNull String id,
+			long offset,
+			long length
+	)
+	{
+	}
+
+	// splits a zip file into one chunk for each entry, from the start of its local header to the start of the next entry, and one for the central directory, or returns null if the file is not a zip file or uses features that are not supported
+	// concatenating the chunks gives back exactly the same file, and an entry whose name, timestamps and data are unchanged gives the same chunk
+	@Nullable
+	private static List<Chunk> findChunks(@NotNull FileChannel fileChannel) throws IOException
+	{
+		long size = fileChannel.size();
+		if (size < 22)
+		{
+			return null;
+		}
+
+		// the end of central directory record is at the end of the file, followed only by a comment of up to 65535 bytes
+		int tailLength = (int) Math.min(size, 22 + 65535);
+		ByteBuffer tail = readFully(fileChannel, size - tailLength, tailLength);
+		int endRecordOffset = -1;
+		for (int offset = tailLength - 22; offset >= 0; offset--)
+		{
+			if (tail.getInt(offset) == 0x06054b50 && (tail.getShort(offset + 20) & 0xFFFF) == tailLength - offset - 22)
+			{
+				endRecordOffset = offset;
+				break;
+			}
+		}
+		if (endRecordOffset == -1)
+		{
+			return null;
+		}
+		int entryCount = tail.getShort(endRecordOffset + 10) & 0xFFFF;
+		long centralDirectorySize = tail.getInt(endRecordOffset + 12) & 0xFFFFFFFFL;
+		long centralDirectoryOffset = tail.getInt(endRecordOffset + 16) & 0xFFFFFFFFL;
+		if (tail.getShort(endRecordOffset + 4) != 0 || tail.getShort(endRecordOffset + 6) != 0 || (tail.getShort(endRecordOffset + 8) & 0xFFFF) != entryCount || entryCount == 0 || entryCount == 0xFFFF || centralDirectoryOffset + centralDirectorySize != size - tailLength + endRecordOffset)
+		{
+			return null;
+		}
+
+		ByteBuffer centralDirectory = readFully(fileChannel, centralDirectoryOffset, (int) centralDirectorySize);
+		long[] boundaries = new long[entryCount + 2];
+		int offset = 0;
+		for (int index = 0; index < entryCount; index++)
+		{
+			if (offset + 46 > centralDirectory.limit() || centralDirectory.getInt(offset) != 0x02014b50)
+			{
+				return null;
+			}
+			long localHeaderOffset = centralDirectory.getInt(offset + 42) & 0xFFFFFFFFL;
+			if (localHeaderOffset >= centralDirectoryOffset)
+			{
+				return null;
+			}
+			boundaries[index] = localHeaderOffset;
+			offset += 46 + (centralDirectory.getShort(offset + 28) & 0xFFFF) + (centralDirectory.getShort(offset + 30) & 0xFFFF) + (centralDirectory.getShort(offset + 32) & 0xFFFF);
+		}
+		boundaries[entryCount] = centralDirectoryOffset;
+		boundaries[entryCount + 1] = size;
+		Arrays.sort(boundaries);
+		if (boundaries[0] != 0)
+		{
+			return null;
+		}
+
+		ArrayList<Chunk> chunks = new ArrayList<>();
+		for (int index = 0; index < boundaries.length - 1; index++)
+		{
+			long length = boundaries[index + 1] - boundaries[index];
+			if (length == 0)
+			{
+				// entries that share a local header, which should not happen
+				return null;
+			}
+			chunks.add(new Chunk(hash(fileChannel, boundaries[index], length), boundaries[index], length));
+		}
+		return chunks;
+	}
+
+	@NotNull
+	private static ByteBuffer readFully(@NotNull FileChannel fileChannel, long position, int length) throws IOException
+	{
+		ByteBuffer byteBuffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (byteBuffer.hasRemaining())
+		{
+			if (fileChannel.read(byteBuffer, position + byteBuffer.position()) == -1)
+			{
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		return byteBuffer.flip();
+	}
+
+	private static void writeFully(@NotNull FileChannel fileChannel, @NotNull ByteBuffer byteBuffer) throws IOException
+	{
+		while (byteBuffer.hasRemaining())
+		{
+			fileChannel.write(byteBuffer);
+		}
+	}
+
+	@NotNull
+	private static String hash(@NotNull FileChannel fileChannel, long position, long length) throws IOException
+	{
+		MessageDigest messageDigest = createMessageDigest();
+		ByteBuffer byteBuffer = ByteBuffer.allocate(65536);
+		for (long end = position + length; position < end; )
+		{
+			byteBuffer.clear().limit((int) Math.min(byteBuffer.capacity(), end - position));
+			int readLength = fileChannel.read(byteBuffer, position);
+			if (readLength == -1)
+			{
+				throw new IOException("Unexpected end of file");
+			}
+			messageDigest.update(byteBuffer.flip());
+			position += readLength;
+		}
+		return HexFormat.of().formatHex(messageDigest.digest());
+	}
+
+	@NotNull
+	private static MessageDigest createMessageDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new AssertionError(exception);
+		}
+	}
+
+	private static void deleteTemporaryFile(@NotNull Path temporaryPath)
+	{
+		try
+		{
+			Files.deleteIfExists(temporaryPath);
+		}
+		catch (IOException exception)
+		{
+			LogManager.getLogger().warn("Could not delete temporary file {}", temporaryPath, exception);
+		}
+	}
+
+	private static void closeAll(@NotNull List<FileChannel> fileChannels)
+	{
+		for (FileChannel fileChannel : fileChannels)
+		{
+			try
+			{
+				fileChannel.close();
+			}
+			catch (IOException exception)
+			{
+				// empty
+			}
+		}
 	}
 
 	public static final class DataStoreException extends Exception
@@ -100,4 +887,4 @@ public class DataStore
 			super(cause);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -11,6 +11,9 @@ import org.apache.logging.log4j.core.config.Configurator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Main
 {
@@ -33,14 +36,52 @@ public class Main
 				.type(Number.class)
 				.desc("Port to listen on, defaults to 5396")
 				.build());
+		options.addOption(Option.builder()
+				.option("dedup")
+				.desc("Identify new objects by the hash of their data, so that identical objects are only stored once")
+				.build());
+		options.addOption(Option.builder()
+				.option("dedupZipEntries")
+				.desc("As with -dedup, and also store the entries of new zip files separately, so that entries that are the same in different objects are only stored once")
+				.build());
+		options.addOption(Option.builder()
+				.option("compression")
+				.hasArg()
+				.argName("codec")
+				.desc("Codec to compress new objects with when they are large enough and compress well, deflate or none, defaults to deflate")
+				.build());
+		options.addOption(Option.builder()
+				.option("cacheSize")
+				.hasArg()
+				.argName("megabytes")
+				.type(Number.class)
+				.desc("Size of the in-memory cache of recently-requested objects, which must fit within the JVM's direct memory limit, or 0 to not cache objects, defaults to 128")
+				.build());
+		options.addOption(Option.builder()
+				.option("statsInterval")
+				.hasArg()
+				.argName("milliseconds")
+				.type(Number.class)
+				.desc("How often to write the cache's stats to the log, or 0 to not log them, defaults to 60000")
+				.build());
 		CommandLine commandLine;
 		String dataDir;
 		int port;
+		boolean dedup;
+		boolean dedupZipEntries;
+		String compression;
+		long cacheSize;
+		long statsInterval;
 		try
 		{
 			commandLine = new DefaultParser().parse(options, args);
 			dataDir = commandLine.getOptionValue("dataDir");
 			port = commandLine.hasOption("port") ? (int) (long) commandLine.getParsedOptionValue("port") : 5396;
+			dedupZipEntries = commandLine.hasOption("dedupZipEntries");
+			dedup = dedupZipEntries || commandLine.hasOption("dedup");
+			compression = commandLine.hasOption("compression") ? commandLine.getOptionValue("compression") : "deflate";
+			cacheSize = commandLine.hasOption("cacheSize") ? (long) commandLine.getParsedOptionValue("cacheSize") : 128;
+			statsInterval = commandLine.hasOption("statsInterval") ? (long) commandLine.getParsedOptionValue("statsInterval") : 60 * 1000;
 		}
 		catch (ParseException exception)
 		{
@@ -49,10 +90,31 @@ public class Main
 			return;
 		}
 
-		NetworkServer server;
+		if (!compression.equals("deflate") && !compression.equals("none"))
+		{
+			LogManager.getLogger().fatal("Unknown compression codec {}", compression);
+			System.exit(1);
+			return;
+		}
+		if (cacheSize < 0)
+		{
+			LogManager.getLogger().fatal("Cache size cannot be negative");
+			System.exit(1);
+			return;
+		}
+		if (statsInterval < 0)
+		{
+			LogManager.getLogger().fatal("Stats interval cannot be negative");
+			System.exit(1);
+			return;
+		}
+
+		Server server;
+		NetworkServer networkServer;
 		try
 		{
-			server = new NetworkServer(new Server(new DataStore(new File(dataDir))), port);
+			server = new Server(new DataStore(new File(dataDir), dedup, dedupZipEntries, compression.equals("deflate")), cacheSize > 0 ? new ObjectCache(cacheSize * 1024 * 1024) : null);
+			networkServer = new NetworkServer(server, port);
 		}
 		catch (IOException | DataStore.DataStoreException exception)
 		{
@@ -60,6 +122,18 @@ public class Main
 			System.exit(1);
 			return;
 		}
-		server.run();
+
+		if (cacheSize > 0 && statsInterval > 0)
+		{
+			ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+			{
+				Thread thread = new Thread(runnable, "Object cache stats");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleAtFixedRate(server::logCacheStats, statsInterval, statsInterval, TimeUnit.MILLISECONDS);
+		}
+
+		networkServer.run();
 	}
 }
\ No newline at end of file
@@ -2,24 +2,43 @@ package micheal65536.vienna.objectstore.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class NetworkServer
 {
+	// the most tagged commands from one connection that are handled at once, after which the connection is not read from until one of them finishes
+	private static final int MAX_CONCURRENT_COMMANDS = 16;
+
 	private final Server server;
-	private final ServerSocket serverSocket;
+	// the connections use channels so that objects can be sent straight from their files to the socket with FileChannel.transferTo
+	private final ServerSocketChannel serverSocketChannel;
+	private final ExecutorService commandExecutor;
 
 	public NetworkServer(@NotNull Server server, int port) throws IOException
 	{
 		this.server = server;
-		this.serverSocket = new ServerSocket(port);
+		this.serverSocketChannel = ServerSocketChannel.open();
+		this.serverSocketChannel.bind(new InetSocketAddress(port));
+		this.commandExecutor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Object store commands");
+			thread.setDaemon(true);
+			return thread;
+		});
 		LogManager.getLogger().info("Created server on port {}", port);
 	}
 
@@ -29,9 +48,11 @@ public class NetworkServer
 		{
 			try
 			{
-				Socket socket = this.serverSocket.accept();
-				LogManager.getLogger().info("Connection from {}", socket.getInetAddress());
-				Connection connection = new Connection(socket);
+				SocketChannel socketChannel = this.serverSocketChannel.accept();
+				LogManager.getLogger().info("Connection from {}", socketChannel.socket().getInetAddress());
+				// each reply is written in one go, so waiting for more data before sending only adds latency
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Connection connection = new Connection(socketChannel);
 				new Thread(connection::run).start();
 			}
 			catch (IOException exception)
@@ -43,18 +64,26 @@ public class NetworkServer
 
 	private final class Connection
 	{
-		private final Socket socket;
-		private final OutputStream outputStream;
+		private final SocketChannel socketChannel;
+		// replies to tagged commands are sent from the command threads
+		private final ReentrantLock sendLock = new ReentrantLock(true);
+		private final Semaphore concurrentCommands = new Semaphore(MAX_CONCURRENT_COMMANDS);
+
+		// whether the client can receive objects compressed
+		private boolean compression = false;
+
+		// the object that is being received, which is written to the data store as it arrives instead of being held in memory, or null if it could not be stored and the rest of its data is being discarded
+		@Nullable
+		private DataStore.ObjectWriter objectWriter = null;
 
-		public Connection(@NotNull Socket socket) throws IOException
+		public Connection(@NotNull SocketChannel socketChannel)
 		{
-			this.socket = socket;
-			this.outputStream = this.socket.getOutputStream();
+			this.socketChannel = socketChannel;
 		}
 
 		public void run()
 		{
-			try (InputStream inputStream = this.socket.getInputStream())
+			try (InputStream inputStream = this.socketChannel.socket().getInputStream())
 			{
 				byte[] readBuffer = new byte[65536];
 				ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(128);
@@ -71,24 +100,18 @@ public class NetworkServer
 						{
 							if (binaryReadLength > 0)
 							{
-								if (startOffset + binaryReadLength > readLength)
-								{
-									byteArrayOutputStream.write(readBuffer, startOffset, readLength - startOffset);
-									binaryReadLength -= readLength - startOffset;
-									startOffset += readLength - startOffset;
-								}
-								else
+								int length = Math.min(binaryReadLength, readLength - startOffset);
+								this.receiveBinaryData(readBuffer, startOffset, length);
+								binaryReadLength -= length;
+								startOffset += length;
+								if (binaryReadLength == 0)
 								{
-									byteArrayOutputStream.write(readBuffer, startOffset, binaryReadLength);
-									if (!this.handleBinaryData(lastCommand, byteArrayOutputStream.toByteArray()))
+									if (!this.handleBinaryData(lastCommand))
 									{
 										close = true;
 										break;
 									}
 									lastCommand = null;
-									byteArrayOutputStream = new ByteArrayOutputStream(128);
-									startOffset += binaryReadLength;
-									binaryReadLength = 0;
 								}
 							}
 							else
@@ -132,80 +155,140 @@ public class NetworkServer
 			{
 				LogManager.getLogger().warn("Exception while reading socket", exception);
 			}
+			if (this.objectWriter != null)
+			{
+				this.objectWriter.abort();
+				this.objectWriter = null;
+			}
 			LogManager.getLogger().info("Connection closed");
 		}
 
-		private void sendMessage(@NotNull String message)
+		private void receiveBinaryData(byte[] data, int offset, int length)
 		{
+			if (this.objectWriter != null)
+			{
+				try
+				{
+					this.objectWriter.write(data, offset, length);
+				}
+				catch (DataStore.DataStoreException exception)
+				{
+					LogManager.getLogger().error("Could not store object", exception);
+					this.objectWriter.abort();
+					this.objectWriter = null;
+				}
+			}
+		}
+
+		private void sendReply(@Nullable String tag, @NotNull String message)
+		{
+			this.sendReply(tag, message, null, false);
+		}
+
+		// the reply and the object are written together, so that replies from different threads are not mixed up
+		private void sendReply(@Nullable String tag, @NotNull String message, @Nullable DataStore.ObjectReader objectReader, boolean compressed)
+		{
+			ByteBuffer messageBuffer = ByteBuffer.wrap(((tag != null ? tag + " " : "") + message + "\n").getBytes(StandardCharsets.US_ASCII));
+
+			this.sendLock.lock();
 			try
 			{
-				this.socket.getOutputStream().write(message.getBytes(StandardCharsets.US_ASCII));
-				this.socket.getOutputStream().write('\n');
+				while (messageBuffer.hasRemaining())
+				{
+					this.socketChannel.write(messageBuffer);
+				}
+				if (objectReader != null)
+				{
+					if (compressed)
+					{
+						objectReader.transferStoredTo(this.socketChannel);
+					}
+					else
+					{
+						objectReader.transferTo(this.socketChannel);
+					}
+				}
 			}
 			catch (IOException exception)
 			{
 				LogManager.getLogger().warn("Exception while sending", exception);
 				try
 				{
-					this.socket.close();
+					this.socketChannel.close();
 				}
 				catch (IOException exception1)
 				{
 					LogManager.getLogger().warn("Exception while closing socket", exception1);
 				}
 			}
+			finally
+			{
+				this.sendLock.unlock();
+			}
 		}
 
-		private void sendData(byte[] data)
+		// untagged commands are handled one at a time on the connection's thread, so their replies are in the same order as the commands
+		// tagged commands are handled on the command threads and may be replied to in any order
+		private void execute(@Nullable String tag, @NotNull Runnable runnable)
 		{
-			try
+			if (tag == null)
 			{
-				this.socket.getOutputStream().write(data);
+				runnable.run();
+				return;
 			}
-			catch (IOException exception)
+
+			this.concurrentCommands.acquireUninterruptibly();
+			NetworkServer.this.commandExecutor.execute(() ->
 			{
-				LogManager.getLogger().warn("Exception while sending", exception);
 				try
 				{
-					this.socket.close();
+					runnable.run();
 				}
-				catch (IOException exception1)
+				finally
 				{
-					LogManager.getLogger().warn("Exception while closing socket", exception1);
+					this.concurrentCommands.release();
 				}
-			}
+			});
 		}
 
 		private int handleCommand(@NotNull String command)
 		{
-			String[] parts = command.split(" ", 2);
-			if (parts.length != 2)
+			// clients send this to find out whether the server understands tagged commands, older servers close the connection
+			if (command.equals("TAGS"))
+			{
+				this.sendReply(null, "OK");
+				return 0;
+			}
+			// clients that can decompress objects send this instead, and compressed objects are then sent to them as they are stored with "OK <compressed length> DEFLATE <length>"
+			if (command.equals("TAGS DEFLATE"))
+			{
+				this.compression = true;
+				this.sendReply(null, "OK DEFLATE");
+				return 0;
+			}
+
+			Command parsedCommand = Command.parse(command);
+			if (parsedCommand == null)
 			{
 				return -1;
 			}
+			String tag = parsedCommand.tag;
 
-			switch (parts[0])
+			switch (parsedCommand.name)
 			{
 				case "STORE" ->
 				{
 					try
 					{
-						int length = Integer.parseInt(parts[1]);
+						int length = Integer.parseInt(parsedCommand.argument);
 						if (length < 0)
 						{
 							return -1;
 						}
+						this.objectWriter = NetworkServer.this.server.startStore();
 						if (length == 0)
 						{
-							String id = NetworkServer.this.server.store(new byte[0]);
-							if (id != null)
-							{
-								this.sendMessage("OK " + id);
-							}
-							else
-							{
-								this.sendMessage("ERR");
-							}
+							this.handleBinaryData(command);
 							return 0;
 						}
 						else
@@ -220,38 +303,74 @@ public class NetworkServer
 				}
 				case "GET" ->
 				{
-					String id = parts[1];
+					String id = parsedCommand.argument;
 					if (!validateObjectId(id))
 					{
 						return -1;
 					}
-					byte[] data = NetworkServer.this.server.load(id);
-					if (data != null)
+					this.execute(tag, () ->
 					{
-						this.sendMessage("OK " + Integer.toString(data.length));
-						this.sendData(data);
-					}
-					else
+						DataStore.ObjectReader objectReader = NetworkServer.this.server.open(id);
+						if (objectReader != null)
+						{
+							try (objectReader)
+							{
+								if (this.compression && objectReader.isCompressed())
+								{
+									this.sendReply(tag, "OK " + Long.toString(objectReader.getStoredSize()) + " DEFLATE " + Long.toString(objectReader.getSize()), objectReader, true);
+								}
+								else
+								{
+									this.sendReply(tag, "OK " + Long.toString(objectReader.getSize()), objectReader, false);
+								}
+							}
+						}
+						else
+						{
+							this.sendReply(tag, "ERR");
+						}
+					});
+					return 0;
+				}
+				case "COPY" ->
+				{
+					String id = parsedCommand.argument;
+					if (!validateObjectId(id))
 					{
-						this.sendMessage("ERR");
+						return -1;
 					}
+					this.execute(tag, () ->
+					{
+						String copyId = NetworkServer.this.server.copy(id);
+						if (copyId != null)
+						{
+							this.sendReply(tag, "OK " + copyId);
+						}
+						else
+						{
+							this.sendReply(tag, "ERR");
+						}
+					});
 					return 0;
 				}
 				case "DEL" ->
 				{
-					String id = parts[1];
+					String id = parsedCommand.argument;
 					if (!validateObjectId(id))
 					{
 						return -1;
 					}
-					if (NetworkServer.this.server.delete(id))
-					{
-						this.sendMessage("OK");
-					}
-					else
+					this.execute(tag, () ->
 					{
-						this.sendMessage("ERR");
-					}
+						if (NetworkServer.this.server.delete(id))
+						{
+							this.sendReply(tag, "OK");
+						}
+						else
+						{
+							this.sendReply(tag, "ERR");
+						}
+					});
 					return 0;
 				}
 				default ->
@@ -261,27 +380,32 @@ public class NetworkServer
 			}
 		}
 
-		private boolean handleBinaryData(@NotNull String command, byte[] data)
+		private boolean handleBinaryData(@NotNull String command)
 		{
-			String[] parts = command.split(" ", 2);
-			if (parts.length != 2)
+			Command parsedCommand = Command.parse(command);
+			if (parsedCommand == null)
 			{
 				throw new AssertionError();
 			}
 
-			switch (parts[0])
+			switch (parsedCommand.name)
 			{
 				case "STORE" ->
 				{
-					String id = NetworkServer.this.server.store(data);
-					if (id != null)
+					DataStore.ObjectWriter objectWriter = this.objectWriter;
+					this.objectWriter = null;
+					this.execute(parsedCommand.tag, () ->
 					{
-						this.sendMessage("OK " + id);
-					}
-					else
-					{
-						this.sendMessage("ERR");
-					}
+						String id = objectWriter != null ? NetworkServer.this.server.finishStore(objectWriter) : null;
+						if (id != null)
+						{
+							this.sendReply(parsedCommand.tag, "OK " + id);
+						}
+						else
+						{
+							this.sendReply(parsedCommand.tag, "ERR");
+						}
+					});
 					return true;
 				}
 				default ->
@@ -292,9 +416,36 @@ public class NetworkServer
 		}
 	}
 
+	// "<name> <argument>", optionally preceded by a tag of up to 9 digits that the client chooses and that is sent back at the start of the reply
+	private record Command(
+			@Nullable String tag,
+			@NotNull String name,
+			@NotNull String argument
+	)
+	{
+		@Nullable
+		public static Command parse(@NotNull String command)
+		{
+			String[] parts = command.split(" ", 3);
+			if (parts.length == 3 && parts[0].matches("^[0-9]{1,9}$"))
+			{
+				return new Command(parts[0], parts[1], parts[2]);
+			}
+			else if (parts.length == 2 && !parts[0].matches("^[0-9]+$"))
+			{
+				return new Command(null, parts[0], parts[1]);
+			}
+			else
+			{
+				return null;
+			}
+		}
+	}
+
 	private static boolean validateObjectId(String id)
 	{
-		if (!id.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$"))
+		// objects stored in content-addressed mode are identified by their SHA-256 hash instead of a UUID
+		if (!id.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$") && !id.matches("^[0-9a-f]{64}$"))
 		{
 			return false;
 		}
@@ -0,0 +1,228 @@
+package micheal65536.vienna.objectstore.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+// keeps recently-used objects in direct buffers, so that they are outside of the heap, up to a total size in bytes, compressed objects are kept compressed
+// the least recently used objects are evicted to make room for new ones, but only if the new object has been requested more often than each of the objects that it would replace (TinyLFU), so that objects that are only requested once do not push out frequently-requested ones
+public final class ObjectCache
+{
+	private final long capacity;
+	private final long maxObjectSize;
+
+	// in access order, so the first entry is the least recently used
+	private final LinkedHashMap<String, CachedObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final FrequencySketch frequencySketch = new FrequencySketch();
+	private long size = 0;
+	private long invalidations = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long bytesFromCache = 0;
+	private long bytesFromDisk = 0;
+	private long evictions = 0;
+	private long rejections = 0;
+
+	// objects larger than a quarter of the capacity are never cached, as they would evict too much
+	public ObjectCache(long capacity)
+	{
+		if (capacity <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.capacity = capacity;
+		this.maxObjectSize = capacity / 4;
+	}
+
+	// the returned buffer must not be modified, and is still valid after the object is evicted
+	@Nullable
+	public synchronized CachedObject get(@NotNull String id)
+	{
+		this.frequencySketch.increment(id);
+		CachedObject cachedObject = this.entries.get(id);
+		if (cachedObject != null)
+		{
+			this.hits++;
+			this.bytesFromCache += cachedObject.data.capacity();
+			return new CachedObject(cachedObject.data.duplicate(), cachedObject.compressed, cachedObject.size);
+		}
+		else
+		{
+			this.misses++;
+			return null;
+		}
+	}
+
+	// called after get returns null and the object has been loaded from disk, returns whether it is worth reading the object into memory to add it to the cache
+	public synchronized boolean shouldAdd(@NotNull String id, long size)
+	{
+		this.bytesFromDisk += size;
+		if (size > this.maxObjectSize)
+		{
+			return false;
+		}
+		if (this.size + size <= this.capacity)
+		{
+			return true;
+		}
+		if (this.findVictims(id, size) == null)
+		{
+			this.rejections++;
+			return false;
+		}
+		return true;
+	}
+
+	// the invalidation count is taken before the object was loaded from disk, and the object is not added if it may have been deleted since then
+	public synchronized void add(@NotNull String id, @NotNull CachedObject cachedObject, long invalidationCount)
+	{
+		if (invalidationCount != this.invalidations || this.entries.containsKey(id))
+		{
+			return;
+		}
+		long size = cachedObject.data.capacity();
+		if (this.size + size > this.capacity)
+		{
+			// other objects may have been added while this one was being loaded
+			LinkedList<String> victims = this.findVictims(id, size);
+			if (victims == null)
+			{
+				this.rejections++;
+				return;
+			}
+			for (String victim : victims)
+			{
+				this.size -= this.entries.remove(victim).data.capacity();
+				this.evictions++;
+			}
+		}
+		this.entries.put(id, cachedObject);
+		this.size += size;
+	}
+
+	public synchronized void invalidate(@NotNull String id)
+	{
+		this.invalidations++;
+		CachedObject cachedObject = this.entries.remove(id);
+		if (cachedObject != null)
+		{
+			this.size -= cachedObject.data.capacity();
+		}
+	}
+
+	public synchronized long getInvalidationCount()
+	{
+		return this.invalidations;
+	}
+
+	@NotNull
+	public synchronized Stats getStats()
+	{
+		return new Stats(this.entries.size(), this.size, this.capacity, this.hits, this.misses, this.bytesFromCache, this.bytesFromDisk, this.evictions, this.rejections);
+	}
+
+	// the least recently used objects that would need to be evicted to make room for the new object, or null if the new object should not replace them
+	@Nullable
+	private LinkedList<String> findVictims(@NotNull String id, long size)
+	{
+		int frequency = this.frequencySketch.getFrequency(id);
+		LinkedList<String> victims = new LinkedList<>();
+		long freedSize = 0;
+		Iterator<Map.Entry<String, CachedObject>> iterator = this.entries.entrySet().iterator();
+		while (this.size - freedSize + size > this.capacity)
+		{
+			Map.Entry<String, CachedObject> entry = iterator.next();
+			if (this.frequencySketch.getFrequency(entry.getKey()) >= frequency)
+			{
+				return null;
+			}
+			victims.add(entry.getKey());
+			freedSize += entry.getValue().data.capacity();
+		}
+		return victims;
+	}
+
+	// the data is as the object is stored, and size is the uncompressed size
+	public record CachedObject(
+			@NotNull ByteBuffer data,
+			boolean compressed,
+			long size
+	)
+	{
+	}
+
+	// hits / (hits + misses) is the hit ratio, and the byte counts are the stored sizes of the objects that were served from the cache and from disk
+	public record Stats(
+			int entries,
+			long size,
+			long capacity,
+			long hits,
+			long misses,
+			long bytesFromCache,
+			long bytesFromDisk,
+			long evictions,
+			long rejections
+	)
+	{
+	}
+
+	// approximate counts of how often each object has been requested recently, as a count-min sketch of 4 rows of counters that are halved periodically so that old requests count for less
+	private static final class FrequencySketch
+	{
+		private static final int WIDTH_BITS = 14;
+		private static final int WIDTH = 1 << WIDTH_BITS;
+		private static final int MAX_COUNT = 15;
+		private static final int RESET_INTERVAL = WIDTH * 10;
+		private static final long[] SEEDS = new long[]{0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L};
+
+		private final byte[][] counters = new byte[SEEDS.length][WIDTH];
+		private int additions = 0;
+
+		public void increment(@NotNull String id)
+		{
+			int hash = id.hashCode();
+			for (int row = 0; row < SEEDS.length; row++)
+			{
+				int index = getIndex(hash, row);
+				if (this.counters[row][index] < MAX_COUNT)
+				{
+					this.counters[row][index]++;
+				}
+			}
+
+			if (++this.additions == RESET_INTERVAL)
+			{
+				for (byte[] row : this.counters)
+				{
+					for (int index = 0; index < row.length; index++)
+					{
+						row[index] >>= 1;
+					}
+				}
+				this.additions = 0;
+			}
+		}
+
+		public int getFrequency(@NotNull String id)
+		{
+			int hash = id.hashCode();
+			int frequency = MAX_COUNT;
+			for (int row = 0; row < SEEDS.length; row++)
+			{
+				frequency = Math.min(frequency, this.counters[row][getIndex(hash, row)]);
+			}
+			return frequency;
+		}
+
+		private static int getIndex(int hash, int row)
+		{
+			return (int) (((hash & 0xFFFFFFFFL) + SEEDS[row]) * SEEDS[row] >>> (64 - WIDTH_BITS));
+		}
+	}
+}
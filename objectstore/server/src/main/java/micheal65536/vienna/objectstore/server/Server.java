@@ -4,13 +4,24 @@ import org.apache.logging.log4j.LogManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public class Server
 {
 	private final DataStore dataStore;
+	@Nullable
+	private final ObjectCache objectCache;
 
 	public Server(@NotNull DataStore dataStore)
+	{
+		this(dataStore, null);
+	}
+
+	public Server(@NotNull DataStore dataStore, @Nullable ObjectCache objectCache)
 	{
 		this.dataStore = dataStore;
+		this.objectCache = objectCache;
 	}
 
 	@Nullable
@@ -29,6 +40,38 @@ public class Server
 		}
 	}
 
+	// the data is then written to the returned writer and passed to finishStore, or null is returned if the object cannot be stored
+	@Nullable
+	public DataStore.ObjectWriter startStore()
+	{
+		try
+		{
+			return this.dataStore.startStore();
+		}
+		catch (DataStore.DataStoreException exception)
+		{
+			LogManager.getLogger().error("Could not store object", exception);
+			return null;
+		}
+	}
+
+	@Nullable
+	public String finishStore(@NotNull DataStore.ObjectWriter objectWriter)
+	{
+		try
+		{
+			String id = objectWriter.commit();
+			LogManager.getLogger().info("Stored new object {}", id);
+			return id;
+		}
+		catch (DataStore.DataStoreException exception)
+		{
+			LogManager.getLogger().error("Could not store object", exception);
+			return null;
+		}
+	}
+
+	@Nullable
 	public byte[] load(@NotNull String id)
 	{
 		LogManager.getLogger().info("Request for object {}", id);
@@ -48,10 +91,126 @@ public class Server
 		}
 	}
 
+	// as with load, but the object is read from the returned reader instead of being read into memory, the caller must close the reader
+	@Nullable
+	public DataStore.ObjectReader open(@NotNull String id)
+	{
+		LogManager.getLogger().info("Request for object {}", id);
+
+		long invalidationCount = 0;
+		if (this.objectCache != null)
+		{
+			invalidationCount = this.objectCache.getInvalidationCount();
+			ObjectCache.CachedObject cachedObject = this.objectCache.get(id);
+			if (cachedObject != null)
+			{
+				return new DataStore.ObjectReader(cachedObject.data(), cachedObject.compressed(), cachedObject.size());
+			}
+		}
+
+		try
+		{
+			DataStore.ObjectReader objectReader = this.dataStore.open(id);
+			if (objectReader == null)
+			{
+				LogManager.getLogger().info("Requested object {} does not exist", id);
+				return null;
+			}
+
+			if (this.objectCache != null && this.objectCache.shouldAdd(id, objectReader.getStoredSize()))
+			{
+				ByteBuffer byteBuffer;
+				try
+				{
+					byteBuffer = ByteBuffer.allocateDirect((int) objectReader.getStoredSize());
+				}
+				catch (OutOfMemoryError error)
+				{
+					// the cache is bigger than the JVM's direct memory limit
+					LogManager.getLogger().warn("Could not allocate memory to cache object {}", id);
+					return objectReader;
+				}
+				try (objectReader)
+				{
+					objectReader.readStoredInto(byteBuffer);
+				}
+				catch (IOException exception)
+				{
+					LogManager.getLogger().error("Could not load object {}", id, exception);
+					return null;
+				}
+				byteBuffer.flip();
+				this.objectCache.add(id, new ObjectCache.CachedObject(byteBuffer, objectReader.isCompressed(), objectReader.getSize()), invalidationCount);
+				return new DataStore.ObjectReader(byteBuffer, objectReader.isCompressed(), objectReader.getSize());
+			}
+
+			return objectReader;
+		}
+		catch (DataStore.DataStoreException exception)
+		{
+			LogManager.getLogger().error("Could not load object {}", id, exception);
+			return null;
+		}
+	}
+
+	// the copy may have the same ID as the original, and must be deleted separately
+	@Nullable
+	public String copy(@NotNull String id)
+	{
+		LogManager.getLogger().info("Request to copy object {}", id);
+		try
+		{
+			if (!this.dataStore.addReference(id))
+			{
+				LogManager.getLogger().info("Requested object {} does not exist", id);
+				return null;
+			}
+			return id;
+		}
+		catch (DataStore.DataStoreException exception)
+		{
+			LogManager.getLogger().error("Could not copy object {}", id, exception);
+			return null;
+		}
+	}
+
 	public boolean delete(@NotNull String id)
 	{
 		LogManager.getLogger().info("Request to delete object {}", id);
-		this.dataStore.delete(id);
-		return true;
+		if (this.objectCache != null)
+		{
+			this.objectCache.invalidate(id);
+		}
+		try
+		{
+			this.dataStore.delete(id);
+			return true;
+		}
+		catch (DataStore.DataStoreException exception)
+		{
+			LogManager.getLogger().error("Could not delete object {}", id, exception);
+			return false;
+		}
+	}
+
+	public void logCacheStats()
+	{
+		if (this.objectCache == null)
+		{
+			return;
+		}
+		ObjectCache.Stats stats = this.objectCache.getStats();
+		LogManager.getLogger().info("Object cache entries {} size {}/{} hits {} misses {} hitRatio {} bytesFromCache {} bytesFromDisk {} evictions {} rejected {}",
+				stats.entries(),
+				stats.size(),
+				stats.capacity(),
+				stats.hits(),
+				stats.misses(),
+				"%.3f".formatted(stats.hits() + stats.misses() > 0 ? (double) stats.hits() / (stats.hits() + stats.misses()) : 0.0),
+				stats.bytesFromCache(),
+				stats.bytesFromDisk(),
+				stats.evictions(),
+				stats.rejections()
+		);
 	}
 }
\ No newline at end of file
@@ -70,7 +70,8 @@ public class Main
 		EventBusClient eventBusClient;
 		try
 		{
-			eventBusClient = EventBusClient.create(eventBusConnectionString);
+			// reconnecting keeps the subscribers and caches across restarts of the event bus server, instead of the subscribers' errors shutting this down
+			eventBusClient = EventBusClient.create(eventBusConnectionString, new EventBusClient.Options().reconnect(true));
 		}
 		catch (EventBusClientException exception)
 		{
@@ -10,6 +10,7 @@ import micheal65536.vienna.eventbus.client.Publisher;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 public class Spawner
 {
@@ -150,13 +151,12 @@ public class Spawner
 
 	private void sendSpawnedTappables(@NotNull LinkedList<Tappable> tappables, @NotNull LinkedList<Encounter> encounters)
 	{
-		if (!this.publisher.publish("tappables", "tappableSpawn", new Gson().toJson(tappables.toArray(Tappable[]::new))).join())
+		// both events are sent together and acknowledged once
+		Publisher.Entry tappableSpawnEntry = new Publisher.Entry("tappables", "tappableSpawn", new Gson().toJson(tappables.toArray(Tappable[]::new)));
+		Publisher.Entry encounterSpawnEntry = new Publisher.Entry("tappables", "encounterSpawn", new Gson().toJson(encounters.toArray(Encounter[]::new)));
+		if (!this.publisher.publishBatch(List.of(tappableSpawnEntry, encounterSpawnEntry)).join())
 		{
-			LogManager.getLogger().error("Event bus server rejected tappable spawn event");
-		}
-		if (!this.publisher.publish("tappables", "encounterSpawn", new Gson().toJson(encounters.toArray(Encounter[]::new))).join())
-		{
-			LogManager.getLogger().error("Event bus server rejected encounter spawn event");
+			LogManager.getLogger().error("Event bus server rejected tappable and encounter spawn events");
 		}
 	}
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ import org.apache.logging.log4j.core.config.Configurator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import micheal65536.vienna.db.BinaryValueCodec;
 import micheal65536.vienna.db.DatabaseException;
 import micheal65536.vienna.db.EarthDB;
 import micheal65536.vienna.db.model.player.Buildplates;
@@ -26,6 +27,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Locale;
@@ -46,7 +48,11 @@ public class Main
 				.option("db")
 				.hasArg()
 				.argName("db")
-				.desc("Database path, defaults to ./earth.db")
+				.desc("Database path, defaults to ./earth.db, multiple comma-separated paths must be given in the same order as to the API server")
+				.build());
+		options.addOption(Option.builder()
+				.option("dbBinaryValues")
+				.desc("Store database values in binary format instead of JSON, must match the API server")
 				.build());
 		options.addOption(Option.builder()
 				.option("objectstore")
@@ -76,6 +82,7 @@ public class Main
 				.build());
 		CommandLine commandLine;
 		String dbConnectionString;
+		boolean dbBinaryValues;
 		String objectStoreConnectionString;
 		String eventBusConnectionString;
 		String playerId;
@@ -84,6 +91,7 @@ public class Main
 		{
 			commandLine = new DefaultParser().parse(options, args);
 			dbConnectionString = commandLine.hasOption("db") ? commandLine.getOptionValue("db") : "./earth.db";
+			dbBinaryValues = commandLine.hasOption("dbBinaryValues");
 			objectStoreConnectionString = commandLine.hasOption("objectstore") ? commandLine.getOptionValue("objectstore") : "localhost:5396";
 			eventBusConnectionString = commandLine.hasOption("eventbus") ? commandLine.getOptionValue("eventbus") : "localhost:5532";
 			playerId = commandLine.getOptionValue("playerId");
@@ -101,7 +109,13 @@ public class Main
 		EarthDB earthDB;
 		try
 		{
-			earthDB = EarthDB.open(dbConnectionString);
+			EarthDB.Options dbOptions = new EarthDB.Options();
+			if (dbBinaryValues)
+			{
+				dbOptions.valueCodec(BinaryValueCodec::new);
+			}
+			String[] dbConnectionStrings = dbConnectionString.split(",");
+			earthDB = dbConnectionStrings.length > 1 ? EarthDB.openSharded(Arrays.asList(dbConnectionStrings), dbOptions) : EarthDB.open(dbConnectionString, dbOptions);
 		}
 		catch (DatabaseException exception)
 		{